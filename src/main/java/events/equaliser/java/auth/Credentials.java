@@ -1,17 +1,25 @@
 package events.equaliser.java.auth;
 
 import events.equaliser.java.model.user.User;
+import events.equaliser.java.model.user.UserCache;
+import events.equaliser.java.util.Metrics;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
 import org.mindrot.jbcrypt.BCrypt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
 /**
  * Operations related to user credentials.
  */
@@ -24,18 +32,85 @@ public class Credentials {
      */
     private static final int BCRYPT_WORK_FACTOR = 10;
 
+    /**
+     * The failure message when a username/email and password do not match a user.
+     */
+    public static final String INVALID_CREDENTIALS = "Invalid credentials";
+
+    /**
+     * The number of threads hashing passwords, if not configured.
+     */
+    private static final int DEFAULT_BCRYPT_THREADS = 2;
+
+    /**
+     * The number of hashes that may be waiting or running at once, if not configured. Beyond this, requests fail
+     * fast rather than queueing behind work that will take seconds to clear.
+     */
+    private static final int DEFAULT_BCRYPT_MAX_QUEUED = 32;
+
+    private static final AtomicInteger QUEUED = new AtomicInteger();
+    private static volatile WorkerExecutor executor;
+    private static volatile int maxQueued;
+
+    static {
+        Metrics.gauge("bcrypt.queued", QUEUED::get);
+    }
+
+    /**
+     * Retrieve the executor BCrypt runs on, creating it on first use from the "bcrypt" configuration block.
+     * A dedicated pool means a burst of logins cannot starve the event loops or other blocking work.
+     *
+     * @return The executor.
+     */
+    private static WorkerExecutor getExecutor() {
+        if (executor == null) {
+            synchronized (Credentials.class) {
+                if (executor == null) {
+                    Context context = Vertx.currentContext();
+                    JsonObject config = context.config().getJsonObject("bcrypt", new JsonObject());
+                    maxQueued = config.getInteger("maxQueued", DEFAULT_BCRYPT_MAX_QUEUED);
+                    executor = context.owner().createSharedWorkerExecutor("bcrypt",
+                            config.getInteger("threads", DEFAULT_BCRYPT_THREADS));
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Run a BCrypt operation on the dedicated executor, unless too many are already waiting.
+     *
+     * @param operation The operation.
+     * @param handler The result, delivered on the calling context.
+     */
+    private static <T> void execute(Supplier<T> operation, Handler<AsyncResult<T>> handler) {
+        WorkerExecutor executor = getExecutor();
+        if (QUEUED.incrementAndGet() > maxQueued) {
+            QUEUED.decrementAndGet();
+            Metrics.increment("bcrypt.rejected");
+            handler.handle(Future.failedFuture("Server busy, please retry"));
+            return;
+        }
+        executor.<T>executeBlocking(future -> future.complete(operation.get()), false, result -> {
+            QUEUED.decrementAndGet();
+            handler.handle(result);
+        });
+    }
+
     /**
      * Hash a password.
      *
      * @param password The password to hash.
-     * @return The hashed password.
+     * @param handler The hashed password.
      */
-    public static String hash(String password) {
-        return BCrypt.hashpw(password, BCrypt.gensalt(BCRYPT_WORK_FACTOR));
+    public static void hash(String password, Handler<AsyncResult<String>> handler) {
+        execute(() -> BCrypt.hashpw(password, BCrypt.gensalt(BCRYPT_WORK_FACTOR)), handler);
     }
 
     /**
-     * Attempt to identify a user by their credentials.
+     * Attempt to identify a user by their credentials. If the user cache knows whose username or email address was
+     * given, their password is read by identifier; otherwise usernames and email addresses are each searched on
+     * their own index.
      *
      * @param username_email The user's username or email address.
      * @param password The user's password. 
@@ -47,52 +122,115 @@ public class Credentials {
                                 String password,
                                 SQLConnection connection,
                                 Handler<AsyncResult<User>> handler) {
+        Integer knownId = UserCache.findByUsernameOrEmail(username_email);
+        logger.debug("Retrieving user from credentials");
+        if (knownId == null) {
+            retrievePassword(username_email, connection, passwordRes ->
+                    checkPassword(password, passwordRes, connection, handler));
+            return;
+        }
+
+        connection.queryWithParams(
+                "SELECT UserID, Username, Email, Password AS UserPassword " +
+                "FROM Users " +
+                "WHERE UserID = ?;",
+                new JsonArray().add(knownId), knownRes -> {
+                    if (knownRes.failed()) {
+                        handler.handle(Future.failedFuture(knownRes.cause()));
+                        return;
+                    }
+
+                    List<JsonObject> rows = knownRes.result().getRows();
+                    if (rows.isEmpty() || !isNameOf(username_email, rows.get(0))) {
+                        // the user has changed their details since being cached
+                        retrievePassword(username_email, connection, passwordRes ->
+                                checkPassword(password, passwordRes, connection, handler));
+                        return;
+                    }
+                    checkPassword(password, Future.succeededFuture(rows.get(0)), connection, handler);
+                });
+    }
+
+    /**
+     * Determine whether a username or email address still belongs to a user, ignoring case as the database does.
+     *
+     * @param username_email The username or email address given.
+     * @param row The user's row, with Username and Email.
+     * @return True if it is either the user's username or their email address.
+     */
+    static boolean isNameOf(String username_email, JsonObject row) {
+        return username_email.equalsIgnoreCase(row.getString("Username"))
+                || username_email.equalsIgnoreCase(row.getString("Email"));
+    }
+
+    /**
+     * Look up the hashed password of a user by their username or, failing that, their email address.
+     *
+     * @param username_email The user's username or email address.
+     * @param connection A database connection.
+     * @param handler The handler to pass the user's row to, with UserID and UserPassword, or null if not found.
+     */
+    private static void retrievePassword(String username_email,
+                                         SQLConnection connection,
+                                         Handler<AsyncResult<JsonObject>> handler) {
         JsonArray params = new JsonArray()
                 .add(username_email)
                 .add(username_email);
-        logger.debug("Retrieving user from credentials");
         connection.queryWithParams(
-                "SELECT " +
-                    "Users.UserID, " +
-                    "Users.Username AS UserUsername, " +
-                    "Users.Forename AS UserForename, " +
-                    "Users.Surname AS UserSurname, " +
-                    "Users.Email AS UserEmail, " +
-                    "Users.AreaCode AS UserAreaCode, " +
-                    "Users.SubscriberNumber AS UserSubscriberNumber, " +
-                    "Users.Token AS UserToken, " +
-                    "Users.Password AS UserPassword, " +
-                    "Users.ImageID AS UserImageID, " +
-                    "Countries.CountryID, " +
-                    "Countries.Name AS CountryName, " +
-                    "Countries.Abbreviation AS CountryAbbreviation, " +
-                    "Countries.CallingCode AS CountryCallingCode " +
+                "SELECT UserID, Password AS UserPassword, 0 AS Preference " +
+                "FROM Users " +
+                "WHERE Username = ? " +
+                "UNION ALL " +
+                "SELECT UserID, Password AS UserPassword, 1 AS Preference " +
                 "FROM Users " +
-                    "INNER JOIN Countries " +
-                        "ON Countries.CountryID = Users.CountryID " +
-                "WHERE Users.Username = ? OR Users.Email = ?;",
+                "WHERE Email = ? " +
+                "ORDER BY Preference ASC " +
+                "LIMIT 1;",
                 params, credentialsResult -> {
-                    if (credentialsResult.succeeded()) {
-                        ResultSet results = credentialsResult.result();
-                        if (results.getNumRows() == 0) {
-                            // user not found
-                            handler.handle(Future.failedFuture("Invalid credentials"));
-                        }
-                        else {
-                            JsonObject row = results.getRows().get(0);
-                            String hashed = row.getString("UserPassword");
-                            if (BCrypt.checkpw(password, hashed)) {
-                                User user = User.fromJsonObject(row);
-                                handler.handle(Future.succeededFuture(user));
-                            }
-                            else {
-                                handler.handle(Future.failedFuture("Invalid credentials"));
-                            }
-                        }
-                    }
-                    else {
+                    if (credentialsResult.failed()) {
                         handler.handle(Future.failedFuture(credentialsResult.cause()));
+                        return;
                     }
+
+                    List<JsonObject> rows = credentialsResult.result().getRows();
+                    handler.handle(Future.succeededFuture(rows.isEmpty() ? null : rows.get(0)));
                 });
     }
+
+    /**
+     * Check a password against a user's row, then retrieve the user if it matches.
+     *
+     * @param password The password given.
+     * @param rowRes The user's row, with UserID and UserPassword, or null if no user was found.
+     * @param connection A database connection.
+     * @param handler The callback, passed the user if the password matches.
+     */
+    private static void checkPassword(String password,
+                                      AsyncResult<JsonObject> rowRes,
+                                      SQLConnection connection,
+                                      Handler<AsyncResult<User>> handler) {
+        if (rowRes.failed()) {
+            handler.handle(Future.failedFuture(rowRes.cause()));
+            return;
+        }
+        if (rowRes.result() == null) {
+            // user not found
+            handler.handle(Future.failedFuture(INVALID_CREDENTIALS));
+            return;
+        }
+
+        JsonObject row = rowRes.result();
+        String hashed = row.getString("UserPassword");
+        execute(() -> BCrypt.checkpw(password, hashed), checkRes -> {
+            if (checkRes.failed()) {
+                handler.handle(Future.failedFuture(checkRes.cause()));
+            }
+            else if (checkRes.result()) {
+                User.retrieveFromId(row.getInteger("UserID"), connection, handler);
+            }
+            else {
+                handler.handle(Future.failedFuture(INVALID_CREDENTIALS));
+            }
+        });
+    }
 }
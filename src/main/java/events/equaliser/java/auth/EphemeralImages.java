@@ -0,0 +1,122 @@
+package events.equaliser.java.auth;
+
+import events.equaliser.java.image.QrCode;
+import events.equaliser.java.model.auth.EphemeralToken;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Rendered QR codes for ephemeral tokens, remembered per user so repeat requests while a token is still valid are
+ * served the same image rather than issuing and rendering a new token each time.
+ */
+public class EphemeralImages {
+
+    /**
+     * The width and height of rendered codes in pixels.
+     */
+    private static final int SIZE = 400;
+
+    /**
+     * A token is only reused if it will be valid for at least this long, so the app has time to scan and submit it.
+     */
+    private static final long MIN_REMAINING_SECONDS = 60;
+
+    /**
+     * The number of remembered images above which expired ones are swept out.
+     */
+    private static final int PRUNE_THRESHOLD = 10_000;
+
+    /**
+     * An ephemeral token rendered as a QR code.
+     */
+    public static class Image {
+
+        private final EphemeralToken token;
+        private final Buffer png;
+        private final String etag;
+
+        private Image(EphemeralToken token, Buffer png) {
+            this.token = token;
+            this.png = png;
+            this.etag = String.format("\"%08x%x\"", token.getToken().hashCode(), token.getExpires().toEpochSecond());
+        }
+
+        public Buffer getPng() {
+            return png;
+        }
+
+        /**
+         * Retrieve an entity tag identifying this image, for conditional requests.
+         *
+         * @return The quoted tag.
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        public OffsetDateTime getExpires() {
+            return token.getExpires();
+        }
+
+        /**
+         * Find how long this image may be reused for.
+         *
+         * @return The number of seconds until the token expires, never negative.
+         */
+        public long getRemainingSeconds() {
+            return Math.max(0, token.getExpires().toEpochSecond() - OffsetDateTime.now().toEpochSecond());
+        }
+    }
+
+    private final ConcurrentMap<Integer, Image> images = new ConcurrentHashMap<>();
+
+    /**
+     * Retrieve the image for a user's current ephemeral token.
+     *
+     * @param userId The user's identifier.
+     * @return The image, or null if there is none with enough validity left to be reused.
+     */
+    public Image get(int userId) {
+        Image image = images.get(userId);
+        if (image == null || image.getRemainingSeconds() < MIN_REMAINING_SECONDS) {
+            return null;
+        }
+        return image;
+    }
+
+    /**
+     * Render a newly generated token on a worker, and remember it for the token's owner.
+     *
+     * @param vertx The Vert.x instance to run the rendering on.
+     * @param token The token to render.
+     * @param handler A result handler that will receive the image on success.
+     */
+    public void render(Vertx vertx,
+                       EphemeralToken token,
+                       Handler<AsyncResult<Image>> handler) {
+        vertx.<Image>executeBlocking(future -> {
+            try {
+                future.complete(new Image(token, QrCode.renderPng(token.getToken().toHex(), SIZE)));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, res -> {
+            if (res.failed()) {
+                handler.handle(Future.failedFuture(res.cause()));
+                return;
+            }
+            if (images.size() > PRUNE_THRESHOLD) {
+                images.values().removeIf(image -> image.getRemainingSeconds() < MIN_REMAINING_SECONDS);
+            }
+            images.put(token.getUser().getId(), res.result());
+            handler.handle(Future.succeededFuture(res.result()));
+        });
+    }
+}
@@ -0,0 +1,114 @@
+package events.equaliser.java.auth;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks failed login attempts per username and per IP address, so repeated failures can be rejected before any
+ * password hash is computed. Each key is blocked once it reaches its failure limit within a window, until the window
+ * that began with its first failure expires.
+ */
+public class LoginThrottle {
+
+    private static final int MAX_FAILURES_PER_USERNAME = 5;
+    private static final int MAX_FAILURES_PER_IP = 20;
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * The number of tracked keys above which expired windows are swept out.
+     */
+    private static final int PRUNE_THRESHOLD = 10_000;
+
+    /**
+     * Failures recorded against a key since its window began. Immutable; replaced atomically.
+     */
+    private static class Window {
+
+        private final long startNanos;
+        private final int failures;
+
+        private Window(long startNanos, int failures) {
+            this.startNanos = startNanos;
+            this.failures = failures;
+        }
+    }
+
+    private final ConcurrentMap<String, Window> usernames = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Window> ips = new ConcurrentHashMap<>();
+    private final int maxFailuresPerUsername;
+    private final int maxFailuresPerIp;
+    private final long windowNanos;
+    private final LongSupplier clock;
+
+    public LoginThrottle() {
+        this(MAX_FAILURES_PER_USERNAME, MAX_FAILURES_PER_IP, WINDOW_MILLIS, System::nanoTime);
+    }
+
+    LoginThrottle(int maxFailuresPerUsername, int maxFailuresPerIp, long windowMillis, LongSupplier clock) {
+        this.maxFailuresPerUsername = maxFailuresPerUsername;
+        this.maxFailuresPerIp = maxFailuresPerIp;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * Usernames and emails are matched case-insensitively by MySQL, so must be here too.
+     */
+    private static String normalise(String username) {
+        return username.trim().toLowerCase();
+    }
+
+    private boolean isExpired(Window window, long now) {
+        return now - window.startNanos >= windowNanos;
+    }
+
+    private boolean isBlocked(ConcurrentMap<String, Window> windows, String key, int limit) {
+        Window window = windows.get(key);
+        return window != null && window.failures >= limit && !isExpired(window, clock.getAsLong());
+    }
+
+    /**
+     * Determine whether a login attempt should be refused without checking the password.
+     *
+     * @param username The username or email being logged in as.
+     * @param ip The address of the client.
+     * @return True if either has too many recent failures.
+     */
+    public boolean isBlocked(String username, String ip) {
+        return isBlocked(usernames, normalise(username), maxFailuresPerUsername) ||
+                isBlocked(ips, ip, maxFailuresPerIp);
+    }
+
+    private void recordFailure(ConcurrentMap<String, Window> windows, String key) {
+        long now = clock.getAsLong();
+        if (windows.size() > PRUNE_THRESHOLD) {
+            windows.values().removeIf(window -> isExpired(window, now));
+        }
+        windows.compute(key, (k, window) -> window == null || isExpired(window, now) ?
+                new Window(now, 1) :
+                new Window(window.startNanos, window.failures + 1));
+    }
+
+    /**
+     * Record a failed login attempt.
+     *
+     * @param username The username or email that was tried.
+     * @param ip The address of the client.
+     */
+    public void recordFailure(String username, String ip) {
+        recordFailure(usernames, normalise(username));
+        recordFailure(ips, ip);
+    }
+
+    /**
+     * Record a successful login, forgiving earlier failures for the username. Failures from the IP still count,
+     * as one address may be trying many accounts.
+     *
+     * @param username The username or email that was logged in as.
+     */
+    public void recordSuccess(String username) {
+        usernames.remove(normalise(username));
+    }
+}
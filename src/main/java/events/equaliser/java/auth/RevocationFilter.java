@@ -0,0 +1,104 @@
+package events.equaliser.java.auth;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of revoked session identifiers. A Bloom filter answers the common case - not revoked - with
+ * a few bit tests; only its rare positives are confirmed against the exact set.
+ */
+public class RevocationFilter {
+
+    /**
+     * Filter bits per revoked session; with HASHES probes this gives ~1% false positives.
+     */
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int mask;
+    private final Set<Integer> revoked;
+    private final long createdNanos;
+
+    private RevocationFilter(Collection<Integer> sessionIds) {
+        int size = Long.SIZE;
+        while (size < sessionIds.size() * BITS_PER_ENTRY) {
+            size <<= 1;
+        }
+        this.bits = new long[size / Long.SIZE];
+        this.mask = size - 1;
+        this.revoked = new HashSet<>(sessionIds);
+        this.createdNanos = System.nanoTime();
+        for (int id : revoked) {
+            int h1 = mix(id);
+            int h2 = mix(h1) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Build a filter.
+     *
+     * @param sessionIds The identifiers of every revoked session.
+     * @return The filter.
+     */
+    public static RevocationFilter of(Collection<Integer> sessionIds) {
+        return new RevocationFilter(sessionIds);
+    }
+
+    /**
+     * The MurmurHash3 32-bit finaliser; spreads sequential identifiers across the filter.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private boolean mightContain(int sessionId) {
+        int h1 = mix(sessionId);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether a session was revoked when this snapshot was taken.
+     *
+     * @param sessionId The session identifier.
+     * @return True if revoked.
+     */
+    public boolean isRevoked(int sessionId) {
+        return mightContain(sessionId) && revoked.contains(sessionId);
+    }
+
+    /**
+     * Find the number of revoked sessions.
+     *
+     * @return The number of sessions in the filter.
+     */
+    public int size() {
+        return revoked.size();
+    }
+
+    /**
+     * Find how long ago this snapshot was taken.
+     *
+     * @return The age in milliseconds.
+     */
+    public long getAgeMillis() {
+        return (System.nanoTime() - createdNanos) / 1_000_000L;
+    }
+}
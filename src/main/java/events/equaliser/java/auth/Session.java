@@ -3,9 +3,8 @@ package events.equaliser.java.auth;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import events.equaliser.java.model.user.User;
-import events.equaliser.java.util.Hex;
-import events.equaliser.java.util.Random;
 import events.equaliser.java.util.Time;
+import events.equaliser.java.util.Token;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -16,6 +15,8 @@ import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.sql.UpdateResult;
 
 import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Represents an authenticated user session.
@@ -47,7 +48,7 @@ public class Session {
     /**
      * The session token, of length SESSION_TOKEN_LENGTH.
      */
-    private final byte[] token;
+    private final Token token;
 
     @JsonIgnore
     public int getId() {
@@ -63,13 +64,13 @@ public class Session {
     }
 
     @JsonIgnore
-    private byte[] getToken() {
+    private Token getToken() {
         return token;
     }
 
     @JsonProperty("token")
     public String getTokenHex() {
-        return Hex.binToHex(getToken());
+        return getToken().toHex();
     }
 
     /**
@@ -79,7 +80,7 @@ public class Session {
      * @param started When this session was started.
      * @param token The session token, of length SESSION_TOKEN_LENGTH.
      */
-    private Session(int id, User user, OffsetDateTime started, byte[] token) {
+    private Session(int id, User user, OffsetDateTime started, Token token) {
         this.id = id;
         this.user = user;
         this.started = started;
@@ -101,7 +102,7 @@ public class Session {
                 json.getInteger("SessionID"),
                 User.fromJsonObject(json),
                 Time.parseOffsetDateTime(json.getString("SessionStarted")),
-                json.getBinary("SessionToken"));
+                Token.of(json.getBinary("SessionToken")));
     }
 
     /**
@@ -115,11 +116,11 @@ public class Session {
                               SQLConnection connection,
                               Handler<AsyncResult<Session>> handler) {
         OffsetDateTime started = OffsetDateTime.now();
-        byte[] token = Random.getBytes(SESSION_TOKEN_LENGTH);
+        Token token = Token.random(SESSION_TOKEN_LENGTH);  // stored even if signing, so either can be issued
         JsonArray params = new JsonArray()
                 .add(user.getId())
                 .add(Time.toSql(started))
-                .add(token);
+                .add(token.toBase64());
         connection.updateWithParams(
                 "INSERT INTO Sessions (UserID, Started, Token) " +
                 "VALUES (?, ?, FROM_BASE64(?));",
@@ -127,8 +128,17 @@ public class Session {
                     if (res.succeeded()) {
                         UpdateResult result = res.result();
                         int sessionId = result.getKeys().getInteger(0);
-                        Session session = new Session(sessionId, user, started, token);
-                        handler.handle(Future.succeededFuture(session));
+                        SessionActivity.touch(sessionId);
+                        if (SessionTokens.isEnabled()) {
+                            Session session = new Session(sessionId, user, started,
+                                    SessionTokens.sign(sessionId, user.getId(), started));
+                            SessionTokens.remember(session);
+                            handler.handle(Future.succeededFuture(session));
+                        }
+                        else {
+                            Session session = new Session(sessionId, user, started, token);
+                            handler.handle(Future.succeededFuture(session));
+                        }
                     }
                     else {
                         handler.handle(Future.failedFuture(res.cause()));
@@ -138,17 +148,53 @@ public class Session {
     }
 
     /**
-     * Retrieve a session object by its unique identifier.
+     * Retrieve a session object by its token.
      *
-     * @param token The session identifier.
+     * @param token The session token.
      * @param connection An open database connection.
-     * @param handler A result handler that will receive the created session on success.
+     * @param handler A result handler that will receive the session on success.
      */
-    public static void retrieveByToken(byte[] token,
+    public static void retrieveByToken(Token token,
                                        SQLConnection connection,
                                        Handler<AsyncResult<Session>> handler) {
-        JsonArray params = new JsonArray()
-                .add(token);
+        retrieve("Sessions.Token = FROM_BASE64(?)", new JsonArray().add(token.toBase64()), connection, handler);
+    }
+
+    /**
+     * Retrieve a session object by its unique identifier, for verified signed tokens whose session is not cached.
+     *
+     * @param id The session identifier.
+     * @param token The signed token the session was presented with, which it will carry.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the session on success.
+     */
+    public static void retrieveById(int id,
+                                    Token token,
+                                    SQLConnection connection,
+                                    Handler<AsyncResult<Session>> handler) {
+        retrieve("Sessions.SessionID = ?", new JsonArray().add(id), connection, res -> {
+            if (res.failed()) {
+                handler.handle(res);
+                return;
+            }
+            Session session = res.result();
+            handler.handle(Future.succeededFuture(
+                    new Session(session.getId(), session.getUser(), session.getStarted(), token)));
+        });
+    }
+
+    /**
+     * Retrieve a valid session.
+     *
+     * @param condition The SQL condition identifying the session.
+     * @param params The parameters of the condition.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the session on success.
+     */
+    private static void retrieve(String condition,
+                                 JsonArray params,
+                                 SQLConnection connection,
+                                 Handler<AsyncResult<Session>> handler) {
         // we indulge in a little optimisation here to fetch the user and country in one as this runs on most requests
         connection.queryWithParams(
                 "SELECT " +
@@ -173,7 +219,7 @@ public class Session {
                         "ON Users.UserID = Sessions.UserID " +
                     "INNER JOIN Countries " +
                         "ON Countries.CountryID = Users.CountryID " +
-                "WHERE Sessions.Token = FROM_BASE64(?) AND Sessions.IsInvalidated = false;",
+                "WHERE " + condition + " AND Sessions.IsInvalidated = false;",
                 params, sessionResult -> {
                             if (sessionResult.succeeded()) {
                                 ResultSet results = sessionResult.result();
@@ -191,4 +237,123 @@ public class Session {
                             }
                         });
     }
+
+    /**
+     * Retrieve the identifiers of invalidated sessions, to build a revocation filter from. Sessions too old for their
+     * signed tokens to be accepted need not be revoked, so can be left out, keeping the filter to recent sessions.
+     *
+     * @param startedSince Only sessions started at or after this time are retrieved; null for every session.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the identifiers on success.
+     */
+    public static void retrieveInvalidatedIds(OffsetDateTime startedSince,
+                                              SQLConnection connection,
+                                              Handler<AsyncResult<List<Integer>>> handler) {
+        JsonArray params = new JsonArray();
+        String condition = "";
+        if (startedSince != null) {
+            params.add(Time.toSql(startedSince));
+            condition = " AND Started >= ?";
+        }
+        connection.queryWithParams(
+                "SELECT SessionID " +
+                "FROM Sessions " +
+                "WHERE IsInvalidated = true" + condition + ";", params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+
+                    List<Integer> ids = res.result().getResults().stream()
+                            .map(row -> row.getInteger(0))
+                            .collect(Collectors.toList());
+                    handler.handle(Future.succeededFuture(ids));
+                });
+    }
+
+    /**
+     * Record that sessions have been used just now.
+     *
+     * @param sessionIds The identifiers of the sessions; must not be empty.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the number of sessions updated on success.
+     */
+    public static void updateLastActive(List<Integer> sessionIds,
+                                        SQLConnection connection,
+                                        Handler<AsyncResult<Integer>> handler) {
+        String ids = sessionIds.stream()
+                .map(Object::toString)
+                .collect(Collectors.joining(","));
+        connection.update(String.format(
+                "UPDATE Sessions SET LastActive = NOW() WHERE SessionID IN (%s);", ids), res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    handler.handle(Future.succeededFuture(res.result().getUpdated()));
+                });
+    }
+
+    /**
+     * Invalidate a batch of sessions that have not been used recently. Sessions that have never had their activity
+     * recorded are judged by when they started.
+     *
+     * @param idleSince Sessions last used before this time are invalidated.
+     * @param limit The maximum number of sessions to invalidate.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the number of sessions invalidated on success.
+     */
+    public static void invalidateIdle(OffsetDateTime idleSince,
+                                      int limit,
+                                      SQLConnection connection,
+                                      Handler<AsyncResult<Integer>> handler) {
+        String cutoff = Time.toSql(idleSince);
+        JsonArray params = new JsonArray()
+                .add(cutoff)
+                .add(cutoff)
+                .add(limit);
+        connection.updateWithParams(
+                "UPDATE Sessions " +
+                "SET IsInvalidated = true " +
+                "WHERE IsInvalidated = false " +
+                    "AND (LastActive < ? OR (LastActive IS NULL AND Started < ?)) " +
+                "LIMIT ?;", params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    handler.handle(Future.succeededFuture(res.result().getUpdated()));
+                });
+    }
+
+    /**
+     * Delete a batch of long-invalidated sessions. Sessions still referenced by security events are kept until the
+     * events themselves are deleted.
+     *
+     * @param startedBefore Only sessions started before this time are deleted.
+     * @param limit The maximum number of sessions to delete.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the number of sessions deleted on success.
+     */
+    public static void deleteInvalidated(OffsetDateTime startedBefore,
+                                         int limit,
+                                         SQLConnection connection,
+                                         Handler<AsyncResult<Integer>> handler) {
+        JsonArray params = new JsonArray()
+                .add(Time.toSql(startedBefore))
+                .add(limit);
+        connection.updateWithParams(
+                "DELETE FROM Sessions " +
+                "WHERE IsInvalidated = true " +
+                    "AND Started < ? " +
+                    "AND NOT EXISTS (" +
+                        "SELECT 1 FROM SecurityEvents WHERE SecurityEvents.SessionID = Sessions.SessionID) " +
+                "LIMIT ?;", params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    handler.handle(Future.succeededFuture(res.result().getUpdated()));
+                });
+    }
 }
@@ -0,0 +1,80 @@
+package events.equaliser.java.auth;
+
+import events.equaliser.java.util.Metrics;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which sessions have been used, for sliding expiry. Uses are noted in memory on each authenticated request,
+ * and written to Sessions.LastActive in batches by the retention sweeper, so activity costs no query of its own.
+ * Sessions idle for longer than "sessions.idleTimeoutSeconds" are then invalidated; 0, the default, disables this.
+ * N.B. Enabling it requires a nullable DATETIME LastActive column on Sessions, ideally indexed with IsInvalidated.
+ */
+public class SessionActivity {
+
+    private static final Set<Integer> TOUCHED = ConcurrentHashMap.newKeySet();
+    private static volatile long idleTimeoutSeconds;
+
+    static {
+        Metrics.gauge("sessions.touched", TOUCHED::size);
+    }
+
+    /**
+     * Configure sliding expiry from the "sessions" configuration block. Safe to call more than once.
+     *
+     * @param config The block, optionally containing "idleTimeoutSeconds".
+     */
+    public static void configure(JsonObject config) {
+        idleTimeoutSeconds = config.getLong("idleTimeoutSeconds", 0L);
+    }
+
+    /**
+     * Find whether idle sessions are being expired.
+     *
+     * @return True if an idle timeout is configured.
+     */
+    public static boolean isEnabled() {
+        return idleTimeoutSeconds > 0;
+    }
+
+    /**
+     * Find how long a session may go unused before it is invalidated.
+     *
+     * @return The timeout in seconds, or 0 if disabled.
+     */
+    public static long getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    /**
+     * Note that a session has just been used. Cheap, and a no-op if sliding expiry is disabled.
+     *
+     * @param sessionId The session identifier.
+     */
+    public static void touch(int sessionId) {
+        if (isEnabled()) {
+            TOUCHED.add(sessionId);
+        }
+    }
+
+    /**
+     * Remove some of the sessions used since they were last taken, so their activity can be written out.
+     *
+     * @param max The maximum number to take.
+     * @return The session identifiers, possibly empty.
+     */
+    public static List<Integer> takeTouched(int max) {
+        List<Integer> taken = new ArrayList<>();
+        Iterator<Integer> iterator = TOUCHED.iterator();
+        while (taken.size() < max && iterator.hasNext()) {
+            taken.add(iterator.next());
+            iterator.remove();
+        }
+        return taken;
+    }
+}
@@ -0,0 +1,262 @@
+package events.equaliser.java.auth;
+
+import events.equaliser.java.util.Hex;
+import events.equaliser.java.util.Metrics;
+import events.equaliser.java.util.Token;
+import io.vertx.core.json.JsonObject;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stateless session tokens, which embed the session identifier, user identifier and issue time under an HMAC, so
+ * they can be verified without a database lookup. Revocation is checked against a RevocationFilter kept in sync with
+ * the Sessions table, and verified sessions are remembered so the user need not be fetched on every request.
+ * Enabled by setting "sessions.signingKey" to a hex-encoded key of at least 32 bytes; otherwise random tokens are
+ * issued and looked up in the database as before.
+ */
+public class SessionTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final int CLAIMS_LENGTH = 1 + Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int MAC_LENGTH = 32;
+
+    /**
+     * The length of a signed token in bytes. Random tokens are a different length, so the two never clash.
+     */
+    public static final int TOKEN_LENGTH = CLAIMS_LENGTH + MAC_LENGTH;
+
+    /**
+     * How long a revocation snapshot may go without being refreshed before it is no longer trusted, and sessions
+     * are checked against the database instead.
+     */
+    private static final long MAX_REVOCATION_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * How long a verified session is remembered, bounding how stale its user details can be.
+     */
+    private static final long SESSION_CACHE_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int SESSION_CACHE_SIZE = 10_000;
+
+    /**
+     * The claims carried by a valid signed token.
+     */
+    public static class Claims {
+
+        private final int sessionId;
+        private final int userId;
+        private final OffsetDateTime issued;
+
+        private Claims(int sessionId, int userId, OffsetDateTime issued) {
+            this.sessionId = sessionId;
+            this.userId = userId;
+            this.issued = issued;
+        }
+
+        public int getSessionId() {
+            return sessionId;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public OffsetDateTime getIssued() {
+            return issued;
+        }
+    }
+
+    private static class CachedSession {
+
+        private final Session session;
+        private final long cachedNanos;
+
+        private CachedSession(Session session) {
+            this.session = session;
+            this.cachedNanos = System.nanoTime();
+        }
+    }
+
+    private static volatile SecretKeySpec key;
+    private static volatile long maxAgeSeconds;
+    private static volatile RevocationFilter revocations;
+    private static final ThreadLocal<Mac> MACS = new ThreadLocal<>();
+    private static final ConcurrentMap<Integer, CachedSession> SESSIONS = new ConcurrentHashMap<>();
+
+    static {
+        Metrics.gauge("sessions.revoked", () -> revocations == null ? 0 : revocations.size());
+        Metrics.gauge("sessions.cached", SESSIONS::size);
+    }
+
+    /**
+     * Configure signing from the "sessions" configuration block. Safe to call more than once.
+     *
+     * @param config The block, optionally containing "signingKey" and "maxAgeSeconds" (0 for no limit).
+     */
+    public static synchronized void configure(JsonObject config) {
+        String hexKey = config.getString("signingKey");
+        if (hexKey == null) {
+            key = null;
+            return;
+        }
+        byte[] raw = Hex.hexToBin(hexKey);
+        if (raw.length < MAC_LENGTH) {
+            throw new IllegalArgumentException("sessions.signingKey must be at least 32 bytes");
+        }
+        key = new SecretKeySpec(raw, ALGORITHM);
+        maxAgeSeconds = config.getLong("maxAgeSeconds", 0L);
+    }
+
+    /**
+     * Find how long signed tokens are accepted for.
+     *
+     * @return The maximum age in seconds of a token, counted from when its session started, or 0 for no limit.
+     */
+    public static long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    /**
+     * Find whether signed tokens are being issued.
+     *
+     * @return True if a signing key is configured.
+     */
+    public static boolean isEnabled() {
+        return key != null;
+    }
+
+    private static byte[] mac(byte[] data, int length) {
+        try {
+            Mac mac = MACS.get();
+            if (mac == null) {
+                mac = Mac.getInstance(ALGORITHM);
+                MACS.set(mac);
+            }
+            mac.init(key);  // cheap, and picks up a changed key
+            mac.update(data, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 unavailable", e);
+        }
+    }
+
+    /**
+     * Issue a signed token.
+     *
+     * @param sessionId The session identifier.
+     * @param userId The user the session belongs to.
+     * @param issued When the session started.
+     * @return The token, TOKEN_LENGTH bytes long.
+     */
+    static Token sign(int sessionId, int userId, OffsetDateTime issued) {
+        ByteBuffer buffer = ByteBuffer.allocate(TOKEN_LENGTH);
+        buffer.put(VERSION)
+                .putInt(sessionId)
+                .putInt(userId)
+                .putLong(issued.toEpochSecond());
+        buffer.put(mac(buffer.array(), CLAIMS_LENGTH));
+        return Token.of(buffer.array());
+    }
+
+    /**
+     * Find whether a token has the shape of a signed token, in which case it will never be found in the database.
+     *
+     * @param token The token.
+     * @return True if the token is TOKEN_LENGTH long and starts with a known version.
+     */
+    public static boolean isSigned(Token token) {
+        return token.length() == TOKEN_LENGTH && token.byteAt(0) == VERSION;
+    }
+
+    /**
+     * Check a token's signature and age.
+     *
+     * @param token The token.
+     * @return Its claims, or null if signing is disabled or the token is forged, malformed or too old.
+     */
+    public static Claims verify(Token token) {
+        if (!isEnabled() || !isSigned(token)) {
+            return null;
+        }
+        byte[] raw = token.getBytes();
+        byte[] expected = mac(raw, CLAIMS_LENGTH);
+        byte[] actual = new byte[MAC_LENGTH];
+        System.arraycopy(raw, CLAIMS_LENGTH, actual, 0, MAC_LENGTH);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(raw, 1, CLAIMS_LENGTH - 1);
+        int sessionId = buffer.getInt();
+        int userId = buffer.getInt();
+        long issuedSeconds = buffer.getLong();
+        if (maxAgeSeconds > 0 && Instant.now().getEpochSecond() - issuedSeconds > maxAgeSeconds) {
+            return null;
+        }
+        return new Claims(sessionId, userId,
+                OffsetDateTime.ofInstant(Instant.ofEpochSecond(issuedSeconds), ZoneOffset.UTC));
+    }
+
+    /**
+     * Replace the revocation snapshot.
+     *
+     * @param filter The latest revoked sessions.
+     */
+    public static void setRevocations(RevocationFilter filter) {
+        revocations = filter;
+        SESSIONS.keySet().removeIf(filter::isRevoked);
+    }
+
+    /**
+     * Determine whether a session has been revoked, without touching the database.
+     *
+     * @param sessionId The session identifier.
+     * @return True or false, or null if the snapshot is missing or too old to be trusted.
+     */
+    public static Boolean isRevoked(int sessionId) {
+        RevocationFilter filter = revocations;
+        if (filter == null || filter.getAgeMillis() > MAX_REVOCATION_AGE_MILLIS) {
+            return null;
+        }
+        return filter.isRevoked(sessionId);
+    }
+
+    /**
+     * Retrieve a previously verified session.
+     *
+     * @param claims The claims of a verified token.
+     * @return The session, or null if it is not remembered or has been remembered for too long.
+     */
+    public static Session getCached(Claims claims) {
+        CachedSession cached = SESSIONS.get(claims.getSessionId());
+        if (cached == null || System.nanoTime() - cached.cachedNanos > SESSION_CACHE_NANOS) {
+            return null;
+        }
+        return cached.session;
+    }
+
+    /**
+     * Remember a session loaded from the database.
+     *
+     * @param session The session.
+     */
+    public static void remember(Session session) {
+        if (SESSIONS.size() >= SESSION_CACHE_SIZE) {
+            long now = System.nanoTime();
+            SESSIONS.values().removeIf(cached -> now - cached.cachedNanos > SESSION_CACHE_NANOS);
+            if (SESSIONS.size() >= SESSION_CACHE_SIZE) {
+                return;
+            }
+        }
+        SESSIONS.put(session.getId(), new CachedSession(session));
+    }
+}
@@ -7,6 +7,7 @@ import events.equaliser.java.model.auth.TwoFactorToken;
 import events.equaliser.java.model.geography.Country;
 import events.equaliser.java.model.user.PublicUser;
 import events.equaliser.java.model.user.User;
+import events.equaliser.java.model.user.UsernameDirectory;
 import events.equaliser.java.util.Json;
 import events.equaliser.java.util.Request;
 import io.vertx.core.AsyncResult;
@@ -35,6 +36,11 @@ public class Account {
 
     private static final Logger logger = LoggerFactory.getLogger(Account.class);
 
+    /**
+     * The maximum number of users returned by an autocomplete query.
+     */
+    private static final int USERNAME_RESULTS = 5;
+
     /**
      * Retrieve the logged in user's information.
      *
@@ -47,12 +53,12 @@ public class Account {
                                Handler<AsyncResult<JsonNode>> handler) {
         Session session = context.get("session");
         User user = session.getUser();
-        JsonNode node = Json.MAPPER.convertValue(user, JsonNode.class);
+        JsonNode node = Json.FACTORY.pojoNode(user);
         handler.handle(Future.succeededFuture(node));
     }
 
     /**
-     * Retrieve the logged in user's security events.
+     * Retrieve the logged in user's most recent security events.
      *
      * @param context The routing context.
      * @param connection A database connection.
@@ -64,14 +70,14 @@ public class Account {
         Session session = context.get("session");
         User user = session.getUser();
 
-        SecurityEvent.retrieveByUser(user, 10, connection, eventsRes -> {
+        SecurityEvent.retrieveRecentByUser(user, connection, eventsRes -> {
             if (eventsRes.failed()) {
                 handler.handle(Future.failedFuture(eventsRes.cause()));
                 return;
             }
 
             List<SecurityEvent> result = eventsRes.result();
-            JsonNode node = Json.MAPPER.convertValue(result, JsonNode.class);
+            JsonNode node = Json.FACTORY.pojoNode(result);
             handler.handle(Future.succeededFuture(node));
         });
     }
@@ -155,7 +161,25 @@ public class Account {
     }
 
     /**
-     * Retrieve users whose username matches a pattern.
+     * Retrieve users whose username starts with a query, from memory.
+     * Only usable once UsernameDirectory.isReady().
+     *
+     * @param context The routing context.
+     * @param handler The result.
+     */
+    public static void getUsernames(RoutingContext context,
+                                    Handler<AsyncResult<JsonNode>> handler) {
+        try {
+            String query = parseUsernameQuery(context.request());
+            List<PublicUser> users = UsernameDirectory.search(query, USERNAME_RESULTS);
+            handler.handle(Future.succeededFuture(Json.FACTORY.pojoNode(users)));
+        } catch (IllegalArgumentException e) {
+            handler.handle(Future.failedFuture(e.getMessage()));
+        }
+    }
+
+    /**
+     * Retrieve users whose username starts with a query, from the database.
      *
      * @param context The routing context.
      * @param connection A database connection.
@@ -164,14 +188,12 @@ public class Account {
     public static void getUsernames(RoutingContext context,
                                     SQLConnection connection,
                                     Handler<AsyncResult<JsonNode>> handler) {
-        HttpServerRequest request = context.request();
-        List<String> fields = Collections.singletonList("query");
         try {
-            Map<String, String> parsed = Request.parseData(request, fields, Request::getParam);
-            PublicUser.searchByUsername(parsed.get("query"), 5, connection, queryRes -> {
+            String query = parseUsernameQuery(context.request());
+            PublicUser.searchByUsername(query, USERNAME_RESULTS, connection, queryRes -> {
                 if (queryRes.succeeded()) {
                     List<PublicUser> users = queryRes.result();
-                    JsonNode node = Json.MAPPER.convertValue(users, JsonNode.class);
+                    JsonNode node = Json.FACTORY.pojoNode(users);
                     handler.handle(Future.succeededFuture(node));
                 }
                 else {
@@ -182,4 +204,10 @@ public class Account {
             handler.handle(Future.failedFuture(e.getMessage()));
         }
     }
+
+    private static String parseUsernameQuery(HttpServerRequest request) {
+        List<String> fields = Collections.singletonList("query");
+        Map<String, String> parsed = Request.parseData(request, fields, Request::getParam);
+        return parsed.get("query");
+    }
 }
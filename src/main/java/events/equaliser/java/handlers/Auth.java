@@ -3,28 +3,31 @@ package events.equaliser.java.handlers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import events.equaliser.java.auth.Credentials;
+import events.equaliser.java.auth.EphemeralImages;
+import events.equaliser.java.auth.LoginThrottle;
 import events.equaliser.java.auth.Session;
 import events.equaliser.java.model.auth.EphemeralToken;
 import events.equaliser.java.model.auth.SecurityEvent;
 import events.equaliser.java.model.auth.SecurityEventType;
 import events.equaliser.java.model.auth.TwoFactorToken;
 import events.equaliser.java.model.user.User;
-import events.equaliser.java.util.Hex;
 import events.equaliser.java.util.Json;
+import events.equaliser.java.util.Metrics;
+import events.equaliser.java.util.Network;
 import events.equaliser.java.util.Request;
+import events.equaliser.java.util.Token;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
-import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.web.RoutingContext;
-import net.glxn.qrgen.core.image.ImageType;
-import net.glxn.qrgen.javase.QRCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.format.DateTimeFormatter;
+
 /**
  * Request handlers related to authentication and login.
  */
@@ -32,6 +35,9 @@ public class Auth {
 
     private static final Logger logger = LoggerFactory.getLogger(Auth.class);
 
+    private static final LoginThrottle THROTTLE = new LoginThrottle();
+    private static final EphemeralImages EPHEMERAL_IMAGES = new EphemeralImages();
+
     /**
      * The first-stage authentication endpoint, validating a username/email and password pair.
      *
@@ -53,8 +59,21 @@ public class Auth {
             handler.handle(Future.failedFuture("'password' param missing"));
             return;
         }
-        Credentials.validate(username, password, connection,
-                credentials -> TwoFactorToken.initiateTwoFactor(connection, credentials, handler));
+        String ip = Network.clientAddress(request);
+        if (THROTTLE.isBlocked(username, ip)) {
+            Metrics.increment("auth.throttled");
+            handler.handle(Future.failedFuture("Too many failed attempts; try again later"));
+            return;
+        }
+        Credentials.validate(username, password, connection, credentials -> {
+            if (credentials.succeeded()) {
+                THROTTLE.recordSuccess(username);
+            }
+            else if (Credentials.INVALID_CREDENTIALS.equals(credentials.cause().getMessage())) {
+                THROTTLE.recordFailure(username, ip);
+            }
+            TwoFactorToken.initiateTwoFactor(connection, credentials, handler);
+        });
     }
 
     /**
@@ -69,11 +88,12 @@ public class Auth {
                                       Handler<AsyncResult<JsonNode>> handler) {
         HttpServerRequest request = context.request();
         try {
-            byte[] token = Hex.hexToBin(request.getFormAttribute("token"));
-            if (token == null) {
+            String rawToken = request.getFormAttribute("token");
+            if (rawToken == null) {
                 handler.handle(Future.failedFuture("'token' param missing"));
                 return;
             }
+            Token token = Token.fromHex(rawToken);
             String code = request.getFormAttribute("code");
             if (code == null) {
                 handler.handle(Future.failedFuture("'code' param missing"));
@@ -87,38 +107,62 @@ public class Auth {
     }
 
     /**
-     * Generate an ephemeral token for the logged-in user.
+     * Generate an ephemeral token for the logged-in user, returned as a QR code. If the user already has one that
+     * will remain valid for long enough, its image is reused.
      *
      * @param context The routing context.
      * @param connection A database connection.
      */
     public static void getAuthEphemeral(RoutingContext context,
                                         SQLConnection connection) {
-        HttpServerResponse response = context.response();
         Session session = context.get("session");
-        EphemeralToken.generate(session.getUser(), connection, tokenResult -> connection.close(res -> {
-            if (tokenResult.succeeded()) {
-                SecurityEvent.create(context, new SecurityEventType(
-                        SecurityEventType.EPHEMERAL_TOKEN_REQUEST), connection, eventRes -> {
-                    if (eventRes.failed()) {
-                        logger.error("Failed to insert ephemeral token request security event", eventRes.cause());
-                    }
+        EphemeralImages.Image cached = EPHEMERAL_IMAGES.get(session.getUser().getId());
+        if (cached != null) {
+            Metrics.increment("auth.ephemeral.cache_hit");
+            SecurityEvent.create(context, new SecurityEventType(SecurityEventType.EPHEMERAL_TOKEN_REQUEST));
+            connection.close(res -> writeEphemeralImage(context, cached));
+            return;
+        }
 
-                    EphemeralToken token = tokenResult.result();
-                    String data = Hex.binToHex(token.getToken());
-                    QRCode code = QRCode.from(data).withSize(400, 400);
-                    byte[] bytes = code.to(ImageType.PNG).stream().toByteArray();
-                    response.putHeader("Content-Type", "image/png");
-                    response.end(Buffer.buffer(bytes));
-                });
-            }
-            else {
-                Request.writeErrorResponse(response,
-                        "Failed to generate ephemeral token: " + tokenResult.cause());
+        Metrics.increment("auth.ephemeral.cache_miss");
+        EphemeralToken.generate(session.getUser(), connection, tokenResult -> connection.close(res -> {
+            if (tokenResult.failed()) {
+                Request.writeErrorResponse(context, "Failed to generate ephemeral token: " + tokenResult.cause());
+                return;
             }
+
+            SecurityEvent.create(context, new SecurityEventType(SecurityEventType.EPHEMERAL_TOKEN_REQUEST));
+            EPHEMERAL_IMAGES.render(context.vertx(), tokenResult.result(), imageResult -> {
+                if (imageResult.succeeded()) {
+                    writeEphemeralImage(context, imageResult.result());
+                }
+                else {
+                    Request.writeErrorResponse(context,
+                            "Failed to render ephemeral token: " + imageResult.cause());
+                }
+            });
         }));
     }
 
+    /**
+     * Send a rendered ephemeral token, cacheable by the client until it expires.
+     *
+     * @param context The routing context.
+     * @param image The rendered token.
+     */
+    private static void writeEphemeralImage(RoutingContext context, EphemeralImages.Image image) {
+        HttpServerResponse response = context.response();
+        response.putHeader("Cache-Control", "private, max-age=" + image.getRemainingSeconds());
+        response.putHeader("Expires", DateTimeFormatter.RFC_1123_DATE_TIME.format(image.getExpires()));
+        response.putHeader("ETag", image.getEtag());
+        if (image.getEtag().equals(context.request().getHeader("If-None-Match"))) {
+            response.setStatusCode(304).end();
+            return;
+        }
+        response.putHeader("Content-Type", "image/png");
+        response.end(image.getPng());
+    }
+
     /**
      * Submit an ephemeral token in exchange for a session token.
      *
@@ -134,7 +178,13 @@ public class Auth {
             handler.handle(Future.failedFuture("'token' param missing"));
             return;
         }
-        byte[] token = Hex.hexToBin(rawToken);
+        Token token;
+        try {
+            token = Token.fromHex(rawToken);
+        } catch (IllegalArgumentException e) {
+            handler.handle(Future.failedFuture("Invalid 'token' param"));
+            return;
+        }
         EphemeralToken.validate(token, connection,
                 (result) -> validateToken(context, connection, result, handler));
     }
@@ -155,18 +205,12 @@ public class Auth {
             Session.create(user, connection, sessionRes -> {
                 if (sessionRes.succeeded()) {
                     Session session = sessionRes.result();
-                    context.put("session", session);  // so security event can read it in the next step
-                    SecurityEvent.create(context, new SecurityEventType(SecurityEventType.USER_LOGIN),
-                            connection, eventRes -> {
-                        if (eventRes.failed()) {
-                            handler.handle(Future.failedFuture(eventRes.cause()));
-                            return;
-                        }
+                    context.put("session", session);  // so security event can read it
+                    SecurityEvent.create(context, new SecurityEventType(SecurityEventType.USER_LOGIN));
 
-                        ObjectNode wrapper = Json.FACTORY.objectNode();
-                        wrapper.set("session", Json.MAPPER.convertValue(session, JsonNode.class));
-                        handler.handle(Future.succeededFuture(wrapper));
-                    });
+                    ObjectNode wrapper = Json.FACTORY.objectNode();
+                    wrapper.set("session", Json.FACTORY.pojoNode(session));
+                    handler.handle(Future.succeededFuture(wrapper));
                 }
                 else {
                     handler.handle(Future.failedFuture(sessionRes.cause()));
@@ -1,8 +1,15 @@
 package events.equaliser.java.handlers;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import events.equaliser.java.model.event.Fixture;
+import events.equaliser.java.model.event.FixtureIndex;
+import events.equaliser.java.model.event.FixtureListing;
+import events.equaliser.java.model.event.UpcomingFixtures;
+import events.equaliser.java.model.geography.Coordinates;
+import events.equaliser.java.util.Deadline;
+import events.equaliser.java.util.DeadlineExceededException;
 import events.equaliser.java.util.Json;
 import events.equaliser.java.util.Request;
 import events.equaliser.java.verticles.SecondaryPoolVerticle;
@@ -16,11 +23,20 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.web.RoutingContext;
 
+import java.time.OffsetDateTime;
+
 /**
  * Request handlers related to fixtures.
  */
 public class Fixtures {
 
+    private static final int DEFAULT_RADIUS_KM = 25;
+    private static final int MAX_RADIUS_KM = 500;
+    private static final int DEFAULT_RESULTS = 20;
+    private static final int MAX_RESULTS = 100;
+    private static final int DEFAULT_CALENDAR_RESULTS = 50;
+    private static final int MAX_CALENDAR_RESULTS = 200;
+
     /**
      * Retrieve a fixture's information by its identifier.
      *
@@ -42,7 +58,7 @@ public class Fixtures {
                 }
 
                 Fixture fixture = res.result();
-                JsonNode node = Json.MAPPER.convertValue(fixture, JsonNode.class);
+                JsonNode node = Json.FACTORY.pojoNode(fixture);
                 handler.handle(Future.succeededFuture(node));
             });
         } catch (NumberFormatException e) {
@@ -52,6 +68,85 @@ public class Fixtures {
         }
     }
 
+    /**
+     * Find upcoming fixtures near a location, nearest first, optionally within a date window. Served from memory.
+     *
+     * @param context The routing context.
+     * @param handler The result.
+     */
+    public static void getNear(RoutingContext context,
+                               Handler<AsyncResult<JsonNode>> handler) {
+        HttpServerRequest request = context.request();
+        try {
+            double latitude = parseCoordinate(request, "latitude", 90);
+            double longitude = parseCoordinate(request, "longitude", 180);
+            int radius = Request.getIntParam(request, "radius", DEFAULT_RADIUS_KM, 1, MAX_RADIUS_KM);
+            OffsetDateTime from = Request.getDateTimeParam(request, "from", OffsetDateTime.now());
+            OffsetDateTime to = Request.getDateTimeParam(request, "to", null);
+            int offset = Request.getIntParam(request, "offset", 0, 0, Integer.MAX_VALUE);
+            int limit = Request.getIntParam(request, "limit", DEFAULT_RESULTS, 1, MAX_RESULTS);
+
+            FixtureIndex.Page<FixtureIndex.Nearby> page = UpcomingFixtures.getIndex()
+                    .near(new Coordinates(latitude, longitude), radius, from, to, offset, limit);
+            ObjectNode wrapper = Json.FACTORY.objectNode();
+            wrapper.put("total", page.getTotal());
+            wrapper.set("fixtures", Json.FACTORY.pojoNode(page.getResults()));
+            handler.handle(Future.succeededFuture(wrapper));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            handler.handle(Future.failedFuture(e.getMessage()));
+        }
+    }
+
+    /**
+     * List upcoming fixtures starting within a date range, soonest first, with whether each of their tiers has
+     * tickets remaining. Served from memory, apart from availability, which is asked of the primary pool for the whole
+     * page at once. Pages are continued by passing the previous page's "next" cursor.
+     *
+     * @param context The routing context.
+     * @param handler The result.
+     */
+    public static void getCalendar(RoutingContext context,
+                                   Handler<AsyncResult<JsonNode>> handler) {
+        HttpServerRequest request = context.request();
+        try {
+            OffsetDateTime from = Request.getDateTimeParam(request, "from", OffsetDateTime.now());
+            OffsetDateTime to = Request.getDateTimeParam(request, "to", null);
+            String cursor = request.getParam("cursor");
+            FixtureIndex.Cursor after = cursor == null || cursor.isEmpty() ? null : FixtureIndex.Cursor.parse(cursor);
+            int limit = Request.getIntParam(request, "limit", DEFAULT_CALENDAR_RESULTS, 1, MAX_CALENDAR_RESULTS);
+
+            FixtureIndex.Slice slice = UpcomingFixtures.getIndex().between(from, to, after, limit);
+            FixtureListing.findAvailability(slice.getFixtures(), availabilityRes -> {
+                if (availabilityRes.failed()) {
+                    handler.handle(Future.failedFuture(availabilityRes.cause()));
+                    return;
+                }
+
+                ObjectNode wrapper = Json.FACTORY.objectNode();
+                wrapper.set("fixtures", Json.FACTORY.pojoNode(availabilityRes.result()));
+                if (slice.getNext() != null) {
+                    wrapper.put("next", slice.getNext().toString());
+                }
+                handler.handle(Future.succeededFuture(wrapper));
+            });
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            handler.handle(Future.failedFuture(e.getMessage()));
+        }
+    }
+
+    private static double parseCoordinate(HttpServerRequest request, String name, double max) {
+        String value = Request.validateField(name, request.getParam(name));
+        try {
+            double parsed = Double.parseDouble(value);
+            if (parsed >= -max && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException(String.format("'%s' param must be between -%.0f and %.0f", name, max, max));
+    }
+
     /**
      * A hack implemented for the inspection to add available tickets to the secondary
      * pool for a particular tier, in order to demonstrate reaching the front of the
@@ -68,8 +163,18 @@ public class Fixtures {
         EventBus eb = Vertx.currentContext().owner().eventBus();
         int tierId = Integer.parseInt(request.getParam("id"));
         int quantity = Integer.parseInt(request.getParam("quantity"));
+
+        // recovering adds the tickets whether or not the reply arrives in time, so a timed out
+        // reply followed by a retry would add them twice; only send if there is time left, but
+        // once sent, wait as long as it takes
+        Deadline deadline = Deadline.of(connection);
+        if (deadline != null && deadline.isExpired()) {
+            handler.handle(Future.failedFuture(new DeadlineExceededException()));
+            return;
+        }
         eb.send(SecondaryPoolVerticle.SECONDARY_POOL_RECOVER_ADDRESS,
-                new JsonObject().put(Integer.toString(tierId), quantity), replyRes -> {
+                new JsonObject().put(Integer.toString(tierId), quantity),
+                replyRes -> {
                     if (replyRes.failed()) {
                         handler.handle(Future.failedFuture(replyRes.cause()));
                     }
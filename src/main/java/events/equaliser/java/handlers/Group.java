@@ -1,14 +1,16 @@
 package events.equaliser.java.handlers;
 
-import co.paralleluniverse.fibers.Suspendable;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import events.equaliser.java.auth.Session;
 import events.equaliser.java.model.event.Tier;
-import events.equaliser.java.model.group.PaymentGroup;
+import events.equaliser.java.model.group.Checkout;
+import events.equaliser.java.model.group.FixtureAttendees;
 import events.equaliser.java.model.ticket.Offer;
 import events.equaliser.java.model.ticket.Transaction;
 import events.equaliser.java.model.user.User;
+import events.equaliser.java.util.Deadline;
+import events.equaliser.java.util.DeadlineExceededException;
 import events.equaliser.java.util.Json;
 import events.equaliser.java.util.Request;
 import events.equaliser.java.verticles.PrimaryPoolVerticle;
@@ -23,7 +25,6 @@ import io.vertx.ext.web.RoutingContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
@@ -35,6 +36,14 @@ public class Group {
 
     private static final Logger logger = LoggerFactory.getLogger(Group.class);
 
+    private static final int DEFAULT_LIST_RESULTS = 20;
+    private static final int MAX_LIST_RESULTS = 100;
+
+    /**
+     * The response header carrying the cursor of the next page of groups.
+     */
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     /**
      * Create a new group.
      *
@@ -88,50 +97,17 @@ public class Group {
                     logger.debug("Users: {}", users);
 
                     // ensure none of the attendees are already in a group for the event
-                    String attendeeUserIds = users.values().stream()
+                    List<Integer> attendeeUserIds = users.values().stream()
                             .map(User::getId)
-                            .map(str -> '\'' + String.valueOf(str) + '\'')
-                            .collect(Collectors.joining(","));
-                    JsonArray params = new JsonArray()
-                            .add(tier.getFixture().getId())
-                            .add(tier.getFixture().getId());
-                    connection.queryWithParams(String.format(
-                            "SELECT 1 " +
-                            "FROM Fixtures " +
-                                "INNER JOIN Tiers " +
-                                    "ON Tiers.FixtureID = Fixtures.FixtureID " +
-                                "INNER JOIN Offers " +
-                                    "ON Offers.TierID = Tiers.TierID " +
-                                "INNER JOIN Groups " +
-                                    "ON Groups.GroupID = Offers.GroupID " +
-                                "INNER JOIN PaymentGroups " +
-                                    "ON PaymentGroups.GroupID = Groups.GroupID " +
-                                "INNER JOIN PaymentGroupAttendees " +
-                                    "ON PaymentGroupAttendees.PaymentGroupID = PaymentGroups.PaymentGroupID " +
-                            "WHERE PaymentGroupAttendees.UserID IN (%s) " +
-                            "AND Fixtures.FixtureID = ? " +
-                            "UNION " +
-                            "SELECT 1 " +
-                            "FROM Fixtures " +
-                                "INNER JOIN Tiers " +
-                                    "ON Tiers.FixtureID = Fixtures.FixtureID " +
-                                "INNER JOIN GroupTiers " +
-                                    "ON GroupTiers.TierID = Tiers.TierID " +
-                                "INNER JOIN Groups " +
-                                    "ON Groups.GroupID = GroupTiers.GroupID " +
-                                "INNER JOIN PaymentGroups " +
-                                    "ON PaymentGroups.GroupID = Groups.GroupID " +
-                                "INNER JOIN PaymentGroupAttendees " +
-                                    "ON PaymentGroupAttendees.PaymentGroupID = PaymentGroups.PaymentGroupID " +
-                            "WHERE PaymentGroupAttendees.UserID IN (%s)" +
-                            "AND Fixtures.FixtureID = ?", attendeeUserIds, attendeeUserIds),
-                            params, existingRes -> {
+                            .collect(Collectors.toList());
+                    FixtureAttendees.anyAttending(tier.getFixture().getId(), attendeeUserIds, connection,
+                            existingRes -> {
                                 if (existingRes.failed()) {
                                     handler.handle(Future.failedFuture(existingRes.cause()));
                                     return;
                                 }
 
-                                if (existingRes.result().getNumRows() != 0) {
+                                if (existingRes.result()) {
                                     handler.handle(Future.failedFuture(
                                             "One or more group members are already waiting to see this event"));
                                     return;
@@ -171,73 +147,81 @@ public class Group {
                                                 paymentGroups.get(leader).size(),
                                         paymentGroups.size());
 
+                                // once created, the group is waiting for the event, so a retry would be
+                                // refused; give up while there is still nothing to undo
+                                Deadline deadline = Deadline.of(connection);
+                                if (deadline != null && deadline.isExpired()) {
+                                    handler.handle(Future.failedFuture(new DeadlineExceededException()));
+                                    return;
+                                }
+
+                                Map<Integer, Integer> ranks = new HashMap<>();
+                                ranks.put(tier.getId(), 1);
                                 events.equaliser.java.model.group.Group.create(
-                                        leader, tier.getFixture(), connection, Sync.fiberHandler(groupRes -> {
+                                        leader, tier.getFixture(), paymentGroups, ranks, connection, groupRes -> {
                                     if (groupRes.failed()) {
+                                        logger.error("Failed to create a new group", groupRes.cause());
                                         handler.handle(Future.failedFuture("Failed to create a new group"));
                                         return;
                                     }
 
-                                    events.equaliser.java.model.group.Group bare = groupRes.result();
-                                    PaymentGroup.create(bare, paymentGroups, connection, groupsRes -> {
-                                        if (groupsRes.failed()) {
-                                            handler.handle(Future.failedFuture(groupsRes.cause()));
-                                            return;
-                                        }
-
-                                        events.equaliser.java.model.group.Group group = groupsRes.result();
-
-                                        Map<Integer, Integer> ranks = new HashMap<>();
-                                        ranks.put(tier.getId(), 1);
-                                        group.setTiers(ranks, connection, rankRes -> {
-                                            if (rankRes.failed()) {
-                                                handler.handle(Future.failedFuture(rankRes.cause()));
-                                                return;
-                                            }
-
-                                            EventBus eb = Vertx.currentContext().owner().eventBus();
-                                            eb.send(PrimaryPoolVerticle.PRIMARY_POOL_RESERVE_ADDRESS,
-                                                    new JsonObject()
-                                                            .put("tierId", tier.getId())
-                                                            .put("count", group.getSize()),
-                                                    reserveRes -> {
-                                                        if (reserveRes.failed()) {
-                                                            // could also just use the waiting list...
-                                                            handler.handle(Future.failedFuture(reserveRes.cause()));
+                                    events.equaliser.java.model.group.Group group = groupRes.result();
+                                    FixtureAttendees.add(tier.getFixture().getId(),
+                                            attendeeUserIds.stream().mapToInt(Integer::intValue).toArray());
+
+                                    // reserving takes tickets off sale before replying, and a timed out
+                                    // reply would lose them, so only send if there is time left, but once
+                                    // sent, wait as long as it takes; if out of time, the group stays on the
+                                    // waiting list, as when tickets are unavailable
+                                    if (deadline != null && deadline.isExpired()) {
+                                        ObjectNode wrapper = Json.FACTORY.objectNode();
+                                        wrapper.set("group", Json.FACTORY.pojoNode(group));
+                                        wrapper.set("tier", Json.FACTORY.pojoNode(tier));
+                                        handler.handle(Future.succeededFuture(wrapper));
+                                        return;
+                                    }
+
+                                    EventBus eb = Vertx.currentContext().owner().eventBus();
+                                    eb.send(PrimaryPoolVerticle.PRIMARY_POOL_RESERVE_ADDRESS,
+                                            new JsonObject()
+                                                    .put("tierId", tier.getId())
+                                                    .put("count", group.getSize()),
+                                            reserveRes -> {
+                                                if (reserveRes.failed()) {
+                                                    // could also just use the waiting list...
+                                                    handler.handle(Future.failedFuture(reserveRes.cause()));
+                                                    return;
+                                                }
+
+                                                JsonObject reply = (JsonObject)reserveRes.result().body();
+
+                                                if (!reply.getBoolean("success")) {
+                                                    // tickets unavailable; client should ask for additional tiers
+                                                    ObjectNode wrapper = Json.FACTORY.objectNode();
+                                                    wrapper.set("group", Json.FACTORY.pojoNode(group));
+                                                    wrapper.set("tier", Json.FACTORY.pojoNode(tier));
+                                                    handler.handle(Future.succeededFuture(wrapper));
+                                                }
+                                                else {
+                                                    // tickets reserved; create offer
+                                                    Offer.create(group, tier, connection, Sync.fiberHandler(offerRes -> {
+                                                        if (offerRes.failed()) {
+                                                            handler.handle(Future.failedFuture(offerRes.cause()));
                                                             return;
                                                         }
 
-                                                        JsonObject reply = (JsonObject)reserveRes.result().body();
-
-                                                        if (!reply.getBoolean("success")) {
-                                                            // tickets unavailable; client should ask for additional tiers
-                                                            ObjectNode wrapper = Json.FACTORY.objectNode();
-                                                            wrapper.set("group", Json.MAPPER.convertValue(group, JsonNode.class));
-                                                            wrapper.set("tier", Json.MAPPER.convertValue(tier, JsonNode.class));
-                                                            handler.handle(Future.succeededFuture(wrapper));
-                                                        }
-                                                        else {
-                                                            // tickets reserved; create offer
-                                                            Offer.create(group, tier, connection, Sync.fiberHandler(offerRes -> {
-                                                                if (offerRes.failed()) {
-                                                                    handler.handle(Future.failedFuture(offerRes.cause()));
-                                                                    return;
-                                                                }
-
-                                                                Offer offer = offerRes.result();
-                                                                offer.sendNotificationsSync(connection);
-
-                                                                // client should proceed to payment
-                                                                ObjectNode wrapper = Json.FACTORY.objectNode();
-                                                                wrapper.set("group", Json.MAPPER.convertValue(group, JsonNode.class));
-                                                                wrapper.set("offer", Json.MAPPER.convertValue(offer, JsonNode.class));
-                                                                handler.handle(Future.succeededFuture(wrapper));
-                                                            }));
-                                                        }
-                                                    });
-                                        });
-                                    });
-                                }));
+                                                        Offer offer = offerRes.result();
+                                                        offer.sendNotificationsSync(connection);
+
+                                                        // client should proceed to payment
+                                                        ObjectNode wrapper = Json.FACTORY.objectNode();
+                                                        wrapper.set("group", Json.FACTORY.pojoNode(group));
+                                                        wrapper.set("offer", Json.FACTORY.pojoNode(offer));
+                                                        handler.handle(Future.succeededFuture(wrapper));
+                                                    }));
+                                                }
+                                            });
+                                });
                             });
                 });
             });
@@ -341,54 +325,26 @@ public class Group {
             }
 
             int groupId = groupIdRes.result();
-            events.equaliser.java.model.group.Group.retrieveById(groupId, connection, groupRes -> {
-                if (groupRes.failed()) {
-                    handler.handle(Future.failedFuture(groupRes.cause()));
-                    return;
-                }
-
-                events.equaliser.java.model.group.Group group = groupRes.result();
-                logger.debug("Retrieved group {}", group);
-                Session session = context.get("session");
-                User user = session.getUser();
-                Optional<PaymentGroup> paymentGroup = group.getPaymentGroup(user);
-                if (!paymentGroup.isPresent()) {
-                    handler.handle(Future.failedFuture("You are not a payee in this group"));
+            Session session = context.get("session");
+            User user = session.getUser();
+            Checkout.retrieve(groupId, user, connection, checkoutRes -> {
+                if (checkoutRes.failed()) {
+                    handler.handle(Future.failedFuture(checkoutRes.cause()));
                     return;
                 }
 
-                logger.debug("Payment group attendees: {}", paymentGroup.get().getAttendees());
-
-                Offer.retrieveByGroup(group, connection, offerRes -> {
-                    if (offerRes.failed()) {
-                        handler.handle(Future.failedFuture(offerRes.cause()));
-                        return;
-                    }
-
-                    Optional<Offer> offerOptional = offerRes.result();
-                    if (!offerOptional.isPresent()) {
-                        handler.handle(Future.failedFuture("No offer has been made to the group"));
+                Checkout checkout = checkoutRes.result();
+                logger.debug("Retrieved checkout {}", checkout);
+                Transaction.create(checkout.getPaymentGroup(), checkout.getOfferId(), connection, transactionRes -> {
+                    if (transactionRes.failed()) {
+                        handler.handle(Future.failedFuture(transactionRes.cause()));
                         return;
                     }
 
-                    Offer offer = offerOptional.get();
-                    logger.debug("Retrieved offer {}", offer);
-                    if (offer.getExpires().isBefore(OffsetDateTime.now())) {
-                        handler.handle(Future.failedFuture("Offer has expired"));
-                        return;
-                    }
-
-                    Transaction.create(paymentGroup.get(), offer, connection, transactionRes -> {
-                        if (transactionRes.failed()) {
-                            handler.handle(Future.failedFuture(transactionRes.cause()));
-                            return;
-                        }
-
-                        Transaction transaction = transactionRes.result();
-                        ObjectNode wrapper = Json.FACTORY.objectNode();
-                        wrapper.set("transaction", Json.MAPPER.convertValue(transaction, JsonNode.class));
-                        handler.handle(Future.succeededFuture(wrapper));
-                    });
+                    Transaction transaction = transactionRes.result();
+                    ObjectNode wrapper = Json.FACTORY.objectNode();
+                    wrapper.set("transaction", Json.FACTORY.pojoNode(transaction));
+                    handler.handle(Future.succeededFuture(wrapper));
                 });
             });
         });
@@ -419,40 +375,52 @@ public class Group {
                 }
 
                 events.equaliser.java.model.group.Group group = groupRes.result();
-                JsonNode node = Json.MAPPER.convertValue(group, JsonNode.class);
+                JsonNode node = Json.FACTORY.pojoNode(group);
                 handler.handle(Future.succeededFuture(node));
             });
         });
     }
 
     /**
-     * Get a list of a user's groups
+     * Get a user's groups, most recently created first. All of them are returned unless a "limit" or "cursor" is
+     * given, in which case a page is returned, and the cursor of the next page, if any, is sent in the X-Next-Cursor
+     * header.
      *
      * @param context The routing context.
      * @param connection A database connection.
      * @param handler The result.
      */
-    @Suspendable
     public static void getList(RoutingContext context,
                                SQLConnection connection,
                                Handler<AsyncResult<JsonNode>> handler) {
+        HttpServerRequest request = context.request();
         Session session = context.get("session");
         User user = session.getUser();
-        events.equaliser.java.model.group.Group.retrieveByUser(user, connection, Sync.fiberHandler(groupsRes -> {
-            if (groupsRes.failed()) {
-                handler.handle(Future.failedFuture(groupsRes.cause()));
-                return;
-            }
-
-            List<events.equaliser.java.model.group.Group> groups = groupsRes.result();
-            logger.debug("Retrieved {} groups", groups.size());
-            for (events.equaliser.java.model.group.Group group : groups) {
-                Optional<Offer> offer = Sync.awaitResult(h -> Offer.retrieveByGroup(group, connection, h));
-                offer.ifPresent(group::setOffer);
-            }
+        try {
+            String cursor = request.getParam("cursor");
+            events.equaliser.java.model.group.Group.Cursor after = cursor == null || cursor.isEmpty()
+                    ? null
+                    : events.equaliser.java.model.group.Group.Cursor.parse(cursor);
+            int limit = after == null && request.getParam("limit") == null
+                    ? 0
+                    : Request.getIntParam(request, "limit", DEFAULT_LIST_RESULTS, 1, MAX_LIST_RESULTS);
+            events.equaliser.java.model.group.Group.retrieveByUser(user, after, limit, connection, groupsRes -> {
+                if (groupsRes.failed()) {
+                    handler.handle(Future.failedFuture(groupsRes.cause()));
+                    return;
+                }
 
-            JsonNode node = Json.MAPPER.convertValue(groups, JsonNode.class);
-            handler.handle(Future.succeededFuture(node));
-        }));
+                events.equaliser.java.model.group.Group.Slice slice = groupsRes.result();
+                logger.debug("Retrieved {} groups", slice.getGroups().size());
+                if (slice.getNext() != null) {
+                    context.response()
+                            .putHeader(NEXT_CURSOR_HEADER, slice.getNext().toString())
+                            .putHeader("Access-Control-Expose-Headers", NEXT_CURSOR_HEADER);
+                }
+                handler.handle(Future.succeededFuture(Json.FACTORY.pojoNode(slice.getGroups())));
+            });
+        } catch (IllegalArgumentException e) {
+            handler.handle(Future.failedFuture(e.getMessage()));
+        }
     }
 }
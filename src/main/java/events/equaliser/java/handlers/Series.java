@@ -1,7 +1,10 @@
 package events.equaliser.java.handlers;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import events.equaliser.java.model.event.BareSeries;
+import events.equaliser.java.model.event.SeriesSearch;
+import events.equaliser.java.model.event.SeriesSearchIndex;
 import events.equaliser.java.util.Json;
 import events.equaliser.java.util.Request;
 import io.vertx.core.AsyncResult;
@@ -18,6 +21,9 @@ import java.util.List;
  */
 public class Series {
 
+    private static final int DEFAULT_SEARCH_RESULTS = 20;
+    private static final int MAX_SEARCH_RESULTS = 50;
+
     /**
      * Get a series by its identifier.
      *
@@ -36,7 +42,7 @@ public class Series {
                 if (data.succeeded()) {
                     events.equaliser.java.model.event.Series series =
                             (events.equaliser.java.model.event.Series) data.result();  // TODO fix cast - caused by generics erasure issue
-                    JsonNode node = Json.MAPPER.convertValue(series, JsonNode.class);
+                    JsonNode node = Json.FACTORY.pojoNode(series);
                     handler.handle(Future.succeededFuture(node));
                 }
                 else {
@@ -70,7 +76,7 @@ public class Series {
                 }
 
                 List<BareSeries> series = res.result();
-                JsonNode node = Json.MAPPER.convertValue(series, JsonNode.class);
+                JsonNode node = Json.FACTORY.pojoNode(series);
                 handler.handle(Future.succeededFuture(node));
             });
         } catch (IllegalArgumentException e) {
@@ -78,6 +84,56 @@ public class Series {
         }
     }
 
+    /**
+     * Search series by name, description and tags, most relevant first. Cheap enough to call on every keystroke.
+     * Falls back to an exact tag match until the search index has been built.
+     *
+     * @param context The routing context.
+     * @param connection A database connection.
+     * @param handler The result.
+     */
+    public static void getSearch(RoutingContext context,
+                                 SQLConnection connection,
+                                 Handler<AsyncResult<JsonNode>> handler) {
+        HttpServerRequest request = context.request();
+        try {
+            String query = Request.validateField("query", request.getParam("query"));
+            int offset = Request.getIntParam(request, "offset", 0, 0, Integer.MAX_VALUE);
+            int limit = Request.getIntParam(request, "limit", DEFAULT_SEARCH_RESULTS, 1, MAX_SEARCH_RESULTS);
+            if (!SeriesSearch.isReady()) {
+                BareSeries.retrieveFromTag(query, connection, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    List<BareSeries> series = res.result();
+                    int from = Math.min(offset, series.size());
+                    handler.handle(Future.succeededFuture(searchResults(
+                            series.subList(from, Math.min(series.size(), from + limit)), series.size())));
+                });
+                return;
+            }
+
+            SeriesSearchIndex.Page page = SeriesSearch.search(query, offset, limit);
+            BareSeries.retrieveFromIds(page.getSeriesIds(), connection, res -> {
+                if (res.failed()) {
+                    handler.handle(Future.failedFuture(res.cause()));
+                    return;
+                }
+                handler.handle(Future.succeededFuture(searchResults(res.result(), page.getTotal())));
+            });
+        } catch (IllegalArgumentException e) {
+            handler.handle(Future.failedFuture(e.getMessage()));
+        }
+    }
+
+    private static JsonNode searchResults(List<BareSeries> series, int total) {
+        ObjectNode wrapper = Json.FACTORY.objectNode();
+        wrapper.put("total", total);
+        wrapper.set("series", Json.FACTORY.pojoNode(series));
+        return wrapper;
+    }
+
     /**
      * Retrieve a list of the most popular or notable events, for prominent display.
      *
@@ -95,7 +151,7 @@ public class Series {
             }
 
             List<BareSeries> series = seriesRes.result();
-            JsonNode node = Json.MAPPER.convertValue(series, JsonNode.class);
+            JsonNode node = Json.FACTORY.pojoNode(series);
             handler.handle(Future.succeededFuture(node));
         });
     }
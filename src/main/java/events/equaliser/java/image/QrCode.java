@@ -0,0 +1,122 @@
+package events.equaliser.java.image;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Renders QR codes as PNG images. Rather than drawing into a BufferedImage and handing it to ImageIO, the bit matrix
+ * is packed into 1-bit greyscale scanlines and deflated straight into the output buffer, which is several times
+ * faster for an image of much the same size. Rendering is CPU-bound, so should be done on a worker.
+ */
+public class QrCode {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDAT = "IDAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte BIT_DEPTH = 1;
+    private static final byte COLOUR_TYPE_GREYSCALE = 0;
+    private static final byte FILTER_NONE = 0;
+
+    private static final int DEFLATE_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Render some text as a square QR code.
+     *
+     * @param text The text to encode.
+     * @param size The width and height of the image in pixels.
+     * @return The PNG image.
+     * @throws WriterException If the text cannot be encoded.
+     */
+    public static Buffer renderPng(String text, int size) throws WriterException {
+        BitMatrix matrix = new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, size, size);
+        return toPng(matrix);
+    }
+
+    /**
+     * Encode a bit matrix as a PNG, with set bits black and unset bits white.
+     *
+     * @param matrix The matrix.
+     * @return The PNG image.
+     */
+    static Buffer toPng(BitMatrix matrix) {
+        int width = matrix.getWidth();
+        int height = matrix.getHeight();
+        Buffer png = Buffer.buffer(1024);
+        CRC32 crc = new CRC32();
+        png.appendBytes(SIGNATURE);
+
+        Buffer header = Buffer.buffer(13)
+                .appendInt(width)
+                .appendInt(height)
+                .appendByte(BIT_DEPTH)
+                .appendByte(COLOUR_TYPE_GREYSCALE)
+                .appendByte((byte) 0)  // compression: deflate
+                .appendByte((byte) 0)  // filter method: adaptive
+                .appendByte((byte) 0); // interlace: none
+        appendChunk(png, IHDR, header.getBytes(), crc);
+
+        // the length isn't known until the data has been deflated, so is filled in afterwards
+        int lengthIndex = png.length();
+        png.appendInt(0);
+        crc.reset();
+        png.appendBytes(IDAT);
+        crc.update(IDAT);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        byte[] scanline = new byte[1 + (width + 7) / 8];
+        byte[] deflated = new byte[DEFLATE_BUFFER_SIZE];
+        try {
+            for (int y = 0; y < height; y++) {
+                scanline[0] = FILTER_NONE;
+                for (int i = 1; i < scanline.length; i++) {
+                    scanline[i] = (byte) 0xff;  // white
+                }
+                for (int x = 0; x < width; x++) {
+                    if (matrix.get(x, y)) {
+                        scanline[1 + (x >>> 3)] &= ~(0x80 >>> (x & 7));
+                    }
+                }
+                deflater.setInput(scanline);
+                while (!deflater.needsInput()) {
+                    drain(deflater, deflated, png, crc);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(deflater, deflated, png, crc);
+            }
+        } finally {
+            deflater.end();
+        }
+        png.setInt(lengthIndex, png.length() - lengthIndex - Integer.BYTES - IDAT.length);
+        png.appendInt((int) crc.getValue());
+
+        appendChunk(png, IEND, new byte[0], crc);
+        return png;
+    }
+
+    private static void drain(Deflater deflater, byte[] deflated, Buffer png, CRC32 crc) {
+        int length = deflater.deflate(deflated);
+        png.appendBytes(deflated, 0, length);
+        crc.update(deflated, 0, length);
+    }
+
+    private static void appendChunk(Buffer png, byte[] type, byte[] data, CRC32 crc) {
+        crc.reset();
+        crc.update(type);
+        crc.update(data);
+        png.appendInt(data.length)
+                .appendBytes(type)
+                .appendBytes(data)
+                .appendInt((int) crc.getValue());
+    }
+}
@@ -1,8 +1,8 @@
 package events.equaliser.java.model.auth;
 
 import events.equaliser.java.model.user.User;
-import events.equaliser.java.util.Random;
 import events.equaliser.java.util.Time;
+import events.equaliser.java.util.Token;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -22,14 +22,14 @@ public class EphemeralToken {
     private static final int VALIDITY_SECONDS = 60 * 10;
 
     private final User user;
-    private final byte[] token;
+    private final Token token;
     private final OffsetDateTime expires;
 
     public User getUser() {
         return user;
     }
 
-    public byte[] getToken() {
+    public Token getToken() {
         return token;
     }
 
@@ -37,14 +37,14 @@ public class EphemeralToken {
         return expires;
     }
 
-    public EphemeralToken(User user, byte[] token, OffsetDateTime expires) {
+    public EphemeralToken(User user, Token token, OffsetDateTime expires) {
         this.user = user;
         this.token = token;
         this.expires = expires;
     }
 
     private EphemeralToken(User user) {
-        this(user, Random.getBytes(TOKEN_BYTES), OffsetDateTime.now().plusSeconds(VALIDITY_SECONDS));
+        this(user, Token.random(TOKEN_BYTES), OffsetDateTime.now().plusSeconds(VALIDITY_SECONDS));
     }
 
     public static void generate(User user,
@@ -53,7 +53,7 @@ public class EphemeralToken {
         EphemeralToken token = new EphemeralToken(user);
         JsonArray params = new JsonArray()
                 .add(token.getUser().getId())
-                .add(token.getToken())
+                .add(token.getToken().toBase64())
                 .add(Time.toSql(token.getExpires()));
         connection.updateWithParams(
                 "INSERT INTO EphemeralTokens (UserID, Token, Expires) VALUES (?, FROM_BASE64(?), ?);",
@@ -67,11 +67,11 @@ public class EphemeralToken {
                 });
     }
 
-    public static void validate(byte[] token,
+    public static void validate(Token token,
                                 SQLConnection connection,
                                 Handler<AsyncResult<User>> handler) {
         JsonArray params = new JsonArray()
-                .add(token);
+                .add(token.toBase64());
         connection.queryWithParams(
                 "SELECT UserID " +
                 "FROM EphemeralTokens " +
@@ -102,5 +102,28 @@ public class EphemeralToken {
                 });
     }
 
-    // TODO remove old tokens, both when new one is created, or and when one is validated
+    /**
+     * Delete a batch of expired tokens.
+     *
+     * @param before Tokens that expired before this time are deleted.
+     * @param limit The maximum number of rows to delete.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the number of rows deleted on success.
+     */
+    public static void deleteBefore(OffsetDateTime before,
+                                    int limit,
+                                    SQLConnection connection,
+                                    Handler<AsyncResult<Integer>> handler) {
+        JsonArray params = new JsonArray()
+                .add(Time.toSql(before))
+                .add(limit);
+        connection.updateWithParams(
+                "DELETE FROM EphemeralTokens WHERE Expires < ? LIMIT ?;", params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    handler.handle(Future.succeededFuture(res.result().getUpdated()));
+                });
+    }
 }
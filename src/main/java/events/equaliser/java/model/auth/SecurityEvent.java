@@ -4,11 +4,15 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import events.equaliser.java.auth.Session;
 import events.equaliser.java.model.user.User;
+import events.equaliser.java.util.Deadline;
 import events.equaliser.java.util.Network;
 import events.equaliser.java.util.Time;
+import events.equaliser.java.verticles.SecurityEventVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.SQLConnection;
@@ -81,40 +85,110 @@ public class SecurityEvent {
         return String.format("SecurityEvent(%s, %s, %s)", getType().getName(), getIp(), getTimestamp());
     }
 
-    public static void create(RoutingContext context, SecurityEventType type,
-                              SQLConnection connection,
-                              Handler<AsyncResult<SecurityEvent>> handler) {
+    /**
+     * Record a security event against the session in the context. The event is queued and written shortly after
+     * in a batch with others, so the request never waits on the database.
+     *
+     * @param context The routing context, which must have a session.
+     * @param type The type of event.
+     */
+    public static void create(RoutingContext context, SecurityEventType type) {
+        InetAddress client;
         try {
-            OffsetDateTime now = OffsetDateTime.now();
-            InetAddress client = InetAddress.getByName(context.request().remoteAddress().host());
-            Session session = context.get("session");
-            JsonArray params = new JsonArray()
-                    .add(type.getId())
-                    .add(session.getId())
-                    .add(Network.v6Normalise(client))
-                    .add(Time.toSql(now));
-            connection.updateWithParams(
-                    "INSERT INTO SecurityEvents (SecurityEventTypeID, SessionID, IPAddress, Timestamp) " +
-                    "VALUES (?, ?, FROM_BASE64(?), ?);", params, eventRes -> {
-                        if (eventRes.failed()) {
-                            handler.handle(Future.failedFuture(eventRes.cause()));
-                            return;
-                        }
-
-                        int securityEventId = eventRes.result().getKeys().getInteger(0);
-                        SecurityEvent event = new SecurityEvent(securityEventId, type, client, now);
-                        handler.handle(Future.succeededFuture(event));
-                    });
+            client = InetAddress.getByName(Network.clientAddress(context.request()));
         } catch (UnknownHostException e) {
-            handler.handle(Future.failedFuture(e));
+            logger.error("Dropping {} event with unparseable address", type, e);
+            return;
+        }
+        Session session = context.get("session");
+        JsonObject row = new JsonObject()
+                .put("SecurityEventTypeID", type.getId())
+                .put("SecurityEventTypeName", type.getName())
+                .put("SessionID", session.getId())
+                .put("UserID", session.getUser().getId())
+                .put("SecurityEventIPAddress", Network.v6Normalise(client))
+                .put("SecurityEventTimestamp", Time.toSql(OffsetDateTime.now()));
+        context.vertx().eventBus().send(SecurityEventVerticle.SECURITY_EVENT_APPEND_ADDRESS, row);
+    }
+
+    /**
+     * Insert queued security events in a single statement.
+     *
+     * @param rows The events, as created by create().
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the identifier of the first event on success.
+     */
+    public static void insertBatch(List<JsonObject> rows,
+                                   SQLConnection connection,
+                                   Handler<AsyncResult<Integer>> handler) {
+        StringBuilder builder = new StringBuilder(
+                "INSERT INTO SecurityEvents (SecurityEventTypeID, SessionID, IPAddress, Timestamp) " +
+                "VALUES ");
+        JsonArray params = new JsonArray();
+        for (int i = 0; i < rows.size(); i++) {
+            JsonObject row = rows.get(i);
+            builder.append(i == 0 ? "" : ", ").append("(?, ?, FROM_BASE64(?), ?)");
+            params.add(row.getInteger("SecurityEventTypeID"))
+                    .add(row.getInteger("SessionID"))
+                    .add(row.getString("SecurityEventIPAddress"))
+                    .add(row.getString("SecurityEventTimestamp"));
         }
+        builder.append(';');
+        connection.updateWithParams(builder.toString(), params, res -> {
+            if (res.failed()) {
+                handler.handle(Future.failedFuture(res.cause()));
+                return;
+            }
+            // the first row's ID; the rest follow on, as a single multi-row INSERT is allocated a consecutive range
+            handler.handle(Future.succeededFuture(res.result().getKeys().getInteger(0)));
+        });
     }
 
-    public static void retrieveByUser(User user, int limit,
-                                      SQLConnection connection,
-                                      Handler<AsyncResult<List<SecurityEvent>>> handler) {
+    /**
+     * Retrieve a user's most recent security events, served from memory where possible.
+     *
+     * @param user The user.
+     * @param connection An open database connection, whose deadline applies.
+     * @param handler A result handler that will receive the events, newest first, on success.
+     */
+    public static void retrieveRecentByUser(User user,
+                                            SQLConnection connection,
+                                            Handler<AsyncResult<List<SecurityEvent>>> handler) {
+        EventBus eb = Vertx.currentContext().owner().eventBus();
+        eb.send(SecurityEventVerticle.SECURITY_EVENT_RECENT_ADDRESS, user.getId(),
+                Deadline.deliveryOptions(connection), res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+
+                    JsonArray rows = (JsonArray) res.result().body();
+                    List<SecurityEvent> events = new ArrayList<>();
+                    try {
+                        for (int i = 0; i < rows.size(); i++) {
+                            events.add(fromJsonObject(rows.getJsonObject(i)));
+                        }
+                    } catch (UnknownHostException e) {
+                        handler.handle(Future.failedFuture(e));
+                        return;
+                    }
+                    handler.handle(Future.succeededFuture(events));
+                });
+    }
+
+    /**
+     * Retrieve a user's most recent security events from the database, as rows.
+     *
+     * @param userId The user's identifier.
+     * @param limit The maximum number of events to retrieve.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the rows, newest first, on success.
+     */
+    public static void retrieveRowsByUser(int userId, int limit,
+                                          SQLConnection connection,
+                                          Handler<AsyncResult<List<JsonObject>>> handler) {
         JsonArray params = new JsonArray()
-                .add(user.getId())
+                .add(userId)
                 .add(limit);
         connection.queryWithParams(
                 "SELECT " +
@@ -135,16 +209,32 @@ public class SecurityEvent {
                         handler.handle(Future.failedFuture(eventsRes.cause()));
                         return;
                     }
+                    handler.handle(Future.succeededFuture(eventsRes.result().getRows()));
+                });
+    }
 
-                    List<SecurityEvent> events = new ArrayList<>();
-                    try {
-                        for (JsonObject row : eventsRes.result().getRows()) {
-                            events.add(fromJsonObject(row));
-                        }
-                    } catch (UnknownHostException e) {
-                        handler.handle(Future.failedFuture(e));
+    /**
+     * Delete a batch of old security events.
+     *
+     * @param before Events that happened before this time are deleted.
+     * @param limit The maximum number of rows to delete.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the number of rows deleted on success.
+     */
+    public static void deleteBefore(OffsetDateTime before,
+                                    int limit,
+                                    SQLConnection connection,
+                                    Handler<AsyncResult<Integer>> handler) {
+        JsonArray params = new JsonArray()
+                .add(Time.toSql(before))
+                .add(limit);
+        connection.updateWithParams(
+                "DELETE FROM SecurityEvents WHERE Timestamp < ? LIMIT ?;", params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
                     }
-                    handler.handle(Future.succeededFuture(events));
+                    handler.handle(Future.succeededFuture(res.result().getUpdated()));
                 });
     }
 }
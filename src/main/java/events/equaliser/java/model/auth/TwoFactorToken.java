@@ -11,7 +11,6 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
-import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
 import org.slf4j.Logger;
@@ -31,7 +30,7 @@ public class TwoFactorToken {
     private static final int TOKEN_VALIDITY_MINUTES = 10;
 
     private final User user;
-    private final byte[] token;
+    private final Token token;
     private final String code;
     private final String sid;
     private final OffsetDateTime expires;
@@ -42,7 +41,7 @@ public class TwoFactorToken {
     }
 
     @JsonIgnore
-    public byte[] getToken() {
+    public Token getToken() {
         return token;
     }
 
@@ -58,14 +57,14 @@ public class TwoFactorToken {
 
     @JsonProperty("token")
     public String getTokenHex() {
-        return Hex.binToHex(getToken());
+        return getToken().toHex();
     }
 
     public OffsetDateTime getExpires() {
         return expires;
     }
 
-    public TwoFactorToken(User user, byte[] token, String code, String sid, OffsetDateTime expires) {
+    public TwoFactorToken(User user, Token token, String code, String sid, OffsetDateTime expires) {
         this.user = user;
         this.token = token;
         this.code = code;
@@ -80,11 +79,11 @@ public class TwoFactorToken {
         Sms.send(getMessage(user, code), user, result -> {
             if (result.succeeded()) {
                 Message message = result.result();
-                byte[] token = Random.getBytes(TOKEN_LENGTH);
+                Token token = Token.random(TOKEN_LENGTH);
                 OffsetDateTime expires = OffsetDateTime.now().plusMinutes(TOKEN_VALIDITY_MINUTES);
                 JsonArray params = new JsonArray()
                         .add(user.getId())
-                        .add(token)
+                        .add(token.toBase64())
                         .add(code)
                         .add(message.getSid())
                         .add(Time.toSql(expires));
@@ -114,32 +113,15 @@ public class TwoFactorToken {
                 user.getForename(), code);
     }
 
-    public static void validate(byte[] token,
+    public static void validate(Token token,
                                 String code,
                                 SQLConnection connection,
                                 Handler<AsyncResult<User>> handler) {
-        JsonArray params = new JsonArray().add(token).add(code);
+        JsonArray params = new JsonArray().add(token.toBase64()).add(code);
         connection.queryWithParams(
-                "SELECT " +
-                    "Users.UserID, " +
-                    "Users.Username AS UserUsername, " +
-                    "Users.Forename AS UserForename, " +
-                    "Users.Surname AS UserSurname, " +
-                    "Users.Email AS UserEmail, " +
-                    "Users.AreaCode AS UserAreaCode, " +
-                    "Users.SubscriberNumber AS UserSubscriberNumber, " +
-                    "Users.Token AS UserToken, " +
-                    "Users.ImageID AS UserImageID, " +
-                    "Countries.CountryID, " +
-                    "Countries.Name AS CountryName, " +
-                    "Countries.Abbreviation AS CountryAbbreviation, " +
-                    "Countries.CallingCode AS CountryCallingCode " +
+                "SELECT UserID " +
                 "FROM TwoFactorTokens " +
-                    "INNER JOIN Users " +
-                        "ON Users.UserID = TwoFactorTokens.UserID " +
-                    "INNER JOIN Countries " +
-                        "ON Countries.CountryID = Users.CountryID " +
-                "WHERE TwoFactorTokens.Token = FROM_BASE64(?) AND TwoFactorTokens.Code = ?;", params, validateRes -> {
+                "WHERE Token = FROM_BASE64(?) AND Code = ?;", params, validateRes -> {
                     if (validateRes.failed()) {
                         handler.handle(Future.failedFuture(validateRes.cause()));
                         return;
@@ -151,8 +133,7 @@ public class TwoFactorToken {
                         return;
                     }
 
-                    JsonObject row = result.getRows().get(0);
-                    User.retrieveProfilePicture(row, connection, handler);
+                    User.retrieveFromId(result.getRows().get(0).getInteger("UserID"), connection, handler);
                 });
     }
 
@@ -166,7 +147,7 @@ public class TwoFactorToken {
                 if (tokenRes.succeeded()) {
                     TwoFactorToken sent = tokenRes.result();
                     ObjectNode wrapper = Json.FACTORY.objectNode();
-                    wrapper.set("token", Json.MAPPER.convertValue(sent, JsonNode.class));
+                    wrapper.set("token", Json.FACTORY.pojoNode(sent));
                     result.handle(Future.succeededFuture(wrapper));
                 }
                 else {
@@ -178,4 +159,29 @@ public class TwoFactorToken {
             result.handle(Future.failedFuture(userResult.cause()));
         }
     }
+
+    /**
+     * Delete a batch of expired tokens.
+     *
+     * @param before Tokens that expired before this time are deleted.
+     * @param limit The maximum number of rows to delete.
+     * @param connection An open database connection.
+     * @param handler A result handler that will receive the number of rows deleted on success.
+     */
+    public static void deleteBefore(OffsetDateTime before,
+                                    int limit,
+                                    SQLConnection connection,
+                                    Handler<AsyncResult<Integer>> handler) {
+        JsonArray params = new JsonArray()
+                .add(Time.toSql(before))
+                .add(limit);
+        connection.updateWithParams(
+                "DELETE FROM TwoFactorTokens WHERE Expires < ? LIMIT ?;", params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    handler.handle(Future.succeededFuture(res.result().getUpdated()));
+                });
+    }
 }
@@ -4,6 +4,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import events.equaliser.java.model.image.Image;
 import events.equaliser.java.model.image.ImageSize;
+import events.equaliser.java.util.Catalog;
+import events.equaliser.java.util.Fanout;
+import events.equaliser.java.util.Loaders;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -15,8 +18,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -73,45 +80,16 @@ public class BareSeries {
     public static void retrieveFromId(int id,
                                       SQLConnection connection,
                                       Handler<AsyncResult<? extends BareSeries>> handler) {
-        // retrieve tags
-        Tag.retrieveFromSeries(id, connection, seriesTags -> {
-            if (seriesTags.succeeded()) {
-                List<Tag> tags = seriesTags.result();
-
-                // retrieve images
-                Image.retrieveFromSeries(id, connection, seriesImages -> {
-                    if (seriesImages.succeeded()) {
-                        List<Image> images = seriesImages.result();
-                        JsonArray params = new JsonArray().add(id);
-                        connection.queryWithParams(
-                                "SELECT Name, Description " +
-                                "FROM Series " +
-                                "WHERE SeriesID = ?;",
-                                params, seriesRes -> {
-                                    if (seriesRes.succeeded()) {
-                                        ResultSet rows = seriesRes.result();
-                                        JsonObject row = rows.getRows().get(0);
-                                        String name = row.getString("Name");
-                                        String description = row.getString("Description");
-                                        handler.handle(Future.succeededFuture(
-                                                new BareSeries(id, name, description, tags, images)));
-                                    }
-                                    else {
-                                        handler.handle(Future.failedFuture(seriesRes.cause()));
-                                    }
-                                });
-                    }
-                    else {
-                        handler.handle(Future.failedFuture(seriesImages.cause()));
-                    }
-                });
-            }
-            else {
-                handler.handle(Future.failedFuture(seriesTags.cause()));
-            }
-        });
+        Loaders.of(connection).getSeries().load(id, handler::handle);
     }
 
+    /**
+     * Retrieve the series with a tag.
+     *
+     * @param name The name of the tag.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the series to.
+     */
     public static void retrieveFromTag(String name,
                                        SQLConnection connection,
                                        Handler<AsyncResult<List<BareSeries>>> handler) {
@@ -123,77 +101,121 @@ public class BareSeries {
 
             Tag tag = tagResult.result();
             logger.debug("Identified tag {}", tag);
-            Tag.retrieveSeriesTag(tag, connection, tagsResult -> {
-                if (tagsResult.failed()) {
-                    handler.handle(Future.failedFuture(tagsResult.cause()));
-                    return;
-                }
-
-                Map<Integer, List<Tag>> tagsMap = tagsResult.result();
-                ImageSize.retrieveSeriesTag(tag, connection, imagesResult -> {
-                    if (imagesResult.failed()) {
-                        handler.handle(Future.failedFuture(imagesResult.cause()));
-                        return;
-                    }
-
-                    Map<Integer, List<Image>> imagesMap = imagesResult.result();
-                    JsonArray params = new JsonArray().add(tag.getId());
-                    connection.queryWithParams(
-                            "SELECT Series.SeriesID, Series.Name, Series.Description " +
-                            "FROM SeriesTags " +
-                                "INNER JOIN Series " +
-                                    "ON Series.SeriesID = SeriesTags.SeriesID " +
-                            "WHERE SeriesTags.TagID = ?;",
-                            params,
-                            seriesResult -> processSeriesResult(tagsMap, imagesMap, seriesResult, handler));
-                });
-            });
+            connection.queryWithParams(
+                    "SELECT SeriesID " +
+                    "FROM SeriesTags " +
+                    "WHERE TagID = ?;",
+                    new JsonArray().add(tag.getId()), idsRes -> retrieveFromIdsResult(idsRes, connection, handler));
         });
     }
 
+    /**
+     * Retrieve the most popular or notable series.
+     *
+     * @param connection The connection to use.
+     * @param handler The handler to pass the series to.
+     */
     public static void retrieveShowcase(SQLConnection connection,
                                         Handler<AsyncResult<List<BareSeries>>> handler) {
-        Tag.retrieveSeriesShowcase(connection, tagsResult -> {
-            if (tagsResult.failed()) {
-                handler.handle(Future.failedFuture(tagsResult.cause()));
-                return;
-            }
-
-            Map<Integer, List<Tag>> tagsMap = tagsResult.result();
-            ImageSize.retrieveSeriesShowcase(connection, imagesResult -> {
-                if (imagesResult.failed()) {
-                    handler.handle(Future.failedFuture(imagesResult.cause()));
-                    return;
-                }
-
-                Map<Integer, List<Image>> imagesMap = imagesResult.result();
-                connection.query(
-                        "SELECT SeriesID, Name, Description " +
-                        "FROM Series " +
-                        "WHERE IsShowcase = true;",
-                        seriesResult -> processSeriesResult(tagsMap, imagesMap, seriesResult, handler));
-            });
-        });
+        connection.query(
+                "SELECT SeriesID " +
+                "FROM Series " +
+                "WHERE IsShowcase = true;", idsRes -> retrieveFromIdsResult(idsRes, connection, handler));
     }
 
-    private static void processSeriesResult(Map<Integer, List<Tag>> tagsMap,
-                                            Map<Integer, List<Image>> imagesMap,
-                                            AsyncResult<ResultSet> result,
-                                            Handler<AsyncResult<List<BareSeries>>> handler) {
+    /**
+     * Retrieve the series identified by the rows of a query.
+     *
+     * @param result The result of the query, with a SeriesID column.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the series to, in the order of the rows.
+     */
+    private static void retrieveFromIdsResult(AsyncResult<ResultSet> result,
+                                              SQLConnection connection,
+                                              Handler<AsyncResult<List<BareSeries>>> handler) {
         if (result.failed()) {
             handler.handle(Future.failedFuture(result.cause()));
             return;
         }
 
-        ResultSet seriesResults = result.result();
-        List<BareSeries> series = new ArrayList<>();
-        for (JsonObject row : seriesResults.getRows()) {
-            int seriesId = row.getInteger("SeriesID");
-            String name = row.getString("Name");
-            String description = row.getString("Description");
-            series.add(new BareSeries(seriesId, name, description,
-                    tagsMap.get(seriesId), imagesMap.get(seriesId)));
+        List<Integer> ids = result.result().getRows().stream()
+                .map(row -> row.getInteger("SeriesID"))
+                .collect(Collectors.toList());
+        retrieveFromIds(ids, connection, handler);
+    }
+
+    /**
+     * Retrieve several series at once, e.g. a page of search results, from the catalog cache where possible.
+     *
+     * @param ids The identifiers of the series.
+     * @param connection The connection to use for series not cached.
+     * @param handler The handler to pass the series to, in the same order as their identifiers. Series that no longer
+     *                exist are omitted.
+     */
+    public static void retrieveFromIds(List<Integer> ids,
+                                       SQLConnection connection,
+                                       Handler<AsyncResult<List<BareSeries>>> handler) {
+        if (ids.isEmpty()) {
+            handler.handle(Future.succeededFuture(Collections.emptyList()));
+            return;
         }
-        handler.handle(Future.succeededFuture(series));
+
+        Catalog.getSeries().readThrough(new LinkedHashSet<>(ids),
+                (missing, h) -> fetchFromIds(missing, connection, h), seriesRes -> {
+                    if (seriesRes.failed()) {
+                        handler.handle(Future.failedFuture(seriesRes.cause()));
+                        return;
+                    }
+
+                    Map<Integer, BareSeries> byId = seriesRes.result();
+                    List<BareSeries> ordered = new ArrayList<>(ids.size());
+                    for (int id : ids) {
+                        BareSeries bareSeries = byId.get(id);
+                        if (bareSeries != null) {
+                            ordered.add(bareSeries);
+                        }
+                    }
+                    handler.handle(Future.succeededFuture(ordered));
+                });
+    }
+
+    /**
+     * Fetch several series from the database, querying their tags, images and details concurrently.
+     *
+     * @param ids The identifiers of the series; must not be empty.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the series found to, by identifier.
+     */
+    private static void fetchFromIds(Set<Integer> ids,
+                                     SQLConnection connection,
+                                     Handler<AsyncResult<Map<Integer, BareSeries>>> handler) {
+        Fanout fanout = new Fanout(connection);
+        Future<Map<Integer, List<Tag>>> tags = fanout.add((conn, h) -> Tag.retrieveSeriesIds(ids, conn, h));
+        Future<Map<Integer, List<Image>>> images = fanout.add((conn, h) -> ImageSize.retrieveSeriesIds(ids, conn, h));
+        Future<ResultSet> series = fanout.add((conn, h) -> conn.query(String.format(
+                "SELECT SeriesID, Name, Description " +
+                "FROM Series " +
+                "WHERE SeriesID IN (%s);",
+                ids.stream()
+                        .map(Object::toString)
+                        .collect(Collectors.joining(","))), h));
+        fanout.run(fanoutRes -> {
+            if (fanoutRes.failed()) {
+                handler.handle(Future.failedFuture(fanoutRes.cause()));
+                return;
+            }
+
+            Map<Integer, List<Tag>> tagsMap = tags.result();
+            Map<Integer, List<Image>> imagesMap = images.result();
+            Map<Integer, BareSeries> byId = new HashMap<>();
+            for (JsonObject row : series.result().getRows()) {
+                int seriesId = row.getInteger("SeriesID");
+                String name = row.getString("Name");
+                String description = row.getString("Description");
+                byId.put(seriesId, new BareSeries(seriesId, name, description,
+                        tagsMap.get(seriesId), imagesMap.get(seriesId)));
+            }
+            handler.handle(Future.succeededFuture(byId));
+        });
     }
 }
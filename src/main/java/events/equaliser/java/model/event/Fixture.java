@@ -1,5 +1,7 @@
 package events.equaliser.java.model.event;
 
+import events.equaliser.java.util.Catalog;
+import events.equaliser.java.util.Loaders;
 import events.equaliser.java.util.Time;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
@@ -11,8 +13,12 @@ import io.vertx.ext.sql.SQLConnection;
 
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * A particular event within a series.
@@ -61,16 +67,104 @@ public class Fixture {
     public static void retrieveFromId(int id,
                                       SQLConnection connection,
                                       Handler<AsyncResult<Fixture>> handler) {
-        Tier.retrieveByFixture(id, connection, tiersRes -> {
+        Loaders.of(connection).getFixtures().load(id, handler);
+    }
+
+    /**
+     * Copy this fixture, noting whether each of its tiers has tickets remaining.
+     *
+     * @param remaining The number of tickets remaining, keyed by tier identifier as a string.
+     * @return The copy.
+     */
+    private Fixture withRemaining(JsonObject remaining) {
+        List<Tier> marked = tiers.stream()
+                .map(tier -> tier.withAvailable(remaining.getInteger(Integer.toString(tier.getId()), 0) > 0))
+                .collect(Collectors.toList());
+        return new Fixture(id, series, start, finish, venue, marked);
+    }
+
+    /**
+     * Retrieve several fixtures at once, along with their series and tiers. Fixtures come from the catalog cache
+     * where possible, but the availability of their tiers is always current.
+     *
+     * @param ids The identifiers of the fixtures.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the fixtures found to, by identifier.
+     */
+    public static void retrieveFromIds(Set<Integer> ids,
+                                       SQLConnection connection,
+                                       Handler<AsyncResult<Map<Integer, Fixture>>> handler) {
+        Catalog.getFixtures().readThrough(ids, (missing, h) -> fetchFromIds(missing, connection, h), fixturesRes -> {
+            if (fixturesRes.failed()) {
+                handler.handle(Future.failedFuture(fixturesRes.cause()));
+                return;
+            }
+
+            Map<Integer, Fixture> fixtures = fixturesRes.result();
+            List<Integer> tierIds = fixtures.values().stream()
+                    .flatMap(fixture -> fixture.getTiers().stream())
+                    .map(Tier::getId)
+                    .collect(Collectors.toList());
+            Tier.findRemaining(tierIds, connection, remainingRes -> {
+                if (remainingRes.failed()) {
+                    handler.handle(Future.failedFuture(remainingRes.cause()));
+                    return;
+                }
+
+                Map<Integer, Fixture> marked = new HashMap<>();
+                for (Fixture fixture : fixtures.values()) {
+                    marked.put(fixture.getId(), fixture.withRemaining(remainingRes.result()));
+                }
+                handler.handle(Future.succeededFuture(marked));
+            });
+        });
+    }
+
+    /**
+     * Load the fixtures starting soonest into the catalog cache, without looking up their availability.
+     *
+     * @param limit The most fixtures to load.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the number of fixtures loaded to.
+     */
+    public static void preloadUpcoming(int limit,
+                                       SQLConnection connection,
+                                       Handler<AsyncResult<Integer>> handler) {
+        connection.queryWithParams(
+                "SELECT FixtureID " +
+                "FROM Fixtures " +
+                "WHERE Finish >= NOW() " +
+                "ORDER BY Start ASC " +
+                "LIMIT ?;",
+                new JsonArray().add(limit), idsRes -> {
+                    if (idsRes.failed()) {
+                        handler.handle(Future.failedFuture(idsRes.cause()));
+                        return;
+                    }
+
+                    Set<Integer> ids = idsRes.result().getRows().stream()
+                            .map(row -> row.getInteger("FixtureID"))
+                            .collect(Collectors.toSet());
+                    Catalog.getFixtures().readThrough(ids, (missing, h) -> fetchFromIds(missing, connection, h),
+                            fixturesRes -> handler.handle(fixturesRes.failed()
+                                    ? Future.failedFuture(fixturesRes.cause())
+                                    : Future.succeededFuture(fixturesRes.result().size())));
+                });
+    }
+
+    private static void fetchFromIds(Set<Integer> ids,
+                                     SQLConnection connection,
+                                     Handler<AsyncResult<Map<Integer, Fixture>>> handler) {
+        Tier.retrieveByFixtures(ids, connection, tiersRes -> {
             if (tiersRes.failed()) {
                 handler.handle(Future.failedFuture(tiersRes.cause()));
                 return;
             }
 
-            List<Tier> tiers = tiersRes.result();
-            JsonArray params = new JsonArray().add(id);
-            connection.queryWithParams(
+            Map<Integer, List<Tier>> fixtureTiers = tiersRes.result();
+            connection.queryWithParams(String.format(
                     "SELECT " +
+                        "Fixtures.FixtureID, " +
                         "Fixtures.SeriesID, " +
                         "Fixtures.Start AS FixtureStart, " +
                         "Fixtures.Finish AS FixtureFinish, " +
@@ -91,34 +185,39 @@ public class Fixture {
                             "ON Venues.VenueID = Fixtures.VenueID " +
                         "INNER JOIN Countries " +
                             "ON Countries.CountryID = Venues.CountryID " +
-                    "WHERE Fixtures.FixtureID = ?;",
-                    params, fixtureRes -> {
-                        if (fixtureRes.failed()) {
-                            handler.handle(Future.failedFuture(fixtureRes.cause()));
+                    "WHERE Fixtures.FixtureID IN (%s);", String.join(",", Collections.nCopies(ids.size(), "?"))),
+                    new JsonArray(new ArrayList<>(ids)), fixturesRes -> {
+                        if (fixturesRes.failed()) {
+                            handler.handle(Future.failedFuture(fixturesRes.cause()));
                             return;
                         }
 
-                        ResultSet rows = fixtureRes.result();
-                        if (rows.getNumRows() == 0) {
-                            handler.handle(Future.failedFuture("No fixture found with id " + id));
-                            return;
-                        }
-
-                        JsonObject row = rows.getRows().get(0);
-                        int seriesId = row.getInteger("SeriesID");
-                        BareSeries.retrieveFromId(seriesId, connection, seriesRes -> {
+                        List<JsonObject> rows = fixturesRes.result().getRows();
+                        Set<Integer> seriesIds = rows.stream()
+                                .map(row -> row.getInteger("SeriesID"))
+                                .collect(Collectors.toSet());
+                        Loaders.of(connection).getSeries().loadNow(seriesIds, seriesRes -> {
                             if (seriesRes.failed()) {
-                                handler.handle(Future.failedFuture(
-                                        "No series found with id " + seriesId + " for fixture"));
+                                handler.handle(Future.failedFuture(seriesRes.cause()));
                                 return;
                             }
 
-                            BareSeries series = seriesRes.result();
-                            OffsetDateTime start = Time.parseOffsetDateTime(row.getString("FixtureStart"));
-                            OffsetDateTime finish = Time.parseOffsetDateTime(row.getString("FixtureFinish"));
-                            Venue venue = Venue.fromJsonObject(row);
-                            Fixture fixture = new Fixture(id, series, start, finish, venue, tiers);
-                            handler.handle(Future.succeededFuture(fixture));
+                            Map<Integer, BareSeries> series = seriesRes.result();
+                            Map<Integer, Fixture> fixtures = new HashMap<>();
+                            for (JsonObject row : rows) {
+                                int fixtureId = row.getInteger("FixtureID");
+                                BareSeries fixtureSeries = series.get(row.getInteger("SeriesID"));
+                                if (fixtureSeries == null) {
+                                    continue;
+                                }
+                                OffsetDateTime start = Time.parseOffsetDateTime(row.getString("FixtureStart"));
+                                OffsetDateTime finish = Time.parseOffsetDateTime(row.getString("FixtureFinish"));
+                                Venue venue = Venue.fromJsonObject(row);
+                                List<Tier> tiers = fixtureTiers.getOrDefault(fixtureId, new ArrayList<>());
+                                fixtures.put(fixtureId,
+                                        new Fixture(fixtureId, fixtureSeries, start, finish, venue, tiers));
+                            }
+                            handler.handle(Future.succeededFuture(fixtures));
                         });
                     });
         });
@@ -0,0 +1,491 @@
+package events.equaliser.java.model.event;
+
+import events.equaliser.java.model.geography.Coordinates;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index of upcoming fixtures by when and where they take place. Fixtures are held in order of their
+ * start, so those starting within a range are found by binary search. Venues are bucketed into a grid of cells a
+ * tenth of a degree across, so a search within a radius only looks at fixtures in the cells the radius covers, rather
+ * than measuring the distance to every fixture.
+ */
+public class FixtureIndex {
+
+    /**
+     * The mean radius of the Earth.
+     */
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    /**
+     * The size of a grid cell in degrees of latitude and longitude.
+     */
+    private static final double CELL_DEGREES = 0.1;
+
+    private static final int LONGITUDE_CELLS = (int) Math.ceil(360 / CELL_DEGREES);
+
+    /**
+     * A fixture and how far away it is.
+     */
+    public static class Nearby {
+
+        private final FixtureListing fixture;
+        private final double distance;
+
+        private Nearby(FixtureListing fixture, double distance) {
+            this.fixture = fixture;
+            this.distance = distance;
+        }
+
+        public FixtureListing getFixture() {
+            return fixture;
+        }
+
+        /**
+         * @return The distance to the fixture's venue in kilometres.
+         */
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * A page of results.
+     *
+     * @param <T> The type of result.
+     */
+    public static class Page<T> {
+
+        private final List<T> results;
+        private final int total;
+
+        private Page(List<T> results, int total) {
+            this.results = results;
+            this.total = total;
+        }
+
+        /**
+         * @return The results on this page.
+         */
+        public List<T> getResults() {
+            return results;
+        }
+
+        /**
+         * @return The number of results across all pages.
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    /**
+     * A position in the listing of fixtures by start time, from which the next page continues. Positions rather than
+     * offsets are used so that fixtures being added or removed between pages cannot cause any to be skipped or
+     * repeated.
+     */
+    public static class Cursor {
+
+        private final long start;
+        private final int fixtureId;
+
+        private Cursor(long start, int fixtureId) {
+            this.start = start;
+            this.fixtureId = fixtureId;
+        }
+
+        /**
+         * Parse a cursor previously turned into a string.
+         *
+         * @param cursor The string.
+         * @return The cursor.
+         * @throws IllegalArgumentException If the string is not a cursor.
+         */
+        public static Cursor parse(String cursor) {
+            int separator = cursor.indexOf(':');
+            try {
+                if (separator > 0) {
+                    return new Cursor(Long.parseLong(cursor.substring(0, separator)),
+                            Integer.parseInt(cursor.substring(separator + 1)));
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+
+        @Override
+        public String toString() {
+            return start + ":" + fixtureId;
+        }
+    }
+
+    /**
+     * A page of fixtures in order of their start.
+     */
+    public static class Slice {
+
+        private final List<FixtureListing> fixtures;
+        private final Cursor next;
+
+        private Slice(List<FixtureListing> fixtures, Cursor next) {
+            this.fixtures = fixtures;
+            this.next = next;
+        }
+
+        public List<FixtureListing> getFixtures() {
+            return fixtures;
+        }
+
+        /**
+         * @return Where the next page starts, or null if this is the last.
+         */
+        public Cursor getNext() {
+            return next;
+        }
+    }
+
+    /**
+     * The fixtures, in order of start and then identifier.
+     */
+    private final FixtureListing[] fixtures;
+    private final int[] ids;
+
+    /**
+     * The latitude, its cosine and the longitude of each fixture's venue, in radians.
+     */
+    private final double[] latitudes;
+    private final double[] latitudeCosines;
+    private final double[] longitudes;
+
+    /**
+     * The start and finish of each fixture, in epoch seconds.
+     */
+    private final long[] starts;
+    private final long[] finishes;
+
+    /**
+     * The positions of the fixtures in each grid cell.
+     */
+    private final Map<Integer, int[]> cells;
+
+    /**
+     * Build an index.
+     *
+     * @param fixtures The fixtures to index.
+     */
+    public FixtureIndex(Collection<FixtureListing> fixtures) {
+        this.fixtures = inStartOrder(fixtures.toArray(new FixtureListing[fixtures.size()]));
+        ids = new int[this.fixtures.length];
+        latitudes = new double[this.fixtures.length];
+        latitudeCosines = new double[this.fixtures.length];
+        longitudes = new double[this.fixtures.length];
+        starts = new long[this.fixtures.length];
+        finishes = new long[this.fixtures.length];
+        Map<Integer, List<Integer>> grid = new HashMap<>();
+        for (int i = 0; i < this.fixtures.length; i++) {
+            FixtureListing fixture = this.fixtures[i];
+            ids[i] = fixture.getId();
+            Coordinates location = fixture.getVenue().getLocation();
+            latitudes[i] = Math.toRadians(location.getLatitude());
+            latitudeCosines[i] = Math.cos(latitudes[i]);
+            longitudes[i] = Math.toRadians(location.getLongitude());
+            starts[i] = fixture.getStart().toEpochSecond();
+            finishes[i] = fixture.getFinish().toEpochSecond();
+            int cell = cell(latitudeCell(location.getLatitude()), longitudeCell(location.getLongitude()));
+            grid.computeIfAbsent(cell, key -> new ArrayList<>()).add(i);
+        }
+        cells = new HashMap<>(grid.size() * 2);
+        for (Map.Entry<Integer, List<Integer>> entry : grid.entrySet()) {
+            cells.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * Sort fixtures by start and then identifier. Each sort packs its key and the fixture's position into a long, as
+     * sorting those is several times faster than sorting the fixtures with a comparator.
+     */
+    private static FixtureListing[] inStartOrder(FixtureListing[] fixtures) {
+        long[] keys = new long[fixtures.length];
+        for (int i = 0; i < fixtures.length; i++) {
+            keys[i] = (long) fixtures[i].getId() << 32 | i;
+        }
+        fixtures = reorder(fixtures, keys);
+
+        long earliest = Long.MAX_VALUE;
+        long latest = Long.MIN_VALUE;
+        for (FixtureListing fixture : fixtures) {
+            earliest = Math.min(earliest, fixture.getStart().toEpochSecond());
+            latest = Math.max(latest, fixture.getStart().toEpochSecond());
+        }
+        if (fixtures.length > 0 && latest - earliest > Integer.MAX_VALUE) {
+            // too far apart to pack; fixtures are in identifier order, which a stable sort keeps for equal starts
+            Arrays.sort(fixtures, Comparator.comparing(FixtureListing::getStart));
+            return fixtures;
+        }
+        for (int i = 0; i < fixtures.length; i++) {
+            keys[i] = (fixtures[i].getStart().toEpochSecond() - earliest) << 32 | i;
+        }
+        return reorder(fixtures, keys);
+    }
+
+    /**
+     * Sort packed keys and put the fixtures in the order of the positions held in their low 32 bits.
+     */
+    private static FixtureListing[] reorder(FixtureListing[] fixtures, long[] keys) {
+        Arrays.sort(keys);
+        FixtureListing[] sorted = new FixtureListing[fixtures.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = fixtures[(int) keys[i]];
+        }
+        return sorted;
+    }
+
+    private static int latitudeCell(double latitude) {
+        return (int) Math.floor((Math.max(-90, Math.min(90, latitude)) + 90) / CELL_DEGREES);
+    }
+
+    private static int longitudeCell(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / CELL_DEGREES), LONGITUDE_CELLS);
+    }
+
+    private static int cell(int latitudeCell, int longitudeCell) {
+        return latitudeCell * LONGITUDE_CELLS + longitudeCell;
+    }
+
+    /**
+     * Find the number of fixtures indexed.
+     *
+     * @return The number of fixtures.
+     */
+    public int size() {
+        return fixtures.length;
+    }
+
+    /**
+     * Create a new index with some fixtures added or replaced, and those that have finished removed.
+     *
+     * @param changed The new or changed fixtures.
+     * @param now The current time.
+     * @return The new index.
+     */
+    public FixtureIndex with(Collection<FixtureListing> changed, OffsetDateTime now) {
+        long nowSeconds = now.toEpochSecond();
+        Map<Integer, FixtureListing> merged = new LinkedHashMap<>(fixtures.length + changed.size());
+        for (int i = 0; i < fixtures.length; i++) {
+            if (finishes[i] >= nowSeconds) {
+                merged.put(fixtures[i].getId(), fixtures[i]);
+            }
+        }
+        for (FixtureListing fixture : changed) {
+            merged.put(fixture.getId(), fixture);
+        }
+        return new FixtureIndex(merged.values());
+    }
+
+    /**
+     * List fixtures starting within a range, soonest first.
+     *
+     * @param from Only fixtures starting at or after this time are included.
+     * @param to Only fixtures starting before this time are included; null for no limit.
+     * @param after Where the previous page finished; null for the first page.
+     * @param limit The maximum number of fixtures to return.
+     * @return The page of fixtures.
+     */
+    public Slice between(OffsetDateTime from, OffsetDateTime to, Cursor after, int limit) {
+        int first = firstStartingAt(from.toEpochSecond(), Integer.MIN_VALUE);
+        if (after != null) {
+            first = Math.max(first, after.fixtureId == Integer.MAX_VALUE ?
+                    firstStartingAt(after.start + 1, Integer.MIN_VALUE) :
+                    firstStartingAt(after.start, after.fixtureId + 1));
+        }
+        int end = to == null ? fixtures.length : firstStartingAt(to.toEpochSecond(), Integer.MIN_VALUE);
+        int last = (int) Math.min((long) first + limit, end);
+        if (first >= last) {
+            return new Slice(Collections.emptyList(), null);
+        }
+        Cursor next = last < end ? new Cursor(starts[last - 1], ids[last - 1]) : null;
+        return new Slice(Collections.unmodifiableList(Arrays.asList(fixtures).subList(first, last)), next);
+    }
+
+    /**
+     * Find the position of the first fixture that starts after a time, or at it with at least a given identifier.
+     *
+     * @return The position, which is the number of fixtures if there is none.
+     */
+    private int firstStartingAt(long start, int fixtureId) {
+        int low = 0;
+        int high = fixtures.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < start || (starts[middle] == start && ids[middle] < fixtureId)) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the haversine of the angle between two points, which increases with the distance between them, so can be
+     * compared without working out the distance itself.
+     */
+    private static double haversine(double latitude1, double latitude1Cosine, double longitude1,
+                                    double latitude2, double latitude2Cosine, double longitude2) {
+        double sinLatitude = Math.sin((latitude2 - latitude1) / 2);
+        double sinLongitude = Math.sin((longitude2 - longitude1) / 2);
+        return sinLatitude * sinLatitude + latitude1Cosine * latitude2Cosine * sinLongitude * sinLongitude;
+    }
+
+    /**
+     * Turn a haversine into a great-circle distance.
+     *
+     * @return The distance in kilometres.
+     */
+    private static double distance(double haversine) {
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(haversine)));
+    }
+
+    /**
+     * Find the fixtures nearest a point, within a radius and time window, nearest first and then soonest first.
+     *
+     * @param centre The point to search around.
+     * @param radiusKm The maximum distance in kilometres.
+     * @param from Only fixtures finishing at or after this time are included.
+     * @param to Only fixtures starting before this time are included; null for no limit.
+     * @param offset The number of results to skip.
+     * @param limit The maximum number of results to return.
+     * @return The page of results.
+     */
+    public Page<Nearby> near(Coordinates centre, double radiusKm, OffsetDateTime from, OffsetDateTime to,
+                             int offset, int limit) {
+        long fromSeconds = from.toEpochSecond();
+        long toSeconds = to == null ? Long.MAX_VALUE : to.toEpochSecond();
+        double latitude = Math.toRadians(centre.getLatitude());
+        double longitude = Math.toRadians(centre.getLongitude());
+        double latitudeCosine = Math.cos(latitude);
+        double maxHaversine = Math.pow(Math.sin(Math.min(Math.PI, radiusKm / EARTH_RADIUS_KM) / 2), 2);
+
+        // the cells covering the bounding box of the circle
+        double latitudeDegrees = radiusKm / KM_PER_DEGREE;
+        int minLatitudeCell = latitudeCell(centre.getLatitude() - latitudeDegrees);
+        int maxLatitudeCell = latitudeCell(centre.getLatitude() + latitudeDegrees);
+        double widest = Math.min(90, Math.abs(centre.getLatitude()) + latitudeDegrees);
+        double longitudeDegrees = widest >= 89.9 ? 180 : latitudeDegrees / Math.cos(Math.toRadians(widest));
+        int longitudeCells = longitudeDegrees >= 180 ?
+                LONGITUDE_CELLS : Math.min(LONGITUDE_CELLS, (int) Math.ceil(2 * longitudeDegrees / CELL_DEGREES) + 2);
+        int minLongitudeCell = longitudeCell(centre.getLongitude() - longitudeDegrees);
+
+        int[] matches = new int[16];
+        double[] haversines = new double[16];
+        int matching = 0;
+        for (int latitudeCell = minLatitudeCell; latitudeCell <= maxLatitudeCell; latitudeCell++) {
+            for (int i = 0; i < longitudeCells; i++) {
+                int[] inCell = cells.get(cell(latitudeCell, (minLongitudeCell + i) % LONGITUDE_CELLS));
+                if (inCell == null) {
+                    continue;
+                }
+                for (int fixture : inCell) {
+                    if (finishes[fixture] < fromSeconds || starts[fixture] >= toSeconds) {
+                        continue;
+                    }
+                    double haversine = haversine(latitude, latitudeCosine, longitude,
+                            latitudes[fixture], latitudeCosines[fixture], longitudes[fixture]);
+                    if (haversine <= maxHaversine) {
+                        if (matching == matches.length) {
+                            matches = Arrays.copyOf(matches, matching * 2);
+                            haversines = Arrays.copyOf(haversines, matching * 2);
+                        }
+                        matches[matching] = fixture;
+                        haversines[matching] = haversine;
+                        matching++;
+                    }
+                }
+            }
+        }
+
+        // keep the nearest offset + limit in a heap with the furthest at the top, then put them in order
+        int wanted = (int) Math.min((long) offset + limit, matching);
+        int[] heap = new int[wanted];
+        int heapSize = 0;
+        for (int match = 0; match < matching && wanted > 0; match++) {
+            if (heapSize < wanted) {
+                heap[heapSize] = match;
+                for (int child = heapSize++; child > 0; ) {
+                    int parent = (child - 1) >>> 1;
+                    if (compare(parent, child, heap, matches, haversines) >= 0) {
+                        break;
+                    }
+                    swap(heap, parent, child);
+                    child = parent;
+                }
+            }
+            else if (compare(match, heap[0], matches, haversines) < 0) {
+                heap[0] = match;
+                siftDown(heap, heapSize, matches, haversines);
+            }
+        }
+        List<Nearby> ordered = new ArrayList<>(heapSize);
+        for (int size = heapSize; size > 0; size--) {
+            ordered.add(new Nearby(fixtures[matches[heap[0]]], distance(haversines[heap[0]])));
+            heap[0] = heap[size - 1];
+            siftDown(heap, size - 1, matches, haversines);
+        }
+        Collections.reverse(ordered);
+        if (offset >= ordered.size()) {
+            return new Page<>(Collections.emptyList(), matching);
+        }
+        return new Page<>(ordered.subList(offset, ordered.size()), matching);
+    }
+
+    /**
+     * Compare two matches by distance and then by start time.
+     */
+    private int compare(int a, int b, int[] matches, double[] haversines) {
+        int byDistance = Double.compare(haversines[a], haversines[b]);
+        return byDistance != 0 ? byDistance : Long.compare(starts[matches[a]], starts[matches[b]]);
+    }
+
+    private int compare(int parent, int child, int[] heap, int[] matches, double[] haversines) {
+        return compare(heap[parent], heap[child], matches, haversines);
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int swap = heap[a];
+        heap[a] = heap[b];
+        heap[b] = swap;
+    }
+
+    private void siftDown(int[] heap, int size, int[] matches, double[] haversines) {
+        int index = 0;
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && compare(left, largest, heap, matches, haversines) > 0) {
+                largest = left;
+            }
+            if (right < size && compare(right, largest, heap, matches, haversines) > 0) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(heap, index, largest);
+            index = largest;
+        }
+    }
+}
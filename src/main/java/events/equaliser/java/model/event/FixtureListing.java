@@ -0,0 +1,201 @@
+package events.equaliser.java.model.event;
+
+import events.equaliser.java.util.Json;
+import events.equaliser.java.util.Time;
+import events.equaliser.java.verticles.PrimaryPoolVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A summary of an upcoming fixture, small enough to keep every one in memory for browsing by place and time.
+ */
+public class FixtureListing {
+
+    private final int id;
+    private final int seriesId;
+    private final String seriesName;
+    private final OffsetDateTime start;
+    private final OffsetDateTime finish;
+    private final Venue venue;
+    private final List<Tier> tiers;
+
+    public int getId() {
+        return id;
+    }
+
+    public int getSeriesId() {
+        return seriesId;
+    }
+
+    public String getSeriesName() {
+        return seriesName;
+    }
+
+    public OffsetDateTime getStart() {
+        return start;
+    }
+
+    public OffsetDateTime getFinish() {
+        return finish;
+    }
+
+    public Venue getVenue() {
+        return venue;
+    }
+
+    public List<Tier> getTiers() {
+        return tiers;
+    }
+
+    public FixtureListing(int id, int seriesId, String seriesName, OffsetDateTime start, OffsetDateTime finish,
+                          Venue venue, List<Tier> tiers) {
+        this.id = id;
+        this.seriesId = seriesId;
+        this.seriesName = seriesName;
+        this.start = start;
+        this.finish = finish;
+        this.venue = venue;
+        this.tiers = tiers;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FixtureListing(%d, %s, %s)", getId(), getSeriesName(), getStart());
+    }
+
+    /**
+     * Turn a JSON object into a listing without tiers.
+     *
+     * @param json The JSON object with correct keys.
+     * @return The FixtureListing representation of the object.
+     */
+    public static FixtureListing fromJsonObject(JsonObject json) {
+        return fromJsonObject(json, Collections.emptyList());
+    }
+
+    private static FixtureListing fromJsonObject(JsonObject json, List<Tier> tiers) {
+        return new FixtureListing(json.getInteger("FixtureID"),
+                json.getInteger("SeriesID"),
+                json.getString("SeriesName"),
+                Time.parseOffsetDateTime(json.getString("FixtureStart")),
+                Time.parseOffsetDateTime(json.getString("FixtureFinish")),
+                Venue.fromJsonObject(json),
+                tiers);
+    }
+
+    /**
+     * Find which tiers of some listings have tickets remaining, asking the primary pool about all of them at once.
+     *
+     * @param listings The listings.
+     * @param handler The handler to pass copies of the listings to, with each tier marked as available or not.
+     */
+    public static void findAvailability(List<FixtureListing> listings,
+                                        Handler<AsyncResult<List<FixtureListing>>> handler) {
+        List<Integer> tierIds = new ArrayList<>();
+        for (FixtureListing listing : listings) {
+            for (Tier tier : listing.getTiers()) {
+                tierIds.add(tier.getId());
+            }
+        }
+        if (tierIds.isEmpty()) {
+            handler.handle(Future.succeededFuture(listings));
+            return;
+        }
+
+        EventBus eb = Vertx.currentContext().owner().eventBus();
+        eb.send(PrimaryPoolVerticle.PRIMARY_POOL_AVAILABILITY_MULTIPLE_ADDRESS,
+                Json.toJsonArray(tierIds), reply -> {
+                    if (reply.failed()) {
+                        handler.handle(Future.failedFuture(reply.cause()));
+                        return;
+                    }
+
+                    JsonObject remaining = (JsonObject)reply.result().body();
+                    List<FixtureListing> marked = new ArrayList<>(listings.size());
+                    for (FixtureListing listing : listings) {
+                        List<Tier> tiers = listing.getTiers().stream()
+                                .map(tier -> tier.withAvailable(
+                                        remaining.getInteger(Integer.toString(tier.getId()), 0) > 0))
+                                .collect(Collectors.toList());
+                        marked.add(new FixtureListing(listing.id, listing.seriesId, listing.seriesName,
+                                listing.start, listing.finish, listing.venue, tiers));
+                    }
+                    handler.handle(Future.succeededFuture(marked));
+                });
+    }
+
+    /**
+     * Retrieve fixtures that have not yet finished, along with their tiers. Tiers are fetched separately rather than
+     * joined, to avoid repeating every fixture's columns once per tier.
+     *
+     * @param afterId Only fixtures with a greater identifier are returned; 0 for all of them.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the listings to.
+     */
+    public static void retrieveUpcoming(int afterId,
+                                        SQLConnection connection,
+                                        Handler<AsyncResult<List<FixtureListing>>> handler) {
+        JsonArray params = new JsonArray().add(afterId);
+        connection.queryWithParams(
+                "SELECT " +
+                    "Fixtures.FixtureID, " +
+                    "Fixtures.Start AS FixtureStart, " +
+                    "Fixtures.Finish AS FixtureFinish, " +
+                    "Series.SeriesID, " +
+                    "Series.Name AS SeriesName, " +
+                    "Venues.VenueID, " +
+                    "Venues.Name AS VenueName, " +
+                    "Venues.Address AS VenueAddress, " +
+                    "Venues.Postcode AS VenuePostcode, " +
+                    "Venues.AreaCode AS VenueAreaCode, " +
+                    "Venues.Phone AS VenuePhone, " +
+                    "X(Venues.Location) AS VenueLocationLatitude, " +
+                    "Y(Venues.Location) AS VenueLocationLongitude, " +
+                    "Countries.CountryID, " +
+                    "Countries.Name AS CountryName, " +
+                    "Countries.Abbreviation AS CountryAbbreviation, " +
+                    "Countries.CallingCode AS CountryCallingCode " +
+                "FROM Fixtures " +
+                    "INNER JOIN Series " +
+                        "ON Series.SeriesID = Fixtures.SeriesID " +
+                    "INNER JOIN Venues " +
+                        "ON Venues.VenueID = Fixtures.VenueID " +
+                    "INNER JOIN Countries " +
+                        "ON Countries.CountryID = Venues.CountryID " +
+                "WHERE Fixtures.Finish >= NOW() " +
+                    "AND Fixtures.FixtureID > ?;",
+                params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    List<JsonObject> rows = res.result().getRows();
+                    int toId = rows.stream().mapToInt(row -> row.getInteger("FixtureID")).max().orElse(afterId);
+                    Tier.retrieveUpcoming(afterId, toId, connection, tiersRes -> {
+                        if (tiersRes.failed()) {
+                            handler.handle(Future.failedFuture(tiersRes.cause()));
+                            return;
+                        }
+
+                        Map<Integer, List<Tier>> tiers = tiersRes.result();
+                        handler.handle(Future.succeededFuture(rows.stream()
+                                .map(row -> fromJsonObject(row, Collections.unmodifiableList(
+                                        tiers.getOrDefault(row.getInteger("FixtureID"), Collections.emptyList()))))
+                                .collect(Collectors.toList())));
+                    });
+                });
+    }
+}
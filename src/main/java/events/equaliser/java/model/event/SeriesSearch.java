@@ -0,0 +1,61 @@
+package events.equaliser.java.model.event;
+
+import events.equaliser.java.util.Metrics;
+
+/**
+ * Holds the current SeriesSearchIndex, which is built and refreshed in the background by the SeriesIndexVerticle.
+ * Until it is first built, isReady() returns false and search falls back to an exact tag match in the database.
+ */
+public class SeriesSearch {
+
+    private static volatile SeriesSearchIndex index;
+
+    static {
+        Metrics.gauge("series_search.indexed", () -> index == null ? 0 : index.size());
+    }
+
+    /**
+     * Find whether searches can be answered from the index.
+     *
+     * @return True once the index has been built.
+     */
+    public static boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * Find the current index.
+     *
+     * @return The index, or null if not yet built.
+     */
+    public static SeriesSearchIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Replace the index.
+     *
+     * @param replacement The new index.
+     */
+    public static void setIndex(SeriesSearchIndex replacement) {
+        index = replacement;
+    }
+
+    /**
+     * Find the series matching a query, most relevant first.
+     *
+     * @param query The query, as typed.
+     * @param offset The number of results to skip.
+     * @param limit The maximum number of results to return.
+     * @return The page of results.
+     * @throws IllegalStateException If the index has not been built.
+     */
+    public static SeriesSearchIndex.Page search(String query, int offset, int limit) {
+        SeriesSearchIndex current = index;
+        if (current == null) {
+            throw new IllegalStateException("Series search index not built");
+        }
+        Metrics.increment("series_search.search");
+        return current.search(query, offset, limit);
+    }
+}
@@ -0,0 +1,532 @@
+package events.equaliser.java.model.event;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable inverted index over series names, descriptions and tags, for search as the user types. Each word of
+ * the query must match a word of the series, either exactly, as a prefix, or failing those, approximately by shared
+ * trigrams, so typos still find something. Matches in tags count for more than matches in the name, which count for
+ * more than matches in the description, and exact matches for more than partial ones.
+ */
+public class SeriesSearchIndex {
+
+    private static final int FIELD_DESCRIPTION = 1;
+    private static final int FIELD_NAME = 2;
+    private static final int FIELD_TAG = 4;
+
+    private static final float EXACT = 1.0f;
+    private static final float PREFIX = 0.6f;
+    private static final float FUZZY = 0.4f;
+
+    /**
+     * The minimum Dice coefficient of two words' trigrams for them to be considered a fuzzy match.
+     */
+    private static final float MIN_SIMILARITY = 0.5f;
+
+    /**
+     * The maximum number of words a single prefix is expanded into; short prefixes of common letters match a lot.
+     */
+    private static final int MAX_EXPANSIONS = 1000;
+
+    /**
+     * Words shorter than this are not matched fuzzily, as they have too few trigrams to compare.
+     */
+    private static final int MIN_FUZZY_LENGTH = 3;
+
+    /**
+     * The text of a series that is searched.
+     */
+    public static class Document {
+
+        private final int seriesId;
+        private final String name;
+        private final String description;
+        private final List<String> tags;
+
+        public Document(int seriesId, String name, String description, List<String> tags) {
+            this.seriesId = seriesId;
+            this.name = name;
+            this.description = description;
+            this.tags = tags;
+        }
+
+        public int getSeriesId() {
+            return seriesId;
+        }
+    }
+
+    /**
+     * A page of search results.
+     */
+    public static class Page {
+
+        private final List<Integer> seriesIds;
+        private final int total;
+
+        private Page(List<Integer> seriesIds, int total) {
+            this.seriesIds = seriesIds;
+            this.total = total;
+        }
+
+        /**
+         * @return The identifiers of the series on this page, most relevant first.
+         */
+        public List<Integer> getSeriesIds() {
+            return seriesIds;
+        }
+
+        /**
+         * @return The number of series matching the query across all pages.
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    /**
+     * The series indexed. Postings refer to series by their position here, so scores can be kept in arrays.
+     */
+    private final Document[] documents;
+
+    /**
+     * Every distinct word, in sorted order.
+     */
+    private final String[] terms;
+
+    /**
+     * For each word, the positions of the series containing it, in ascending order.
+     */
+    private final int[][] postings;
+
+    /**
+     * For each word and series, the fields the word appears in, as a bit set.
+     */
+    private final byte[][] fields;
+
+    /**
+     * For each trigram, the indices of the words containing it, in ascending order.
+     */
+    private final Map<String, int[]> trigrams;
+
+    /**
+     * The series containing a word, while building.
+     */
+    private static class Postings {
+
+        private int[] documents = new int[4];
+        private byte[] fields = new byte[4];
+        private int size;
+
+        private void add(int document, int field) {
+            // documents are added in order, so a repeat can only be the last one
+            if (size > 0 && documents[size - 1] == document) {
+                fields[size - 1] |= field;
+                return;
+            }
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            documents[size] = document;
+            fields[size] = (byte) field;
+            size++;
+        }
+    }
+
+    /**
+     * Build an index.
+     *
+     * @param documents The series to index.
+     */
+    public SeriesSearchIndex(Collection<Document> documents) {
+        this.documents = documents.toArray(new Document[documents.size()]);
+        Map<String, Postings> inverted = new HashMap<>();
+        for (int document = 0; document < this.documents.length; document++) {
+            Document series = this.documents[document];
+            addField(inverted, document, series.name, FIELD_NAME);
+            addField(inverted, document, series.description, FIELD_DESCRIPTION);
+            for (String tag : series.tags) {
+                addField(inverted, document, tag, FIELD_TAG);
+            }
+        }
+
+        terms = inverted.keySet().toArray(new String[inverted.size()]);
+        Arrays.sort(terms);
+        postings = new int[terms.length][];
+        fields = new byte[terms.length][];
+        Map<String, List<Integer>> grams = new HashMap<>();
+        for (int term = 0; term < terms.length; term++) {
+            Postings containing = inverted.get(terms[term]);
+            postings[term] = Arrays.copyOf(containing.documents, containing.size);
+            fields[term] = Arrays.copyOf(containing.fields, containing.size);
+            for (String gram : trigramsOf(terms[term])) {
+                List<Integer> words = grams.computeIfAbsent(gram, key -> new ArrayList<>());
+                if (words.isEmpty() || words.get(words.size() - 1) != term) {
+                    words.add(term);
+                }
+            }
+        }
+        trigrams = new HashMap<>(grams.size() * 2);
+        for (Map.Entry<String, List<Integer>> entry : grams.entrySet()) {
+            trigrams.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    private static void addField(Map<String, Postings> inverted, int document, String text, int field) {
+        for (String word : tokenise(text)) {
+            inverted.computeIfAbsent(word, key -> new Postings()).add(document, field);
+        }
+    }
+
+    /**
+     * Split text into lowercase words without accents.
+     *
+     * @param text The text, possibly null.
+     * @return The words, in order, possibly with duplicates.
+     */
+    static List<String> tokenise(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        String folded = text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7f) {
+                folded = Normalizer.normalize(text, Normalizer.Form.NFKD).replaceAll("\\p{M}+", "");
+                break;
+            }
+        }
+        folded = folded.toLowerCase(Locale.ROOT);
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            }
+            else if (!wordChar && start >= 0) {
+                words.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static List<String> trigramsOf(String word) {
+        String padded = ' ' + word + ' ';
+        List<String> grams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /**
+     * Find the number of series indexed.
+     *
+     * @return The number of series.
+     */
+    public int size() {
+        return documents.length;
+    }
+
+    /**
+     * Create a new index with some series added or replaced.
+     *
+     * @param changed The new or changed series.
+     * @return The new index.
+     */
+    public SeriesSearchIndex with(Collection<Document> changed) {
+        Map<Integer, Document> merged = new LinkedHashMap<>(documents.length + changed.size());
+        for (Document document : documents) {
+            merged.put(document.seriesId, document);
+        }
+        for (Document document : changed) {
+            merged.put(document.seriesId, document);
+        }
+        return new SeriesSearchIndex(merged.values());
+    }
+
+    private static float weight(int fieldBits) {
+        if ((fieldBits & FIELD_TAG) != 0) {
+            return 3;
+        }
+        if ((fieldBits & FIELD_NAME) != 0) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * The state of a search: each series' total score, and how many words of the query it has matched so far.
+     */
+    private static class Scores {
+
+        private final float[] total;
+        private final int[] matched;
+        private final float[] word;
+        private int[] touched = new int[64];
+        private int touchedCount;
+
+        private Scores(int documents) {
+            total = new float[documents];
+            matched = new int[documents];
+            word = new float[documents];
+        }
+
+        /**
+         * Start matching the next word.
+         */
+        private void beginWord() {
+            touchedCount = 0;
+        }
+
+        /**
+         * Note a series matching the current word, keeping its best score for the word.
+         */
+        private void match(int document, float score) {
+            if (word[document] == 0) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = document;
+            }
+            if (score > word[document]) {
+                word[document] = score;
+            }
+        }
+
+        /**
+         * Add the scores of the current word to the totals of series that have matched every word before it.
+         *
+         * @param words The number of words already ended.
+         * @return The number of series that have now matched every word.
+         */
+        private int endWord(int words) {
+            int matching = 0;
+            int kept = 0;
+            for (int i = 0; i < touchedCount; i++) {
+                int document = touched[i];
+                if (matched[document] == words) {
+                    total[document] += word[document];
+                    matched[document]++;
+                    matching++;
+                    touched[kept++] = document;
+                }
+                word[document] = 0;
+            }
+            touchedCount = kept;  // after the last word, the series matching them all
+            return matching;
+        }
+    }
+
+    /**
+     * Score every series matching a word of the query.
+     */
+    private void match(String word, Scores scores) {
+        int expansions = 0;
+        for (int term = lowerBound(word); term < terms.length && terms[term].startsWith(word); term++) {
+            score(term, terms[term].length() == word.length() ? EXACT : PREFIX, scores);
+            if (++expansions == MAX_EXPANSIONS) {
+                break;
+            }
+        }
+        if (expansions == 0 && word.length() >= MIN_FUZZY_LENGTH) {
+            List<String> grams = trigramsOf(word);
+            Map<Integer, Integer> shared = new HashMap<>();
+            for (String gram : grams) {
+                int[] containing = trigrams.get(gram);
+                if (containing != null) {
+                    for (int term : containing) {
+                        shared.merge(term, 1, Integer::sum);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Integer> entry : shared.entrySet()) {
+                int term = entry.getKey();
+                // a word has as many trigrams as characters, counting the padding
+                float similarity = 2f * entry.getValue() / (grams.size() + terms[term].length());
+                if (similarity >= MIN_SIMILARITY) {
+                    score(term, FUZZY * similarity, scores);
+                }
+            }
+        }
+    }
+
+    private void score(int term, float quality, Scores scores) {
+        int[] containing = postings[term];
+        byte[] bits = fields[term];
+        for (int i = 0; i < containing.length; i++) {
+            scores.match(containing[i], quality * weight(bits[i]));
+        }
+    }
+
+    private int lowerBound(String word) {
+        int low = 0;
+        int high = terms.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (terms[middle].compareTo(word) < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the series matching every word of a query, most relevant first.
+     *
+     * @param query The query, as typed.
+     * @param offset The number of results to skip.
+     * @param limit The maximum number of results to return.
+     * @return The page of results.
+     */
+    public Page search(String query, int offset, int limit) {
+        Set<String> words = new LinkedHashSet<>(tokenise(query));
+        if (words.isEmpty()) {
+            return new Page(Collections.emptyList(), 0);
+        }
+
+        Scores scores = new Scores(documents.length);
+        int ended = 0;
+        int matching = 0;
+        for (String word : words) {
+            scores.beginWord();
+            match(word, scores);
+            matching = scores.endWord(ended++);
+            if (matching == 0) {
+                return new Page(Collections.emptyList(), 0);
+            }
+        }
+
+        // keep the best offset + limit in a min-heap, ordered by score then lowest identifier
+        int wanted = (int) Math.min((long) offset + limit, matching);
+        long[] heap = new long[wanted];
+        int heapSize = 0;
+        for (int i = 0; i < scores.touchedCount && wanted > 0; i++) {
+            int document = scores.touched[i];
+            long key = ((long) Float.floatToIntBits(scores.total[document]) << 32) |
+                    (Integer.MAX_VALUE - documents[document].seriesId);
+            if (heapSize < wanted) {
+                heap[heapSize] = key;
+                siftUp(heap, heapSize++);
+            }
+            else if (key > heap[0]) {
+                heap[0] = key;
+                siftDown(heap, heapSize);
+            }
+        }
+        Arrays.sort(heap, 0, heapSize);
+        List<Integer> page = new ArrayList<>(Math.max(0, heapSize - offset));
+        for (int i = heapSize - 1 - offset; i >= 0; i--) {
+            page.add(Integer.MAX_VALUE - (int) heap[i]);
+        }
+        return new Page(page, matching);
+    }
+
+    private static void siftUp(long[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] <= heap[index]) {
+                return;
+            }
+            long swap = heap[parent];
+            heap[parent] = heap[index];
+            heap[index] = swap;
+            index = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int index = 0;
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && heap[left] < heap[smallest]) {
+                smallest = left;
+            }
+            if (right < size && heap[right] < heap[smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            long swap = heap[smallest];
+            heap[smallest] = heap[index];
+            heap[index] = swap;
+            index = smallest;
+        }
+    }
+
+    /**
+     * Retrieve the searchable text of series, for building an index.
+     *
+     * @param afterId Only series with a greater identifier are returned; 0 for all of them.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the documents to.
+     */
+    public static void retrieveDocuments(int afterId,
+                                         SQLConnection connection,
+                                         Handler<AsyncResult<List<Document>>> handler) {
+        JsonArray params = new JsonArray().add(afterId);
+        connection.queryWithParams(
+                "SELECT SeriesTags.SeriesID, Tags.Name AS TagName " +
+                "FROM SeriesTags " +
+                    "INNER JOIN Tags " +
+                        "ON Tags.TagID = SeriesTags.TagID " +
+                "WHERE SeriesTags.SeriesID > ?;",
+                params, tagsRes -> {
+                    if (tagsRes.failed()) {
+                        handler.handle(Future.failedFuture(tagsRes.cause()));
+                        return;
+                    }
+
+                    Map<Integer, List<String>> tags = new HashMap<>();
+                    for (JsonObject row : tagsRes.result().getRows()) {
+                        tags.computeIfAbsent(row.getInteger("SeriesID"), id -> new ArrayList<>())
+                                .add(row.getString("TagName"));
+                    }
+                    connection.queryWithParams(
+                            "SELECT SeriesID, Name, Description " +
+                            "FROM Series " +
+                            "WHERE SeriesID > ?;",
+                            params, seriesRes -> {
+                                if (seriesRes.failed()) {
+                                    handler.handle(Future.failedFuture(seriesRes.cause()));
+                                    return;
+                                }
+
+                                List<Document> documents = new ArrayList<>();
+                                for (JsonObject row : seriesRes.result().getRows()) {
+                                    int seriesId = row.getInteger("SeriesID");
+                                    documents.add(new Document(seriesId,
+                                            row.getString("Name"),
+                                            row.getString("Description"),
+                                            tags.getOrDefault(seriesId, Collections.emptyList())));
+                                }
+                                handler.handle(Future.succeededFuture(documents));
+                            });
+                });
+    }
+}
@@ -1,5 +1,6 @@
 package events.equaliser.java.model.event;
 
+import events.equaliser.java.util.Catalog;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -11,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -85,9 +87,23 @@ public class Tag {
                 });
     }
 
+    /**
+     * Retrieve a tag by its name, from the catalog cache if possible.
+     *
+     * @param name The name of the tag.
+     * @param connection The connection to use if the tag is not cached.
+     * @param result The result handler.
+     */
     public static void retrieveFromName(String name,
                                         SQLConnection connection,
                                         Handler<AsyncResult<Tag>> result) {
+        Tag cached = Catalog.getTags().get(name);
+        if (cached != null) {
+            result.handle(Future.succeededFuture(cached));
+            return;
+        }
+
+        long generation = Catalog.getTags().getGeneration();
         JsonArray params = new JsonArray().add(name);
         connection.queryWithParams(
                 "SELECT " +
@@ -110,6 +126,7 @@ public class Tag {
 
                     JsonObject row = resultSet.getRows().get(0);
                     Tag tag = Tag.fromJsonObject(row);
+                    Catalog.getTags().put(name, tag, generation);
                     result.handle(Future.succeededFuture(tag));
                 });
     }
@@ -148,37 +165,25 @@ public class Tag {
                 });
     }
 
-    public static void retrieveSeriesShowcase(SQLConnection connection,
-                                              Handler<AsyncResult<Map<Integer, List<Tag>>>> handler) {
-        connection.query(
-                "SELECT Series.SeriesID, Tags.TagID, Tags.Name AS TagName " +
-                "FROM Series " +
-                    "INNER JOIN SeriesTags " +
-                        "ON SeriesTags.SeriesID = Series.SeriesID " +
-                    "INNER JOIN Tags " +
-                        "ON Tags.TagID = SeriesTags.TagID " +
-                "WHERE Series.IsShowcase = true;", res -> processSeriesResult(res, handler));
-    }
-
-    public static void retrieveSeriesTag(Tag tag,
+    /**
+     * Retrieve the tags of several series at once.
+     *
+     * @param seriesIds The identifiers of the series; must not be empty.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the tags to, keyed by series identifier.
+     */
+    public static void retrieveSeriesIds(Collection<Integer> seriesIds,
                                          SQLConnection connection,
                                          Handler<AsyncResult<Map<Integer, List<Tag>>>> handler) {
-        JsonArray params = new JsonArray().add(tag.getId());
-        connection.queryWithParams(
-                "SELECT " +
-                    "Series.SeriesID, " +
-                    "T2.TagID, " +
-                    "T2.Name AS TagName " +
-                "FROM Tags AS T1 " +
-                    "INNER JOIN SeriesTags AS ST1 " +
-                        "ON ST1.TagID = T1.TagID " +
-                    "INNER JOIN Series " +
-                        "ON Series.SeriesID = ST1.SeriesID " +
-                    "INNER JOIN SeriesTags AS ST2 " +
-                        "ON ST2.SeriesID = Series.SeriesID " +
-                    "INNER JOIN Tags AS T2 " +
-                        "ON T2.TagID = ST2.TagID " +
-                "WHERE T1.TagID = ?;", params, res -> processSeriesResult(res, handler));
+        connection.query(String.format(
+                "SELECT SeriesTags.SeriesID, Tags.TagID, Tags.Name AS TagName " +
+                "FROM SeriesTags " +
+                    "INNER JOIN Tags " +
+                        "ON Tags.TagID = SeriesTags.TagID " +
+                "WHERE SeriesTags.SeriesID IN (%s);",
+                seriesIds.stream()
+                        .map(Object::toString)
+                        .collect(Collectors.joining(","))), res -> processSeriesResult(res, handler));
     }
 
     private static void processSeriesResult(AsyncResult<ResultSet> result,
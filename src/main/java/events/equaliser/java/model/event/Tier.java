@@ -1,7 +1,9 @@
 package events.equaliser.java.model.event;
 
-import events.equaliser.java.model.group.Group;
+import events.equaliser.java.util.Catalog;
+import events.equaliser.java.util.Deadline;
 import events.equaliser.java.util.Json;
+import events.equaliser.java.util.Loaders;
 import events.equaliser.java.verticles.PrimaryPoolVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
@@ -16,9 +18,12 @@ import io.vertx.ext.sql.SQLConnection;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -79,6 +84,20 @@ public class Tier {
         this.fixture = fixture;
     }
 
+    /**
+     * Copy this tier, noting whether it has tickets remaining. Tiers held in memory are shared between requests, so
+     * are never marked themselves.
+     *
+     * @param available Whether tickets remain.
+     * @return The copy.
+     */
+    Tier withAvailable(boolean available) {
+        Tier tier = new Tier(id, name, price, availability, fixtureId);
+        tier.fixture = fixture;
+        tier.setAvailable(available);
+        return tier;
+    }
+
     @Override
     public String toString() {
         return String.format("Tier(%d, %s, %s)",
@@ -115,24 +134,57 @@ public class Tier {
                 json.getInteger("FixtureID"));
     }
 
-    private static void fromJsonObject(JsonObject json, SQLConnection connection, Handler<AsyncResult<Tier>> handler) {
-        Tier tier = fromJsonObject(json);
-        Fixture.retrieveFromId(tier.fixtureId, connection, res -> {
-            if (res.failed()) {
-                handler.handle(Future.failedFuture(res.cause()));
+    public static void retrieveById(int tierId,
+                                    SQLConnection connection,
+                                    Handler<AsyncResult<Tier>> handler) {
+        Loaders.of(connection).getTiers().load(tierId, handler);
+    }
+
+    /**
+     * Retrieve several tiers at once, along with their fixtures, from the catalog cache where possible.
+     *
+     * @param tierIds The identifiers of the tiers.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the tiers found to, by identifier.
+     */
+    public static void retrieveFromIds(Set<Integer> tierIds,
+                                       SQLConnection connection,
+                                       Handler<AsyncResult<Map<Integer, Tier>>> handler) {
+        Catalog.getTiers().readThrough(tierIds, (missing, h) -> fetchFromIds(missing, connection, h), tiersRes -> {
+            if (tiersRes.failed()) {
+                handler.handle(Future.failedFuture(tiersRes.cause()));
                 return;
             }
 
-            tier.fixture = res.result();
-            handler.handle(Future.succeededFuture(tier));
+            Map<Integer, Tier> tiers = tiersRes.result();
+            Set<Integer> fixtureIds = tiers.values().stream()
+                    .map(Tier::getFixtureId)
+                    .collect(Collectors.toSet());
+            Loaders.of(connection).getFixtures().loadNow(fixtureIds, fixturesRes -> {
+                if (fixturesRes.failed()) {
+                    handler.handle(Future.failedFuture(fixturesRes.cause()));
+                    return;
+                }
+
+                // cached tiers are shared, so each request gets its own copy with its fixture
+                Map<Integer, Fixture> fixtures = fixturesRes.result();
+                Map<Integer, Tier> found = new HashMap<>();
+                for (Tier tier : tiers.values()) {
+                    Fixture fixture = fixtures.get(tier.getFixtureId());
+                    if (fixture != null) {
+                        found.put(tier.getId(),
+                                new Tier(tier.id, tier.name, tier.price, tier.availability, fixture));
+                    }
+                }
+                handler.handle(Future.succeededFuture(found));
+            });
         });
     }
 
-    public static void retrieveById(int tierId,
-                                    SQLConnection connection,
-                                    Handler<AsyncResult<Tier>> handler) {
-        JsonArray params = new JsonArray().add(tierId);
-        connection.queryWithParams(
+    private static void fetchFromIds(Set<Integer> tierIds,
+                                     SQLConnection connection,
+                                     Handler<AsyncResult<Map<Integer, Tier>>> handler) {
+        connection.queryWithParams(String.format(
                 "SELECT " +
                     "TierID, " +
                     "FixtureID, " +
@@ -141,36 +193,34 @@ public class Tier {
                     "Availability AS TierAvailability, " +
                     "ReturnsPolicy AS TierReturnsPolicy " +
                 "FROM Tiers " +
-                "WHERE TierID = ?;",
-                params, tierRes -> {
-                    if (tierRes.failed()) {
-                        handler.handle(Future.failedFuture(tierRes.cause()));
+                "WHERE TierID IN (%s);", String.join(",", Collections.nCopies(tierIds.size(), "?"))),
+                new JsonArray(new ArrayList<>(tierIds)), tiersRes -> {
+                    if (tiersRes.failed()) {
+                        handler.handle(Future.failedFuture(tiersRes.cause()));
                         return;
                     }
 
-                    ResultSet resultSet = tierRes.result();
-                    if (resultSet.getNumRows() == 0) {
-                        handler.handle(Future.failedFuture("No tier found with id " + tierId));
-                        return;
+                    Map<Integer, Tier> tiers = new HashMap<>();
+                    for (JsonObject row : tiersRes.result().getRows()) {
+                        Tier tier = fromJsonObject(row);
+                        tiers.put(tier.getId(), tier);
                     }
-                    JsonObject row = resultSet.getRows().get(0);
-                    Tier.fromJsonObject(row, connection, fixtureRes -> {
-                        if (fixtureRes.failed()) {
-                            handler.handle(Future.failedFuture(fixtureRes.cause()));
-                            return;
-                        }
-
-                        Tier tier = fixtureRes.result();
-                        handler.handle(Future.succeededFuture(tier));
-                    });
+                    handler.handle(Future.succeededFuture(tiers));
                 });
     }
 
-    static void retrieveByFixture(int fixtureId,
-                                  SQLConnection connection,
-                                  Handler<AsyncResult<List<Tier>>> handler) {
-        JsonArray params = new JsonArray().add(fixtureId);
-        connection.queryWithParams(
+    /**
+     * Retrieve the tiers of several fixtures, without their availability. The tiers are also cached by identifier.
+     *
+     * @param fixtureIds The identifiers of the fixtures.
+     * @param connection The connection to use.
+     * @param handler The handler to pass fixture IDs and their tiers to. Fixtures without tiers are omitted.
+     */
+    static void retrieveByFixtures(Set<Integer> fixtureIds,
+                                   SQLConnection connection,
+                                   Handler<AsyncResult<Map<Integer, List<Tier>>>> handler) {
+        long generation = Catalog.getTiers().getGeneration();
+        connection.queryWithParams(String.format(
                 "SELECT " +
                     "TierID, " +
                     "FixtureID, " +
@@ -179,37 +229,89 @@ public class Tier {
                     "Availability AS TierAvailability, " +
                     "ReturnsPolicy AS TierReturnsPolicy " +
                 "FROM Tiers " +
-                "WHERE FixtureID = ?;",
-                params, tiersRes -> {
-                    if (tiersRes.succeeded()) {
-                        ResultSet resultSet = tiersRes.result();
-                        List<Tier> tiers = resultSet.getRows()
-                                .stream()
-                                .map(Tier::fromJsonObject)
-                                .collect(Collectors.toList());
-                        List<Integer> tierIds = tiers.stream()
-                                .mapToInt(Tier::getId)
-                                .boxed()
-                                .collect(Collectors.toList());
-                        EventBus eb = Vertx.currentContext().owner().eventBus();
-                        eb.send(PrimaryPoolVerticle.PRIMARY_POOL_AVAILABILITY_MULTIPLE_ADDRESS,
-                                Json.toJsonArray(tierIds), reply -> {
-                                    if (reply.failed()) {
-                                        handler.handle(Future.failedFuture(reply.cause()));
-                                        return;
-                                    }
+                "WHERE FixtureID IN (%s);", String.join(",", Collections.nCopies(fixtureIds.size(), "?"))),
+                new JsonArray(new ArrayList<>(fixtureIds)), tiersRes -> {
+                    if (tiersRes.failed()) {
+                        handler.handle(Future.failedFuture(tiersRes.cause()));
+                        return;
+                    }
 
-                                    Message<Object> message = reply.result();
-                                    JsonObject json = (JsonObject)message.body();
-                                    for (Tier tier : tiers) {
-                                        tier.setAvailable(json.getInteger(Integer.toString(tier.getId())) > 0);
-                                    }
-                                    handler.handle(Future.succeededFuture(tiers));
-                                });
+                    Map<Integer, List<Tier>> fixtureTiers = new HashMap<>();
+                    for (JsonObject row : tiersRes.result().getRows()) {
+                        Tier tier = fromJsonObject(row);
+                        Catalog.getTiers().put(tier.getId(), tier, generation);
+                        fixtureTiers.computeIfAbsent(tier.getFixtureId(), id -> new ArrayList<>()).add(tier);
+                    }
+                    handler.handle(Future.succeededFuture(fixtureTiers));
+                });
+    }
+
+    /**
+     * Find how many tickets remain in several tiers, asking the primary pool about all of them at once.
+     *
+     * @param tierIds The identifiers of the tiers.
+     * @param connection The connection of the request, whose deadline bounds the wait.
+     * @param handler The handler to pass the number remaining to, keyed by tier identifier as a string.
+     */
+    static void findRemaining(List<Integer> tierIds,
+                              SQLConnection connection,
+                              Handler<AsyncResult<JsonObject>> handler) {
+        if (tierIds.isEmpty()) {
+            handler.handle(Future.succeededFuture(new JsonObject()));
+            return;
+        }
+
+        EventBus eb = Vertx.currentContext().owner().eventBus();
+        eb.send(PrimaryPoolVerticle.PRIMARY_POOL_AVAILABILITY_MULTIPLE_ADDRESS,
+                Json.toJsonArray(tierIds), Deadline.deliveryOptions(connection), reply -> {
+                    if (reply.failed()) {
+                        handler.handle(Future.failedFuture(reply.cause()));
+                        return;
                     }
-                    else {
+
+                    handler.handle(Future.succeededFuture((JsonObject)reply.result().body()));
+                });
+    }
+
+    /**
+     * Retrieve the tiers of fixtures that have not yet finished, without their availability.
+     *
+     * @param afterFixtureId Only tiers of fixtures with a greater identifier are returned.
+     * @param toFixtureId Only tiers of fixtures with this identifier or lower are returned.
+     * @param connection The connection to use.
+     * @param handler The handler to pass fixture IDs and their tiers to.
+     */
+    static void retrieveUpcoming(int afterFixtureId,
+                                 int toFixtureId,
+                                 SQLConnection connection,
+                                 Handler<AsyncResult<Map<Integer,List<Tier>>>> handler) {
+        JsonArray params = new JsonArray().add(afterFixtureId).add(toFixtureId);
+        connection.queryWithParams(
+                "SELECT " +
+                    "Tiers.FixtureID, " +
+                    "Tiers.TierID, " +
+                    "Tiers.Name AS TierName, " +
+                    "Tiers.Price AS TierPrice, " +
+                    "Tiers.Availability AS TierAvailability " +
+                "FROM Tiers " +
+                    "INNER JOIN Fixtures " +
+                        "ON Fixtures.FixtureID = Tiers.FixtureID " +
+                "WHERE Fixtures.Finish >= NOW() " +
+                    "AND Tiers.FixtureID > ? " +
+                    "AND Tiers.FixtureID <= ? " +
+                "ORDER BY Tiers.TierID ASC;",
+                params, tiersRes -> {
+                    if (tiersRes.failed()) {
                         handler.handle(Future.failedFuture(tiersRes.cause()));
+                        return;
                     }
+
+                    Map<Integer, List<Tier>> fixtureTiers = new HashMap<>();
+                    for (JsonObject row : tiersRes.result().getRows()) {
+                        Tier tier = fromJsonObject(row);
+                        fixtureTiers.computeIfAbsent(tier.getFixtureId(), id -> new ArrayList<>()).add(tier);
+                    }
+                    handler.handle(Future.succeededFuture(fixtureTiers));
                 });
     }
 
@@ -243,7 +345,7 @@ public class Tier {
 
                         EventBus eb = Vertx.currentContext().owner().eventBus();
                         eb.send(PrimaryPoolVerticle.PRIMARY_POOL_AVAILABILITY_MULTIPLE_ADDRESS,
-                                new JsonArray(tierIds), reply -> {
+                                new JsonArray(tierIds), Deadline.deliveryOptions(connection), reply -> {
                                     if (reply.failed()) {
                                         handler.handle(Future.failedFuture(reply.cause()));
                                         return;
@@ -268,12 +370,25 @@ public class Tier {
                 });
     }
 
-    public static void retrieveByGroup(Group group,
-                                       SQLConnection connection,
-                                       Handler<AsyncResult<List<Tier>>> handler) {
-        JsonArray params = new JsonArray().add(group.getId());
-        connection.queryWithParams(
+    /**
+     * Retrieve the tiers several groups are waiting for, with their availability.
+     *
+     * @param groupIds The identifiers of the groups.
+     * @param connection The connection to use.
+     * @param handler The handler to pass group IDs and their tiers to, highest ranked first. Groups without tiers are
+     *                omitted.
+     */
+    public static void retrieveByGroups(Collection<Integer> groupIds,
+                                        SQLConnection connection,
+                                        Handler<AsyncResult<Map<Integer, List<Tier>>>> handler) {
+        if (groupIds.isEmpty()) {
+            handler.handle(Future.succeededFuture(Collections.emptyMap()));
+            return;
+        }
+
+        connection.queryWithParams(String.format(
                 "SELECT " +
+                    "GroupTiers.GroupID, " +
                     "Tiers.FixtureID, " +
                     "Tiers.TierID, " +
                     "Tiers.Name AS TierName, " +
@@ -283,9 +398,10 @@ public class Tier {
                 "FROM GroupTiers " +
                     "INNER JOIN Tiers " +
                         "ON Tiers.TierID = GroupTiers.TierID " +
-                "WHERE GroupTiers.GroupID = ? " +
-                "ORDER BY GroupTiers.Rank ASC;",
-                params, tiersRes -> {
+                "WHERE GroupTiers.GroupID IN (%s) " +
+                "ORDER BY GroupTiers.GroupID ASC, GroupTiers.Rank ASC;",
+                String.join(",", Collections.nCopies(groupIds.size(), "?"))),
+                new JsonArray(new ArrayList<>(groupIds)), tiersRes -> {
                     if (tiersRes.failed()) {
                         handler.handle(Future.failedFuture(tiersRes.cause()));
                         return;
@@ -294,25 +410,27 @@ public class Tier {
                     ResultSet resultSet = tiersRes.result();
                     List<Integer> tierIds = resultSet.getRows().stream()
                             .map(object -> object.getInteger("TierID"))
+                            .distinct()
                             .collect(Collectors.toList());
 
                     EventBus eb = Vertx.currentContext().owner().eventBus();
                     eb.send(PrimaryPoolVerticle.PRIMARY_POOL_AVAILABILITY_MULTIPLE_ADDRESS,
-                            new JsonArray(tierIds), replyRes -> {
+                            new JsonArray(tierIds), Deadline.deliveryOptions(connection), replyRes -> {
                                 if (replyRes.failed()) {
                                     handler.handle(Future.failedFuture(replyRes.cause()));
                                     return;
                                 }
 
                                 JsonObject map = (JsonObject)replyRes.result().body();
-                                List<Tier> tiers = new ArrayList<>();
+                                Map<Integer, List<Tier>> groupTiers = new HashMap<>();
                                 for (JsonObject row : resultSet.getRows()) {
                                     Tier tier = fromJsonObject(row);
                                     tier.setAvailable(map.getInteger(Integer.toString(tier.getId())) > 0);
-                                    tiers.add(tier);
+                                    groupTiers.computeIfAbsent(row.getInteger("GroupID"), id -> new ArrayList<>())
+                                            .add(tier);
                                 }
 
-                                handler.handle(Future.succeededFuture(tiers));
+                                handler.handle(Future.succeededFuture(groupTiers));
                             });
                 });
     }
@@ -0,0 +1,48 @@
+package events.equaliser.java.model.event;
+
+import events.equaliser.java.util.Metrics;
+
+/**
+ * Holds the current FixtureIndex of every fixture that has not yet finished, which is loaded and refreshed in the
+ * background by the FixtureIndexVerticle.
+ */
+public class UpcomingFixtures {
+
+    private static volatile FixtureIndex index;
+
+    static {
+        Metrics.gauge("upcoming_fixtures.indexed", () -> index == null ? 0 : index.size());
+    }
+
+    /**
+     * Find whether fixtures can be browsed.
+     *
+     * @return True once the index has been loaded.
+     */
+    public static boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * Find the current index.
+     *
+     * @return The index.
+     * @throws IllegalStateException If the index has not been loaded.
+     */
+    public static FixtureIndex getIndex() {
+        FixtureIndex current = index;
+        if (current == null) {
+            throw new IllegalStateException("Upcoming fixtures not loaded yet, please retry");
+        }
+        return current;
+    }
+
+    /**
+     * Replace the index.
+     *
+     * @param replacement The new index.
+     */
+    public static void setIndex(FixtureIndex replacement) {
+        index = replacement;
+    }
+}
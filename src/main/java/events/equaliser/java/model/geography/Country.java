@@ -1,6 +1,7 @@
 package events.equaliser.java.model.geography;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import events.equaliser.java.util.Catalog;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -93,12 +94,13 @@ public class Country {
     }
 
     /**
-     * Retrieve a list of all countries.
+     * Retrieve a list of all countries, caching each of them.
      *
      * @param connection The connection to use to query the database.
      * @param result The result handler.
      */
     public static void retrieveAll(SQLConnection connection, Handler<AsyncResult<List<Country>>> result) {
+        long generation = Catalog.getCountries().getGeneration();
         connection.query(
                 "SELECT CountryID, Name AS CountryName, Abbreviation AS CountryAbbreviation, " +
                 "CallingCode AS CountryCallingCode " +
@@ -110,6 +112,9 @@ public class Country {
                                 .stream()
                                 .map(Country::fromJsonObject)
                                 .collect(Collectors.toList());
+                        for (Country country : countries) {
+                            Catalog.getCountries().put(country.getId(), country, generation);
+                        }
                         result.handle(Future.succeededFuture(countries));
                     }
                     else {
@@ -118,7 +123,21 @@ public class Country {
                 });
     }
 
+    /**
+     * Retrieve a country, from the catalog cache if possible.
+     *
+     * @param id The country's identifier.
+     * @param connection The connection to use if the country is not cached.
+     * @param result The result handler.
+     */
     public static void retrieveById(int id, SQLConnection connection, Handler<AsyncResult<Country>> result) {
+        Country cached = Catalog.getCountries().get(id);
+        if (cached != null) {
+            result.handle(Future.succeededFuture(cached));
+            return;
+        }
+
+        long generation = Catalog.getCountries().getGeneration();
         JsonArray params = new JsonArray().add(id);
         connection.queryWithParams(
                 "SELECT CountryID, Name AS CountryName, Abbreviation AS CountryAbbreviation, " +
@@ -132,8 +151,9 @@ public class Country {
                             result.handle(Future.failedFuture("No country found with id " + id));
                         }
                         else {
-                            JsonObject row = results.getRows().get(0);
-                            result.handle(Future.succeededFuture(Country.fromJsonObject(row)));
+                            Country country = Country.fromJsonObject(results.getRows().get(0));
+                            Catalog.getCountries().put(id, country, generation);
+                            result.handle(Future.succeededFuture(country));
                         }
                     }
                     else {
@@ -0,0 +1,128 @@
+package events.equaliser.java.model.group;
+
+import events.equaliser.java.model.user.User;
+import events.equaliser.java.util.Time;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What a payee needs to pay for their payment group: the group itself with its attendees, and the offer being
+ * accepted. Loaded on its own, rather than as part of the whole group, as checkout happens in a rush once an offer is
+ * made.
+ */
+public class Checkout {
+
+    private final PaymentGroup paymentGroup;
+    private final int offerId;
+    private final OffsetDateTime offerExpires;
+
+    public PaymentGroup getPaymentGroup() {
+        return paymentGroup;
+    }
+
+    public int getOfferId() {
+        return offerId;
+    }
+
+    public OffsetDateTime getOfferExpires() {
+        return offerExpires;
+    }
+
+    private Checkout(PaymentGroup paymentGroup, int offerId, OffsetDateTime offerExpires) {
+        this.paymentGroup = paymentGroup;
+        this.offerId = offerId;
+        this.offerExpires = offerExpires;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Checkout(%s, offer %d)", getPaymentGroup(), getOfferId());
+    }
+
+    /**
+     * Retrieve a payee's checkout in a group, in one statement, checking the group has an offer that has not expired.
+     *
+     * @param groupId The group.
+     * @param payee The user paying.
+     * @param connection A database connection.
+     * @param handler The result, failed with a message suitable for the payee if they cannot pay.
+     */
+    public static void retrieve(int groupId,
+                                User payee,
+                                SQLConnection connection,
+                                Handler<AsyncResult<Checkout>> handler) {
+        JsonArray params = new JsonArray()
+                .add(Time.toSql(OffsetDateTime.now()))
+                .add(groupId)
+                .add(payee.getId());
+        connection.queryWithParams(
+                "SELECT " +
+                    "PaymentGroups.PaymentGroupID, " +
+                    "Offers.OfferID, " +
+                    "Offers.Expires AS OfferExpires, " +
+                    "Offers.Expires > ? AS OfferOpen, " +
+                    "Users.UserID, " +
+                    "Users.Username AS UserUsername, " +
+                    "Users.Forename AS UserForename, " +
+                    "Users.Surname AS UserSurname, " +
+                    "Users.Email AS UserEmail, " +
+                    "Users.AreaCode AS UserAreaCode, " +
+                    "Users.SubscriberNumber AS UserSubscriberNumber, " +
+                    "Users.Token AS UserToken, " +
+                    "Users.ImageID AS UserImageID, " +
+                    "Countries.CountryID, " +
+                    "Countries.Name AS CountryName, " +
+                    "Countries.Abbreviation AS CountryAbbreviation, " +
+                    "Countries.CallingCode AS CountryCallingCode " +
+                "FROM PaymentGroups " +
+                    "INNER JOIN PaymentGroupAttendees " +
+                        "ON PaymentGroupAttendees.PaymentGroupID = PaymentGroups.PaymentGroupID " +
+                    "INNER JOIN Users " +
+                        "ON Users.UserID = PaymentGroupAttendees.UserID " +
+                    "INNER JOIN Countries " +
+                        "ON Countries.CountryID = Users.CountryID " +
+                    "LEFT OUTER JOIN Offers " +
+                        "ON Offers.GroupID = PaymentGroups.GroupID " +
+                "WHERE PaymentGroups.GroupID = ? " +
+                    "AND PaymentGroups.UserID = ?;",
+                params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+
+                    List<JsonObject> rows = res.result().getRows();
+                    if (rows.isEmpty()) {
+                        handler.handle(Future.failedFuture("You are not a payee in this group"));
+                        return;
+                    }
+                    JsonObject first = rows.get(0);
+                    if (first.getInteger("OfferID") == null) {
+                        handler.handle(Future.failedFuture("No offer has been made to the group"));
+                        return;
+                    }
+                    if (first.getInteger("OfferOpen") == 0) {
+                        handler.handle(Future.failedFuture("Offer has expired"));
+                        return;
+                    }
+
+                    Set<User> attendees = new HashSet<>();
+                    for (JsonObject row : rows) {
+                        attendees.add(User.fromJsonObject(row));
+                    }
+                    PaymentGroup paymentGroup = new PaymentGroup(first.getInteger("PaymentGroupID"), payee, attendees);
+                    handler.handle(Future.succeededFuture(new Checkout(paymentGroup,
+                            first.getInteger("OfferID"),
+                            Time.parseOffsetDateTime(first.getString("OfferExpires")))));
+                });
+    }
+}
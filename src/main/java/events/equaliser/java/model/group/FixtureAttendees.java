@@ -0,0 +1,291 @@
+package events.equaliser.java.model.group;
+
+import events.equaliser.java.util.Metrics;
+import events.equaliser.java.util.Time;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Which users are in a group waiting for, or offered tickets to, each fixture, so group creation can check for
+ * attendees already waiting without a query. Held as a set of user identifiers per fixture, loaded and refreshed in
+ * the background by the FixtureAttendeesVerticle.
+ *
+ * Groups created through other instances only reach the sets when next polled for. The sets are therefore known to
+ * be complete only up to a settled group identifier, and conflicts with newer groups are still looked for in the
+ * database, which only has to consider those few groups.
+ */
+public class FixtureAttendees {
+
+    /**
+     * The sets, along with the group up to which they are complete. Replaced as a whole when rebuilt, so the two are
+     * always read together.
+     */
+    private static class Snapshot {
+
+        private final ConcurrentMap<Integer, UserIdSet> attendees;
+        private final int settledGroupId;
+
+        private Snapshot(ConcurrentMap<Integer, UserIdSet> attendees, int settledGroupId) {
+            this.attendees = attendees;
+            this.settledGroupId = settledGroupId;
+        }
+    }
+
+    private static volatile Snapshot snapshot;
+
+    static {
+        Metrics.gauge("fixture_attendees.fixtures", () -> snapshot == null ? 0 : snapshot.attendees.size());
+        Metrics.gauge("fixture_attendees.settled_group", () -> snapshot == null ? 0 : snapshot.settledGroupId);
+        Metrics.gauge("fixture_attendees.bytes", () -> snapshot == null ? 0 : snapshot.attendees.values().stream()
+                .mapToLong(UserIdSet::getSizeBytes)
+                .sum());
+    }
+
+    /**
+     * Find whether the sets have been loaded.
+     *
+     * @return True once they have.
+     */
+    public static boolean isReady() {
+        return snapshot != null;
+    }
+
+    /**
+     * Find the group up to which the sets are known to be complete.
+     *
+     * @return The group identifier, or 0 if the sets have not been loaded.
+     */
+    public static int getSettledGroupId() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.settledGroupId;
+    }
+
+    /**
+     * Add users to a fixture's set.
+     *
+     * @param fixtureId The fixture.
+     * @param userIds The users.
+     */
+    public static void add(int fixtureId, int... userIds) {
+        Snapshot current = snapshot;
+        if (current != null) {
+            add(current.attendees, fixtureId, userIds);
+        }
+    }
+
+    private static void add(ConcurrentMap<Integer, UserIdSet> attendees, int fixtureId, int... userIds) {
+        attendees.compute(fixtureId, (id, set) -> (set == null ? UserIdSet.EMPTY : set).with(userIds));
+    }
+
+    /**
+     * Add users found by polling, then mark the sets complete up to a later group.
+     *
+     * @param fixtureUsers Fixture ID -> user IDs.
+     * @param settledGroupId The group up to which the sets are now complete.
+     * @throws IllegalStateException If the sets have not been loaded.
+     */
+    public static void addSettled(Map<Integer, int[]> fixtureUsers, int settledGroupId) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            throw new IllegalStateException("Fixture attendees not loaded");
+        }
+        for (Map.Entry<Integer, int[]> entry : fixtureUsers.entrySet()) {
+            add(current.attendees, entry.getKey(), entry.getValue());
+        }
+        if (settledGroupId > current.settledGroupId) {
+            // published after the additions, so anyone seeing the new identifier sees them too
+            snapshot = new Snapshot(current.attendees, settledGroupId);
+        }
+    }
+
+    /**
+     * Replace the sets with newly loaded ones.
+     *
+     * @param fixtureUsers Fixture ID -> user IDs.
+     * @param settledGroupId The group up to which the sets are complete.
+     */
+    public static void replace(Map<Integer, int[]> fixtureUsers, int settledGroupId) {
+        ConcurrentMap<Integer, UserIdSet> attendees = new ConcurrentHashMap<>(fixtureUsers.size() * 2);
+        for (Map.Entry<Integer, int[]> entry : fixtureUsers.entrySet()) {
+            attendees.put(entry.getKey(), UserIdSet.of(entry.getValue()));
+        }
+        snapshot = new Snapshot(attendees, settledGroupId);
+    }
+
+    /**
+     * Find whether any of a set of users is already in a group waiting for, or offered tickets to, a fixture.
+     *
+     * @param fixtureId The fixture.
+     * @param userIds The users.
+     * @param connection A database connection, used for groups the sets may not include yet.
+     * @param handler The result handler, receiving true if any of them is.
+     */
+    public static void anyAttending(int fixtureId,
+                                    Collection<Integer> userIds,
+                                    SQLConnection connection,
+                                    Handler<AsyncResult<Boolean>> handler) {
+        if (userIds.isEmpty()) {
+            handler.handle(Future.succeededFuture(false));
+            return;
+        }
+        Snapshot current = snapshot;
+        int afterGroupId = 0;
+        if (current != null) {
+            UserIdSet attending = current.attendees.get(fixtureId);
+            if (attending != null && userIds.stream().anyMatch(attending::contains)) {
+                Metrics.increment("fixture_attendees.conflict.memory");
+                handler.handle(Future.succeededFuture(true));
+                return;
+            }
+            afterGroupId = current.settledGroupId;
+        }
+
+        String placeholders = String.join(",", Collections.nCopies(userIds.size(), "?"));
+        JsonArray params = new JsonArray();
+        for (int i = 0; i < 2; i++) {
+            params.add(fixtureId).add(afterGroupId);
+            userIds.forEach(params::add);
+        }
+        connection.queryWithParams(String.format(
+                "SELECT 1 " +
+                "FROM Groups " +
+                    "INNER JOIN Offers " +
+                        "ON Offers.GroupID = Groups.GroupID " +
+                    "INNER JOIN Tiers " +
+                        "ON Tiers.TierID = Offers.TierID " +
+                    "INNER JOIN PaymentGroups " +
+                        "ON PaymentGroups.GroupID = Groups.GroupID " +
+                    "INNER JOIN PaymentGroupAttendees " +
+                        "ON PaymentGroupAttendees.PaymentGroupID = PaymentGroups.PaymentGroupID " +
+                "WHERE Tiers.FixtureID = ? " +
+                    "AND Groups.GroupID > ? " +
+                    "AND PaymentGroupAttendees.UserID IN (%s) " +
+                "UNION ALL " +
+                "SELECT 1 " +
+                "FROM Groups " +
+                    "INNER JOIN GroupTiers " +
+                        "ON GroupTiers.GroupID = Groups.GroupID " +
+                    "INNER JOIN Tiers " +
+                        "ON Tiers.TierID = GroupTiers.TierID " +
+                    "INNER JOIN PaymentGroups " +
+                        "ON PaymentGroups.GroupID = Groups.GroupID " +
+                    "INNER JOIN PaymentGroupAttendees " +
+                        "ON PaymentGroupAttendees.PaymentGroupID = PaymentGroups.PaymentGroupID " +
+                "WHERE Tiers.FixtureID = ? " +
+                    "AND Groups.GroupID > ? " +
+                    "AND PaymentGroupAttendees.UserID IN (%s) " +
+                "LIMIT 1;", placeholders, placeholders),
+                params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    boolean attending = res.result().getNumRows() != 0;
+                    if (attending) {
+                        Metrics.increment("fixture_attendees.conflict.database");
+                    }
+                    handler.handle(Future.succeededFuture(attending));
+                });
+    }
+
+    /**
+     * Find the newest group created before a time. Groups are written in several statements, so only once one is a
+     * little old can all of its attendees and tiers be relied upon to be visible. Only groups newer than one already
+     * known to be settled are looked at, so the primary key bounds the scan rather than it covering every group.
+     *
+     * @param afterGroupId A group known to be settled; 0 if none are.
+     * @param createdBefore The time.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the group identifier to, which is afterGroupId if there are no newer
+     *                settled groups.
+     */
+    public static void retrieveSettledGroupId(int afterGroupId,
+                                              OffsetDateTime createdBefore,
+                                              SQLConnection connection,
+                                              Handler<AsyncResult<Integer>> handler) {
+        JsonArray params = new JsonArray().add(afterGroupId).add(Time.toSql(createdBefore));
+        connection.queryWithParams(
+                "SELECT MAX(GroupID) AS GroupID " +
+                "FROM Groups " +
+                "WHERE GroupID > ? " +
+                    "AND Created < ?;",
+                params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    Integer groupId = res.result().getRows().get(0).getInteger("GroupID");
+                    handler.handle(Future.succeededFuture(groupId == null ? afterGroupId : groupId));
+                });
+    }
+
+    /**
+     * Retrieve the attendees of groups waiting for, or offered tickets to, each fixture.
+     *
+     * @param afterGroupId Only groups with a greater identifier are considered; 0 for all of them.
+     * @param connection The connection to use.
+     * @param handler The handler to pass fixture IDs and their attendees' user IDs to.
+     */
+    public static void retrieveAfter(int afterGroupId,
+                                     SQLConnection connection,
+                                     Handler<AsyncResult<Map<Integer, int[]>>> handler) {
+        JsonArray params = new JsonArray().add(afterGroupId).add(afterGroupId);
+        connection.queryWithParams(
+                "SELECT " +
+                    "Tiers.FixtureID, " +
+                    "PaymentGroupAttendees.UserID " +
+                "FROM Groups " +
+                    "INNER JOIN Offers " +
+                        "ON Offers.GroupID = Groups.GroupID " +
+                    "INNER JOIN Tiers " +
+                        "ON Tiers.TierID = Offers.TierID " +
+                    "INNER JOIN PaymentGroups " +
+                        "ON PaymentGroups.GroupID = Groups.GroupID " +
+                    "INNER JOIN PaymentGroupAttendees " +
+                        "ON PaymentGroupAttendees.PaymentGroupID = PaymentGroups.PaymentGroupID " +
+                "WHERE Groups.GroupID > ? " +
+                "UNION " +
+                "SELECT " +
+                    "Tiers.FixtureID, " +
+                    "PaymentGroupAttendees.UserID " +
+                "FROM Groups " +
+                    "INNER JOIN GroupTiers " +
+                        "ON GroupTiers.GroupID = Groups.GroupID " +
+                    "INNER JOIN Tiers " +
+                        "ON Tiers.TierID = GroupTiers.TierID " +
+                    "INNER JOIN PaymentGroups " +
+                        "ON PaymentGroups.GroupID = Groups.GroupID " +
+                    "INNER JOIN PaymentGroupAttendees " +
+                        "ON PaymentGroupAttendees.PaymentGroupID = PaymentGroups.PaymentGroupID " +
+                "WHERE Groups.GroupID > ?;",
+                params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    Map<Integer, List<Integer>> fixtureUsers = new HashMap<>();
+                    for (JsonObject row : res.result().getRows()) {
+                        fixtureUsers.computeIfAbsent(row.getInteger("FixtureID"), id -> new ArrayList<>())
+                                .add(row.getInteger("UserID"));
+                    }
+                    handler.handle(Future.succeededFuture(fixtureUsers.entrySet().stream()
+                            .collect(Collectors.toMap(Map.Entry::getKey,
+                                    entry -> entry.getValue().stream().mapToInt(Integer::intValue).toArray()))));
+                });
+    }
+}
@@ -1,11 +1,13 @@
 package events.equaliser.java.model.group;
 
-import co.paralleluniverse.fibers.Suspendable;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
 import events.equaliser.java.model.event.Fixture;
 import events.equaliser.java.model.event.Tier;
 import events.equaliser.java.model.ticket.Offer;
 import events.equaliser.java.model.user.User;
+import events.equaliser.java.util.Fanout;
+import events.equaliser.java.util.Loaders;
+import events.equaliser.java.util.SqlTransaction;
 import events.equaliser.java.util.Time;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
@@ -15,15 +17,19 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.sql.UpdateResult;
-import io.vertx.ext.sync.Sync;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Represents a group wanting to attend an event, including a group leader and payment group leaders.
@@ -56,6 +62,74 @@ public class Group {
         }
     }
 
+    /**
+     * A position in a list of groups ordered by when they were created, most recent first.
+     */
+    public static class Cursor {
+
+        private final OffsetDateTime created;
+        private final int groupId;
+
+        private Cursor(OffsetDateTime created, int groupId) {
+            this.created = created;
+            this.groupId = groupId;
+        }
+
+        /**
+         * Parse a cursor previously turned into a string.
+         *
+         * @param cursor The string.
+         * @return The cursor.
+         * @throws IllegalArgumentException If the string is not a cursor.
+         */
+        public static Cursor parse(String cursor) {
+            int separator = cursor.indexOf(':');
+            try {
+                if (separator > 0) {
+                    long micros = Long.parseLong(cursor.substring(0, separator));
+                    Instant created = Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                            Math.floorMod(micros, 1_000_000L) * 1_000L);
+                    return new Cursor(OffsetDateTime.ofInstant(created, ZoneOffset.UTC),
+                            Integer.parseInt(cursor.substring(separator + 1)));
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+
+        @Override
+        public String toString() {
+            // microseconds, the finest precision MySQL stores
+            return (created.toEpochSecond() * 1_000_000L + created.getNano() / 1_000L) + ":" + groupId;
+        }
+    }
+
+    /**
+     * A page of groups.
+     */
+    public static class Slice {
+
+        private final List<Group> groups;
+        private final Cursor next;
+
+        private Slice(List<Group> groups, Cursor next) {
+            this.groups = groups;
+            this.next = next;
+        }
+
+        public List<Group> getGroups() {
+            return groups;
+        }
+
+        /**
+         * @return Where the next page starts, or null if this is the last.
+         */
+        public Cursor getNext() {
+            return next;
+        }
+    }
+
     public int getId() {
         return id;
     }
@@ -151,27 +225,101 @@ public class Group {
                 json.getInteger("OfferID") == null ? Status.WAITING : Status.OFFER);
     }
 
+    /**
+     * Create a group along with its payment groups and tier preferences, all in one transaction. Each table is written
+     * with a single multi-row statement, so the number of round trips does not grow with the size of the group.
+     *
+     * @param leader The group leader.
+     * @param fixture The fixture the group wants to attend.
+     * @param paymentGroups A map of payee -> the attendees they are paying for.
+     * @param priorities A map of tierId -> rank, where rank 1 is highest.
+     * @param connection A database connection.
+     * @param handler The result.
+     */
     public static void create(User leader, Fixture fixture,
+                              Map<User, Set<User>> paymentGroups,
+                              Map<Integer, Integer> priorities,
                               SQLConnection connection,
                               Handler<AsyncResult<Group>> handler) {
+        if (priorities.isEmpty()) {
+            handler.handle(Future.failedFuture("At least one tier must be selected"));
+            return;
+        }
+
         OffsetDateTime created = OffsetDateTime.now();
         JsonArray params = new JsonArray()
                 .add(leader.getId())
                 .add(fixture.getId())
                 .add(Time.toSql(created));
+        connection.setAutoCommit(false, autoCommitFalseRes -> {
+            if (autoCommitFalseRes.failed()) {
+                handler.handle(Future.failedFuture(autoCommitFalseRes.cause()));
+                return;
+            }
+
+            connection.updateWithParams(
+                    "INSERT INTO Groups (UserID, FixtureID, Created) " +
+                    "VALUES (?, ?, ?);",
+                    params, res -> {
+                        if (res.failed()) {
+                            SqlTransaction.rollback(connection, res.cause(), handler);
+                            return;
+                        }
+
+                        UpdateResult result = res.result();
+                        Group group = new Group(result.getKeys().getInteger(0), leader, fixture, created);
+                        PaymentGroup.insert(group.getId(), paymentGroups, connection, paymentGroupsRes -> {
+                            if (paymentGroupsRes.failed()) {
+                                SqlTransaction.rollback(connection, paymentGroupsRes.cause(), handler);
+                                return;
+                            }
+
+                            group.setPaymentGroups(paymentGroupsRes.result());
+                            insertTiers(group.getId(), priorities, connection, tiersRes -> {
+                                if (tiersRes.failed()) {
+                                    SqlTransaction.rollback(connection, tiersRes.cause(), handler);
+                                    return;
+                                }
+
+                                SqlTransaction.commit(connection, commitRes -> {
+                                    if (commitRes.failed()) {
+                                        SqlTransaction.rollback(connection, commitRes.cause(), handler);
+                                        return;
+                                    }
+
+                                    handler.handle(Future.succeededFuture(group));
+                                });
+                            });
+                        });
+                    });
+        });
+    }
+
+    /**
+     * Insert a group's tier rankings in one statement.
+     *
+     * @param groupId The group.
+     * @param priorities A map of tierId -> rank.
+     * @param connection A database connection.
+     * @param handler The result.
+     */
+    private static void insertTiers(int groupId,
+                                    Map<Integer, Integer> priorities,
+                                    SQLConnection connection,
+                                    Handler<AsyncResult<Void>> handler) {
+        JsonArray params = new JsonArray();
+        for (Map.Entry<Integer, Integer> entry : priorities.entrySet()) {
+            params.add(groupId).add(entry.getKey()).add(entry.getValue());
+        }
         connection.updateWithParams(
-                "INSERT INTO Groups (UserID, FixtureID, Created) " +
-                "VALUES (?, ?, ?);",
+                "INSERT INTO GroupTiers (GroupID, TierID, Rank) " +
+                "VALUES " + String.join(", ", Collections.nCopies(priorities.size(), "(?, ?, ?)")) + ";",
                 params, res -> {
                     if (res.failed()) {
                         handler.handle(Future.failedFuture(res.cause()));
                         return;
                     }
-
-                    UpdateResult result = res.result();
-                    int id = result.getKeys().getInteger(0);
-                    Group group = new Group(id, leader, fixture, created);
-                    handler.handle(Future.succeededFuture(group));
+                    handler.handle(Future.succeededFuture());
                 });
     }
 
@@ -203,45 +351,23 @@ public class Group {
                     "DELETE FROM GroupTiers WHERE GroupID = ?;",
                     new JsonArray().add(getId()), deleteRes -> {
                         if (deleteRes.failed()) {
-                            handler.handle(Future.failedFuture(deleteRes.cause()));
+                            SqlTransaction.rollback(connection, deleteRes.cause(), handler);
                             return;
                         }
 
-                        StringBuilder tiersQuery = new StringBuilder(
-                                "INSERT INTO GroupTiers (GroupID, TierID, Rank) " +
-                                        "VALUES ");
-                        int i = 0;
-                        for (Map.Entry<Integer, Integer> entry : priorities.entrySet()) {
-                            tiersQuery.append(
-                                    String.format("(%d, %d, %d)", getId(), entry.getKey(), entry.getValue()));
-                            if (i != priorities.size() - 1) {
-                                tiersQuery.append(',');
-                            }
-                            i++;
-                        }
-                        String tiersStatement = tiersQuery.toString();
-
-                        // TODO please let there be some form of chaining handlers that's more elegant than this...
-                        connection.update(tiersStatement, insertRes -> {
+                        insertTiers(getId(), priorities, connection, insertRes -> {
                             if (insertRes.failed()) {
-                                handler.handle(Future.failedFuture(insertRes.cause()));
+                                SqlTransaction.rollback(connection, insertRes.cause(), handler);
                                 return;
                             }
 
-                            connection.commit(commitRes -> {
+                            SqlTransaction.commit(connection, commitRes -> {
                                 if (commitRes.failed()) {
-                                    handler.handle(Future.failedFuture(commitRes.cause()));
+                                    SqlTransaction.rollback(connection, commitRes.cause(), handler);
                                     return;
                                 }
 
-                                connection.setAutoCommit(true, autoCommitTrueRes -> {
-                                    if (autoCommitFalseRes.failed()) {
-                                        handler.handle(Future.failedFuture(autoCommitFalseRes.cause()));
-                                        return;
-                                    }
-
-                                    handler.handle(Future.succeededFuture());
-                                });
+                                handler.handle(Future.succeededFuture());
                             });
                         });
                     });
@@ -258,6 +384,12 @@ public class Group {
                     "Groups.FixtureID, " +
                     "Groups.Created AS GroupCreated, " +
                     "Offers.OfferID, " +  // so we can easily get the status
+                    "Offers.Timestamp AS OfferTimestamp, " +
+                    "Offers.Expires AS OfferExpires, " +
+                    "Tiers.TierID, " +
+                    "Tiers.Name AS TierName, " +
+                    "Tiers.Price AS TierPrice, " +
+                    "Tiers.Availability AS TierAvailability, " +
                     "Users.UserID, " +
                     "Users.Username AS UserUsername, " +
                     "Users.Forename AS UserForename, " +
@@ -278,6 +410,8 @@ public class Group {
                         "ON Countries.CountryID = Users.CountryID " +
                     "LEFT OUTER JOIN Offers " +
                         "ON Offers.GroupID = Groups.GroupID " +
+                    "LEFT OUTER JOIN Tiers " +
+                        "ON Tiers.TierID = Offers.TierID " +
                 "WHERE Groups.GroupID = ?;", params, groupRes -> {
                     if (groupRes.failed()) {
                         handler.handle(Future.failedFuture(groupRes.cause()));
@@ -290,78 +424,173 @@ public class Group {
                         return;
                     }
 
-                    JsonObject row = set.getRows().get(0);
-                    Fixture.retrieveFromId(row.getInteger("FixtureID"), connection, fixtureRes -> {
-                        if (fixtureRes.failed()) {
-                            handler.handle(Future.failedFuture(fixtureRes.cause()));
+                    fromJsonObjects(set.getRows(), connection, groupsRes -> {
+                        if (groupsRes.failed()) {
+                            handler.handle(Future.failedFuture(groupsRes.cause()));
                             return;
                         }
 
-                        Fixture fixture = fixtureRes.result();
-                        Group group = fromJsonObject(row, fixture);
-                        Tier.retrieveByGroup(group, connection, tiersRes -> {
-                            if (tiersRes.failed()) {
-                                handler.handle(Future.failedFuture(tiersRes.cause()));
-                                return;
-                            }
-                            List<Tier> tiers = tiersRes.result();
-                            logger.debug("Retrieved {} tiers for group {}", tiers.size(), group.getId());
-                            group.setTiers(tiers);
-                            Offer.retrieveByGroup(group, connection, offerRes -> {
-                                if (offerRes.failed()) {
-                                    handler.handle(Future.failedFuture(offerRes.cause()));
-                                    return;
-                                }
-
-                                Optional<Offer> offerOptional = offerRes.result();
-                                offerOptional.ifPresent(group::setOffer);
-
-                                PaymentGroup.retrieveByGroup(group, offerOptional.orElse(null),
-                                        connection, groupsRes -> {
-                                    if (groupsRes.failed()) {
-                                        handler.handle(Future.failedFuture(groupRes.cause()));
-                                        return;
-                                    }
-
-                                    group.setPaymentGroups(groupsRes.result());
-                                    handler.handle(Future.succeededFuture(group));
-                                });
-                            });
-                        });
+                        handler.handle(Future.succeededFuture(groupsRes.result().get(0)));
                     });
                 });
     }
 
-    @Suspendable
+    /**
+     * Retrieve a page of the groups a user leads, pays for or attends, most recently created first.
+     *
+     * @param user The user.
+     * @param after Where the page starts, or null for the first page.
+     * @param limit The maximum number of groups to return, or 0 to return all of them.
+     * @param connection A database connection.
+     * @param handler The result.
+     */
     public static void retrieveByUser(User user,
+                                      Cursor after,
+                                      int limit,
                                       SQLConnection connection,
-                                      Handler<AsyncResult<List<Group>>> handler) {
+                                      Handler<AsyncResult<Slice>> handler) {
         JsonArray params = new JsonArray().add(user.getId()).add(user.getId()).add(user.getId());
+        String keyset = "";
+        if (after != null) {
+            String created = Time.toSql(after.created);
+            params.add(created).add(created).add(after.groupId);
+            keyset = "WHERE Groups.Created < ? OR (Groups.Created = ? AND Groups.GroupID < ?) ";
+        }
+        String page = "";
+        if (limit > 0) {
+            params.add(limit + 1);
+            page = "LIMIT ?";
+        }
         connection.queryWithParams(
-                "SELECT DISTINCT Groups.GroupID, Groups.Created " +
-                "FROM PaymentGroupAttendees " +
-                    "INNER JOIN PaymentGroups " +
-                        "ON PaymentGroups.PaymentGroupID = PaymentGroupAttendees.PaymentGroupID " +
+                "SELECT " +
+                    "Groups.GroupID, " +
+                    "Groups.FixtureID, " +
+                    "Groups.Created AS GroupCreated, " +
+                    "Offers.OfferID, " +
+                    "Offers.Timestamp AS OfferTimestamp, " +
+                    "Offers.Expires AS OfferExpires, " +
+                    "Tiers.TierID, " +
+                    "Tiers.Name AS TierName, " +
+                    "Tiers.Price AS TierPrice, " +
+                    "Tiers.Availability AS TierAvailability, " +
+                    "Users.UserID, " +
+                    "Users.Username AS UserUsername, " +
+                    "Users.Forename AS UserForename, " +
+                    "Users.Surname AS UserSurname, " +
+                    "Users.Email AS UserEmail, " +
+                    "Users.AreaCode AS UserAreaCode, " +
+                    "Users.SubscriberNumber AS UserSubscriberNumber, " +
+                    "Users.Token AS UserToken, " +
+                    "Users.ImageID AS UserImageID, " +
+                    "Countries.CountryID, " +
+                    "Countries.Name AS CountryName, " +
+                    "Countries.Abbreviation AS CountryAbbreviation, " +
+                    "Countries.CallingCode AS CountryCallingCode " +
+                "FROM (" +
+                        "SELECT GroupID " +
+                        "FROM Groups " +
+                        "WHERE UserID = ? " +
+                        "UNION " +
+                        "SELECT GroupID " +
+                        "FROM PaymentGroups " +
+                        "WHERE UserID = ? " +
+                        "UNION " +
+                        "SELECT PaymentGroups.GroupID " +
+                        "FROM PaymentGroupAttendees " +
+                            "INNER JOIN PaymentGroups " +
+                                "ON PaymentGroups.PaymentGroupID = PaymentGroupAttendees.PaymentGroupID " +
+                        "WHERE PaymentGroupAttendees.UserID = ?" +
+                    ") AS UserGroups " +
                     "INNER JOIN Groups " +
-                        "ON Groups.GroupID = PaymentGroups.GroupID " +
-                "WHERE Groups.UserID = ? " +
-                    "OR PaymentGroups.UserID = ? " +
-                    "OR PaymentGroupAttendees.UserID = ? " +
-                "ORDER BY Groups.Created DESC;", params, Sync.fiberHandler(groupsRes -> {
+                        "ON Groups.GroupID = UserGroups.GroupID " +
+                    "INNER JOIN Users " +
+                        "ON Users.UserID = Groups.UserID " +
+                    "INNER JOIN Countries " +
+                        "ON Countries.CountryID = Users.CountryID " +
+                    "LEFT OUTER JOIN Offers " +
+                        "ON Offers.GroupID = Groups.GroupID " +
+                    "LEFT OUTER JOIN Tiers " +
+                        "ON Tiers.TierID = Offers.TierID " +
+                keyset +
+                "ORDER BY Groups.Created DESC, Groups.GroupID DESC " +
+                page + ";", params, groupsRes -> {
                     if (groupsRes.failed()) {
                         handler.handle(Future.failedFuture(groupsRes.cause()));
                         return;
                     }
 
-                    // TODO do asynchronously
-                    ResultSet resultSet = groupsRes.result();
-                    List<Group> groups = new ArrayList<>();
-                    for (JsonObject row : resultSet.getRows()) {
-                        int groupId = row.getInteger("GroupID");
-                        Group group = Sync.awaitResult(h -> retrieveById(groupId, connection, h));
-                        groups.add(group);
-                    }
-                    handler.handle(Future.succeededFuture(groups));
-                }));
+                    List<JsonObject> rows = groupsRes.result().getRows();
+                    boolean more = limit > 0 && rows.size() > limit;
+                    fromJsonObjects(more ? rows.subList(0, limit) : rows, connection, pageRes -> {
+                        if (pageRes.failed()) {
+                            handler.handle(Future.failedFuture(pageRes.cause()));
+                            return;
+                        }
+
+                        List<Group> groups = pageRes.result();
+                        Cursor next = null;
+                        if (more) {
+                            Group last = groups.get(groups.size() - 1);
+                            next = new Cursor(last.getCreated(), last.getId());
+                        }
+                        handler.handle(Future.succeededFuture(new Slice(groups, next)));
+                    });
+                });
+    }
+
+    /**
+     * Turn rows of groups into groups complete with their fixtures, tiers, offers and payment groups. Each of these
+     * is retrieved for all of the groups at once, so the number of queries does not depend on how many there are, and
+     * the queries run concurrently, as none depends on another.
+     *
+     * @param rows The rows, with leader and offer columns.
+     * @param connection A database connection.
+     * @param handler The groups, in the same order as the rows.
+     */
+    private static void fromJsonObjects(List<JsonObject> rows,
+                                        SQLConnection connection,
+                                        Handler<AsyncResult<List<Group>>> handler) {
+        if (rows.isEmpty()) {
+            handler.handle(Future.succeededFuture(Collections.emptyList()));
+            return;
+        }
+
+        Set<Integer> fixtureIds = rows.stream()
+                .map(row -> row.getInteger("FixtureID"))
+                .collect(Collectors.toSet());
+        List<Integer> groupIds = rows.stream()
+                .map(row -> row.getInteger("GroupID"))
+                .collect(Collectors.toList());
+
+        Fanout fanout = new Fanout(connection);
+        Future<Map<Integer, Fixture>> fixtures = fanout.add((conn, h) ->
+                Loaders.of(conn).getFixtures().loadNow(fixtureIds, h));
+        Future<Map<Integer, List<Tier>>> tiers = fanout.add((conn, h) ->
+                Tier.retrieveByGroups(groupIds, conn, h));
+        Future<Map<Integer, List<PaymentGroup>>> paymentGroups = fanout.add((conn, h) ->
+                PaymentGroup.retrieveByGroups(groupIds, conn, h));
+        fanout.run(fanoutRes -> {
+            if (fanoutRes.failed()) {
+                handler.handle(Future.failedFuture(fanoutRes.cause()));
+                return;
+            }
+
+            List<Group> groups = new ArrayList<>(rows.size());
+            for (JsonObject row : rows) {
+                Fixture fixture = fixtures.result().get(row.getInteger("FixtureID"));
+                if (fixture == null) {
+                    handler.handle(Future.failedFuture("No fixture found with id " + row.getInteger("FixtureID")));
+                    return;
+                }
+                Group group = fromJsonObject(row, fixture);
+                group.setTiers(tiers.result().getOrDefault(group.getId(), new ArrayList<>()));
+                if (row.getInteger("OfferID") != null) {
+                    group.setOffer(Offer.fromJsonObject(row, group));
+                }
+                group.setPaymentGroups(paymentGroups.result().getOrDefault(group.getId(), new ArrayList<>()));
+                groups.add(group);
+            }
+            handler.handle(Future.succeededFuture(groups));
+        });
     }
 }
@@ -1,18 +1,16 @@
 package events.equaliser.java.model.group;
 
-import co.paralleluniverse.fibers.Suspendable;
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import events.equaliser.java.model.ticket.Offer;
 import events.equaliser.java.model.user.User;
+import events.equaliser.java.util.Time;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.SQLConnection;
-import io.vertx.ext.sql.UpdateResult;
-import io.vertx.ext.sync.Sync;
 
+import java.time.OffsetDateTime;
 import java.util.*;
 
 /**
@@ -70,7 +68,7 @@ public class PaymentGroup {
         this.status = status;
     }
 
-    private PaymentGroup(int id, User payee, Set<User> attendees) {
+    PaymentGroup(int id, User payee, Set<User> attendees) {
         this(id, payee, attendees, Status.INHERIT);
     }
 
@@ -79,72 +77,123 @@ public class PaymentGroup {
         return String.format("PaymentGroup(%d, %s, %d attendees)", getId(), getPayee(), getAttendees().size());
     }
 
-    @Suspendable
-    public static void create(Group parent,
-                              Map<User, Set<User>> paymentGroups,
-                              SQLConnection connection,
-                              Handler<AsyncResult<Group>> handler) {
-        List<PaymentGroup> groups = new ArrayList<>();
-        for (Map.Entry<User, Set<User>> entry : paymentGroups.entrySet()) {
-            JsonArray groupParams = new JsonArray()
-                    .add(parent.getId())
-                    .add(entry.getKey().getId());
-            UpdateResult result = Sync.awaitResult(
-                    h -> connection.updateWithParams(
-                            "INSERT INTO PaymentGroups (GroupID, UserID) VALUES (?, ?);", groupParams, h));
-            int paymentGroupId = result.getKeys().getInteger(0);
-
-            for (User user : entry.getValue()) {
-                JsonArray attendeeParams = new JsonArray()
-                        .add(paymentGroupId)
-                        .add(user.getId());
-                //noinspection UnusedAssignment
-                result = Sync.awaitResult(
-                        h -> connection.updateWithParams(
-                                "INSERT INTO PaymentGroupAttendees (PaymentGroupID, UserID) VALUES (?, ?);",
-                                attendeeParams, h));
-            }
-
-            groups.add(new PaymentGroup(paymentGroupId, entry.getKey(), entry.getValue()));
+    /**
+     * Insert a group's payment groups and their attendees, with one statement for each table. Generated identifiers
+     * are read back by payee rather than assumed to be consecutive, which they are not guaranteed to be.
+     *
+     * @param groupId The parent group.
+     * @param paymentGroups A map of payee -> the attendees they are paying for.
+     * @param connection A database connection, which should be in a transaction.
+     * @param handler The result.
+     */
+    static void insert(int groupId,
+                       Map<User, Set<User>> paymentGroups,
+                       SQLConnection connection,
+                       Handler<AsyncResult<List<PaymentGroup>>> handler) {
+        JsonArray groupParams = new JsonArray();
+        for (User payee : paymentGroups.keySet()) {
+            groupParams.add(groupId).add(payee.getId());
         }
-        parent.setPaymentGroups(groups);
-        handler.handle(Future.succeededFuture(parent));
+        connection.updateWithParams(
+                "INSERT INTO PaymentGroups (GroupID, UserID) " +
+                "VALUES " + String.join(", ", Collections.nCopies(paymentGroups.size(), "(?, ?)")) + ";",
+                groupParams, groupsRes -> {
+                    if (groupsRes.failed()) {
+                        handler.handle(Future.failedFuture(groupsRes.cause()));
+                        return;
+                    }
+
+                    connection.queryWithParams(
+                            "SELECT PaymentGroupID, UserID " +
+                            "FROM PaymentGroups " +
+                            "WHERE GroupID = ?;",
+                            new JsonArray().add(groupId), idsRes -> {
+                                if (idsRes.failed()) {
+                                    handler.handle(Future.failedFuture(idsRes.cause()));
+                                    return;
+                                }
+
+                                Map<Integer, Integer> payeeGroupIds = new HashMap<>();
+                                for (JsonObject row : idsRes.result().getRows()) {
+                                    payeeGroupIds.put(row.getInteger("UserID"), row.getInteger("PaymentGroupID"));
+                                }
+                                List<PaymentGroup> groups = new ArrayList<>();
+                                JsonArray attendeeParams = new JsonArray();
+                                for (Map.Entry<User, Set<User>> entry : paymentGroups.entrySet()) {
+                                    int paymentGroupId = payeeGroupIds.get(entry.getKey().getId());
+                                    for (User user : entry.getValue()) {
+                                        attendeeParams.add(paymentGroupId).add(user.getId());
+                                    }
+                                    groups.add(new PaymentGroup(paymentGroupId, entry.getKey(), entry.getValue()));
+                                }
+                                if (attendeeParams.isEmpty()) {
+                                    handler.handle(Future.succeededFuture(groups));
+                                    return;
+                                }
+
+                                connection.updateWithParams(
+                                        "INSERT INTO PaymentGroupAttendees (PaymentGroupID, UserID) " +
+                                        "VALUES " + String.join(", ",
+                                                Collections.nCopies(attendeeParams.size() / 2, "(?, ?)")) + ";",
+                                        attendeeParams, attendeesRes -> {
+                                            if (attendeesRes.failed()) {
+                                                handler.handle(Future.failedFuture(attendeesRes.cause()));
+                                                return;
+                                            }
+                                            handler.handle(Future.succeededFuture(groups));
+                                        });
+                            });
+                });
     }
 
     /**
      * Get the status of a hypothetical payment group with information about the group's offer and the
      * payment group's transaction.
      *
-     * @param offer The offer received by the parent group.
+     * @param offerExpires When the offer received by the parent group expires, or null if there is no offer.
      * @param hasTransaction Whether a transaction exists for the payment group.
      * @return The status of the payment group.
      */
-    private static Status getStatus(Offer offer, boolean hasTransaction) {
+    private static Status getStatus(OffsetDateTime offerExpires, boolean hasTransaction) {
         if (hasTransaction) {
             // if we have a transaction, we must have accepted the offer in time
             return Status.COMPLETE;
         }
 
-        if (offer != null && offer.hasExpired()) {
+        if (offerExpires != null && offerExpires.isBefore(OffsetDateTime.now())) {
             // no transaction, so cannot be complete
             return Status.EXPIRED;
         }
 
-        // either offer == null, so the entire group is waiting,
-        // or !offer.hasExpired, so we're still in the offered state
+        // either there is no offer, so the entire group is waiting,
+        // or it has not expired, so we're still in the offered state
         return Status.INHERIT;
     }
 
-    static void retrieveByGroup(Group group,
-                                Offer offer,
-                                SQLConnection connection,
-                                Handler<AsyncResult<List<PaymentGroup>>> handler) {
-        JsonArray params = new JsonArray().add(group.getId());
+    /**
+     * Retrieve the payment groups of several groups at once, with their payees and attendees.
+     *
+     * @param groupIds The identifiers of the groups.
+     * @param connection The connection to use.
+     * @param handler The handler to pass group IDs and their payment groups to.
+     */
+    static void retrieveByGroups(Collection<Integer> groupIds,
+                                 SQLConnection connection,
+                                 Handler<AsyncResult<Map<Integer, List<PaymentGroup>>>> handler) {
+        if (groupIds.isEmpty()) {
+            handler.handle(Future.succeededFuture(Collections.emptyMap()));
+            return;
+        }
+
+        String placeholders = String.join(",", Collections.nCopies(groupIds.size(), "?"));
+        JsonArray params = new JsonArray(new ArrayList<>(groupIds));
         // first, get payment groups and their payees
-        connection.queryWithParams(
+        connection.queryWithParams(String.format(
                 "SELECT " +
                     "PaymentGroups.PaymentGroupID, " +
+                    "PaymentGroups.GroupID, " +
                     "Transactions.TransactionID, " +
+                    "Offers.Expires AS OfferExpires, " +
                     "Users.UserID, " +
                     "Users.Username AS UserUsername, " +
                     "Users.Forename AS UserForename, " +
@@ -165,26 +214,28 @@ public class PaymentGroup {
                         "ON Countries.CountryID = Users.CountryID " +
                     "LEFT OUTER JOIN Transactions " +  // to ascertain status
                         "ON Transactions.PaymentGroupID = PaymentGroups.PaymentGroupID " +
-                "WHERE PaymentGroups.GroupID = ?;", params, payeesRes -> {
+                    "LEFT OUTER JOIN Offers " +
+                        "ON Offers.GroupID = PaymentGroups.GroupID " +
+                "WHERE PaymentGroups.GroupID IN (%s) " +
+                "ORDER BY PaymentGroups.PaymentGroupID ASC;", placeholders), params, payeesRes -> {
                     if (payeesRes.failed()) {
                         handler.handle(Future.failedFuture(payeesRes.cause()));
                         return;
                     }
 
-                    // paymentGroupId:int -> payee:User
-                    Map<Integer, User> payees = new HashMap<>();
+                    // paymentGroupId:int -> row, in order
+                    Map<Integer, JsonObject> payeeRows = new LinkedHashMap<>();
 
-                    // paymentGroupId:int -> hasTransaction:bool
-                    Map<Integer, Boolean> transactions = new HashMap<>();
+                    // userId:int -> user:User, so users in several payment groups are only materialised once
+                    Map<Integer, User> users = new HashMap<>();
 
                     for (JsonObject row : payeesRes.result().getRows()) {
-                        int paymentGroupId = row.getInteger("PaymentGroupID");
-                        payees.put(paymentGroupId, User.fromJsonObject(row));
-                        transactions.put(paymentGroupId, row.getInteger("TransactionID") != null);
+                        payeeRows.put(row.getInteger("PaymentGroupID"), row);
+                        users.computeIfAbsent(row.getInteger("UserID"), id -> User.fromJsonObject(row));
                     }
 
                     // now get payment group attendees to match up
-                    connection.queryWithParams(
+                    connection.queryWithParams(String.format(
                             "SELECT " +
                                 "PaymentGroups.PaymentGroupID, " +
                                 "Users.UserID, " +
@@ -207,7 +258,7 @@ public class PaymentGroup {
                                     "ON Users.UserID = PaymentGroupAttendees.UserID " +
                                 "INNER JOIN Countries " +
                                     "ON Countries.CountryID = Users.CountryID " +
-                            "WHERE PaymentGroups.GroupID = ?;", params, attendeesRes -> {
+                            "WHERE PaymentGroups.GroupID IN (%s);", placeholders), params, attendeesRes -> {
                                 if (attendeesRes.failed()) {
                                     handler.handle(Future.failedFuture(attendeesRes.cause()));
                                     return;
@@ -220,16 +271,20 @@ public class PaymentGroup {
                                     if (!attendees.containsKey(paymentGroupId)) {
                                         attendees.put(paymentGroupId, new HashSet<>());
                                     }
-                                    attendees.get(paymentGroupId).add(User.fromJsonObject(row));
+                                    attendees.get(paymentGroupId).add(users.computeIfAbsent(
+                                            row.getInteger("UserID"), id -> User.fromJsonObject(row)));
                                 }
 
-                                List<PaymentGroup> paymentGroups = new ArrayList<>();
-                                for (Map.Entry<Integer, User> payee : payees.entrySet()) {
-                                    paymentGroups.add(new PaymentGroup(
+                                Map<Integer, List<PaymentGroup>> paymentGroups = new HashMap<>();
+                                for (Map.Entry<Integer, JsonObject> payee : payeeRows.entrySet()) {
+                                    JsonObject row = payee.getValue();
+                                    int groupId = row.getInteger("GroupID");
+                                    paymentGroups.computeIfAbsent(groupId, id -> new ArrayList<>()).add(new PaymentGroup(
                                             payee.getKey(),
-                                            payee.getValue(),
+                                            users.get(row.getInteger("UserID")),
                                             attendees.get(payee.getKey()),
-                                            getStatus(offer, transactions.get(payee.getKey()))));
+                                            getStatus(Time.parseOffsetDateTime(row.getString("OfferExpires")),
+                                                    row.getInteger("TransactionID") != null)));
                                 }
                                 handler.handle(Future.succeededFuture(paymentGroups));
                             });
@@ -0,0 +1,206 @@
+package events.equaliser.java.model.group;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable set of user identifiers, stored compactly in the manner of a roaring bitmap. Identifiers are split by
+ * their upper 16 bits into chunks. A chunk with few members holds their lower 16 bits in a sorted array, and one with
+ * many holds a 65536-bit bitmap, whichever is smaller.
+ */
+public class UserIdSet {
+
+    /**
+     * The most members a chunk holds as an array; beyond this, a bitmap is smaller.
+     */
+    private static final int MAX_ARRAY_SIZE = 4096;
+
+    private static final int BITMAP_LONGS = 65536 / 64;
+
+    private static final char[] NO_MEMBERS = new char[0];
+
+    public static final UserIdSet EMPTY = new UserIdSet(new char[0], new Object[0], 0);
+
+    /**
+     * The upper 16 bits of the identifiers in each chunk, in ascending order.
+     */
+    private final char[] keys;
+
+    /**
+     * The lower 16 bits of the identifiers in each chunk, either as a sorted char[] or as a long[] bitmap.
+     */
+    private final Object[] chunks;
+
+    private final int size;
+
+    private UserIdSet(char[] keys, Object[] chunks, int size) {
+        this.keys = keys;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Create a set.
+     *
+     * @param userIds The members, in any order, possibly repeated.
+     * @return The set.
+     */
+    public static UserIdSet of(int... userIds) {
+        return EMPTY.with(userIds);
+    }
+
+    /**
+     * @return The number of members.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimate how much memory the set's contents take up.
+     *
+     * @return The approximate number of bytes.
+     */
+    public long getSizeBytes() {
+        long bytes = keys.length * 2L + chunks.length * 4L;
+        for (Object chunk : chunks) {
+            bytes += chunk instanceof char[] ? ((char[]) chunk).length * 2L : BITMAP_LONGS * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Find whether a user is a member.
+     *
+     * @param userId The user's identifier.
+     * @return True if they are.
+     */
+    public boolean contains(int userId) {
+        int index = Arrays.binarySearch(keys, (char) (userId >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        char low = (char) userId;
+        Object chunk = chunks[index];
+        if (chunk instanceof char[]) {
+            return Arrays.binarySearch((char[]) chunk, low) >= 0;
+        }
+        return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    /**
+     * Create a new set with some users added. Only the chunks they fall into are copied.
+     *
+     * @param userIds The users to add, in any order, possibly repeated or already members.
+     * @return The new set, or this one if nothing was added.
+     */
+    public UserIdSet with(int... userIds) {
+        if (userIds.length == 0) {
+            return this;
+        }
+        int[] sorted = userIds.clone();
+        // identifiers sharing their upper 16 bits end up together, with their lower 16 bits in ascending order
+        Arrays.sort(sorted);
+
+        Map<Character, Object> changed = new TreeMap<>();
+        int newSize = size;
+        for (int start = 0; start < sorted.length; ) {
+            char key = (char) (sorted[start] >>> 16);
+            int end = start + 1;
+            while (end < sorted.length && (char) (sorted[end] >>> 16) == key) {
+                end++;
+            }
+            int index = Arrays.binarySearch(keys, key);
+            Object existing = index >= 0 ? chunks[index] : NO_MEMBERS;
+            Object chunk = add(existing, sorted, start, end);
+            newSize += cardinality(chunk) - cardinality(existing);
+            changed.put(key, chunk);
+            start = end;
+        }
+        if (newSize == size) {
+            return this;
+        }
+
+        // merge the changed chunks into the existing ones, both being in key order
+        char[] newKeys = new char[keys.length + changed.size()];
+        Object[] newChunks = new Object[newKeys.length];
+        int count = 0;
+        int i = 0;
+        for (Map.Entry<Character, Object> entry : changed.entrySet()) {
+            char key = entry.getKey();
+            while (i < keys.length && keys[i] < key) {
+                newKeys[count] = keys[i];
+                newChunks[count++] = chunks[i++];
+            }
+            if (i < keys.length && keys[i] == key) {
+                i++;
+            }
+            newKeys[count] = key;
+            newChunks[count++] = entry.getValue();
+        }
+        while (i < keys.length) {
+            newKeys[count] = keys[i];
+            newChunks[count++] = chunks[i++];
+        }
+        return new UserIdSet(Arrays.copyOf(newKeys, count), Arrays.copyOf(newChunks, count), newSize);
+    }
+
+    /**
+     * Add the lower 16 bits of some identifiers to a copy of a chunk.
+     *
+     * @param chunk The chunk.
+     * @param sorted Identifiers in ascending order.
+     * @param start The position of the first identifier to add.
+     * @param end The position after the last identifier to add.
+     * @return The new chunk.
+     */
+    private static Object add(Object chunk, int[] sorted, int start, int end) {
+        if (chunk instanceof char[]) {
+            char[] members = (char[]) chunk;
+            char[] merged = new char[members.length + end - start];
+            int count = 0;
+            int i = 0;
+            for (int j = start; j < end; j++) {
+                char low = (char) sorted[j];
+                while (i < members.length && members[i] < low) {
+                    merged[count++] = members[i++];
+                }
+                if (i < members.length && members[i] == low) {
+                    continue;
+                }
+                if (count == 0 || merged[count - 1] != low) {
+                    merged[count++] = low;
+                }
+            }
+            while (i < members.length) {
+                merged[count++] = members[i++];
+            }
+            if (count <= MAX_ARRAY_SIZE) {
+                return count == merged.length ? merged : Arrays.copyOf(merged, count);
+            }
+            long[] bitmap = new long[BITMAP_LONGS];
+            for (int k = 0; k < count; k++) {
+                bitmap[merged[k] >>> 6] |= 1L << merged[k];
+            }
+            return bitmap;
+        }
+        long[] bitmap = ((long[]) chunk).clone();
+        for (int j = start; j < end; j++) {
+            char low = (char) sorted[j];
+            bitmap[low >>> 6] |= 1L << low;
+        }
+        return bitmap;
+    }
+
+    private static int cardinality(Object chunk) {
+        if (chunk instanceof char[]) {
+            return ((char[]) chunk).length;
+        }
+        int count = 0;
+        for (long word : (long[]) chunk) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
@@ -1,6 +1,8 @@
 package events.equaliser.java.model.image;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import events.equaliser.java.util.Catalog;
+import events.equaliser.java.util.Loaders;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -11,9 +13,11 @@ import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.sql.UpdateResult;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -73,30 +77,47 @@ public class Image {
     }
 
     public static void retrieveFromId(int id, SQLConnection connection, Handler<AsyncResult<Image>> result) {
-        JsonArray params = new JsonArray().add(id);
-        connection.queryWithParams(
+        Loaders.of(connection).getImages().load(id, result);
+    }
+
+    /**
+     * Retrieve several images at once, from the catalog cache where possible.
+     *
+     * @param ids The identifiers of the images.
+     * @param connection The connection to use for images not cached.
+     * @param handler The handler to pass the images found to, by identifier.
+     */
+    public static void retrieveFromIds(Set<Integer> ids,
+                                       SQLConnection connection,
+                                       Handler<AsyncResult<Map<Integer, Image>>> handler) {
+        Catalog.getImages().readThrough(ids, (missing, h) -> fetchFromIds(missing, connection, h), handler);
+    }
+
+    private static void fetchFromIds(Set<Integer> ids,
+                                     SQLConnection connection,
+                                     Handler<AsyncResult<Map<Integer, Image>>> handler) {
+        connection.queryWithParams(String.format(
                 "SELECT ImageID, Width AS ImageWidth, Height as ImageHeight, Sha256 as ImageSha256 " +
                 "FROM ImageSizes " +
-                "WHERE ImageID = ? " +
-                "ORDER BY ImageWidth * ImageHeight ASC;", params, query -> {
-            if (query.succeeded()) {
-                ResultSet resultSet = query.result();
-                if (resultSet.getNumRows() == 0) {
-                    result.handle(Future.failedFuture("No image found with id " + id));
-                }
-                else {
-                    List<ImageSize> sizes = query.result()
-                            .getRows()
-                            .stream()
-                            .map(ImageSize::fromJsonObject)
-                            .collect(Collectors.toList());
-                    result.handle(Future.succeededFuture(new Image(id, sizes)));
-                }
-            }
-            else {
-                result.handle(Future.failedFuture(query.cause()));
-            }
-        });
+                "WHERE ImageID IN (%s) " +
+                "ORDER BY ImageWidth * ImageHeight ASC;", String.join(",", Collections.nCopies(ids.size(), "?"))),
+                new JsonArray(new ArrayList<>(ids)), query -> {
+                    if (query.failed()) {
+                        handler.handle(Future.failedFuture(query.cause()));
+                        return;
+                    }
+
+                    Map<Integer, List<ImageSize>> imageSizes = new HashMap<>();
+                    for (JsonObject row : query.result().getRows()) {
+                        imageSizes.computeIfAbsent(row.getInteger("ImageID"), id -> new ArrayList<>())
+                                .add(ImageSize.fromJsonObject(row));
+                    }
+                    Map<Integer, Image> images = new HashMap<>();
+                    for (Map.Entry<Integer, List<ImageSize>> entry : imageSizes.entrySet()) {
+                        images.put(entry.getKey(), new Image(entry.getKey(), entry.getValue()));
+                    }
+                    handler.handle(Future.succeededFuture(images));
+                });
     }
 
     public static void retrieveFromSeries(int seriesId,
@@ -1,14 +1,13 @@
 package events.equaliser.java.model.image;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import events.equaliser.java.model.event.Tag;
 import events.equaliser.java.util.Filesystem;
-import events.equaliser.java.util.Hex;
+import events.equaliser.java.util.Token;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
@@ -24,9 +23,11 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Represents a particular size of an image stored in the database.
@@ -37,7 +38,7 @@ public class ImageSize {
 
     private final int width;
     private final int height;
-    private final byte[] sha256;
+    private final Token sha256;
 
     public int getWidth() {
         return width;
@@ -47,18 +48,27 @@ public class ImageSize {
         return height;
     }
 
-    public byte[] getSha256() {
+    @JsonIgnore
+    public Token getSha256() {
         return sha256;
     }
 
-    private ImageSize(int width, int height, byte[] sha256) {
+    /**
+     * @return The SHA-256 hash of the image, base64-encoded as clients have always received it.
+     */
+    @JsonProperty("sha256")
+    public String getSha256Base64() {
+        return sha256.toBase64();
+    }
+
+    private ImageSize(int width, int height, Token sha256) {
         this.width = width;
         this.height = height;
         this.sha256 = sha256;
     }
 
     public ImageSize(File file, BufferedImage image) throws IOException, NoSuchAlgorithmException {
-        this(image.getWidth(), image.getHeight(), Filesystem.sha256(file));
+        this(image.getWidth(), image.getHeight(), Token.of(Filesystem.sha256(file)));
     }
 
     @Override
@@ -72,7 +82,7 @@ public class ImageSize {
     @JsonProperty("url")
     public String getUrl() {
         String base = Vertx.currentContext().config().getString("static");
-        return String.format("%s/images/%s.jpg", base, Hex.binToHex(getSha256()));
+        return String.format("%s/images/%s.jpg", base, getSha256().toHex());
     }
 
     private static Path getStorageDir() {
@@ -83,7 +93,7 @@ public class ImageSize {
     public void moveToStorage(File file) throws IOException {
         final Path from = file.toPath();
         final Path storageDir = getStorageDir();
-        final String filename = Hex.binToHex(getSha256()) + ".jpg";
+        final String filename = getSha256().toHex() + ".jpg";
         final Path to = new File(storageDir.toString(), filename).toPath();
         logger.debug("Moving {} to {}", from, to);
         Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
@@ -101,7 +111,7 @@ public class ImageSize {
         for (int i = 0; i < sizes.size(); i++) {
             ImageSize size = sizes.get(i);
             builder.append(String.format("(%d, %d, %d, UNHEX('%s'))",
-                    imageId, size.getWidth(), size.getHeight(), Hex.binToHex(size.getSha256())));
+                    imageId, size.getWidth(), size.getHeight(), size.getSha256().toHex()));
             if (i != sizes.size() - 1) {
                 builder.append(',');
             }
@@ -127,47 +137,33 @@ public class ImageSize {
         return new ImageSize(
                 json.getInteger("ImageWidth"),
                 json.getInteger("ImageHeight"),
-                json.getBinary("ImageSha256"));
-    }
-
-    public static void retrieveSeriesShowcase(SQLConnection connection,
-                                              Handler<AsyncResult<Map<Integer, List<Image>>>> handler) {
-        connection.query(
-                "SELECT " +
-                    "Series.SeriesID, " +
-                    "SeriesImages.ImageID, " +
-                    "ImageSizes.Width AS ImageWidth, " +
-                    "ImageSizes.Height AS ImageHeight, " +
-                    "ImageSizes.Sha256 AS ImageSha256 " +
-                "FROM Series " +
-                    "INNER JOIN SeriesImages " +
-                        "ON SeriesImages.SeriesID = Series.SeriesID " +
-                    "INNER JOIN ImageSizes " +
-                        "ON ImageSizes.ImageID = SeriesImages.ImageID " +
-                "WHERE Series.IsShowcase = true;", res -> processSeriesResult(res, handler));
+                Token.of(json.getBinary("ImageSha256")));
     }
 
-    public static void retrieveSeriesTag(Tag tag,
+    /**
+     * Retrieve the images of several series at once.
+     *
+     * @param seriesIds The identifiers of the series; must not be empty.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the images to, keyed by series identifier.
+     */
+    public static void retrieveSeriesIds(Collection<Integer> seriesIds,
                                          SQLConnection connection,
                                          Handler<AsyncResult<Map<Integer, List<Image>>>> handler) {
-        JsonArray params = new JsonArray().add(tag.getId());
-        connection.queryWithParams(
+        connection.query(String.format(
                 "SELECT " +
-                    "Series.SeriesID, " +
+                    "SeriesImages.SeriesID, " +
                     "SeriesImages.ImageID, " +
                     "ImageSizes.Width AS ImageWidth, " +
                     "ImageSizes.Height AS ImageHeight, " +
                     "ImageSizes.Sha256 AS ImageSha256 " +
-                "FROM Tags " +
-                    "INNER JOIN SeriesTags " +
-                        "ON SeriesTags.TagID = Tags.TagID " +
-                    "INNER JOIN Series " +
-                        "ON Series.SeriesID = SeriesTags.SeriesID " +
-                    "INNER JOIN SeriesImages " +
-                        "ON SeriesImages.SeriesID = Series.SeriesID " +
+                "FROM SeriesImages " +
                     "INNER JOIN ImageSizes " +
                         "ON ImageSizes.ImageID = SeriesImages.ImageID " +
-                "WHERE Tags.TagID = ?;", params, res -> processSeriesResult(res, handler));
+                "WHERE SeriesImages.SeriesID IN (%s);",
+                seriesIds.stream()
+                        .map(Object::toString)
+                        .collect(Collectors.joining(","))), res -> processSeriesResult(res, handler));
     }
 
     private static void processSeriesResult(AsyncResult<ResultSet> result,
@@ -14,7 +14,6 @@ import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.sql.UpdateResult;
 import io.vertx.ext.sync.Sync;
@@ -22,7 +21,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.OffsetDateTime;
-import java.util.Optional;
 
 /**
  * Represents an offer to an group for tickets for a tier.
@@ -93,7 +91,7 @@ public class Offer {
      * @param group The group this offer is for.
      * @return The Offer representation of the object.
      */
-    private static Offer fromJsonObject(JsonObject json, Group group) {
+    public static Offer fromJsonObject(JsonObject json, Group group) {
         return new Offer(json.getInteger("OfferID"),
                 group,
                 Tier.fromJsonObject(json),
@@ -127,45 +125,6 @@ public class Offer {
                 });
     }
 
-    public static void retrieveByGroup(Group group,
-                                       SQLConnection connection,
-                                       Handler<AsyncResult<Optional<Offer>>> handler) {
-        JsonArray params = new JsonArray().add(group.getId());
-        connection.queryWithParams(
-                "SELECT " +
-                    "Offers.OfferID, " +
-                    "Offers.Timestamp AS OfferTimestamp, " +
-                    "Offers.Expires AS OfferExpires, " +
-                    "Tiers.TierID, " +
-                    "Fixtures.FixtureID, " +
-                    "Tiers.TierID, " +
-                    "Tiers.Name AS TierName, " +
-                    "Tiers.Price AS TierPrice, " +
-                    "Tiers.Availability AS TierAvailability, " +
-                    "Tiers.ReturnsPolicy AS TierReturnsPolicy " +
-                "FROM Offers " +
-                    "INNER JOIN Tiers " +
-                        "ON Tiers.TierID = Offers.TierID " +
-                    "INNER JOIN Fixtures " +
-                        "ON Fixtures.FixtureID = Tiers.FixtureID " +
-                "WHERE Offers.GroupID = ?;", params, offerRes -> {
-                    if (offerRes.failed()) {
-                        handler.handle(Future.failedFuture(offerRes.cause()));
-                        return;
-                    }
-
-                    ResultSet set = offerRes.result();
-                    if (set.getNumRows() == 0) {
-                        // no offer for group
-                        handler.handle(Future.succeededFuture(Optional.empty()));
-                        return;
-                    }
-
-                    Offer offer = fromJsonObject(set.getRows().get(0), group);
-                    handler.handle(Future.succeededFuture(Optional.of(offer)));
-                });
-    }
-
     /**
      * Send notifications for an offer.
      * N.B. As this is synchronous, it should only be used in a SyncVerticle.
@@ -1,6 +1,5 @@
 package events.equaliser.java.model.ticket;
 
-import co.paralleluniverse.fibers.Suspendable;
 import com.twilio.rest.api.v2010.account.Message;
 import events.equaliser.java.model.event.Tier;
 import events.equaliser.java.model.group.PaymentGroup;
@@ -10,17 +9,17 @@ import events.equaliser.java.util.Time;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
-import io.vertx.core.VertxException;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.SQLConnection;
-import io.vertx.ext.sql.UpdateResult;
-import io.vertx.ext.sync.Sync;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -78,30 +77,54 @@ public class Ticket {
                 Time.parseOffsetDateTime(json.getString("TicketNotificationSent")));
     }
 
-    @Suspendable
+    /**
+     * Issue a ticket to each attendee of a payment group, with one multi-row insert. Ticket identifiers are then read
+     * back by user, rather than assumed to be consecutive, which they are not guaranteed to be.
+     *
+     * @param transactionId The transaction paying for the tickets.
+     * @param group The payment group.
+     * @param connection A database connection, which should be in a transaction.
+     * @param handler The result.
+     */
     static void createFor(int transactionId,
                           PaymentGroup group,
-                          Offer offer,
                           SQLConnection connection,
                           Handler<AsyncResult<Set<Ticket>>> handler) {
         logger.debug("Creating tickets for payment group {} for transaction {}", group, transactionId);
 
-        try {
-            Set<Ticket> tickets = new HashSet<>();
-            for (User user : group.getAttendees()) {
-                    JsonArray params = new JsonArray().add(transactionId).add(user.getId());
-                    UpdateResult result = Sync.awaitResult(h ->
-                            connection.updateWithParams(
-                                    "INSERT INTO Tickets (TransactionID, UserID) VALUES (?, ?);",
-                                    params, h));
-                    tickets.add(new Ticket(result.getKeys().getInteger(0), user));
-
-            }
-            logger.debug("Created {} tickets: {}", tickets.size(), tickets);
-            handler.handle(Future.succeededFuture(tickets));
-        } catch (VertxException e) {
-            handler.handle(Future.failedFuture(e));
+        JsonArray params = new JsonArray();
+        for (User user : group.getAttendees()) {
+            params.add(transactionId).add(user.getId());
         }
+        connection.updateWithParams(
+                "INSERT INTO Tickets (TransactionID, UserID) " +
+                "VALUES " + String.join(", ", Collections.nCopies(group.getAttendees().size(), "(?, ?)")) + ";",
+                params, insertRes -> {
+                    if (insertRes.failed()) {
+                        handler.handle(Future.failedFuture(insertRes.cause()));
+                        return;
+                    }
+
+                    connection.queryWithParams(
+                            "SELECT TicketID, UserID FROM Tickets WHERE TransactionID = ?;",
+                            new JsonArray().add(transactionId), idsRes -> {
+                                if (idsRes.failed()) {
+                                    handler.handle(Future.failedFuture(idsRes.cause()));
+                                    return;
+                                }
+
+                                Map<Integer, Integer> ticketIds = new HashMap<>();
+                                for (JsonObject row : idsRes.result().getRows()) {
+                                    ticketIds.put(row.getInteger("UserID"), row.getInteger("TicketID"));
+                                }
+                                Set<Ticket> tickets = new HashSet<>();
+                                for (User user : group.getAttendees()) {
+                                    tickets.add(new Ticket(ticketIds.get(user.getId()), user));
+                                }
+                                logger.debug("Created {} tickets: {}", tickets.size(), tickets);
+                                handler.handle(Future.succeededFuture(tickets));
+                            });
+                });
     }
 
     private String getNotification(Tier tier) {
@@ -1,19 +1,26 @@
 package events.equaliser.java.model.ticket;
 
 import events.equaliser.java.model.group.PaymentGroup;
+import events.equaliser.java.model.user.User;
+import events.equaliser.java.util.SqlTransaction;
 import events.equaliser.java.util.Time;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.sql.UpdateResult;
-import io.vertx.ext.sync.Sync;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Represents a payment from a payment group leader to Equaliser.
@@ -49,36 +56,124 @@ public class Transaction {
         return String.format("Transaction(%d, %s, %d tickets)", getId(), getTimestamp(), getTickets().size());
     }
 
-    public static void create(PaymentGroup group, Offer offer,
+    /**
+     * Pay for a payment group, issuing a ticket to each of its attendees. The transaction and its tickets are written
+     * atomically, in a fixed number of statements however large the group. Paying is idempotent: if the payment group
+     * has already paid, as when a client retries, the existing transaction is returned instead.
+     *
+     * @param group The payment group.
+     * @param offerId The offer being accepted.
+     * @param connection A database connection.
+     * @param handler The result.
+     */
+    public static void create(PaymentGroup group, int offerId,
                               SQLConnection connection,
                               Handler<AsyncResult<Transaction>> handler) {
-        logger.debug("Creating transaction for payment group {} for offer {}", group, offer);
+        logger.debug("Creating transaction for payment group {} for offer {}", group, offerId);
         OffsetDateTime now = OffsetDateTime.now();
         JsonArray params = new JsonArray()
-                .add(offer.getId())
+                .add(offerId)
                 .add(group.getId())
-                .add(Time.toSql(now));
-        connection.updateWithParams(
-                "INSERT INTO Transactions (OfferID, PaymentGroupID, Timestamp) " +
-                "VALUES (?, ?, ?);", params, Sync.fiberHandler(transactionRes -> {
-                    if (transactionRes.failed()) {
-                        logger.warn("Failed to insert new transaction", transactionRes.cause());
-                        handler.handle(Future.failedFuture("Error adding transaction; is has likely already been paid"));
-                        return;
-                    }
+                .add(Time.toSql(now))
+                .add(group.getId());
+        connection.setAutoCommit(false, autoCommitFalseRes -> {
+            if (autoCommitFalseRes.failed()) {
+                handler.handle(Future.failedFuture(autoCommitFalseRes.cause()));
+                return;
+            }
+
+            // inserts nothing if already paid; reading Transactions locks the payment group's range, so of two
+            // concurrent attempts, one is rolled back by the database rather than both succeeding
+            connection.updateWithParams(
+                    "INSERT INTO Transactions (OfferID, PaymentGroupID, Timestamp) " +
+                    "SELECT ?, ?, ? FROM DUAL " +
+                    "WHERE NOT EXISTS (" +
+                        "SELECT 1 FROM Transactions WHERE PaymentGroupID = ?);",
+                    params, transactionRes -> {
+                        if (transactionRes.failed()) {
+                            logger.warn("Failed to insert new transaction", transactionRes.cause());
+                            SqlTransaction.rollback(connection,
+                                    new IllegalStateException("Error adding transaction, please retry"), handler);
+                            return;
+                        }
+
+                        UpdateResult result = transactionRes.result();
+                        if (result.getUpdated() == 0) {
+                            logger.info("Payment group {} has already paid; returning its transaction", group);
+                            SqlTransaction.commit(connection, commitRes -> {
+                                if (commitRes.failed()) {
+                                    SqlTransaction.rollback(connection, commitRes.cause(), handler);
+                                    return;
+                                }
 
-                    UpdateResult result = transactionRes.result();
-                    int transactionId = result.getKeys().getInteger(0);
-                    Ticket.createFor(transactionId, group, offer, connection, ticketsRes -> {
-                        if (ticketsRes.failed()) {
-                            handler.handle(Future.failedFuture(ticketsRes.cause()));
+                                retrieveByPaymentGroup(group, connection, handler);
+                            });
                             return;
                         }
 
-                        Set<Ticket> tickets = ticketsRes.result();
-                        Transaction transaction = new Transaction(transactionId, now, tickets);
-                        handler.handle(Future.succeededFuture(transaction));
+                        int transactionId = result.getKeys().getInteger(0);
+                        Ticket.createFor(transactionId, group, connection, ticketsRes -> {
+                            if (ticketsRes.failed()) {
+                                SqlTransaction.rollback(connection, ticketsRes.cause(), handler);
+                                return;
+                            }
+
+                            SqlTransaction.commit(connection, commitRes -> {
+                                if (commitRes.failed()) {
+                                    SqlTransaction.rollback(connection, commitRes.cause(), handler);
+                                    return;
+                                }
+
+                                Set<Ticket> tickets = ticketsRes.result();
+                                Transaction transaction = new Transaction(transactionId, now, tickets);
+                                handler.handle(Future.succeededFuture(transaction));
+                            });
+                        });
                     });
-                }));
+        });
+    }
+
+    /**
+     * Retrieve the transaction a payment group paid with.
+     *
+     * @param group The payment group.
+     * @param connection A database connection.
+     * @param handler The result.
+     */
+    private static void retrieveByPaymentGroup(PaymentGroup group,
+                                               SQLConnection connection,
+                                               Handler<AsyncResult<Transaction>> handler) {
+        JsonArray params = new JsonArray().add(group.getId());
+        connection.queryWithParams(
+                "SELECT " +
+                    "Transactions.TransactionID, " +
+                    "Transactions.Timestamp AS TransactionTimestamp, " +
+                    "Tickets.TicketID, " +
+                    "Tickets.UserID " +
+                "FROM Transactions " +
+                    "INNER JOIN Tickets " +
+                        "ON Tickets.TransactionID = Transactions.TransactionID " +
+                "WHERE Transactions.PaymentGroupID = ?;",
+                params, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+
+                    List<JsonObject> rows = res.result().getRows();
+                    if (rows.isEmpty()) {
+                        handler.handle(Future.failedFuture("Error adding transaction; it has likely already been paid"));
+                        return;
+                    }
+                    Map<Integer, User> attendees = group.getAttendees().stream()
+                            .collect(Collectors.toMap(User::getId, Function.identity()));
+                    Set<Ticket> tickets = new HashSet<>();
+                    for (JsonObject row : rows) {
+                        tickets.add(new Ticket(row.getInteger("TicketID"), attendees.get(row.getInteger("UserID"))));
+                    }
+                    JsonObject first = rows.get(0);
+                    handler.handle(Future.succeededFuture(new Transaction(first.getInteger("TransactionID"),
+                            Time.parseOffsetDateTime(first.getString("TransactionTimestamp")), tickets)));
+                });
     }
 }
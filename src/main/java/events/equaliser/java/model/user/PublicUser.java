@@ -100,4 +100,35 @@ public class PublicUser {
                     }
                 });
     }
+
+    /**
+     * Retrieve a page of users in identifier order, for loading the username index.
+     *
+     * @param afterId Only users with a greater identifier are returned; 0 for the first page.
+     * @param limit The maximum number of users to return.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the rows to, each with UserID and the columns used by fromJsonObject().
+     */
+    public static void retrieveRowsAfter(int afterId, int limit,
+                                         SQLConnection connection,
+                                         Handler<AsyncResult<List<JsonObject>>> handler) {
+        JsonArray params = new JsonArray().add(afterId).add(limit);
+        connection.queryWithParams(
+                "SELECT " +
+                    "UserID, " +
+                    "Username AS UserUsername, " +
+                    "Forename AS UserForename, " +
+                    "Surname AS UserSurname " +
+                "FROM Users " +
+                "WHERE UserID > ? " +
+                "ORDER BY UserID ASC " +
+                "LIMIT ?;",
+                params, queryRes -> {
+                    if (queryRes.failed()) {
+                        handler.handle(Future.failedFuture(queryRes.cause()));
+                        return;
+                    }
+                    handler.handle(Future.succeededFuture(queryRes.result().getRows()));
+                });
+    }
 }
@@ -8,6 +8,7 @@ import events.equaliser.java.model.geography.Country;
 import events.equaliser.java.model.image.Image;
 import events.equaliser.java.model.image.ImageSize;
 import events.equaliser.java.util.Hex;
+import events.equaliser.java.util.Loaders;
 import events.equaliser.java.util.Random;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
@@ -15,7 +16,6 @@ import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,9 +26,14 @@ import java.io.File;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -190,24 +195,29 @@ public class User extends PublicUser {
                 json.getInteger("UserImageID"));
     }
 
-    public static void fromJsonObject(JsonObject json, SQLConnection connection, Handler<AsyncResult<User>> handler) {
-        User user = fromJsonObject(json);
-        Image.retrieveFromId(user.imageId, connection, res -> {
-            if (res.failed()) {
-                handler.handle(Future.failedFuture(res.cause()));
-                return;
-            }
-
-            user.image = res.result();
-            handler.handle(Future.succeededFuture(user));
-        });
-    }
-
     public static void retrieveFromId(int id,
                                       SQLConnection connection,
                                       Handler<AsyncResult<User>> result) {
-        JsonArray params = new JsonArray().add(id);
-        connection.queryWithParams(
+        Loaders.of(connection).getUsers().load(id, result);
+    }
+
+    /**
+     * Retrieve several users at once, along with their profile pictures, from the user cache where possible.
+     *
+     * @param ids The identifiers of the users.
+     * @param connection The connection to use for users not cached.
+     * @param handler The handler to pass the users found to, by identifier.
+     */
+    public static void retrieveFromIds(Set<Integer> ids,
+                                       SQLConnection connection,
+                                       Handler<AsyncResult<Map<Integer, User>>> handler) {
+        UserCache.getUsers().readThrough(ids, (missing, h) -> fetchFromIds(missing, connection, h), handler);
+    }
+
+    private static void fetchFromIds(Set<Integer> ids,
+                                     SQLConnection connection,
+                                     Handler<AsyncResult<Map<Integer, User>>> handler) {
+        connection.queryWithParams(String.format(
                 "SELECT " +
                     "Users.UserID, " +
                     "Users.Username AS UserUsername, " +
@@ -225,93 +235,133 @@ public class User extends PublicUser {
                 "FROM Users " +
                     "INNER JOIN Countries " +
                         "ON Countries.CountryID = Users.CountryID " +
-                "WHERE Users.UserID = ?;",
-                params, userResult -> {
-                    if (userResult.succeeded()) {
-                        ResultSet resultSet = userResult.result();
-                        if (resultSet.getNumRows() == 0) {
-                            result.handle(Future.failedFuture("No user found with id " + id));
+                "WHERE Users.UserID IN (%s);", String.join(",", Collections.nCopies(ids.size(), "?"))),
+                new JsonArray(new ArrayList<>(ids)), usersRes -> {
+                    if (usersRes.failed()) {
+                        handler.handle(Future.failedFuture(usersRes.cause()));
+                        return;
+                    }
+
+                    List<User> users = usersRes.result().getRows().stream()
+                            .map(User::fromJsonObject)
+                            .collect(Collectors.toList());
+                    Set<Integer> imageIds = users.stream()
+                            .map(user -> user.imageId)
+                            .collect(Collectors.toSet());
+                    Loaders.of(connection).getImages().loadNow(imageIds, imagesRes -> {
+                        if (imagesRes.failed()) {
+                            handler.handle(Future.failedFuture(imagesRes.cause()));
+                            return;
                         }
-                        else {
-                            JsonObject row = resultSet.getRows().get(0);
-                            retrieveProfilePicture(row, connection, result);
+
+                        Map<Integer, Image> images = imagesRes.result();
+                        Map<Integer, User> found = new HashMap<>();
+                        for (User user : users) {
+                            user.image = images.get(user.imageId);
+                            if (user.image != null) {
+                                UserCache.remember(user);
+                                found.put(user.getId(), user);
+                            }
                         }
-                    }
-                    else {
-                        result.handle(Future.failedFuture(userResult.cause()));
-                    }
+                        handler.handle(Future.succeededFuture(found));
+                    });
                 });
     }
 
+    /**
+     * Retrieve several users by their usernames, going straight to the user cache for usernames already known.
+     *
+     * @param usernames The usernames.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the users to, keyed by username as given. Fails if any is not found.
+     */
     public static void retrieveFromUsernames(List<String> usernames,
                                              SQLConnection connection,
                                              Handler<AsyncResult<Map<String, User>>> handler) {
-        // we require the list of usernames to be non-empty for our query to work
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (String username : new LinkedHashSet<>(usernames)) {
+            Integer id = UserCache.findByUsername(username);
+            if (id == null) {
+                unknown.add(username);
+            }
+            else {
+                ids.put(username, id);
+            }
+        }
+        retrieveIdsFromUsernames(unknown, connection, idsRes -> {
+            if (idsRes.failed()) {
+                handler.handle(Future.failedFuture(idsRes.cause()));
+                return;
+            }
+
+            if (idsRes.result().size() != unknown.size()) {
+                handler.handle(Future.failedFuture("One or more usernames were not found"));
+                return;
+            }
+            ids.putAll(idsRes.result());
+            Loaders.of(connection).getUsers().loadNow(new HashSet<>(ids.values()), usersRes -> {
+                if (usersRes.failed()) {
+                    handler.handle(Future.failedFuture(usersRes.cause()));
+                    return;
+                }
+
+                Map<String, User> map = new HashMap<>();
+                for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                    User user = usersRes.result().get(entry.getValue());
+                    if (!UserCache.confirmUsername(entry.getKey(), user)) {
+                        handler.handle(Future.failedFuture("One or more usernames were not found"));
+                        return;
+                    }
+                    map.put(entry.getKey(), user);
+                }
+                handler.handle(Future.succeededFuture(map));
+            });
+        });
+    }
+
+    /**
+     * Find the identifiers of users by their usernames.
+     *
+     * @param usernames The usernames.
+     * @param connection The connection to use.
+     * @param handler The handler to pass the identifiers found to, keyed by username as given.
+     */
+    private static void retrieveIdsFromUsernames(List<String> usernames,
+                                                 SQLConnection connection,
+                                                 Handler<AsyncResult<Map<String, Integer>>> handler) {
         if (usernames.isEmpty()) {
             handler.handle(Future.succeededFuture(new HashMap<>()));
             return;
         }
 
-        connection.query(
-                String.format(
-                        "SELECT " +
-                            "Users.UserID, " +
-                            "Users.Username AS UserUsername, " +
-                            "Users.Forename AS UserForename, " +
-                            "Users.Surname AS UserSurname, " +
-                            "Users.Email AS UserEmail, " +
-                            "Users.AreaCode AS UserAreaCode, " +
-                            "Users.SubscriberNumber AS UserSubscriberNumber, " +
-                            "Users.Token AS UserToken, " +
-                            "Users.ImageID AS UserImageID, " +
-                            "Countries.CountryID, " +
-                            "Countries.Name AS CountryName, " +
-                            "Countries.Abbreviation AS CountryAbbreviation, " +
-                            "Countries.CallingCode AS CountryCallingCode " +
-                        "FROM Users " +
-                            "INNER JOIN Countries " +
-                                "ON Countries.CountryID = Users.CountryID " +
-                        "WHERE Users.Username IN (%s);",
-                        usernames.stream()
-                                .map(str -> '\'' + str + '\'')
-                                .collect(Collectors.joining(","))),
-                usersRes -> {
-                    if (usersRes.failed()) {
-                        handler.handle(Future.failedFuture(usersRes.cause()));
+        connection.queryWithParams(String.format(
+                "SELECT UserID, Username " +
+                "FROM Users " +
+                "WHERE Username IN (%s);", String.join(",", Collections.nCopies(usernames.size(), "?"))),
+                new JsonArray(new ArrayList<>(usernames)), idsRes -> {
+                    if (idsRes.failed()) {
+                        handler.handle(Future.failedFuture(idsRes.cause()));
                         return;
                     }
 
-                    ResultSet results = usersRes.result();
-                    if (results.getNumRows() != usernames.size()) {
-                        logger.debug("Expecting {} rows; received {}", usernames.size(), results.getNumRows());
-                        handler.handle(Future.failedFuture("One or more usernames were not found"));
-                        return;
+                    // the database matches usernames regardless of case
+                    Map<String, Integer> byUsername = new HashMap<>();
+                    for (JsonObject row : idsRes.result().getRows()) {
+                        byUsername.put(row.getString("Username").toLowerCase(Locale.ROOT), row.getInteger("UserID"));
                     }
-
-                    Map<String, User> map = new HashMap<>();
-                    List<User> users = results.getRows().stream()
-                            .map(User::fromJsonObject)
-                            .collect(Collectors.toList());
-                    for (User user : users) {
-                        map.put(user.getUsername(), user);
+                    Map<String, Integer> ids = new HashMap<>();
+                    for (String username : usernames) {
+                        Integer id = byUsername.get(username.toLowerCase(Locale.ROOT));
+                        if (id != null) {
+                            ids.put(username, id);
+                        }
                     }
-                    handler.handle(Future.succeededFuture(map));
+                    logger.debug("Found {} of {} usernames", ids.size(), usernames.size());
+                    handler.handle(Future.succeededFuture(ids));
                 });
     }
 
-    public static void retrieveProfilePicture(JsonObject row,
-                                              SQLConnection connection,
-                                              Handler<AsyncResult<User>> handler) {
-        User.fromJsonObject(row, connection, res -> {
-            if (res.failed()) {
-                handler.handle(Future.failedFuture(res.cause()));
-                return;
-            }
-
-            handler.handle(Future.succeededFuture(res.result()));
-        });
-    }
-
     public static void register(String username,
                                 Country country,
                                 String forename, String surname,
@@ -351,32 +401,40 @@ public class User extends PublicUser {
                 if (imageRes.succeeded()) {
                     Image photo = imageRes.result();
                     byte[] token = Random.getBytes(TOKEN_BYTES);
-                    String hashedPassword = Credentials.hash(password);
-                    JsonArray params = new JsonArray()
-                            .add(username)
-                            .add(country.getId())
-                            .add(forename).add(surname)
-                            .add(email)
-                            .add(areaCode).add(subscriberNumber)
-                            .add(hashedPassword)
-                            .add(token)
-                            .add(photo.getId());
-                    connection.updateWithParams(
-                            "INSERT INTO Users (Username, CountryID, Forename, Surname, Email, AreaCode, SubscriberNumber, " +
-                                    "Password, Token, ImageID) " +
-                                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, FROM_BASE64(?), ?);",
-                            params, res -> {
-                                if (res.succeeded()) {
-                                    int id = res.result().getKeys().getInteger(0);
-                                    User user = new User(id, username, forename, surname, email, country, areaCode,
-                                            subscriberNumber, token, photo);
-                                    handler.handle(Future.succeededFuture(user));
-                                }
-                                else {
-                                    logger.error("Failed to insert user", res.cause());
-                                    handler.handle(Future.failedFuture("Backend failure"));
-                                }
-                            });
+                    Credentials.hash(password, hashRes -> {
+                        if (hashRes.failed()) {
+                            handler.handle(Future.failedFuture(hashRes.cause()));
+                            return;
+                        }
+
+                        String hashedPassword = hashRes.result();
+                        JsonArray params = new JsonArray()
+                                .add(username)
+                                .add(country.getId())
+                                .add(forename).add(surname)
+                                .add(email)
+                                .add(areaCode).add(subscriberNumber)
+                                .add(hashedPassword)
+                                .add(token)
+                                .add(photo.getId());
+                        connection.updateWithParams(
+                                "INSERT INTO Users (Username, CountryID, Forename, Surname, Email, AreaCode, SubscriberNumber, " +
+                                        "Password, Token, ImageID) " +
+                                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, FROM_BASE64(?), ?);",
+                                params, res -> {
+                                    if (res.succeeded()) {
+                                        int id = res.result().getKeys().getInteger(0);
+                                        User user = new User(id, username, forename, surname, email, country, areaCode,
+                                                subscriberNumber, token, photo);
+                                        UsernameDirectory.add(user);
+                                        handler.handle(Future.succeededFuture(user));
+                                    }
+                                    else {
+                                        logger.error("Failed to insert user", res.cause());
+                                        handler.handle(Future.failedFuture("Backend failure"));
+                                    }
+                                });
+                    });
                 }
                 else {
                     handler.handle(Future.failedFuture(imageRes.cause()));
@@ -0,0 +1,109 @@
+package events.equaliser.java.model.user;
+
+import events.equaliser.java.util.Cache;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Users shared between requests, complete with their countries and profile pictures, along with the identifiers of
+ * users by username and email address, so logins and lookups by name can go straight to the user's row, or skip the
+ * database altogether. Names are matched without regard to case, as the database does. Entries expire after a while,
+ * bounding how stale a user's details can be; invalidate a user whose profile has changed to drop them sooner.
+ */
+public class UserCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 50_000;
+    private static final int DEFAULT_EXPIRE_SECONDS = 300;
+
+    private static volatile Cache<Integer, User> users;
+    private static volatile Cache<String, Integer> usernames;
+    private static volatile Cache<String, Integer> emails;
+
+    static {
+        configure(new JsonObject());
+    }
+
+    /**
+     * Create the caches from the "userCache" configuration block, dropping anything already cached.
+     *
+     * @param config The block, optionally containing "maxEntries", the most users to hold, and "expireSeconds".
+     */
+    public static synchronized void configure(JsonObject config) {
+        int maxEntries = config.getInteger("maxEntries", DEFAULT_MAX_ENTRIES);
+        long expireNanos = TimeUnit.SECONDS.toNanos(config.getInteger("expireSeconds", DEFAULT_EXPIRE_SECONDS));
+        users = new Cache<>("users", maxEntries, expireNanos);
+        usernames = new Cache<>("usernames", maxEntries, expireNanos);
+        emails = new Cache<>("emails", maxEntries, expireNanos);
+    }
+
+    /**
+     * @return Users by identifier.
+     */
+    static Cache<Integer, User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Find the identifier of a user by their username.
+     *
+     * @param username The username.
+     * @return The identifier, or null if not known.
+     */
+    public static Integer findByUsername(String username) {
+        return usernames.get(normalise(username));
+    }
+
+    /**
+     * Find the identifier of a user by their username or, failing that, their email address.
+     *
+     * @param usernameEmail The username or email address.
+     * @return The identifier, or null if not known.
+     */
+    public static Integer findByUsernameOrEmail(String usernameEmail) {
+        Integer id = findByUsername(usernameEmail);
+        return id != null ? id : emails.get(normalise(usernameEmail));
+    }
+
+    /**
+     * Note the username and email address of a user read from the database.
+     *
+     * @param user The user.
+     */
+    static void remember(User user) {
+        usernames.put(normalise(user.getUsername()), user.getId());
+        emails.put(normalise(user.getEmail()), user.getId());
+    }
+
+    /**
+     * Check that a user found by a username still has it, e.g. as they may have changed it since being cached. If
+     * not, the username is forgotten, so it is looked up afresh next time.
+     *
+     * @param username The username the user was found by.
+     * @param user The user found, or null if there was none.
+     * @return True if the user has the username.
+     */
+    static boolean confirmUsername(String username, User user) {
+        if (user != null && normalise(user.getUsername()).equals(normalise(username))) {
+            return true;
+        }
+        usernames.invalidate(normalise(username));
+        return false;
+    }
+
+    /**
+     * Forget a user, e.g. after their profile has changed, so they are read afresh when next asked for.
+     *
+     * @param user The user as they were before the change.
+     */
+    public static void invalidate(User user) {
+        users.invalidate(user.getId());
+        usernames.invalidate(normalise(user.getUsername()));
+        emails.invalidate(normalise(user.getEmail()));
+    }
+
+    private static String normalise(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
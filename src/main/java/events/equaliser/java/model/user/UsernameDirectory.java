@@ -0,0 +1,118 @@
+package events.equaliser.java.model.user;
+
+import events.equaliser.java.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Answers username autocomplete queries from memory. Holds a UsernameIndex of every user, loaded in the background by
+ * the UsernameIndexVerticle, plus a small overlay of users registered since, which is periodically merged into a new
+ * index. Until the index has loaded, or if it would not fit in its memory budget, isReady() returns false and callers
+ * should query the database instead.
+ */
+public class UsernameDirectory {
+
+    private static volatile UsernameIndex index;
+    private static final ConcurrentNavigableMap<String, PublicUser> recent = new ConcurrentSkipListMap<>();
+
+    static {
+        Metrics.gauge("usernames.indexed", () -> index == null ? 0 : index.size());
+        Metrics.gauge("usernames.index_bytes", () -> index == null ? 0 : index.getSizeBytes());
+        Metrics.gauge("usernames.recent", recent::size);
+    }
+
+    /**
+     * Find whether searches can be answered from memory.
+     *
+     * @return True once the index has been loaded.
+     */
+    public static boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * Find the current index.
+     *
+     * @return The index, or null if not yet loaded.
+     */
+    public static UsernameIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Replace the index, forgetting recently added users that it now contains.
+     *
+     * @param replacement The new index.
+     * @param merged The recently added users included in the new index.
+     */
+    public static void setIndex(UsernameIndex replacement, Collection<PublicUser> merged) {
+        index = replacement;
+        for (PublicUser user : merged) {
+            recent.remove(UsernameIndex.key(user.getUsername()), user);
+        }
+    }
+
+    /**
+     * Make a newly registered user searchable immediately.
+     *
+     * @param user The user.
+     */
+    public static void add(PublicUser user) {
+        recent.put(UsernameIndex.key(user.getUsername()), new PublicUser(
+                user.getUsername(), user.getForename(), user.getSurname()));
+    }
+
+    /**
+     * Find the users added since the index was last rebuilt.
+     *
+     * @return A snapshot of the users, in key order.
+     */
+    public static List<PublicUser> getRecent() {
+        return new ArrayList<>(recent.values());
+    }
+
+    /**
+     * Find the users whose username starts with a prefix, case-insensitively.
+     *
+     * @param prefix The start of the username.
+     * @param limit The maximum number of users to return.
+     * @return The users, ordered by username.
+     * @throws IllegalStateException If the index has not been loaded.
+     */
+    public static List<PublicUser> search(String prefix, int limit) {
+        UsernameIndex current = index;
+        if (current == null) {
+            throw new IllegalStateException("Username index not loaded");
+        }
+        List<PublicUser> users = current.search(prefix, limit);
+        String key = UsernameIndex.key(prefix);
+        Map<String, PublicUser> added = recent.tailMap(key);
+        if (added.isEmpty() || !added.keySet().iterator().next().startsWith(key)) {
+            Metrics.increment("usernames.search");
+            return users;
+        }
+
+        // a recently registered user may belong among the results; merge, preferring the newer details
+        List<PublicUser> merged = new ArrayList<>(users.size() + limit);
+        for (Map.Entry<String, PublicUser> entry : added.entrySet()) {
+            if (!entry.getKey().startsWith(key) || merged.size() == limit) {
+                break;
+            }
+            merged.add(entry.getValue());
+        }
+        for (PublicUser user : users) {
+            if (!recent.containsKey(UsernameIndex.key(user.getUsername()))) {
+                merged.add(user);
+            }
+        }
+        merged.sort(Comparator.comparing(user -> UsernameIndex.key(user.getUsername())));
+        Metrics.increment("usernames.search");
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+}
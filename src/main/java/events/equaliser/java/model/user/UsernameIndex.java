@@ -0,0 +1,386 @@
+package events.equaliser.java.model.user;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An immutable, sorted index of every user's public details, for prefix searches on username. Entries are packed
+ * one after another into a single byte array as UTF-8, with an array of offsets in key order, so millions of users
+ * cost tens of bytes each and no objects beyond the results of a search. Keys are lowercase usernames, matching
+ * the case-insensitive collation of the Users table.
+ */
+public class UsernameIndex {
+
+    /**
+     * The maximum length of a field in UTF-8 bytes; longer entries are not indexed.
+     */
+    private static final int MAX_FIELD_BYTES = 0xfffe;
+
+    /**
+     * A key length meaning the key is the same as the username, so is not stored twice.
+     */
+    private static final int SAME_AS_USERNAME = 0xffff;
+
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final byte[] data;
+    private final int[] offsets;
+    private final int size;
+
+    private UsernameIndex(byte[] data, int[] offsets, int size) {
+        this.data = data;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    /**
+     * Turn a username or search prefix into the form it is indexed under.
+     *
+     * @param username The username.
+     * @return The key.
+     */
+    public static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Find the number of users in the index.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find roughly how much memory the index occupies.
+     *
+     * @return The size of its arrays in bytes.
+     */
+    public long getSizeBytes() {
+        return data.length + (long) offsets.length * Integer.BYTES;
+    }
+
+    private int readLength(int position) {
+        return ((data[position] & 0xff) << 8) | (data[position + 1] & 0xff);
+    }
+
+    /**
+     * Find where an entry's key is stored, as [start, length].
+     */
+    private void keyBoundsAt(int position, int[] bounds) {
+        int keyLength = readLength(position);
+        if (keyLength == SAME_AS_USERNAME) {
+            bounds[0] = position + 4;
+            bounds[1] = readLength(position + 2);
+        }
+        else {
+            bounds[0] = position + 2;
+            bounds[1] = keyLength;
+        }
+    }
+
+    /**
+     * Find the total length of the entry starting at a position.
+     */
+    private int entryLength(int position) {
+        int end = position;
+        int keyLength = readLength(end);
+        end += 2 + (keyLength == SAME_AS_USERNAME ? 0 : keyLength);
+        for (int field = 0; field < 3; field++) {
+            end += 2 + readLength(end);
+        }
+        return end - position;
+    }
+
+    /**
+     * Compare an entry's key with a prefix, considering only as many bytes as the prefix has.
+     *
+     * @return Negative if the key sorts before any key starting with the prefix, 0 if it starts with the prefix,
+     *         positive if it sorts after.
+     */
+    private int comparePrefix(int entry, byte[] prefix, int[] bounds) {
+        keyBoundsAt(offsets[entry], bounds);
+        int length = Math.min(bounds[1], prefix.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (data[bounds[0] + i] & 0xff) - (prefix[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return bounds[1] < prefix.length ? -1 : 0;
+    }
+
+    private String readField(int position) {
+        return new String(data, position + 2, readLength(position), StandardCharsets.UTF_8);
+    }
+
+    private PublicUser decode(int entry) {
+        int position = offsets[entry];
+        int keyLength = readLength(position);
+        position += 2 + (keyLength == SAME_AS_USERNAME ? 0 : keyLength);
+        String username = readField(position);
+        position += 2 + readLength(position);
+        String forename = readField(position);
+        position += 2 + readLength(position);
+        String surname = readField(position);
+        return new PublicUser(username, forename, surname);
+    }
+
+    /**
+     * Find the users whose username starts with a prefix, case-insensitively.
+     *
+     * @param prefix The start of the username.
+     * @param limit The maximum number of users to return.
+     * @return The users, in key order.
+     */
+    public List<PublicUser> search(String prefix, int limit) {
+        byte[] target = key(prefix).getBytes(StandardCharsets.UTF_8);
+        int[] bounds = new int[2];
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparePrefix(middle, target, bounds) < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        List<PublicUser> users = new ArrayList<>(Math.min(limit, 16));
+        for (int i = low; i < size && users.size() < limit && comparePrefix(i, target, bounds) == 0; i++) {
+            users.add(decode(i));
+        }
+        return users;
+    }
+
+    /**
+     * Create a new index with extra users added, replacing any existing entries with the same key. Existing entries
+     * are copied across as they are, so this is much cheaper than building the index again.
+     *
+     * @param additions The users to add.
+     * @param maxBytes The memory budget of the new index.
+     * @return The new index.
+     * @throws IllegalStateException If the new index would exceed the budget.
+     */
+    public UsernameIndex with(Collection<PublicUser> additions, long maxBytes) {
+        UsernameIndex added = new Builder(Long.MAX_VALUE).addAll(additions).build();
+        Builder builder = new Builder(maxBytes, data.length + added.data.length, size + added.size);
+        int[] bounds = new int[2];
+        int[] addedBounds = new int[2];
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            keyBoundsAt(offsets[i], bounds);
+            int comparison = 1;
+            while (next < added.size) {
+                added.keyBoundsAt(added.offsets[next], addedBounds);
+                comparison = compareKeys(bounds, addedBounds[0], addedBounds[1], added.data);
+                if (comparison < 0) {
+                    break;
+                }
+                builder.addRaw(added.data, added.offsets[next], added.entryLength(added.offsets[next]));
+                next++;
+                if (comparison == 0) {
+                    break;
+                }
+            }
+            if (comparison != 0) {
+                builder.addRaw(data, offsets[i], entryLength(offsets[i]));
+            }
+        }
+        for (; next < added.size; next++) {
+            builder.addRaw(added.data, added.offsets[next], added.entryLength(added.offsets[next]));
+        }
+        // already in order
+        return new UsernameIndex(Arrays.copyOf(builder.data, builder.length),
+                Arrays.copyOf(builder.offsets, builder.size), builder.size);
+    }
+
+    /**
+     * Accumulates users into a new index, within a memory budget.
+     */
+    public static class Builder {
+
+        private final long maxBytes;
+        private byte[] data;
+        private int length;
+        private int[] offsets;
+        private int size;
+
+        /**
+         * Create a new builder.
+         *
+         * @param maxBytes The most memory the index may occupy once built.
+         */
+        public Builder(long maxBytes) {
+            this(maxBytes, 1024, 64);
+        }
+
+        private Builder(long maxBytes, int expectedBytes, int expectedUsers) {
+            this.maxBytes = maxBytes;
+            this.data = new byte[(int) Math.min(expectedBytes, Math.max(maxBytes, 0))];
+            this.offsets = new int[Math.max(expectedUsers, 1)];
+        }
+
+        /**
+         * Find how much memory the index will occupy.
+         *
+         * @return The size in bytes so far.
+         */
+        public long getSizeBytes() {
+            return length + (long) size * Integer.BYTES;
+        }
+
+        private void reserve(int bytes) {
+            if (getSizeBytes() + bytes + Integer.BYTES > maxBytes || (long) length + bytes > MAX_ARRAY_LENGTH) {
+                throw new IllegalStateException("Username index would exceed " + maxBytes + " bytes");
+            }
+            if (length + bytes > data.length) {
+                long grown = Math.max((long) length + bytes, data.length + (data.length >> 1));
+                data = Arrays.copyOf(data, (int) Math.min(grown, Math.min(maxBytes, MAX_ARRAY_LENGTH)));
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size + (size >> 1));
+            }
+        }
+
+        private void writeLength(int value) {
+            data[length++] = (byte) (value >>> 8);
+            data[length++] = (byte) value;
+        }
+
+        private void writeField(byte[] field) {
+            writeLength(field.length);
+            System.arraycopy(field, 0, data, length, field.length);
+            length += field.length;
+        }
+
+        /**
+         * Add a user. Users may be added in any order, but each username only once.
+         *
+         * @param user The user.
+         * @return This builder.
+         * @throws IllegalStateException If the user would take the index over its budget.
+         */
+        public Builder add(PublicUser user) {
+            byte[] username = user.getUsername().getBytes(StandardCharsets.UTF_8);
+            byte[] forename = user.getForename().getBytes(StandardCharsets.UTF_8);
+            byte[] surname = user.getSurname().getBytes(StandardCharsets.UTF_8);
+            String keyString = key(user.getUsername());
+            byte[] key = keyString.equals(user.getUsername()) ? null : keyString.getBytes(StandardCharsets.UTF_8);
+            if (username.length > MAX_FIELD_BYTES || forename.length > MAX_FIELD_BYTES ||
+                    surname.length > MAX_FIELD_BYTES || (key != null && key.length > MAX_FIELD_BYTES)) {
+                return this;
+            }
+
+            reserve(8 + (key == null ? 0 : key.length) + username.length + forename.length + surname.length);
+            offsets[size++] = length;
+            if (key == null) {
+                writeLength(SAME_AS_USERNAME);
+            }
+            else {
+                writeField(key);
+            }
+            writeField(username);
+            writeField(forename);
+            writeField(surname);
+            return this;
+        }
+
+        /**
+         * Add several users.
+         *
+         * @param users The users.
+         * @return This builder.
+         * @throws IllegalStateException If the users would take the index over its budget.
+         */
+        public Builder addAll(Collection<PublicUser> users) {
+            users.forEach(this::add);
+            return this;
+        }
+
+        private void addRaw(byte[] source, int offset, int entryLength) {
+            reserve(entryLength);
+            offsets[size++] = length;
+            System.arraycopy(source, offset, data, length, entryLength);
+            length += entryLength;
+        }
+
+        /**
+         * Sort the users added so far into an index.
+         *
+         * @return The index.
+         */
+        public UsernameIndex build() {
+            UsernameIndex index = new UsernameIndex(Arrays.copyOf(data, length), Arrays.copyOf(offsets, size), size);
+            index.sort();
+            return index;
+        }
+    }
+
+    /**
+     * Compare the keys of the entries at two positions, byte by byte.
+     */
+    private int compareAt(int positionA, int positionB, int[] boundsA, int[] boundsB) {
+        keyBoundsAt(positionA, boundsA);
+        keyBoundsAt(positionB, boundsB);
+        return compareKeys(boundsA, boundsB[0], boundsB[1], data);
+    }
+
+    /**
+     * Compare the key in data[bounds] with another key, in unsigned byte order.
+     */
+    private int compareKeys(int[] bounds, int otherStart, int otherLength, byte[] other) {
+        int length = Math.min(bounds[1], otherLength);
+        for (int i = 0; i < length; i++) {
+            int difference = (data[bounds[0] + i] & 0xff) - (other[otherStart + i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return bounds[1] - otherLength;
+    }
+
+    /**
+     * Put the offsets into key order. Entries are often added already in order, e.g. when merging, so check first.
+     */
+    private void sort() {
+        int[] boundsA = new int[2];
+        int[] boundsB = new int[2];
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = compareAt(offsets[i - 1], offsets[i], boundsA, boundsB) <= 0;
+        }
+        if (!sorted) {
+            mergeSort(Arrays.copyOf(offsets, size), offsets, 0, size, boundsA, boundsB);
+        }
+    }
+
+    /**
+     * Sort destination[from, to), which starts as a copy of source[from, to), leaving source in an unspecified order.
+     */
+    private void mergeSort(int[] source, int[] destination, int from, int to, int[] boundsA, int[] boundsB) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        // sort each half into source, then merge the halves back into destination
+        mergeSort(destination, source, from, middle, boundsA, boundsB);
+        mergeSort(destination, source, middle, to, boundsA, boundsB);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareAt(source[left], source[right], boundsA, boundsB) <= 0)) {
+                destination[i] = source[left++];
+            }
+            else {
+                destination[i] = source[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sheds lower priority requests when the database pool or event loop is saturated, so checkouts keep their latency
+ * under overload. Saturation is measured by how many requests are waiting for a database connection, and how late
+ * a periodic timer fires on the event loop.
+ */
+public class AdmissionControl {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+
+    /**
+     * How often to sample event loop lag.
+     */
+    private static final long LAG_SAMPLE_MILLIS = 100;
+
+    /**
+     * The context key holding the priority of an admitted request, so only the first matching admission route
+     * applies.
+     */
+    public static final String PRIORITY_KEY = "priority";
+
+    /**
+     * How important a request is. Lower ordinals are shed last.
+     */
+    public enum Priority {
+        /**
+         * Payment and authentication; these are racing offer expiries.
+         */
+        CRITICAL,
+
+        /**
+         * Changes to groups.
+         */
+        WRITE,
+
+        /**
+         * Browsing the catalog.
+         */
+        READ
+    }
+
+    /**
+     * The point at which requests of a given priority are turned away.
+     */
+    private static class Threshold {
+
+        private final int poolWaiters;
+        private final long loopLagMillis;
+
+        private Threshold(int poolWaiters, long loopLagMillis) {
+            this.poolWaiters = poolWaiters;
+            this.loopLagMillis = loopLagMillis;
+        }
+    }
+
+    private final Map<Priority, Threshold> thresholds = new EnumMap<>(Priority.class);
+    private final int retryAfterSeconds;
+    private final AtomicInteger poolWaiters = new AtomicInteger();
+    private volatile long loopLagMillis;
+
+    /**
+     * Create admission control from configuration. A priority without a threshold is never shed.
+     *
+     * @param config The "admission" configuration block, containing "retryAfterSeconds" and an optional
+     *               {"poolWaiters": ..., "loopLagMillis": ...} object for each of "critical", "write" and "read".
+     */
+    public AdmissionControl(JsonObject config) {
+        this.retryAfterSeconds = config.getInteger("retryAfterSeconds", 5);
+        for (Priority priority : Priority.values()) {
+            JsonObject threshold = config.getJsonObject(priority.name().toLowerCase());
+            if (threshold != null) {
+                thresholds.put(priority, new Threshold(
+                        threshold.getInteger("poolWaiters", Integer.MAX_VALUE),
+                        threshold.getLong("loopLagMillis", Long.MAX_VALUE)));
+            }
+        }
+    }
+
+    /**
+     * Begin sampling the lag of the current event loop, and expose saturation metrics.
+     *
+     * @param vertx The Vert.x instance whose timers to use; must be called on the loop that serves requests.
+     */
+    public void start(Vertx vertx) {
+        long[] expected = {System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LAG_SAMPLE_MILLIS)};
+        vertx.setPeriodic(LAG_SAMPLE_MILLIS, id -> {
+            long now = System.nanoTime();
+            loopLagMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(now - expected[0]));
+            expected[0] = now + TimeUnit.MILLISECONDS.toNanos(LAG_SAMPLE_MILLIS);
+        });
+        Metrics.gauge("admission.pool_waiters", poolWaiters::get);
+        Metrics.gauge("admission.loop_lag_ms", () -> loopLagMillis);
+    }
+
+    /**
+     * Note that a request has started waiting for a database connection.
+     */
+    public void connectionRequested() {
+        poolWaiters.incrementAndGet();
+    }
+
+    /**
+     * Note that a request has stopped waiting for a database connection, whether or not it got one.
+     */
+    public void connectionReceived() {
+        poolWaiters.decrementAndGet();
+    }
+
+    /**
+     * Find whether any requests are waiting for a database connection, in which case requests already holding one
+     * should not take more.
+     *
+     * @return True if the pool is contended.
+     */
+    public boolean isPoolContended() {
+        return poolWaiters.get() > 0;
+    }
+
+    /**
+     * Determine whether a request of a given priority should be accepted given current load.
+     *
+     * @param priority The priority of the request.
+     * @return True if it should be processed, false if it should be shed.
+     */
+    public boolean admit(Priority priority) {
+        Threshold threshold = thresholds.get(priority);
+        return threshold == null ||
+                (poolWaiters.get() < threshold.poolWaiters && loopLagMillis < threshold.loopLagMillis);
+    }
+
+    /**
+     * Create a route handler that classifies matching requests. Requests already classified by an earlier route
+     * pass straight through; others either continue or receive a 503 with a Retry-After header.
+     *
+     * @param priority The priority of requests matched by the route.
+     * @return The handler.
+     */
+    public Handler<RoutingContext> handler(Priority priority) {
+        return context -> {
+            if (context.get(PRIORITY_KEY) != null) {
+                context.next();
+                return;
+            }
+            if (!admit(priority)) {
+                logger.warn("Shedding {} request (pool waiters: {}, loop lag: {} ms)",
+                        priority, poolWaiters.get(), loopLagMillis);
+                Metrics.increment("admission.shed." + priority.name().toLowerCase());
+                context.response().putHeader("Retry-After", Integer.toString(retryAfterSeconds));
+                Request.writeResponse(context, Request.errorResponse("Server busy, please retry shortly"), 503);
+                return;
+            }
+            context.put(PRIORITY_KEY, priority);
+            context.next();
+        };
+    }
+}
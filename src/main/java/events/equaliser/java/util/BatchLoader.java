@@ -0,0 +1,186 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Loads entities by key on behalf of one request. Keys asked for before the loader is next dispatched are fetched
+ * together in one batch, and each key is only ever fetched once, so loading a graph costs a query per level rather
+ * than per entity. Not thread safe; use from the request's context only.
+ *
+ * @param <K> The key type.
+ * @param <V> The entity type.
+ */
+public class BatchLoader<K, V> {
+
+    /**
+     * Fetches a set of keys.
+     *
+     * @param <K> The key type.
+     * @param <V> The entity type.
+     */
+    @FunctionalInterface
+    public interface Batch<K, V> {
+
+        /**
+         * Fetch entities by key.
+         *
+         * @param keys The keys, of which there is at least one.
+         * @param handler The handler to pass the entities found to, by key. Keys not found are omitted.
+         */
+        void fetch(Set<K> keys, Handler<AsyncResult<Map<K, V>>> handler);
+    }
+
+    private final String name;
+    private final Batch<K, V> batch;
+    private final Function<K, String> missing;
+    private final Runnable onPending;
+
+    private final Map<K, AsyncResult<V>> results = new HashMap<>();
+    private final Map<K, List<Handler<AsyncResult<V>>>> waiting = new LinkedHashMap<>();
+
+    /**
+     * Create a loader.
+     *
+     * @param name The name of the entity, used for metrics.
+     * @param batch Fetches keys.
+     * @param missing Creates the failure message for a key that was not found.
+     * @param onPending Called when a key is first waiting to be fetched, to arrange for the loader to be dispatched.
+     */
+    public BatchLoader(String name, Batch<K, V> batch, Function<K, String> missing, Runnable onPending) {
+        this.name = name;
+        this.batch = batch;
+        this.missing = missing;
+        this.onPending = onPending;
+    }
+
+    /**
+     * Load an entity. The handler is called straight away if the key has already been loaded, otherwise once the
+     * loader is next dispatched.
+     *
+     * @param key The key.
+     * @param handler The handler to pass the entity to.
+     */
+    public void load(K key, Handler<AsyncResult<V>> handler) {
+        AsyncResult<V> result = results.get(key);
+        if (result != null) {
+            handler.handle(result);
+            return;
+        }
+        List<Handler<AsyncResult<V>>> handlers = waiting.get(key);
+        if (handlers != null) {
+            handlers.add(handler);
+            return;
+        }
+        boolean first = waiting.isEmpty();
+        handlers = new ArrayList<>(1);
+        handlers.add(handler);
+        waiting.put(key, handlers);
+        if (first) {
+            onPending.run();
+        }
+    }
+
+    /**
+     * Load several entities immediately, fetching those not already loaded in one batch. For use by the batch of
+     * another loader that needs these entities to build its own, which cannot wait for this loader to be dispatched.
+     *
+     * @param keys The keys.
+     * @param handler The handler to pass the entities found to, by key. Keys not found are omitted.
+     */
+    public void loadNow(Set<K> keys, Handler<AsyncResult<Map<K, V>>> handler) {
+        Set<K> unloaded = new LinkedHashSet<>();
+        for (K key : keys) {
+            if (!results.containsKey(key)) {
+                unloaded.add(key);
+            }
+        }
+        fetch(unloaded, fetchRes -> {
+            if (fetchRes.failed()) {
+                handler.handle(Future.failedFuture(fetchRes.cause()));
+                return;
+            }
+            Map<K, V> entities = new HashMap<>();
+            for (K key : keys) {
+                AsyncResult<V> result = results.get(key);
+                if (result.succeeded()) {
+                    entities.put(key, result.result());
+                }
+            }
+            handler.handle(Future.succeededFuture(entities));
+        });
+    }
+
+    /**
+     * Find whether any keys are waiting to be fetched.
+     *
+     * @return True if the loader needs dispatching.
+     */
+    boolean isPending() {
+        return !waiting.isEmpty();
+    }
+
+    /**
+     * Fetch every key waiting in one batch. Handlers waiting for the keys are not called until the returned
+     * notification is run, so the caller can finish using the connection first.
+     *
+     * @param handler The handler to pass the notification to once the batch has been fetched.
+     */
+    void dispatch(Handler<Runnable> handler) {
+        Map<K, List<Handler<AsyncResult<V>>>> dispatched = new LinkedHashMap<>(waiting);
+        waiting.clear();
+        Set<K> unloaded = new LinkedHashSet<>();
+        for (K key : dispatched.keySet()) {
+            // may have been loaded by loadNow() since being asked for
+            if (!results.containsKey(key)) {
+                unloaded.add(key);
+            }
+        }
+        fetch(unloaded, fetchRes -> handler.handle(() -> {
+            for (Map.Entry<K, List<Handler<AsyncResult<V>>>> entry : dispatched.entrySet()) {
+                AsyncResult<V> result = results.get(entry.getKey());
+                for (Handler<AsyncResult<V>> waiter : entry.getValue()) {
+                    waiter.handle(result);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Fetch keys and record the outcome for each of them.
+     *
+     * @param keys The keys, none of which have been loaded.
+     * @param handler Called once every key has a result, failed with the batch's cause if it failed.
+     */
+    private void fetch(Set<K> keys, Handler<AsyncResult<Void>> handler) {
+        if (keys.isEmpty()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        Metrics.increment("loader." + name + ".batches");
+        Metrics.increment("loader." + name + ".keys", keys.size());
+        batch.fetch(keys, fetchRes -> {
+            for (K key : keys) {
+                if (fetchRes.failed()) {
+                    results.put(key, Future.failedFuture(fetchRes.cause()));
+                    continue;
+                }
+                V entity = fetchRes.result().get(key);
+                results.put(key, entity == null
+                        ? Future.failedFuture(missing.apply(key))
+                        : Future.succeededFuture(entity));
+            }
+            handler.handle(fetchRes.failed() ? Future.failedFuture(fetchRes.cause()) : Future.succeededFuture());
+        });
+    }
+}
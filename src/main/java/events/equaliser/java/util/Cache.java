@@ -0,0 +1,281 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A process-wide cache of entities by key, shared between requests, so entities that rarely change need not be read
+ * from the database every time. The cache holds a bounded number of entries, each for a limited time. When full, a
+ * new entry is only admitted if its key has been asked for more often than that of the least recently used entry,
+ * which it then replaces, so a burst of one-off lookups cannot flush out entries that are in steady demand. How often
+ * keys are asked for is estimated in a fixed amount of memory, and halved now and then so old popularity fades.
+ * Entities must be immutable, as they are handed to every request that asks for them. Thread safe.
+ *
+ * @param <K> The key type.
+ * @param <V> The entity type.
+ */
+public class Cache<K, V> {
+
+    /**
+     * An entity and when it was cached.
+     */
+    private static class Entry<V> {
+
+        private final V value;
+        private final long cachedNanos;
+
+        private Entry(V value, long cachedNanos) {
+            this.value = value;
+            this.cachedNanos = cachedNanos;
+        }
+    }
+
+    /**
+     * How many times more keys are counted than entries fit in the cache before counts are halved.
+     */
+    private static final int SAMPLES_PER_ENTRY = 10;
+
+    /**
+     * The highest count a key can reach.
+     */
+    private static final int MAX_COUNT = 15;
+
+    /**
+     * The number of counters each key is spread over; its count is the lowest of them.
+     */
+    private static final int DEPTH = 4;
+
+    private static final int[] SEEDS = {0x97cb3127, 0x0ba1f6e5, 0x5b1d6f3d, 0x3c6ef372};
+
+    private final String name;
+    private final int maximumSize;
+    private final long expireNanos;
+
+    // in access order, so the least recently used entry is first
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final byte[][] counts;
+    private final int mask;
+    private final int sampleLimit;
+    private int samples;
+
+    // bumped by every invalidation, so entities fetched before one are not cached after it
+    private long generation;
+
+    /**
+     * Create a cache.
+     *
+     * @param name The name of the entity, used for metrics.
+     * @param maximumSize The most entries to hold.
+     * @param expireNanos How long an entry is used for before it is fetched again.
+     */
+    public Cache(String name, int maximumSize, long expireNanos) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache " + name + " must hold at least one entry");
+        }
+        this.name = name;
+        this.maximumSize = maximumSize;
+        this.expireNanos = expireNanos;
+        int width = Integer.highestOneBit(Math.max(16, maximumSize - 1) * 2);
+        this.counts = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleLimit = maximumSize * SAMPLES_PER_ENTRY;
+
+        String prefix = "cache." + name;
+        Metrics.gauge(prefix + ".size", this::size);
+        Metrics.gauge(prefix + ".hit_rate", () -> {
+            long hits = Metrics.get(prefix + ".hits");
+            long lookups = hits + Metrics.get(prefix + ".misses");
+            return lookups == 0 ? 0.0 : (double)hits / lookups;
+        });
+    }
+
+    /**
+     * Look up an entity, counting the lookup towards its key's popularity.
+     *
+     * @param key The key.
+     * @return The entity, or null if it is not cached or has expired.
+     */
+    public synchronized V get(K key) {
+        record(key);
+        Entry<V> entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.cachedNanos > expireNanos) {
+            entries.remove(key);
+            entry = null;
+        }
+        Metrics.increment("cache." + name + (entry == null ? ".misses" : ".hits"));
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Offer an entity to the cache. If the cache is full, it is only admitted if its key is more popular than that
+     * of the entry it would replace.
+     *
+     * @param key The key.
+     * @param value The entity.
+     */
+    public synchronized void put(K key, V value) {
+        put(key, value, generation);
+    }
+
+    /**
+     * Note the cache's state before fetching entities to offer it outside readThrough(), so that entities fetched
+     * while it is invalidated are not cached afterwards.
+     *
+     * @return The generation to offer the fetched entities with.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Offer an entity fetched after getGeneration() was called. It is ignored if anything has been invalidated since,
+     * as it may have been read before the change that prompted the invalidation; otherwise it is offered as by
+     * put(key, value).
+     *
+     * @param key The key.
+     * @param value The entity.
+     * @param fetchGeneration The generation returned before fetching.
+     */
+    public synchronized void put(K key, V value, long fetchGeneration) {
+        if (fetchGeneration != generation) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (!entries.containsKey(key) && entries.size() >= maximumSize) {
+            Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+            Map.Entry<K, Entry<V>> victim = eldest.next();
+            if (now - victim.getValue().cachedNanos <= expireNanos
+                    && frequency(key) <= frequency(victim.getKey())) {
+                Metrics.increment("cache." + name + ".rejections");
+                return;
+            }
+            eldest.remove();
+            Metrics.increment("cache." + name + ".evictions");
+        }
+        entries.put(key, new Entry<>(value, now));
+    }
+
+    /**
+     * Look up several entities, fetching any not cached and offering them to the cache.
+     *
+     * @param keys The keys.
+     * @param fetch Fetches the keys not cached.
+     * @param handler The handler to pass the entities found to, by key. Keys not found are omitted.
+     */
+    public void readThrough(Set<K> keys,
+                            BatchLoader.Batch<K, V> fetch,
+                            Handler<AsyncResult<Map<K, V>>> handler) {
+        Map<K, V> found = new HashMap<>();
+        Set<K> missing = new LinkedHashSet<>();
+        long fetchGeneration;
+        synchronized (this) {
+            fetchGeneration = generation;
+            for (K key : keys) {
+                V value = get(key);
+                if (value == null) {
+                    missing.add(key);
+                }
+                else {
+                    found.put(key, value);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            handler.handle(Future.succeededFuture(found));
+            return;
+        }
+        fetch.fetch(missing, fetchRes -> {
+            if (fetchRes.failed()) {
+                handler.handle(Future.failedFuture(fetchRes.cause()));
+                return;
+            }
+            synchronized (this) {
+                for (Map.Entry<K, V> entry : fetchRes.result().entrySet()) {
+                    put(entry.getKey(), entry.getValue(), fetchGeneration);
+                }
+            }
+            found.putAll(fetchRes.result());
+            handler.handle(Future.succeededFuture(found));
+        });
+    }
+
+    /**
+     * Forget an entity, so it is fetched afresh when next asked for.
+     *
+     * @param key The key.
+     */
+    public synchronized void invalidate(K key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    /**
+     * Forget every entity.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Find how many entries are held.
+     *
+     * @return The number of entries, including any that have expired but not yet been removed.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Count a lookup of a key, halving every count once enough lookups have been counted.
+     */
+    private void record(K key) {
+        int hash = spread(key.hashCode());
+        for (int i = 0; i < DEPTH; i++) {
+            int index = index(hash, i);
+            if (counts[i][index] < MAX_COUNT) {
+                counts[i][index]++;
+            }
+        }
+        if (++samples >= sampleLimit) {
+            samples /= 2;
+            for (byte[] row : counts) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] >>= 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimate how often a key has been asked for recently. Keys sharing counters can make the estimate too high,
+     * but never too low.
+     */
+    private int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, counts[i][index(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private int index(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x85ebca6b;
+        return hash ^ (hash >>> 15);
+    }
+}
@@ -0,0 +1,158 @@
+package events.equaliser.java.util;
+
+import events.equaliser.java.model.event.BareSeries;
+import events.equaliser.java.model.event.Fixture;
+import events.equaliser.java.model.event.Tag;
+import events.equaliser.java.model.event.Tier;
+import events.equaliser.java.model.geography.Country;
+import events.equaliser.java.model.image.Image;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The caches of catalog entities, which change rarely and are read by nearly every request. Model classes consult
+ * these before the database, so callers need not know about them. The catalog is edited outside the API, so entries
+ * expire after a while to pick up edits; invalidate them to pick up an edit sooner, e.g. by messaging
+ * CatalogWarmVerticle.CATALOG_INVALIDATE_ADDRESS.
+ *
+ * Fixtures are cached without the availability of their tiers, which is looked up whenever one is retrieved.
+ */
+public class Catalog {
+
+    private static final int DEFAULT_EXPIRE_SECONDS = 600;
+
+    private static final int DEFAULT_COUNTRIES = 500;
+    private static final int DEFAULT_TAGS = 2_000;
+    private static final int DEFAULT_SERIES = 5_000;
+    private static final int DEFAULT_FIXTURES = 10_000;
+    private static final int DEFAULT_TIERS = 50_000;
+    private static final int DEFAULT_IMAGES = 20_000;
+
+    private static volatile Cache<Integer, Country> countries;
+    private static volatile Cache<String, Tag> tags;
+    private static volatile Cache<Integer, BareSeries> series;
+    private static volatile Cache<Integer, Fixture> fixtures;
+    private static volatile Cache<Integer, Tier> tiers;
+    private static volatile Cache<Integer, Image> images;
+
+    static {
+        configure(new JsonObject());
+    }
+
+    /**
+     * Create the caches from the "catalog" configuration block, dropping anything already cached.
+     *
+     * @param config The block, optionally containing "expireSeconds", and "maxEntries" with the most entries to hold
+     *               of each of "countries", "tags", "series", "fixtures", "tiers" and "images".
+     */
+    public static synchronized void configure(JsonObject config) {
+        long expireNanos = TimeUnit.SECONDS.toNanos(config.getInteger("expireSeconds", DEFAULT_EXPIRE_SECONDS));
+        JsonObject sizes = config.getJsonObject("maxEntries", new JsonObject());
+        countries = new Cache<>("countries", sizes.getInteger("countries", DEFAULT_COUNTRIES), expireNanos);
+        tags = new Cache<>("tags", sizes.getInteger("tags", DEFAULT_TAGS), expireNanos);
+        series = new Cache<>("series", sizes.getInteger("series", DEFAULT_SERIES), expireNanos);
+        fixtures = new Cache<>("fixtures", sizes.getInteger("fixtures", DEFAULT_FIXTURES), expireNanos);
+        tiers = new Cache<>("tiers", sizes.getInteger("tiers", DEFAULT_TIERS), expireNanos);
+        images = new Cache<>("images", sizes.getInteger("images", DEFAULT_IMAGES), expireNanos);
+    }
+
+    /**
+     * @return Countries by identifier.
+     */
+    public static Cache<Integer, Country> getCountries() {
+        return countries;
+    }
+
+    /**
+     * @return Tags by name.
+     */
+    public static Cache<String, Tag> getTags() {
+        return tags;
+    }
+
+    /**
+     * @return Series, without their fixtures, by identifier.
+     */
+    public static Cache<Integer, BareSeries> getSeries() {
+        return series;
+    }
+
+    /**
+     * @return Fixtures by identifier, with their venues and tiers but not the tiers' availability.
+     */
+    public static Cache<Integer, Fixture> getFixtures() {
+        return fixtures;
+    }
+
+    /**
+     * @return Tiers by identifier, without their fixtures.
+     */
+    public static Cache<Integer, Tier> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * @return Images by identifier.
+     */
+    public static Cache<Integer, Image> getImages() {
+        return images;
+    }
+
+    /**
+     * Forget one cached entity, or every cached entity of a kind, e.g. after it has been edited. Entities holding it,
+     * such as the fixture a tier belongs to, are not forgotten with it.
+     *
+     * @param entity The kind of entity: "countries", "tags", "series", "fixtures", "tiers" or "images".
+     * @param key The entity's key, which is its name for tags and its identifier otherwise, or null for every one.
+     * @throws IllegalArgumentException If the kind is not recognised, or the key is of the wrong type.
+     */
+    public static void invalidate(String entity, Object key) {
+        switch (entity) {
+            case "countries":
+                invalidate(countries, Integer.class, key);
+                break;
+            case "tags":
+                invalidate(tags, String.class, key);
+                break;
+            case "series":
+                invalidate(series, Integer.class, key);
+                break;
+            case "fixtures":
+                invalidate(fixtures, Integer.class, key);
+                break;
+            case "tiers":
+                invalidate(tiers, Integer.class, key);
+                break;
+            case "images":
+                invalidate(images, Integer.class, key);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown catalog entity " + entity);
+        }
+    }
+
+    private static <K> void invalidate(Cache<K, ?> cache, Class<K> type, Object key) {
+        if (key == null) {
+            cache.invalidateAll();
+        }
+        else if (type.isInstance(key)) {
+            cache.invalidate(type.cast(key));
+        }
+        else {
+            throw new IllegalArgumentException("Catalog key must be a " + type.getSimpleName());
+        }
+    }
+
+    /**
+     * Forget everything cached, e.g. after the catalog has been edited.
+     */
+    public static void invalidateAll() {
+        countries.invalidateAll();
+        tags.invalidateAll();
+        series.invalidateAll();
+        fixtures.invalidateAll();
+        tiers.invalidateAll();
+        images.invalidateAll();
+    }
+}
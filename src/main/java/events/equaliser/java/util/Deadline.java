@@ -0,0 +1,79 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.ext.sql.SQLConnection;
+
+/**
+ * A point in time by which a request must have finished. Work on behalf of a request inherits whatever remains of
+ * its budget, so a request that has already run out of time stops issuing queries and messages.
+ */
+public class Deadline {
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * Create a deadline relative to a start time.
+     *
+     * @param startNanos The start time, as given by System.nanoTime().
+     * @param budgetMillis How long after the start time the deadline falls.
+     * @return The deadline.
+     */
+    public static Deadline after(long startNanos, long budgetMillis) {
+        return new Deadline(startNanos + budgetMillis * 1_000_000L);
+    }
+
+    /**
+     * Find how much time is left.
+     *
+     * @return The number of milliseconds remaining, which will be 0 or negative if the deadline has passed.
+     */
+    public long remainingMillis() {
+        return (expiresAtNanos - System.nanoTime()) / 1_000_000L;
+    }
+
+    /**
+     * Find whether the deadline has passed.
+     *
+     * @return True if there is no time left.
+     */
+    public boolean isExpired() {
+        return remainingMillis() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Deadline(%d ms remaining)", remainingMillis());
+    }
+
+    /**
+     * Retrieve the deadline a connection is being used under.
+     *
+     * @param connection The connection.
+     * @return The deadline, or null if the connection is not bound to a request.
+     */
+    public static Deadline of(SQLConnection connection) {
+        if (connection instanceof DeadlineConnection) {
+            return ((DeadlineConnection)connection).getDeadline();
+        }
+        return null;
+    }
+
+    /**
+     * Create options for an event bus send made with a connection, timing out when the connection's deadline does.
+     *
+     * @param connection The connection of the request the message is being sent on behalf of.
+     * @return Delivery options with a reduced timeout if the connection has a deadline, otherwise the defaults.
+     */
+    public static DeliveryOptions deliveryOptions(SQLConnection connection) {
+        DeliveryOptions options = new DeliveryOptions();
+        Deadline deadline = of(connection);
+        if (deadline != null) {
+            options.setSendTimeout(Math.max(1, deadline.remainingMillis()));
+        }
+        return options;
+    }
+}
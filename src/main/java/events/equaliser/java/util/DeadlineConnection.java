@@ -0,0 +1,290 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.sql.*;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A connection used on behalf of a request with a deadline. Statements issued after the deadline fail immediately
+ * with a DeadlineExceededException rather than reaching the database, and SELECTs are capped at the time remaining.
+ * Ending a transaction and closing the connection are always allowed, so cleanup still happens.
+ * N.B. the async MySQL driver does not support per-connection query timeouts, so the cap is a MAX_EXECUTION_TIME
+ *      optimiser hint; servers older than 5.7 treat it as a comment, leaving the pool's queryTimeout as the limit.
+ */
+public class DeadlineConnection implements SQLConnection {
+
+    private static final Pattern SELECT = Pattern.compile("^\\s*SELECT\\s", Pattern.CASE_INSENSITIVE);
+
+    private final SQLConnection connection;
+    private final Deadline deadline;
+    private final Consumer<Handler<AsyncResult<SQLConnection>>> pool;
+    private final DeadlineConnection parent;
+    private int forks;
+    private Loaders loaders;
+
+    public DeadlineConnection(SQLConnection connection, Deadline deadline) {
+        this(connection, deadline, null);
+    }
+
+    /**
+     * Create a connection that can fork further connections for the same request.
+     *
+     * @param connection The connection.
+     * @param deadline The request's deadline.
+     * @param pool Gets another connection from the pool, or fails if one should not be taken; null if none can be.
+     */
+    public DeadlineConnection(SQLConnection connection,
+                              Deadline deadline,
+                              Consumer<Handler<AsyncResult<SQLConnection>>> pool) {
+        this(connection, deadline, pool, null);
+    }
+
+    private DeadlineConnection(SQLConnection connection,
+                               Deadline deadline,
+                               Consumer<Handler<AsyncResult<SQLConnection>>> pool,
+                               DeadlineConnection parent) {
+        this.connection = connection;
+        this.deadline = deadline;
+        this.pool = pool;
+        this.parent = parent;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Retrieve the loaders of the request the connection is being used for, creating them on first use. A forked
+     * connection has loaders of its own, as loaders run their batches on their connection, which would clash with
+     * whatever the request's connection is running at the same time; entities loaded on a fork are therefore not
+     * shared with the request's loaders, and may be fetched again, though catalog and user caches still apply.
+     *
+     * @return The loaders.
+     */
+    Loaders getLoaders() {
+        if (loaders == null) {
+            loaders = new Loaders(this);
+        }
+        return loaders;
+    }
+
+    /**
+     * Get another connection for the same request, with the same deadline, to run a query concurrently. Forked
+     * connections cannot fork themselves, and must be closed by whoever forked them.
+     *
+     * @param max The most forked connections the request may hold at once, including any being waited for.
+     * @param handler The handler to pass the connection to, failed if none is available.
+     */
+    void fork(int max, Handler<AsyncResult<SQLConnection>> handler) {
+        if (pool == null || forks >= max) {
+            handler.handle(Future.failedFuture("Connection cannot be forked"));
+            return;
+        }
+        if (expired(handler)) {
+            return;
+        }
+        forks++;
+        pool.accept(res -> {
+            if (res.failed()) {
+                forks--;
+                handler.handle(Future.failedFuture(res.cause()));
+                return;
+            }
+            handler.handle(Future.succeededFuture(new DeadlineConnection(res.result(), deadline, null, this)));
+        });
+    }
+
+    /**
+     * Fail a handler if the deadline has passed.
+     *
+     * @param handler The handler of the statement about to be issued.
+     * @return True if the handler was failed and the statement should not be issued.
+     */
+    private <T> boolean expired(Handler<AsyncResult<T>> handler) {
+        if (deadline.isExpired()) {
+            handler.handle(Future.failedFuture(new DeadlineExceededException()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Limit how long a SELECT may run for to the time remaining.
+     *
+     * @param sql The statement.
+     * @return The statement with an execution time hint if it is a SELECT, otherwise the statement unchanged.
+     */
+    private String limit(String sql) {
+        Matcher matcher = SELECT.matcher(sql);
+        if (!matcher.find()) {
+            return sql;
+        }
+        return matcher.replaceFirst(
+                String.format("SELECT /*+ MAX_EXECUTION_TIME(%d) */ ", Math.max(1, deadline.remainingMillis())));
+    }
+
+    @Override
+    public SQLConnection setAutoCommit(boolean autoCommit, Handler<AsyncResult<Void>> resultHandler) {
+        if (!autoCommit && expired(resultHandler)) {
+            return this;
+        }
+        connection.setAutoCommit(autoCommit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection execute(String sql, Handler<AsyncResult<Void>> resultHandler) {
+        if (!expired(resultHandler)) {
+            connection.execute(sql, resultHandler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection query(String sql, Handler<AsyncResult<ResultSet>> resultHandler) {
+        if (!expired(resultHandler)) {
+            connection.query(limit(sql), resultHandler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection queryStream(String sql, Handler<AsyncResult<SQLRowStream>> handler) {
+        if (!expired(handler)) {
+            connection.queryStream(limit(sql), handler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection queryWithParams(String sql, JsonArray params,
+                                         Handler<AsyncResult<ResultSet>> resultHandler) {
+        if (!expired(resultHandler)) {
+            connection.queryWithParams(limit(sql), params, resultHandler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection queryStreamWithParams(String sql, JsonArray params,
+                                               Handler<AsyncResult<SQLRowStream>> handler) {
+        if (!expired(handler)) {
+            connection.queryStreamWithParams(limit(sql), params, handler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection update(String sql, Handler<AsyncResult<UpdateResult>> resultHandler) {
+        if (!expired(resultHandler)) {
+            connection.update(sql, resultHandler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection updateWithParams(String sql, JsonArray params,
+                                          Handler<AsyncResult<UpdateResult>> resultHandler) {
+        if (!expired(resultHandler)) {
+            connection.updateWithParams(sql, params, resultHandler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection call(String sql, Handler<AsyncResult<ResultSet>> resultHandler) {
+        if (!expired(resultHandler)) {
+            connection.call(sql, resultHandler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection callWithParams(String sql, JsonArray params, JsonArray outputs,
+                                        Handler<AsyncResult<ResultSet>> resultHandler) {
+        if (!expired(resultHandler)) {
+            connection.callWithParams(sql, params, outputs, resultHandler);
+        }
+        return this;
+    }
+
+    @Override
+    public void close(Handler<AsyncResult<Void>> handler) {
+        if (parent != null) {
+            parent.forks--;
+        }
+        connection.close(handler);
+    }
+
+    @Override
+    public void close() {
+        if (parent != null) {
+            parent.forks--;
+        }
+        connection.close();
+    }
+
+    @Override
+    public SQLConnection commit(Handler<AsyncResult<Void>> handler) {
+        connection.commit(handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection rollback(Handler<AsyncResult<Void>> handler) {
+        connection.rollback(handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection setQueryTimeout(int timeoutInSeconds) {
+        connection.setQueryTimeout(timeoutInSeconds);
+        return this;
+    }
+
+    @Override
+    public SQLConnection batch(List<String> sqlStatements, Handler<AsyncResult<List<Integer>>> handler) {
+        if (!expired(handler)) {
+            connection.batch(sqlStatements, handler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection batchWithParams(String sqlStatement, List<JsonArray> args,
+                                         Handler<AsyncResult<List<Integer>>> handler) {
+        if (!expired(handler)) {
+            connection.batchWithParams(sqlStatement, args, handler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection batchCallableWithParams(String sqlStatement, List<JsonArray> inArgs,
+                                                 List<JsonArray> outArgs,
+                                                 Handler<AsyncResult<List<Integer>>> handler) {
+        if (!expired(handler)) {
+            connection.batchCallableWithParams(sqlStatement, inArgs, outArgs, handler);
+        }
+        return this;
+    }
+
+    @Override
+    public SQLConnection setTransactionIsolation(TransactionIsolation isolation, Handler<AsyncResult<Void>> handler) {
+        connection.setTransactionIsolation(isolation, handler);
+        return this;
+    }
+
+    @Override
+    public SQLConnection getTransactionIsolation(Handler<AsyncResult<TransactionIsolation>> handler) {
+        connection.getTransactionIsolation(handler);
+        return this;
+    }
+}
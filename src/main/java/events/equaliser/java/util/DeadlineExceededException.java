@@ -0,0 +1,13 @@
+package events.equaliser.java.util;
+
+/**
+ * Thrown when work is abandoned because the request it was for has run out of time.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException() {
+        super("Request deadline exceeded", null, false, false);
+    }
+}
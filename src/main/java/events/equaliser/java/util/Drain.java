@@ -0,0 +1,105 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinates a graceful shutdown across verticles. Once a drain begins, readiness checks fail; new requests are
+ * still served for a grace period while load balancers notice, then turned away. Verticles wait for in-flight
+ * requests and background job runs to finish, up to a timeout, before releasing their resources.
+ * N.B. Vert.x undeploys child verticles before their parent, so every verticle waits here rather than relying on
+ *      RestVerticle stopping first.
+ */
+public class Drain {
+
+    private static final Logger logger = LoggerFactory.getLogger(Drain.class);
+
+    private static final long POLL_MILLIS = 50;
+    private static final long DEFAULT_GRACE_MILLIS = 5_000;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 20_000;
+
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+    private static volatile long startedAtNanos;
+    private static volatile boolean draining;
+    private static volatile long graceMillis = DEFAULT_GRACE_MILLIS;
+    private static volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    static {
+        Metrics.gauge("drain.active", ACTIVE::get);
+    }
+
+    /**
+     * Begin draining. Subsequent calls have no effect.
+     *
+     * @param config The application configuration, optionally containing a "drain" block with "graceMillis" and
+     *               "timeoutMillis".
+     */
+    public static synchronized void begin(JsonObject config) {
+        if (draining) {
+            return;
+        }
+        JsonObject drain = config.getJsonObject("drain", new JsonObject());
+        graceMillis = drain.getLong("graceMillis", DEFAULT_GRACE_MILLIS);
+        timeoutMillis = drain.getLong("timeoutMillis", DEFAULT_TIMEOUT_MILLIS);
+        startedAtNanos = System.nanoTime();
+        draining = true;
+        logger.info("Draining with {} in flight", ACTIVE.get());
+    }
+
+    /**
+     * Find whether a drain has begun, in which case this node should not be sent new work.
+     *
+     * @return True if draining.
+     */
+    public static boolean isDraining() {
+        return draining;
+    }
+
+    private static long elapsedMillis() {
+        return (System.nanoTime() - startedAtNanos) / 1_000_000L;
+    }
+
+    /**
+     * Register the start of a unit of work. Every successful call must be paired with a call to exit().
+     *
+     * @return True if the work may proceed, false if the grace period has passed and it should be refused.
+     */
+    public static boolean enter() {
+        ACTIVE.incrementAndGet();
+        if (draining && elapsedMillis() >= graceMillis) {
+            ACTIVE.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Register the end of a unit of work.
+     */
+    public static void exit() {
+        ACTIVE.decrementAndGet();
+    }
+
+    /**
+     * Wait until the grace period has passed and no work is in flight, or the drain times out.
+     *
+     * @param vertx The Vert.x instance to set timers on.
+     * @param handler Called once it is safe to release resources.
+     */
+    public static void awaitIdle(Vertx vertx, Handler<Void> handler) {
+        if (draining && (elapsedMillis() >= timeoutMillis ||
+                (elapsedMillis() >= graceMillis && ACTIVE.get() == 0))) {
+            if (ACTIVE.get() > 0) {
+                logger.warn("Drain timed out with {} in flight", ACTIVE.get());
+            }
+            handler.handle(null);
+            return;
+        }
+        vertx.setTimer(POLL_MILLIS, id -> awaitIdle(vertx, handler));
+    }
+}
@@ -0,0 +1,142 @@
+package events.equaliser.java.util;
+
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of secure random bytes, refilled in the background so callers on the event loop never wait on, or contend
+ * for, a SecureRandom. Each thread takes whole chunks from a lock-free queue and serves requests from its own chunk,
+ * so the hot path is a thread-local array copy. Every byte is handed out at most once.
+ */
+public class EntropyPool {
+
+    /**
+     * The number of bytes a thread takes from the pool at a time.
+     */
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    /**
+     * The number of chunks the refiller tops the pool up to.
+     */
+    private static final int TARGET_CHUNKS = 64;
+
+    /**
+     * When the pool falls to this many chunks, a refill is started.
+     */
+    private static final int LOW_WATER_CHUNKS = TARGET_CHUNKS / 4;
+
+    /**
+     * A thread's current chunk and how far through it has been used.
+     */
+    private static class Cursor {
+
+        private byte[] chunk = new byte[0];
+        private int position;
+    }
+
+    private final Queue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger available = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final ThreadLocal<Cursor> cursors = ThreadLocal.withInitial(Cursor::new);
+    private final SecureRandom random = new SecureRandom();  // only touched by the refiller, or if the pool runs dry
+    private final ExecutorService refiller = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "entropy-pool-refiller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EntropyPool() {
+        refill();
+    }
+
+    /**
+     * Top up the pool in the background, unless a refill is already running.
+     */
+    private void refill() {
+        if (!refilling.compareAndSet(false, true)) {
+            return;
+        }
+        refiller.execute(() -> {
+            try {
+                while (available.get() < TARGET_CHUNKS) {
+                    byte[] chunk = new byte[CHUNK_SIZE];
+                    random.nextBytes(chunk);
+                    chunks.add(chunk);
+                    available.incrementAndGet();
+                }
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    /**
+     * Give a thread a fresh chunk.
+     *
+     * @param cursor The thread's cursor.
+     */
+    private void nextChunk(Cursor cursor) {
+        byte[] chunk = chunks.poll();
+        if (chunk == null) {
+            // the refiller has fallen behind; better to generate inline than fail
+            chunk = new byte[CHUNK_SIZE];
+            random.nextBytes(chunk);
+        }
+        else if (available.decrementAndGet() <= LOW_WATER_CHUNKS) {
+            refill();
+        }
+        cursor.chunk = chunk;
+        cursor.position = 0;
+    }
+
+    /**
+     * Fill an array with random bytes.
+     *
+     * @param bytes The array to fill.
+     */
+    public void nextBytes(byte[] bytes) {
+        Cursor cursor = cursors.get();
+        int filled = 0;
+        while (filled < bytes.length) {
+            if (cursor.position == cursor.chunk.length) {
+                nextChunk(cursor);
+            }
+            int count = Math.min(bytes.length - filled, cursor.chunk.length - cursor.position);
+            System.arraycopy(cursor.chunk, cursor.position, bytes, filled, count);
+            cursor.position += count;
+            filled += count;
+        }
+    }
+
+    /**
+     * Retrieve a single random byte as an unsigned value.
+     *
+     * @return A value in the range [0, 256).
+     */
+    private int nextUnsignedByte() {
+        Cursor cursor = cursors.get();
+        if (cursor.position == cursor.chunk.length) {
+            nextChunk(cursor);
+        }
+        return cursor.chunk[cursor.position++] & 0xff;
+    }
+
+    /**
+     * Retrieve a uniformly distributed decimal digit. Bytes that would make some digits more likely than others are
+     * rejected, rather than reduced modulo 10.
+     *
+     * @return A value in the range [0, 10).
+     */
+    public int nextDigit() {
+        int value;
+        do {
+            value = nextUnsignedByte();
+        } while (value >= 250);  // 250 is the largest multiple of 10 <= 256
+        return value % 10;
+    }
+}
@@ -0,0 +1,161 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs independent queries at the same time, each on its own connection, then joins their results. A connection can
+ * only run one statement at a time, so for a request's connection further connections are forked from the pool; the
+ * request's own connection takes queries too, and takes any left over if the pool cannot hand out more in time, so
+ * waiting for the pool never holds a request up for longer than running the queries one after another would.
+ * Connections not bound to a request simply run the queries in turn.
+ *
+ * Queries must only use the connection they are given. A forked connection does not share the request's loaders, so
+ * a query run on one may fetch entities the rest of the request has already loaded.
+ */
+public class Fanout {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 2;
+
+    private static volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    private final SQLConnection connection;
+    private final List<BiConsumer<SQLConnection, Handler<AsyncResult<Void>>>> queries = new ArrayList<>();
+
+    /**
+     * Read fan-out configuration.
+     *
+     * @param config The "fanout" configuration block, with "maxConnections", the most connections a request may hold
+     *               at once in addition to its own.
+     */
+    public static void configure(JsonObject config) {
+        maxConnections = config.getInteger("maxConnections", DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Create a fan-out.
+     *
+     * @param connection The connection of the request the queries are for.
+     */
+    public Fanout(SQLConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * A query to run on whichever connection is free.
+     *
+     * @param <T> The type of its result.
+     */
+    @FunctionalInterface
+    public interface Query<T> {
+
+        /**
+         * Run the query.
+         *
+         * @param connection The connection to use.
+         * @param handler The handler to pass the result to.
+         */
+        void run(SQLConnection connection, Handler<AsyncResult<T>> handler);
+    }
+
+    /**
+     * Add a query. It is not run until run() is called.
+     *
+     * @param query The query.
+     * @param <T> The type of its result.
+     * @return A future completed with the result of the query.
+     */
+    public <T> Future<T> add(Query<T> query) {
+        Future<T> future = Future.future();
+        queries.add((queryConnection, done) -> query.run(queryConnection, res -> {
+            future.handle(res);
+            done.handle(res.failed() ? Future.failedFuture(res.cause()) : Future.succeededFuture());
+        }));
+        return future;
+    }
+
+    /**
+     * Run every query added.
+     *
+     * @param handler Called once every query has finished and the request's connection is free again, failed with
+     *                the first failure if any query failed. Queries not yet started when one fails are skipped.
+     */
+    public void run(Handler<AsyncResult<Void>> handler) {
+        new Run(handler).start();
+    }
+
+    /**
+     * The state of one call to run().
+     */
+    private class Run {
+
+        private final Handler<AsyncResult<Void>> handler;
+        private final Deque<BiConsumer<SQLConnection, Handler<AsyncResult<Void>>>> waiting;
+        private int unfinished;
+        private Throwable failure;
+
+        private Run(Handler<AsyncResult<Void>> handler) {
+            this.handler = handler;
+            this.waiting = new ArrayDeque<>(queries);
+            this.unfinished = queries.size();
+        }
+
+        private void start() {
+            if (unfinished == 0) {
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+            if (connection instanceof DeadlineConnection) {
+                DeadlineConnection requestConnection = (DeadlineConnection)connection;
+                int forks = Math.min(unfinished - 1, maxConnections);
+                for (int i = 0; i < forks; i++) {
+                    requestConnection.fork(maxConnections, forkRes -> {
+                        if (forkRes.failed()) {
+                            Metrics.increment("fanout.forks_refused");
+                            return;
+                        }
+                        Metrics.increment("fanout.forks");
+                        next(forkRes.result(), true);
+                    });
+                }
+            }
+            next(connection, false);
+        }
+
+        /**
+         * Run the next waiting query on a connection, and so on until there are none left.
+         *
+         * @param queryConnection The connection.
+         * @param forked Whether the connection was forked, and so should be closed once no queries are left.
+         */
+        private void next(SQLConnection queryConnection, boolean forked) {
+            BiConsumer<SQLConnection, Handler<AsyncResult<Void>>> query = waiting.poll();
+            if (query == null) {
+                if (forked) {
+                    queryConnection.close();
+                }
+                return;
+            }
+            query.accept(queryConnection, res -> {
+                if (res.failed() && failure == null) {
+                    failure = res.cause();
+                    unfinished -= waiting.size();
+                    waiting.clear();
+                }
+                if (--unfinished == 0) {
+                    handler.handle(failure == null ? Future.succeededFuture() : Future.failedFuture(failure));
+                }
+                next(queryConnection, forked);
+            });
+        }
+    }
+}
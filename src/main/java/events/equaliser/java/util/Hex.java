@@ -1,10 +1,31 @@
 package events.equaliser.java.util;
 
+import java.util.Arrays;
+
 /**
- * Utility methods for converting between hex and binary data.
+ * Utility methods for converting between hex and binary data. Both directions are table-driven, so there is no
+ * formatting or per-character parsing on the hot path.
  */
 public class Hex {
 
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The value of each ASCII character as a hex digit, or -1 if it is not one.
+     */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            VALUES['a' + i] = (byte) (10 + i);
+            VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
     /**
      * Turn a piece of binary into a lowercase hex string.
      *
@@ -12,31 +33,53 @@ public class Hex {
      * @return The string as hex. Length with be `bin.length * 2`.
      */
     public static String binToHex(byte[] bin) {
-        StringBuilder builder = new StringBuilder();
-        for (byte b : bin) {
-            builder.append(String.format("%02x", b));
+        char[] hex = new char[bin.length * 2];
+        for (int i = 0, j = 0; i < bin.length; i++) {
+            hex[j++] = DIGITS[(bin[i] >>> 4) & 0x0f];
+            hex[j++] = DIGITS[bin[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    private static int value(CharSequence hex, int index) {
+        char c = hex.charAt(index);
+        int value = c < VALUES.length ? VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid hexadecimal digit at position " + index);
+        }
+        return value;
+    }
+
+    /**
+     * Decode a hexadecimal string into an existing array, without allocating.
+     *
+     * @param hex The hex string to parse; upper or lower case.
+     * @param bin The array to decode into, which must be exactly half the length of the string.
+     * @throws IllegalArgumentException If the string is the wrong length or contains a non-hex character.
+     */
+    public static void hexToBin(CharSequence hex, byte[] bin) {
+        if (hex.length() != bin.length * 2) {
+            throw new IllegalArgumentException("Hex string must be " + bin.length * 2 + " digits long");
+        }
+        for (int i = 0, j = 0; i < bin.length; i++, j += 2) {
+            bin[i] = (byte) ((value(hex, j) << 4) | value(hex, j + 1));
         }
-        return builder.toString();
     }
 
     /**
      * Turn a hexadecimal string into its underlying binary representation.
      *
-     * @param hex The hex string to parse.
+     * @param hex The hex string to parse; upper or lower case.
      * @return The binary representation of the hex.
+     * @throws IllegalArgumentException If the string has an odd length or contains a non-hex character.
      */
     public static byte[] hexToBin(String hex) {
-        int len = hex.length();
-
-        if (len % 2 == 1) {
+        if (hex.length() % 2 == 1) {
             throw new IllegalArgumentException("Hex strings must contain an even number of hexadecimal digits");
         }
 
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-                    + Character.digit(hex.charAt(i + 1), 16));
-        }
+        byte[] data = new byte[hex.length() / 2];
+        hexToBin(hex, data);
         return data;
     }
 }
@@ -0,0 +1,147 @@
+package events.equaliser.java.util;
+
+import events.equaliser.java.model.event.BareSeries;
+import events.equaliser.java.model.event.Fixture;
+import events.equaliser.java.model.event.Tier;
+import events.equaliser.java.model.image.Image;
+import events.equaliser.java.model.user.User;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The batch loaders of a request, which share its connection. Loaders with keys waiting are dispatched together once
+ * the current event loop task finishes, one after another, as a connection can only run one statement at a time.
+ * Loaders whose entities contain others load them with loadNow() from within their own batch, rather than waiting
+ * for the next dispatch.
+ */
+public class Loaders {
+
+    private final BatchLoader<Integer, Tier> tiers;
+    private final BatchLoader<Integer, Fixture> fixtures;
+    private final BatchLoader<Integer, BareSeries> series;
+    private final BatchLoader<Integer, User> users;
+    private final BatchLoader<Integer, Image> images;
+
+    // containing entities first, so the entities they load are not fetched again by their own loader
+    private final List<BatchLoader<Integer, ?>> dispatchOrder;
+
+    private boolean scheduled;
+
+    Loaders(SQLConnection connection) {
+        tiers = new BatchLoader<>("tiers",
+                (ids, handler) -> Tier.retrieveFromIds(ids, connection, handler),
+                id -> "No tier found with id " + id,
+                this::schedule);
+        fixtures = new BatchLoader<>("fixtures",
+                (ids, handler) -> Fixture.retrieveFromIds(ids, connection, handler),
+                id -> "No fixture found with id " + id,
+                this::schedule);
+        series = new BatchLoader<>("series",
+                (ids, handler) -> BareSeries.retrieveFromIds(new ArrayList<>(ids), connection, res -> {
+                    if (res.failed()) {
+                        handler.handle(Future.failedFuture(res.cause()));
+                        return;
+                    }
+                    Map<Integer, BareSeries> byId = new HashMap<>();
+                    for (BareSeries bareSeries : res.result()) {
+                        byId.put(bareSeries.getId(), bareSeries);
+                    }
+                    handler.handle(Future.succeededFuture(byId));
+                }),
+                id -> "No series found with id " + id,
+                this::schedule);
+        users = new BatchLoader<>("users",
+                (ids, handler) -> User.retrieveFromIds(ids, connection, handler),
+                id -> "No user found with id " + id,
+                this::schedule);
+        images = new BatchLoader<>("images",
+                (ids, handler) -> Image.retrieveFromIds(ids, connection, handler),
+                id -> "No image found with id " + id,
+                this::schedule);
+        dispatchOrder = Arrays.asList(tiers, fixtures, series, users, images);
+    }
+
+    /**
+     * Retrieve the loaders to use with a connection.
+     *
+     * @param connection The connection.
+     * @return The request's loaders if the connection is being used for one, otherwise new loaders.
+     */
+    public static Loaders of(SQLConnection connection) {
+        if (connection instanceof DeadlineConnection) {
+            return ((DeadlineConnection)connection).getLoaders();
+        }
+        return new Loaders(connection);
+    }
+
+    public BatchLoader<Integer, Tier> getTiers() {
+        return tiers;
+    }
+
+    public BatchLoader<Integer, Fixture> getFixtures() {
+        return fixtures;
+    }
+
+    public BatchLoader<Integer, BareSeries> getSeries() {
+        return series;
+    }
+
+    public BatchLoader<Integer, User> getUsers() {
+        return users;
+    }
+
+    public BatchLoader<Integer, Image> getImages() {
+        return images;
+    }
+
+    /**
+     * Arrange for loaders with keys waiting to be dispatched, if not already arranged.
+     */
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        Context context = Vertx.currentContext();
+        if (context == null) {
+            dispatch(0, new ArrayList<>());
+        }
+        else {
+            context.runOnContext(v -> dispatch(0, new ArrayList<>()));
+        }
+    }
+
+    /**
+     * Dispatch loaders with keys waiting in turn, then tell everyone waiting for them.
+     *
+     * @param index The position in the dispatch order of the next loader to consider.
+     * @param notifications Notifications from loaders already dispatched.
+     */
+    private void dispatch(int index, List<Runnable> notifications) {
+        if (index == dispatchOrder.size()) {
+            scheduled = false;
+            if (dispatchOrder.stream().anyMatch(BatchLoader::isPending)) {
+                schedule();
+            }
+            notifications.forEach(Runnable::run);
+            return;
+        }
+        BatchLoader<Integer, ?> loader = dispatchOrder.get(index);
+        if (!loader.isPending()) {
+            dispatch(index + 1, notifications);
+            return;
+        }
+        loader.dispatch(notification -> {
+            notifications.add(notification);
+            dispatch(index + 1, notifications);
+        });
+    }
+}
@@ -0,0 +1,76 @@
+package events.equaliser.java.util;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A process-wide registry of named counters and gauges, exposed at /metrics on the management port.
+ * Counters are cheap to increment from any thread; gauges are sampled when a snapshot is taken.
+ */
+public class Metrics {
+
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Supplier<? extends Number>> GAUGES = new ConcurrentHashMap<>();
+
+    /**
+     * Add one to a counter, creating it if necessary.
+     *
+     * @param name The name of the counter.
+     */
+    public static void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * Add to a counter, creating it if necessary.
+     *
+     * @param name The name of the counter.
+     * @param delta The amount to add.
+     */
+    public static void increment(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Register a value to be sampled whenever a snapshot is taken. Registering the same name again replaces the
+     * previous supplier.
+     *
+     * @param name The name of the gauge.
+     * @param supplier Produces the current value. Called from arbitrary threads.
+     */
+    public static void gauge(String name, Supplier<? extends Number> supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    /**
+     * Retrieve the current value of a counter.
+     *
+     * @param name The name of the counter.
+     * @return The value, or 0 if it has never been incremented.
+     */
+    public static long get(String name) {
+        LongAdder adder = COUNTERS.get(name);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * Take a point-in-time copy of every counter and gauge, ordered by name.
+     *
+     * @return Metric names mapped to their values.
+     */
+    public static SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, Supplier<? extends Number>> entry : GAUGES.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+}
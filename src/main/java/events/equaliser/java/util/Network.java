@@ -1,13 +1,79 @@
 package events.equaliser.java.util;
 
+import io.netty.util.NetUtil;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utilities related to the network and IP.
  */
 public class Network {
 
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    private static volatile int trustedProxies;
+
+    /**
+     * Read how clients reach the API from the "network" configuration block.
+     *
+     * @param config The block, optionally containing "trustedProxies", the number of reverse proxies or load
+     *               balancers every request passes through, each of which appends the address it received the
+     *               request from to X-Forwarded-For. 0, the default, means clients connect directly, and the header
+     *               is ignored, as anyone could have set it.
+     */
+    public static void configure(JsonObject config) {
+        trustedProxies = config.getInteger("trustedProxies", 0);
+    }
+
+    /**
+     * Find the address of the client that made a request, e.g. to throttle or audit by.
+     *
+     * @param request The request.
+     * @return The client's IP address.
+     */
+    public static String clientAddress(HttpServerRequest request) {
+        String remote = request.remoteAddress().host();
+        int proxies = trustedProxies;
+        if (proxies == 0) {
+            return remote;
+        }
+        return clientAddress(request.headers().getAll(FORWARDED_FOR), remote, proxies);
+    }
+
+    /**
+     * Find the address of a client from the X-Forwarded-For headers of its request. Only the entries appended by
+     * trusted proxies are believed: the client's is the one the furthest trusted proxy appended, and anything
+     * before it may have been made up by the client.
+     *
+     * @param forwardedFor The values of every X-Forwarded-For header, in order.
+     * @param remote The address the request was received from, i.e. that of the nearest proxy.
+     * @param proxies The number of trusted proxies.
+     * @return The client's IP address, or the remote address if the headers do not hold one where expected.
+     */
+    static String clientAddress(Iterable<String> forwardedFor, String remote, int proxies) {
+        List<String> hops = new ArrayList<>();
+        for (String header : forwardedFor) {
+            for (String hop : header.split(",")) {
+                hops.add(hop.trim());
+            }
+        }
+        int index = hops.size() - proxies;
+        if (index < 0) {
+            // the request did not pass through every proxy
+            return remote;
+        }
+        String client = hops.get(index);
+        if (!NetUtil.isValidIpV4Address(client) && !NetUtil.isValidIpV6Address(client)) {
+            return remote;
+        }
+        return client;
+    }
+
     /**
      * Get the IPv6 representation of an address. This will not mutate IPv6 addresses;
      * IPv4 addresses will be turned into their IPv6-mapped equivalent.
@@ -1,15 +1,12 @@
 package events.equaliser.java.util;
 
-import io.vertx.core.Vertx;
-import io.vertx.ext.auth.PRNG;
-
 /**
  * Utilities related to random number generation.
- * N.B. blocking!
+ * Backed by an entropy pool refilled in the background, so safe to call from the event loop.
  */
 public class Random {
 
-    private static final PRNG random = new PRNG(Vertx.currentContext().owner());
+    private static final EntropyPool pool = new EntropyPool();
 
     /**
      * Retrieve a number of random bytes.
@@ -19,23 +16,21 @@ public class Random {
      */
     public static byte[] getBytes(int length) {
         byte[] bytes = new byte[length];
-        random.nextBytes(bytes);
+        pool.nextBytes(bytes);
         return bytes;
     }
 
     /**
-     * Retrieve a string of `length` random numbers.
+     * Retrieve a string of `length` random numbers. Each digit is equally likely.
      *
      * @param length The number of random digits to generate.
      * @return The generated digits, precisely `length` long.
      */
     public static String getNumericString(int length) {
-        byte[] bytes = getBytes(length);
-        StringBuilder string = new StringBuilder();
-        for (byte b : bytes) {
-            // FIXME % means numbers 0-5 are more likely than 6-9
-            string.append(Character.forDigit(Math.abs(b) % 10, 10));
+        char[] digits = new char[length];
+        for (int i = 0; i < length; i++) {
+            digits[i] = (char)('0' + pool.nextDigit());
         }
-        return string.toString();
+        return new String(digits);
     }
 }
@@ -1,6 +1,7 @@
 package events.equaliser.java.util;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.vertx.core.AsyncResult;
@@ -8,7 +9,15 @@ import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +28,18 @@ import java.util.function.BiFunction;
  */
 public class Request {
 
+    private static final Logger logger = LoggerFactory.getLogger(Request.class);
+
+    /**
+     * The context key under which the length of a JSON body before compression is recorded.
+     */
+    public static final String UNCOMPRESSED_BYTES_KEY = "uncompressedBytes";
+
+    /**
+     * The length of an ISO-8601 date, e.g. "2017-03-04".
+     */
+    private static final int DATE_LENGTH = 10;
+
     /**
      * Retrieve a POST field from a request.
      *
@@ -59,6 +80,59 @@ public class Request {
         return value;
     }
 
+    /**
+     * Retrieve an optional integer GET parameter from a request.
+     *
+     * @param request The request to parse.
+     * @param name The parameter name.
+     * @param defaultValue The value to use if the parameter is absent.
+     * @param min The smallest value allowed.
+     * @param max The largest value allowed.
+     * @return The value.
+     * @throws IllegalArgumentException If the parameter is not an integer within range.
+     */
+    public static int getIntParam(HttpServerRequest request, String name, int defaultValue, int min, int max) {
+        String value = request.getParam(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException(String.format("'%s' param must be between %d and %d", name, min, max));
+    }
+
+    /**
+     * Retrieve an optional date or time GET parameter from a request, either an ISO-8601 date-time with offset, e.g.
+     * "2017-03-04T19:30:00Z", or a date, e.g. "2017-03-04", meaning its start in UTC.
+     *
+     * @param request The request to parse.
+     * @param name The parameter name.
+     * @param defaultValue The value to use if the parameter is absent.
+     * @return The value.
+     * @throws IllegalArgumentException If the parameter cannot be parsed.
+     */
+    public static OffsetDateTime getDateTimeParam(HttpServerRequest request, String name,
+                                                  OffsetDateTime defaultValue) {
+        String value = request.getParam(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            if (value.trim().length() == DATE_LENGTH) {
+                return LocalDate.parse(value.trim()).atStartOfDay().atOffset(ZoneOffset.UTC);
+            }
+            return OffsetDateTime.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(String.format("'%s' param must be an ISO-8601 date or time", name));
+        }
+    }
+
     public static Map<String, String> parseData(HttpServerRequest request, List<String> names,
                                                 BiFunction<HttpServerRequest, String, String> retriever) {
         Map<String, String> fields = new HashMap<>();
@@ -80,27 +154,61 @@ public class Request {
         return container;
     }
 
-    public static void writeSuccessResponse(HttpServerResponse response, JsonNode data) {
-        ObjectNode container = Json.FACTORY.objectNode();
-        container.put("success", true);
-        container.set("result", data);
-        writeResponse(response, container, 200);
+    public static void writeSuccessResponse(RoutingContext context, JsonNode data) {
+        writeResponse(context, data, 200, true);
+    }
+
+    public static void writeErrorResponse(RoutingContext context, String message) {
+        writeResponse(context, errorResponse(message), 400);
     }
 
-    public static void writeErrorResponse(HttpServerResponse response, String message) {
-        writeResponse(response, errorResponse(message), 400);
+    public static void writeResponse(RoutingContext context, JsonNode node, int statusCode) {
+        writeResponse(context, node, statusCode, false);
     }
 
-    public static void writeResponse(HttpServerResponse response, JsonNode node, int statusCode) {
+    /**
+     * Stream a JSON body into a response. Nodes are serialised as they are written, so POJOs wrapped in a POJONode
+     * never have an intermediate tree or string built for them. The body is compressed if the client supports it.
+     *
+     * @param context The context of the request being responded to.
+     * @param node The data to serialise.
+     * @param statusCode The HTTP status code.
+     * @param envelope Whether to wrap the data as the result of a {success: true, result: ...} object.
+     */
+    private static void writeResponse(RoutingContext context, JsonNode node, int statusCode, boolean envelope) {
+        HttpServerResponse response = context.response();
         response.putHeader("Content-Type", "application/json; charset=utf-8");
+        response.putHeader("Vary", "Accept-Encoding");
         response.setStatusCode(statusCode);
-        String text;
+        ResponseOutputStream stream = new ResponseOutputStream(response,
+                context.request().getHeader("Accept-Encoding"));
         try {
-            text = Json.MAPPER.writeValueAsString(node);
-        } catch (JsonProcessingException e) {
+            JsonGenerator generator = Json.MAPPER.getFactory().createGenerator(stream, JsonEncoding.UTF8);
+            if (envelope) {
+                generator.writeStartObject();
+                generator.writeBooleanField("success", true);
+                generator.writeFieldName("result");
+                Json.MAPPER.writeValue(generator, node);
+                generator.writeEndObject();
+            }
+            else {
+                Json.MAPPER.writeValue(generator, node);
+            }
+            generator.flush();
+            context.put(UNCOMPRESSED_BYTES_KEY, stream.getUncompressedBytes());
+            generator.close();  // closes the stream, ending the response
+        } catch (IOException e) {
+            logger.error("Failed to serialise response", e);
+            boolean committed = stream.isCommitted();
+            stream.discard();
+            if (committed) {
+                // part of the body has already gone; all we can do is cut the client off
+                response.close();
+                return;
+            }
             // should be impossible, but we're covered
-            text = "Server error";
+            response.setStatusCode(500);
+            response.end("Server error");
         }
-        response.end(text);
     }
 }
@@ -0,0 +1,238 @@
+package events.equaliser.java.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An output stream that serialises into a pooled Netty buffer and writes to an HTTP response.
+ * Bodies larger than CHUNK_SIZE are sent with chunked encoding as they are produced; smaller ones are sent in one go
+ * with a Content-Length.
+ * If the client accepts gzip or deflate and the body reaches MIN_COMPRESSION_SIZE, it is compressed on the fly;
+ * smaller bodies are sent as-is, as compression would cost more than it saves.
+ * N.B. Vert.x treats buffers it is given as unreleasable, so bytes are copied out of the pooled buffer before being
+ *      handed over; the pooled buffer itself is released when the stream is closed.
+ */
+public class ResponseOutputStream extends OutputStream {
+
+    /**
+     * The number of bytes after which the response switches to chunked encoding.
+     */
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * The smallest body worth compressing. Below this, headers and framing dominate anyway.
+     */
+    private static final int MIN_COMPRESSION_SIZE = 1024;
+
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
+    private final HttpServerResponse response;
+    private final ByteBuf buffer;
+    private final String encoding;
+    private OutputStream encoder;
+    private long uncompressedBytes;
+    private boolean closed;
+
+    /**
+     * Create a new stream for a response that will not be compressed.
+     *
+     * @param response The response to write to. Headers and status must be set before the first chunk is written.
+     */
+    public ResponseOutputStream(HttpServerResponse response) {
+        this(response, null);
+    }
+
+    /**
+     * Create a new stream for a response, compressing it if the client supports it.
+     *
+     * @param response The response to write to. Headers and status must be set before the first chunk is written.
+     * @param acceptEncoding The value of the request's Accept-Encoding header, or null if absent.
+     */
+    public ResponseOutputStream(HttpServerResponse response, String acceptEncoding) {
+        this.response = response;
+        this.buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(CHUNK_SIZE);
+        this.encoding = negotiateEncoding(acceptEncoding);
+    }
+
+    /**
+     * Pick the content coding to use for a response, preferring gzip over deflate.
+     *
+     * @param acceptEncoding The value of the request's Accept-Encoding header, or null if absent.
+     * @return "gzip", "deflate", or null if the response should not be compressed.
+     */
+    static String negotiateEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            boolean acceptable = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        acceptable = false;
+                    }
+                }
+            }
+            if (!acceptable) {
+                continue;
+            }
+            if (coding.equals(GZIP) || coding.equals("*")) {
+                gzip = true;
+            }
+            else if (coding.equals(DEFLATE)) {
+                deflate = true;
+            }
+        }
+        return gzip ? GZIP : deflate ? DEFLATE : null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        uncompressedBytes++;
+        if (encoder == null) {
+            buffer.writeByte(b);
+        }
+        else {
+            encoder.write(b);
+        }
+        if (buffer.readableBytes() >= CHUNK_SIZE) {
+            writeChunk();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        uncompressedBytes += len;
+        if (encoder == null) {
+            buffer.writeBytes(b, off, len);
+        }
+        else {
+            encoder.write(b, off, len);
+        }
+        if (buffer.readableBytes() >= CHUNK_SIZE) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Send what has been buffered so far as a chunk.
+     */
+    private void writeChunk() throws IOException {
+        if (encoder == null && encoding != null) {
+            startEncoding();
+            if (buffer.readableBytes() == 0) {
+                // the compressor is still holding everything
+                return;
+            }
+        }
+        if (!response.isChunked()) {
+            response.setChunked(true);
+        }
+        response.write(drain());
+    }
+
+    /**
+     * Switch to compressed output, compressing anything that was buffered before the decision was made.
+     */
+    private void startEncoding() throws IOException {
+        byte[] raw = new byte[buffer.readableBytes()];
+        buffer.readBytes(raw);
+        buffer.clear();
+        OutputStream out = new ByteBufOutputStream(buffer);
+        encoder = encoding.equals(GZIP) ? new GZIPOutputStream(out, CHUNK_SIZE) : new DeflaterOutputStream(out);
+        response.putHeader("Content-Encoding", encoding);
+        encoder.write(raw);
+    }
+
+    /**
+     * Copy the buffered bytes out into a Vert.x buffer, and reset the pooled buffer for reuse.
+     *
+     * @return The buffered bytes.
+     */
+    private Buffer drain() {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        buffer.clear();
+        return Buffer.buffer(Unpooled.wrappedBuffer(bytes));
+    }
+
+    /**
+     * Free the compressor's native memory, if one was created.
+     */
+    private void closeEncoder() throws IOException {
+        if (encoder != null) {
+            encoder.close();
+        }
+    }
+
+    /**
+     * Discard anything buffered without ending the response, e.g. if serialisation failed part way through.
+     */
+    public void discard() {
+        if (!closed) {
+            closed = true;
+            try {
+                closeEncoder();
+            } catch (IOException e) {
+                // we're throwing the output away anyway
+            } finally {
+                buffer.release();
+            }
+        }
+    }
+
+    /**
+     * Whether any bytes have already been sent to the client, in which case the status can no longer be changed.
+     *
+     * @return True if the response has been committed.
+     */
+    public boolean isCommitted() {
+        return response.isChunked();
+    }
+
+    /**
+     * Find how many bytes have been written to this stream, before any compression.
+     *
+     * @return The uncompressed body length so far.
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Send the remaining bytes and end the response.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (encoder == null && encoding != null && uncompressedBytes >= MIN_COMPRESSION_SIZE) {
+                startEncoding();
+            }
+            closeEncoder();  // writes out the remainder and any trailer
+            response.end(drain());
+        } finally {
+            buffer.release();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Methods for finishing database transactions started with setAutoCommit(false). The connection begins the
+ * transaction lazily with its first statement, and turning autocommit back on commits, so neither needs a round trip
+ * of its own.
+ */
+public class SqlTransaction {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlTransaction.class);
+
+    /**
+     * Commit a transaction and restore autocommit.
+     *
+     * @param connection The connection.
+     * @param handler Called once committed.
+     */
+    public static void commit(SQLConnection connection, Handler<AsyncResult<Void>> handler) {
+        connection.setAutoCommit(true, handler);
+    }
+
+    /**
+     * Abandon a transaction and restore autocommit, then fail.
+     *
+     * @param connection The connection.
+     * @param cause Why the transaction was abandoned.
+     * @param handler The handler to fail with the cause.
+     * @param <T> The type of result the handler expects.
+     */
+    public static <T> void rollback(SQLConnection connection, Throwable cause, Handler<AsyncResult<T>> handler) {
+        connection.rollback(rollbackRes -> {
+            if (rollbackRes.failed()) {
+                logger.warn("Failed to roll back", rollbackRes.cause());
+            }
+            connection.setAutoCommit(true, autoCommitRes -> handler.handle(Future.failedFuture(cause)));
+        });
+    }
+}
@@ -0,0 +1,136 @@
+package events.equaliser.java.util;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * An immutable, fixed-length binary value such as a session token or content hash. The hash code is computed once,
+ * equality is constant-time so comparisons leak nothing about where two tokens differ, and the hex and base64 forms
+ * are encoded at most once.
+ */
+public final class Token {
+
+    private final byte[] bytes;
+    private final int hash;
+    private String hex;  // racy but idempotent, like String.hash
+    private String base64;
+
+    private Token(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Create a token from existing bytes.
+     *
+     * @param bytes The raw value, which is copied.
+     * @return The token.
+     */
+    public static Token of(byte[] bytes) {
+        return new Token(bytes.clone());
+    }
+
+    /**
+     * Generate a new secure random token.
+     *
+     * @param length The length in bytes.
+     * @return The token.
+     */
+    public static Token random(int length) {
+        return new Token(Random.getBytes(length));
+    }
+
+    /**
+     * Parse a token from its hex representation.
+     *
+     * @param hex The hex string; upper or lower case.
+     * @return The token.
+     * @throws IllegalArgumentException If the string is not valid hex.
+     */
+    public static Token fromHex(String hex) {
+        Token token = new Token(Hex.hexToBin(hex));
+        token.hex = hex.toLowerCase();
+        return token;
+    }
+
+    /**
+     * Find the length of this token.
+     *
+     * @return The length in bytes.
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Read a single byte of this token without copying it.
+     *
+     * @param index The offset of the byte.
+     * @return The byte.
+     */
+    public byte byteAt(int index) {
+        return bytes[index];
+    }
+
+    /**
+     * Retrieve the raw value of this token.
+     *
+     * @return A copy of the bytes.
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Encode this token as lowercase hex, e.g. for returning to clients.
+     *
+     * @return The hex string, twice length() characters long.
+     */
+    public String toHex() {
+        String encoded = hex;
+        if (encoded == null) {
+            encoded = Hex.binToHex(bytes);
+            hex = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * Encode this token as base64, which is how binary parameters are passed to the database with FROM_BASE64().
+     *
+     * @return The base64 string.
+     */
+    public String toBase64() {
+        String encoded = base64;
+        if (encoded == null) {
+            encoded = Base64.getEncoder().encodeToString(bytes);
+            base64 = encoded;
+        }
+        return encoded;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Token)) {
+            return false;
+        }
+        return MessageDigest.isEqual(bytes, ((Token) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        // tokens are often secrets, so keep them out of logs
+        return "Token{" +
+                "length=" + bytes.length +
+                '}';
+    }
+}
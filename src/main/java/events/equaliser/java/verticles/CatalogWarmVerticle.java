@@ -0,0 +1,135 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.model.event.BareSeries;
+import events.equaliser.java.model.event.Fixture;
+import events.equaliser.java.model.geography.Country;
+import events.equaliser.java.util.Catalog;
+import events.equaliser.java.util.Drain;
+import events.equaliser.java.util.Metrics;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.MySQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fills the catalog cache on startup with what nearly every client asks for: countries, the showcase series, and the
+ * fixtures starting soonest. Startup does not wait for this; requests arriving first simply read through the cache.
+ * Also forgets cached entities when told they have been edited.
+ */
+public class CatalogWarmVerticle extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogWarmVerticle.class);
+
+    /**
+     * Forgets cached catalog entities. Messages are JSON objects with an optional "entity", the kind to forget, as
+     * accepted by Catalog.invalidate(), and an optional "key" to forget just one of them; with no entity, everything
+     * is forgotten.
+     */
+    public static final String CATALOG_INVALIDATE_ADDRESS = "catalog.invalidate";
+
+    private static final int DEFAULT_WARM_FIXTURES = 1_000;
+
+    private AsyncSQLClient client;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        client = MySQLClient.createShared(vertx,
+                config().getJsonObject("database"),
+                CatalogWarmVerticle.class.getCanonicalName());
+
+        vertx.eventBus().consumer(CATALOG_INVALIDATE_ADDRESS, this::invalidate);
+
+        JsonObject catalog = config().getJsonObject("catalog", new JsonObject());
+        int warmFixtures = catalog.getInteger("warmFixtures", DEFAULT_WARM_FIXTURES);
+        if (Drain.enter()) {
+            long startNanos = System.nanoTime();
+            warm(warmFixtures, warmRes -> {
+                Drain.exit();
+                if (warmRes.failed()) {
+                    logger.warn("Catalog cache not warmed", warmRes.cause());
+                    return;
+                }
+                logger.info("Warmed catalog cache with {} fixtures in {}ms",
+                        warmRes.result(), (System.nanoTime() - startNanos) / 1_000_000);
+            });
+        }
+        startFuture.complete();
+    }
+
+    /**
+     * Load countries, showcase series and upcoming fixtures into the catalog cache.
+     *
+     * @param fixtures The most fixtures to load.
+     * @param handler The handler to pass the number of fixtures loaded to.
+     */
+    private void warm(int fixtures, Handler<AsyncResult<Integer>> handler) {
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                handler.handle(Future.failedFuture(connRes.cause()));
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            Country.retrieveAll(connection, countriesRes -> {
+                if (countriesRes.failed()) {
+                    connection.close(closeRes -> handler.handle(Future.failedFuture(countriesRes.cause())));
+                    return;
+                }
+
+                BareSeries.retrieveShowcase(connection, seriesRes -> {
+                    if (seriesRes.failed()) {
+                        connection.close(closeRes -> handler.handle(Future.failedFuture(seriesRes.cause())));
+                        return;
+                    }
+
+                    Fixture.preloadUpcoming(fixtures, connection, fixturesRes ->
+                            connection.close(closeRes -> handler.handle(fixturesRes)));
+                });
+            });
+        });
+    }
+
+    /**
+     * Forget the cached entities a message asks for.
+     *
+     * @param message The message, optionally containing "entity" and "key".
+     */
+    private void invalidate(Message<Object> message) {
+        JsonObject body = message.body() instanceof JsonObject ? (JsonObject)message.body() : new JsonObject();
+        String entity = body.getString("entity");
+        try {
+            if (entity == null) {
+                Catalog.invalidateAll();
+            }
+            else {
+                Catalog.invalidate(entity, body.getValue("key"));
+            }
+        } catch (IllegalArgumentException e) {
+            message.fail(400, e.getMessage());
+            return;
+        }
+        Metrics.increment("catalog.invalidations");
+        logger.info("Invalidated catalog cache: {}", entity == null ? "everything" : body.encode());
+        message.reply(new JsonObject().put("success", true));
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
+            if (handler.succeeded()) {
+                stopFuture.complete();
+            }
+            else {
+                stopFuture.fail(handler.cause());
+            }
+        }));
+    }
+}
@@ -0,0 +1,127 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.model.group.FixtureAttendees;
+import events.equaliser.java.util.Drain;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.MySQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+
+/**
+ * Loads who is waiting for or offered tickets to each fixture into FixtureAttendees, then keeps it up to date.
+ * Groups created since the last poll, including through other instances, are added frequently; everything is
+ * reloaded less often to pick up groups whose tiers have since been changed. Until loading finishes, group creation
+ * checks the database as before.
+ */
+public class FixtureAttendeesVerticle extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(FixtureAttendeesVerticle.class);
+
+    private static final int DEFAULT_REFRESH_MILLIS = 5_000;
+    private static final int DEFAULT_REBUILD_MILLIS = 600_000;
+    private static final int DEFAULT_SETTLE_MILLIS = 60_000;
+
+    private AsyncSQLClient client;
+    private long rebuildNanos;
+    private long settleMillis;
+    private long lastBuiltNanos;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        client = MySQLClient.createShared(vertx,
+                config().getJsonObject("database"),
+                FixtureAttendeesVerticle.class.getCanonicalName());
+
+        JsonObject fixtureAttendees = config().getJsonObject("fixtureAttendees", new JsonObject());
+        rebuildNanos = fixtureAttendees.getInteger("rebuildMillis", DEFAULT_REBUILD_MILLIS) * 1_000_000L;
+        settleMillis = fixtureAttendees.getInteger("settleMillis", DEFAULT_SETTLE_MILLIS);
+        int refreshMillis = fixtureAttendees.getInteger("refreshMillis", DEFAULT_REFRESH_MILLIS);
+
+        refresh(refreshRes -> {
+            if (refreshRes.failed()) {
+                logger.warn("Fixture attendees not loaded; will retry", refreshRes.cause());
+            }
+            new PeriodicJob(vertx, FixtureAttendeesVerticle.class.getName(), refreshMillis, this::refresh).start();
+        });
+        startFuture.complete();
+    }
+
+    /**
+     * Add attendees of new groups, or reload everything if not yet loaded or due to be.
+     *
+     * @param handler Called when finished.
+     */
+    private void refresh(Handler<AsyncResult<Void>> handler) {
+        boolean rebuild = !FixtureAttendees.isReady() || System.nanoTime() - lastBuiltNanos > rebuildNanos;
+        // even when rebuilding, groups up to the last settled one are still settled
+        int lastSettledGroupId = FixtureAttendees.getSettledGroupId();
+        int afterGroupId = rebuild ? 0 : lastSettledGroupId;
+        long startNanos = System.nanoTime();
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                handler.handle(Future.failedFuture(connRes.cause()));
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            // find which groups are settled first, so all of their attendees are read below
+            FixtureAttendees.retrieveSettledGroupId(lastSettledGroupId,
+                    OffsetDateTime.now().minusNanos(settleMillis * 1_000_000L), connection, settledRes -> {
+                if (settledRes.failed()) {
+                    connection.close(closeRes -> handler.handle(Future.failedFuture(settledRes.cause())));
+                    return;
+                }
+
+                int settledGroupId = settledRes.result();
+                FixtureAttendees.retrieveAfter(afterGroupId, connection, attendeesRes -> connection.close(closeRes -> {
+                    if (attendeesRes.failed()) {
+                        handler.handle(Future.failedFuture(attendeesRes.cause()));
+                        return;
+                    }
+
+                    Map<Integer, int[]> attendees = attendeesRes.result();
+                    if (!rebuild) {
+                        FixtureAttendees.addSettled(attendees, settledGroupId);
+                        handler.handle(Future.succeededFuture());
+                        return;
+                    }
+                    vertx.executeBlocking(code -> {
+                        FixtureAttendees.replace(attendees, settledGroupId);
+                        code.complete();
+                    }, false, buildRes -> {
+                        if (buildRes.failed()) {
+                            handler.handle(Future.failedFuture(buildRes.cause()));
+                            return;
+                        }
+                        lastBuiltNanos = startNanos;
+                        logger.info("Loaded attendees of {} fixtures up to group {} in {}ms", attendees.size(),
+                                settledGroupId, (System.nanoTime() - startNanos) / 1_000_000);
+                        handler.handle(Future.succeededFuture());
+                    });
+                }));
+            });
+        });
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
+            if (handler.succeeded()) {
+                stopFuture.complete();
+            }
+            else {
+                stopFuture.fail(handler.cause());
+            }
+        }));
+    }
+}
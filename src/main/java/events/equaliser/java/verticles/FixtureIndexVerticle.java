@@ -0,0 +1,121 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.model.event.FixtureIndex;
+import events.equaliser.java.model.event.FixtureListing;
+import events.equaliser.java.model.event.UpcomingFixtures;
+import events.equaliser.java.util.Drain;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.MySQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * Loads every fixture that has not yet finished into memory, and keeps them up to date. New fixtures are polled for
+ * frequently and added to a new index built from the old one, dropping any that have since finished; since fixtures
+ * can also be moved or cancelled, everything is reloaded from the database less often. Indices are built on a worker
+ * and swapped in once complete.
+ */
+public class FixtureIndexVerticle extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(FixtureIndexVerticle.class);
+
+    private static final int DEFAULT_REFRESH_MILLIS = 10_000;
+    private static final int DEFAULT_REBUILD_MILLIS = 600_000;
+
+    private AsyncSQLClient client;
+    private long rebuildNanos;
+    private long lastBuiltNanos;
+    private int maxId;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        client = MySQLClient.createShared(vertx,
+                config().getJsonObject("database"),
+                FixtureIndexVerticle.class.getCanonicalName());
+
+        JsonObject upcomingFixtures = config().getJsonObject("upcomingFixtures", new JsonObject());
+        rebuildNanos = upcomingFixtures.getInteger("rebuildMillis", DEFAULT_REBUILD_MILLIS) * 1_000_000L;
+        int refreshMillis = upcomingFixtures.getInteger("refreshMillis", DEFAULT_REFRESH_MILLIS);
+
+        refresh(refreshRes -> {
+            if (refreshRes.failed()) {
+                logger.warn("Upcoming fixtures not loaded; will retry", refreshRes.cause());
+            }
+            new PeriodicJob(vertx, FixtureIndexVerticle.class.getName(), refreshMillis, this::refresh).start();
+        });
+        startFuture.complete();
+    }
+
+    /**
+     * Add new fixtures to the index, or reload it if it has not been loaded or is due to be.
+     *
+     * @param handler Called when finished.
+     */
+    private void refresh(Handler<AsyncResult<Void>> handler) {
+        FixtureIndex current = UpcomingFixtures.isReady() ? UpcomingFixtures.getIndex() : null;
+        boolean rebuild = current == null || System.nanoTime() - lastBuiltNanos > rebuildNanos;
+        int afterId = rebuild ? 0 : maxId;
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                handler.handle(Future.failedFuture(connRes.cause()));
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            FixtureListing.retrieveUpcoming(afterId, connection, fixturesRes -> connection.close(closeRes -> {
+                if (fixturesRes.failed()) {
+                    handler.handle(Future.failedFuture(fixturesRes.cause()));
+                    return;
+                }
+
+                List<FixtureListing> fixtures = fixturesRes.result();
+                if (!rebuild && fixtures.isEmpty()) {
+                    handler.handle(Future.succeededFuture());
+                    return;
+                }
+                long startNanos = System.nanoTime();
+                vertx.<FixtureIndex>executeBlocking(code -> code.complete(rebuild ?
+                        new FixtureIndex(fixtures) : current.with(fixtures, OffsetDateTime.now())), false, buildRes -> {
+                    if (buildRes.failed()) {
+                        handler.handle(Future.failedFuture(buildRes.cause()));
+                        return;
+                    }
+
+                    FixtureIndex index = buildRes.result();
+                    UpcomingFixtures.setIndex(index);
+                    for (FixtureListing fixture : fixtures) {
+                        maxId = Math.max(maxId, fixture.getId());
+                    }
+                    if (rebuild) {
+                        lastBuiltNanos = startNanos;
+                    }
+                    logger.info("{} upcoming fixtures index with {} fixtures in {}ms",
+                            rebuild ? "Built" : "Updated", index.size(), (System.nanoTime() - startNanos) / 1_000_000);
+                    handler.handle(Future.succeededFuture());
+                });
+            }));
+        });
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
+            if (handler.succeeded()) {
+                stopFuture.complete();
+            }
+            else {
+                stopFuture.fail(handler.cause());
+            }
+        }));
+    }
+}
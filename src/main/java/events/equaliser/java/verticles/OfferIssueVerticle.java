@@ -4,6 +4,7 @@ import co.paralleluniverse.fibers.Suspendable;
 import events.equaliser.java.model.event.Tier;
 import events.equaliser.java.model.group.Group;
 import events.equaliser.java.model.ticket.Offer;
+import events.equaliser.java.util.Drain;
 import io.vertx.core.*;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
@@ -35,34 +36,22 @@ public class OfferIssueVerticle extends AbstractVerticle {
                 config().getJsonObject("database"),
                 OfferIssueVerticle.class.getCanonicalName());
 
-        Handler<Long> handler = new Handler<Long>() {
-            @Override
-            public void handle(Long event) {
-                execute(res -> {
-                    if (res.succeeded()) {
-                        logger.debug("finished periodic run successfully");
-                    }
-                    else {
-                        logger.error("finished with error", res.cause());
-                    }
-                    vertx.setTimer(INTERVAL_MILLIS, this);
-                });
-            }
-        };
-        vertx.setTimer(INTERVAL_MILLIS, handler);
+        new PeriodicJob(vertx, OfferIssueVerticle.class.getName(), INTERVAL_MILLIS, this::execute).start();
         startFuture.complete();
     }
 
     @Override
     public void stop(Future<Void> stopFuture) throws Exception {
-        client.close(handler -> {
+        // let any run in progress finish first
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
             if (handler.succeeded()) {
                 stopFuture.complete();
             }
             else {
                 stopFuture.fail(handler.cause());
             }
-        });
+        }));
     }
 
     @Suspendable
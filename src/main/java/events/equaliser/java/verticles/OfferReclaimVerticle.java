@@ -1,5 +1,6 @@
 package events.equaliser.java.verticles;
 
+import events.equaliser.java.util.Drain;
 import events.equaliser.java.util.Json;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
@@ -37,21 +38,7 @@ public class OfferReclaimVerticle extends AbstractVerticle {
                 config().getJsonObject("database"),
                 OfferReclaimVerticle.class.getCanonicalName());
 
-        Handler<Long> handler = new Handler<Long>() {
-            @Override
-            public void handle(Long event) {
-                execute(res -> {
-                    if (res.succeeded()) {
-                        logger.debug("{} finished periodic run successfully", OfferReclaimVerticle.class.getName());
-                    }
-                    else {
-                        logger.error("{} finished prematurely with error", res.cause());
-                    }
-                    vertx.setTimer(INTERVAL_MILLIS, this);
-                });
-            }
-        };
-        vertx.setTimer(INTERVAL_MILLIS, handler);
+        new PeriodicJob(vertx, OfferReclaimVerticle.class.getName(), INTERVAL_MILLIS, this::execute).start();
         startFuture.complete();
     }
 
@@ -129,13 +116,15 @@ public class OfferReclaimVerticle extends AbstractVerticle {
 
     @Override
     public void stop(Future<Void> stopFuture) throws Exception {
-        client.close(handler -> {
+        // let any run in progress finish first
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
             if (handler.succeeded()) {
                 stopFuture.complete();
             }
             else {
                 stopFuture.fail(handler.cause());
             }
-        });
+        }));
     }
 }
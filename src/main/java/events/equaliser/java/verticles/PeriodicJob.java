@@ -0,0 +1,73 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.util.Drain;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Consumer;
+
+/**
+ * Runs a background task repeatedly, waiting a fixed interval after each run finishes. Runs count as in-flight work
+ * for a drain, and no new run starts once a drain has begun.
+ */
+class PeriodicJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeriodicJob.class);
+
+    private final Vertx vertx;
+    private final String name;
+    private final long intervalMillis;
+    private final Consumer<Handler<AsyncResult<Void>>> task;
+
+    /**
+     * Create a new job. It will not run until started.
+     *
+     * @param vertx The Vert.x instance to set timers on.
+     * @param name A name for the job, used for logging.
+     * @param intervalMillis The time to wait between the end of one run and the start of the next.
+     * @param task The task, which must call its handler exactly once when finished.
+     */
+    PeriodicJob(Vertx vertx, String name, long intervalMillis, Consumer<Handler<AsyncResult<Void>>> task) {
+        this.vertx = vertx;
+        this.name = name;
+        this.intervalMillis = intervalMillis;
+        this.task = task;
+    }
+
+    /**
+     * Schedule the first run.
+     */
+    void start() {
+        vertx.setTimer(intervalMillis, id -> run());
+    }
+
+    private void run() {
+        if (Drain.isDraining() || !Drain.enter()) {
+            logger.debug("{} not running as draining", name);
+            return;
+        }
+        /*
+        If the task fails in an async bit, it will respond via the handler, otherwise it throws an exception.
+         */
+        try {
+            task.accept(res -> {
+                Drain.exit();
+                if (res.succeeded()) {
+                    logger.debug("{} finished periodic run successfully", name);
+                }
+                else {
+                    logger.error("{} finished prematurely with error", name, res.cause());
+                }
+                vertx.setTimer(intervalMillis, id -> run());
+            });
+        } catch (VertxException e) {
+            Drain.exit();
+            logger.error("{} finished with error", name, e);
+            vertx.setTimer(intervalMillis, id -> run());
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package events.equaliser.java.verticles;
 
+import events.equaliser.java.util.Drain;
+import events.equaliser.java.util.Json;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.file.FileSystem;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.asyncsql.AsyncSQLClient;
@@ -15,6 +19,7 @@ import io.vertx.ext.sql.SQLConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -31,6 +36,11 @@ public class PrimaryPoolVerticle extends AbstractVerticle {
 
     AsyncSQLClient client;
 
+    /**
+     * Tier ID -> tickets remaining. Only touched on this verticle's context.
+     */
+    private Map<Integer, Integer> availability;
+
     @Override
     public void start(Future<Void> startFuture) throws Exception {
         client = MySQLClient.createShared(vertx,
@@ -46,7 +56,86 @@ public class PrimaryPoolVerticle extends AbstractVerticle {
             future.fail(g.cause());
             return;
         }
-        processInitialData(future, g.result());
+        restoreSnapshot(g.result(), restored -> {
+            availability = restored;
+            processInitialData(future, restored);
+        });
+    }
+
+    /**
+     * Find where this pool's state is written when it stops.
+     *
+     * @return The snapshot path, or null if snapshots are not configured.
+     */
+    private String snapshotPath() {
+        JsonObject pools = config().getJsonObject("pools");
+        if (pools == null || pools.getString("snapshotDirectory") == null) {
+            return null;
+        }
+        return Paths.get(pools.getString("snapshotDirectory"), getClass().getSimpleName() + ".json").toString();
+    }
+
+    /**
+     * Overlay the counts saved by the previous instance of this pool on top of those derived from the database, so
+     * reservations survive a restart. The snapshot is deleted once read, so a later crash cannot resurrect it.
+     *
+     * @param initial The counts derived from the database.
+     * @param handler Receives the counts to start with. Never fails; an unreadable snapshot is ignored.
+     */
+    private void restoreSnapshot(Map<Integer, Integer> initial,
+                                 Handler<Map<Integer, Integer>> handler) {
+        String path = snapshotPath();
+        if (path == null) {
+            handler.handle(initial);
+            return;
+        }
+        FileSystem fs = vertx.fileSystem();
+        fs.readFile(path, readRes -> {
+            if (readRes.failed()) {
+                logger.debug("No pool snapshot restored from {}", path);
+                handler.handle(initial);
+                return;
+            }
+            try {
+                JsonObject snapshot = readRes.result().toJsonObject();
+                int restored = 0;
+                for (Map.Entry<String, Object> entry : snapshot) {
+                    Integer tierId = Integer.parseInt(entry.getKey());
+                    if (initial.containsKey(tierId)) {
+                        initial.put(tierId, (Integer)entry.getValue());
+                        restored++;
+                    }
+                }
+                logger.info("Restored {} tiers from pool snapshot {}", restored, path);
+            } catch (RuntimeException e) {
+                logger.warn("Ignoring unreadable pool snapshot {}", path, e);
+            }
+            fs.delete(path, deleteRes -> handler.handle(initial));
+        });
+    }
+
+    /**
+     * Save the current counts, so the next instance of this pool can pick up where this one left off.
+     *
+     * @param handler Called once the snapshot is written, or has failed to be.
+     */
+    private void saveSnapshot(Handler<Void> handler) {
+        String path = snapshotPath();
+        if (path == null || availability == null) {
+            handler.handle(null);
+            return;
+        }
+        FileSystem fs = vertx.fileSystem();
+        fs.mkdirs(Paths.get(path).getParent().toString(), dirRes ->
+                fs.writeFile(path, Buffer.buffer(Json.toJsonObject(availability).encode()), writeRes -> {
+                    if (writeRes.failed()) {
+                        logger.error("Failed to write pool snapshot {}", path, writeRes.cause());
+                    }
+                    else {
+                        logger.info("Wrote pool snapshot of {} tiers to {}", availability.size(), path);
+                    }
+                    handler.handle(null);
+                }));
     }
 
     protected void processInitialData(Future<Void> startFuture,
@@ -64,14 +153,16 @@ public class PrimaryPoolVerticle extends AbstractVerticle {
 
     @Override
     public void stop(Future<Void> stopFuture) throws Exception {
-        client.close(handler -> {
+        // requests and jobs may still be reserving tickets; only save once they're done
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> saveSnapshot(saved -> client.close(handler -> {
             if (handler.succeeded()) {
                 stopFuture.complete();
             }
             else {
                 stopFuture.fail(handler.cause());
             }
-        });
+        })));
     }
 
     protected void getInitialData(Handler<AsyncResult<Map<Integer, Integer>>> handler) {
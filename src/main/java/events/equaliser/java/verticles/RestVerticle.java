@@ -3,20 +3,40 @@ package events.equaliser.java.verticles;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.twilio.Twilio;
 import events.equaliser.java.auth.Session;
+import events.equaliser.java.auth.SessionActivity;
+import events.equaliser.java.auth.SessionTokens;
 import events.equaliser.java.handlers.*;
 import events.equaliser.java.model.geography.Country;
-import events.equaliser.java.util.Hex;
+import events.equaliser.java.model.user.UserCache;
+import events.equaliser.java.model.user.UsernameDirectory;
+import events.equaliser.java.util.AdmissionControl;
+import events.equaliser.java.util.AdmissionControl.Priority;
+import events.equaliser.java.util.Catalog;
+import events.equaliser.java.util.Deadline;
+import events.equaliser.java.util.DeadlineConnection;
+import events.equaliser.java.util.DeadlineExceededException;
+import events.equaliser.java.util.Drain;
+import events.equaliser.java.util.Fanout;
 import events.equaliser.java.util.Json;
+import events.equaliser.java.util.Metrics;
+import events.equaliser.java.util.Network;
 import events.equaliser.java.util.Request;
+import events.equaliser.java.util.Token;
 import events.equaliser.java.util.TriConsumer;
 import io.vertx.core.*;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JksOptions;
 import io.vertx.ext.asyncsql.AsyncSQLClient;
 import io.vertx.ext.asyncsql.MySQLClient;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.web.Route;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
@@ -41,18 +61,62 @@ public class RestVerticle extends AbstractVerticle {
             new SecondaryPoolVerticle(),
             new OfferIssueVerticle(),
             new OfferReclaimVerticle(),
-            new TicketNotificationVerticle());
+            new TicketNotificationVerticle(),
+            new SessionRevocationVerticle(),
+            new RetentionVerticle(),
+            new SecurityEventVerticle(),
+            new UsernameIndexVerticle(),
+            new SeriesIndexVerticle(),
+            new FixtureIndexVerticle(),
+            new FixtureAttendeesVerticle(),
+            new CatalogWarmVerticle());
+
+    /**
+     * The context key holding the System.nanoTime() at which a request arrived.
+     */
+    private static final String START_KEY = "start";
+
+    /**
+     * The context key holding a request's deadline, once it has been calculated.
+     */
+    private static final String DEADLINE_KEY = "deadline";
+
+    /**
+     * The time budget of a request if none is configured for its priority.
+     */
+    private static final long DEFAULT_BUDGET_MILLIS = 5000;
+
+    /**
+     * The address the management server listens on if none is configured.
+     */
+    private static final String DEFAULT_MANAGEMENT_HOST = "127.0.0.1";
 
     private static final int KB = 1024;
     private static final int MB = 1024 * KB;
 
     private AsyncSQLClient client;
+    private HttpServer server;
+    private HttpServer managementServer;
+    private AdmissionControl admission;
+    private JsonObject budgets;
 
     @Override
     public void start(Future<Void> startFuture) throws Exception {
         client = MySQLClient.createShared(vertx,
                 config().getJsonObject("database"), RestVerticle.class.getCanonicalName());
 
+        admission = new AdmissionControl(config().getJsonObject("admission", new JsonObject()));
+        admission.start(vertx);
+        budgets = config().getJsonObject("deadlines", new JsonObject());
+        Fanout.configure(config().getJsonObject("fanout", new JsonObject()));
+        Catalog.configure(config().getJsonObject("catalog", new JsonObject()));
+        UserCache.configure(config().getJsonObject("userCache", new JsonObject()));
+        Network.configure(config().getJsonObject("network", new JsonObject()));
+
+        JsonObject sessions = config().getJsonObject("sessions", new JsonObject());
+        SessionTokens.configure(sessions);
+        SessionActivity.configure(sessions);
+
         JsonObject twilio = config().getJsonObject("twilio");
         Twilio.init(
                 twilio.getString("sid"),
@@ -63,28 +127,57 @@ public class RestVerticle extends AbstractVerticle {
         router.route().handler(context -> {
             HttpServerRequest request = context.request();
             logger.info("{} {}", request.method(), request.uri());
+            context.put(START_KEY, System.nanoTime());
             context.response().putHeader("Access-Control-Allow-Origin", "*");
+            context.addBodyEndHandler(ended -> recordMetrics(context));
             context.next();
         });
         router.route("/images/*").handler(StaticHandler.create()
                 .setWebRoot("images"));
 
+        router.get("/health/live").handler(
+                routingContext -> Request.writeSuccessResponse(routingContext, Json.FACTORY.textNode("live")));
+        router.get("/health/ready").handler(this::getReady);
+
+        // refuse new work once a drain's grace period has passed; everything else is tracked until it completes
+        router.route().handler(this::trackInFlight);
+
+        // admission control - the first matching route decides a request's priority; catalog reads are shed first
+        router.post("/group/:id/pay").handler(admission.handler(Priority.CRITICAL));
+        router.route("/auth/*").handler(admission.handler(Priority.CRITICAL));
+        router.post("/register").handler(admission.handler(Priority.CRITICAL));
+        router.post("/group/*").handler(admission.handler(Priority.WRITE));
+        router.route().handler(admission.handler(Priority.READ));
+
         // TODO add security headers: http://vertx.io/blog/writing-secure-vert-x-web-apps/
 
         router.get("/series/tag/:tag").handler(
                 routingContext -> databaseJsonHandler(routingContext, Series::getByTag));
+        router.get("/series/search").handler(
+                routingContext -> databaseJsonHandler(routingContext, Series::getSearch));
         router.get("/series/showcase").handler(
                 routingContext -> databaseJsonHandler(routingContext, Series::getShowcase));
         router.get("/series/:id").handler(
                 routingContext -> databaseJsonHandler(routingContext, Series::getId));
+        router.get("/fixtures/near").handler(
+                routingContext -> jsonHandler(routingContext, Fixtures::getNear));
+        router.get("/fixtures/calendar").handler(
+                routingContext -> jsonHandler(routingContext, Fixtures::getCalendar));
         router.get("/fixtures/:id").handler(
                 routingContext -> databaseJsonHandler(routingContext, Fixtures::getId));
         router.get("/countries").handler(
                 routingContext -> databaseJsonHandler(routingContext, this::getCountries));
         router.route("/countries/*").handler(StaticHandler.create()
                 .setWebRoot("countries"));
-        router.get("/usernames").handler(
-                routingContext -> databaseJsonHandler(routingContext, Account::getUsernames));
+        router.get("/usernames").handler(routingContext -> {
+            // answered from memory once the index has loaded
+            if (UsernameDirectory.isReady()) {
+                jsonHandler(routingContext, Account::getUsernames);
+            }
+            else {
+                databaseJsonHandler(routingContext, Account::getUsernames);
+            }
+        });
 
         router.post("/register").handler(
                 routingContext -> databaseJsonHandler(routingContext, Account::postRegister));
@@ -100,8 +193,7 @@ public class RestVerticle extends AbstractVerticle {
                 routingContext -> databaseJsonHandler(routingContext, Fixtures::getAddAvailability));
 
         // all endpoints past this point require authentication
-        router.route().handler(
-                routingContext -> databaseHandler(routingContext, this::authenticate));
+        router.route().handler(this::authenticate);
 
         router.get("/auth/ephemeral").handler(
                 routingContext -> databaseHandler(routingContext, Auth::getAuthEphemeral));
@@ -121,6 +213,8 @@ public class RestVerticle extends AbstractVerticle {
         router.get("/account/security-events").handler(
                 routingContext -> databaseJsonHandler(routingContext, Account::getSecurityEvents));
 
+        startManagement(config().getJsonObject("management", new JsonObject()));
+
         List<Future> futures = new ArrayList<>();
         for (Verticle verticle : VERTICLES) {
             Future<String> future = Future.future();
@@ -132,10 +226,9 @@ public class RestVerticle extends AbstractVerticle {
                 logger.error("Failed to launch one or more verticles", launched.cause());
             }
             else {
-                int listenPort = config()
-                        .getJsonObject("webserver")
-                        .getInteger("port");
-                HttpServer server = vertx.createHttpServer();
+                JsonObject webserver = config().getJsonObject("webserver");
+                int listenPort = webserver.getInteger("port");
+                server = vertx.createHttpServer(serverOptions(webserver));
                 server.requestHandler(router::accept).listen(listenPort, handler -> {
                     if (!handler.succeeded()) {
                         logger.error("Failed to listen on port {}", listenPort);
@@ -146,19 +239,134 @@ public class RestVerticle extends AbstractVerticle {
         });
     }
 
+    /**
+     * Serve operational endpoints, /metrics and /catalog/invalidate, on a port of their own. They reveal internal
+     * counters and drop cached data, so are kept off the public API; by default only connections from the local
+     * machine are accepted. POST /catalog/invalidate takes the same JSON body as
+     * CatalogWarmVerticle.CATALOG_INVALIDATE_ADDRESS, and should be called after editing the catalog by hand.
+     *
+     * @param management The management configuration, with "port" and optionally "host"; without a port, nothing is
+     *                   served.
+     */
+    private void startManagement(JsonObject management) {
+        Integer port = management.getInteger("port");
+        if (port == null) {
+            return;
+        }
+        String host = management.getString("host", DEFAULT_MANAGEMENT_HOST);
+
+        Router router = Router.router(vertx);
+        router.get("/metrics").handler(routingContext ->
+                Request.writeResponse(routingContext, Json.FACTORY.pojoNode(Metrics.snapshot()), 200));
+        router.post("/catalog/invalidate").handler(BodyHandler.create().setBodyLimit(MB));
+        router.post("/catalog/invalidate").handler(routingContext -> {
+            String body = routingContext.getBodyAsString();
+            JsonObject message;
+            try {
+                message = body == null || body.trim().isEmpty() ? new JsonObject() : new JsonObject(body);
+            } catch (DecodeException e) {
+                Request.writeErrorResponse(routingContext, "Body must be a JSON object");
+                return;
+            }
+            vertx.eventBus().send(CatalogWarmVerticle.CATALOG_INVALIDATE_ADDRESS, message, reply -> {
+                if (reply.failed()) {
+                    Request.writeErrorResponse(routingContext, reply.cause().getMessage());
+                }
+                else {
+                    Request.writeSuccessResponse(routingContext, Json.FACTORY.objectNode());
+                }
+            });
+        });
+
+        managementServer = vertx.createHttpServer();
+        managementServer.requestHandler(router::accept).listen(port, host, handler -> {
+            if (!handler.succeeded()) {
+                logger.error("Failed to listen for management requests on {}:{}", host, port);
+            }
+        });
+    }
+
+    /**
+     * Build the options for the API server. Cleartext HTTP/2 (h2c) is always accepted alongside HTTP/1.1, both via
+     * an Upgrade and with prior knowledge; if an "ssl" block is configured, TLS is enabled and h2 is negotiated with
+     * ALPN. Compression is done by Request as bodies are serialised, so is not enabled here.
+     *
+     * @param webserver The webserver configuration.
+     * @return The server options.
+     */
+    private static HttpServerOptions serverOptions(JsonObject webserver) {
+        HttpServerOptions options = new HttpServerOptions()
+                .setAlpnVersions(Arrays.asList(HttpVersion.HTTP_2, HttpVersion.HTTP_1_1));
+        JsonObject ssl = webserver.getJsonObject("ssl");
+        if (ssl != null) {
+            options.setSsl(true)
+                    .setUseAlpn(true)
+                    .setKeyStoreOptions(new JksOptions()
+                            .setPath(ssl.getString("keyStore"))
+                            .setPassword(ssl.getString("password")));
+        }
+        return options;
+    }
+
+    /**
+     * Record request and response sizes against the route that handled a request, once its body has been sent.
+     * bytes_out is what went over the wire; bytes_uncompressed is what it would have been without compression.
+     *
+     * @param context The context of the finished request.
+     */
+    private static void recordMetrics(RoutingContext context) {
+        HttpServerRequest request = context.request();
+        HttpServerResponse response = context.response();
+        Route route = context.currentRoute();
+        String path = route == null || route.getPath() == null ? "*" : route.getPath();
+        String prefix = String.format("http.%s %s.", request.method(), path);
+
+        Buffer body = context.getBody();
+        long written = response.bytesWritten();
+        Long uncompressed = context.get(Request.UNCOMPRESSED_BYTES_KEY);
+        Metrics.increment(prefix + "requests");
+        Metrics.increment(prefix + "status." + response.getStatusCode());
+        Metrics.increment(prefix + "bytes_in", body == null ? 0 : body.length());
+        Metrics.increment(prefix + "bytes_out", written);
+        Metrics.increment(prefix + "bytes_uncompressed", uncompressed == null ? written : uncompressed);
+    }
+
     // REMEMBER TO CLOSE THE CONNECTION WHEN YOU'VE FINISHED WITH IT!
     private void databaseHandler(RoutingContext context,
                                  BiConsumer<RoutingContext, SQLConnection> consumer) {
+        admission.connectionRequested();
         client.getConnection(connection -> {
+            admission.connectionReceived();
             if (connection.succeeded()) {
-                consumer.accept(context, connection.result());
+                Deadline deadline = deadline(context);
+                if (deadline.isExpired()) {
+                    // spent the whole budget waiting for the pool
+                    connection.result().close();
+                    writeDeadlineExceededResponse(context);
+                    return;
+                }
+                consumer.accept(context, new DeadlineConnection(connection.result(), deadline, this::fork));
             }
             else {
-                Request.writeErrorResponse(context.response(),"Failed to get a database connection from the pool");
+                Request.writeErrorResponse(context, "Failed to get a database connection from the pool");
             }
         });
     }
 
+    /**
+     * Get an extra connection for a request that already holds one, unless other requests are still waiting for
+     * their first.
+     *
+     * @param handler The handler to pass the connection to.
+     */
+    private void fork(Handler<AsyncResult<SQLConnection>> handler) {
+        if (admission.isPoolContended()) {
+            handler.handle(Future.failedFuture("Database pool contended"));
+            return;
+        }
+        client.getConnection(handler);
+    }
+
     // CONNECTION CLOSED FOR YOU - DON'T CLOSE IT
     private void databaseJsonHandler(RoutingContext context,
                                      TriConsumer<RoutingContext,
@@ -166,51 +374,183 @@ public class RestVerticle extends AbstractVerticle {
                                          Handler<AsyncResult<JsonNode>>> consumer) {
         databaseHandler(context, (routingContext, connection) ->
                 consumer.accept(context, connection, done -> connection.close(closed -> {
-            HttpServerResponse response = context.response();
             if (done.succeeded()) {
-                Request.writeSuccessResponse(response, done.result());
+                Request.writeSuccessResponse(context, done.result());
+            }
+            else if (done.cause() instanceof DeadlineExceededException) {
+                writeDeadlineExceededResponse(context);
             }
             else {
                 logger.error("Request finished with error", done.cause());
-                Request.writeErrorResponse(response, done.cause().getMessage());
+                Request.writeErrorResponse(context, done.cause().getMessage());
             }
         })));
     }
 
-    private void authenticate(RoutingContext context,
-                              SQLConnection connection) {
+    private void jsonHandler(RoutingContext context,
+                             BiConsumer<RoutingContext, Handler<AsyncResult<JsonNode>>> consumer) {
+        consumer.accept(context, done -> {
+            if (done.succeeded()) {
+                Request.writeSuccessResponse(context, done.result());
+            }
+            else {
+                logger.error("Request finished with error", done.cause());
+                Request.writeErrorResponse(context, done.cause().getMessage());
+            }
+        });
+    }
+
+    /**
+     * Report whether this node should be sent traffic. Fails as soon as a drain begins.
+     *
+     * @param context The routing context.
+     */
+    private void getReady(RoutingContext context) {
+        if (Drain.isDraining()) {
+            Request.writeResponse(context, Request.errorResponse("Draining"), 503);
+        }
+        else {
+            Request.writeSuccessResponse(context, Json.FACTORY.textNode("ready"));
+        }
+    }
+
+    /**
+     * Count a request as in flight until its response ends or its connection closes, or turn it away if this node
+     * has finished its drain grace period.
+     *
+     * @param context The routing context.
+     */
+    private void trackInFlight(RoutingContext context) {
+        HttpServerResponse response = context.response();
+        boolean draining = Drain.isDraining();
+        if (draining && context.request().version() != HttpVersion.HTTP_2) {
+            // encourage keep-alive clients to reconnect elsewhere; HTTP/2 forbids this header
+            response.putHeader("Connection", "close");
+        }
+        if (!Drain.enter()) {
+            response.putHeader("Retry-After", "1");
+            Request.writeResponse(context, Request.errorResponse("Server shutting down, please retry"), 503);
+            return;
+        }
+        boolean[] exited = {false};
+        response.endHandler(ended -> {
+            // called when the response ends or the connection closes first
+            if (!exited[0]) {
+                exited[0] = true;
+                Drain.exit();
+            }
+        });
+        context.next();
+    }
+
+    /**
+     * Find the deadline of a request, based on the time budget of its priority in the "deadlines" configuration.
+     *
+     * @param context The context of the request.
+     * @return The deadline, calculated on first use and then shared by everything done for the request.
+     */
+    private Deadline deadline(RoutingContext context) {
+        Deadline deadline = context.get(DEADLINE_KEY);
+        if (deadline == null) {
+            Priority priority = context.get(AdmissionControl.PRIORITY_KEY);
+            String name = priority == null ? "default" : priority.name().toLowerCase();
+            long budget = budgets.getLong(name, budgets.getLong("default", DEFAULT_BUDGET_MILLIS));
+            deadline = Deadline.after(context.get(START_KEY), budget);
+            context.put(DEADLINE_KEY, deadline);
+        }
+        return deadline;
+    }
+
+    private static void writeDeadlineExceededResponse(RoutingContext context) {
+        logger.warn("Deadline exceeded for {} {}", context.request().method(), context.request().uri());
+        Metrics.increment("deadline.exceeded");
+        Request.writeResponse(context, Request.errorResponse("Request timed out, please retry"), 503);
+    }
+
+    private void authenticate(RoutingContext context) {
         // look for the authentication token
         String hexToken = context.request().getHeader("Authorization");
         if (hexToken == null) {
-            connection.close(res -> Request.writeResponse(
-                    context.response(),
+            Request.writeResponse(
+                    context,
                     Request.errorResponse("Endpoint requires authorisation, but no token provided"),
-                    401));
+                    401);
             return;
         }
 
         // we have a token; time to validate it
+        Token token;
         try {
-            byte[] token = Hex.hexToBin(hexToken);
-            Session.retrieveByToken(token, connection, sessionRes -> connection.close(res -> {
-                if (sessionRes.succeeded()) {
-                    Session session = sessionRes.result();
-                    logger.debug("Identified session {}", session);
-                    context.put("session", session);
-                    context.next();
-                }
-                else {
-                    Request.writeResponse(
-                            context.response(),
-                            Request.errorResponse(sessionRes.cause().getMessage()),
-                            401);
-                }
-            }));
+            token = Token.fromHex(hexToken);
         } catch (IllegalArgumentException e) {
             Request.writeResponse(
-                    context.response(),
+                    context,
                     Request.errorResponse("Malformed session token"),
                     400);
+            return;
+        }
+
+        if (SessionTokens.isSigned(token)) {
+            authenticateSigned(context, token);
+            return;
+        }
+
+        databaseHandler(context, (routingContext, connection) ->
+                Session.retrieveByToken(token, connection, sessionRes -> connection.close(res ->
+                        authenticated(context, sessionRes))));
+    }
+
+    /**
+     * Authenticate a signed token, only going to the database if the session is not cached or revocations are not
+     * known to be up to date.
+     *
+     * @param context The routing context.
+     * @param token The token.
+     */
+    private void authenticateSigned(RoutingContext context, Token token) {
+        SessionTokens.Claims claims = SessionTokens.verify(token);
+        if (claims == null) {
+            authenticated(context, Future.failedFuture("Invalid token"));
+            return;
+        }
+
+        Boolean revoked = SessionTokens.isRevoked(claims.getSessionId());
+        if (Boolean.TRUE.equals(revoked)) {
+            authenticated(context, Future.failedFuture("Invalid token"));
+            return;
+        }
+        if (Boolean.FALSE.equals(revoked)) {
+            Session session = SessionTokens.getCached(claims);
+            if (session != null) {
+                Metrics.increment("sessions.cache_hit");
+                authenticated(context, Future.succeededFuture(session));
+                return;
+            }
+        }
+
+        Metrics.increment("sessions.cache_miss");
+        databaseHandler(context, (routingContext, connection) ->
+                Session.retrieveById(claims.getSessionId(), token, connection, sessionRes -> connection.close(res -> {
+                    if (sessionRes.succeeded()) {
+                        SessionTokens.remember(sessionRes.result());
+                    }
+                    authenticated(context, sessionRes);
+                })));
+    }
+
+    private void authenticated(RoutingContext context, AsyncResult<Session> sessionRes) {
+        if (sessionRes.succeeded()) {
+            Session session = sessionRes.result();
+            logger.debug("Identified session {}", session);
+            SessionActivity.touch(session.getId());
+            context.put("session", session);
+            context.next();
+        }
+        else {
+            Request.writeResponse(
+                    context,
+                    Request.errorResponse(sessionRes.cause().getMessage()),
+                    401);
         }
     }
 
@@ -221,7 +561,7 @@ public class RestVerticle extends AbstractVerticle {
         Country.retrieveAll(connection, data -> {
             if (data.succeeded()) {
                 List<Country> countries = data.result();
-                JsonNode node = Json.MAPPER.convertValue(countries, JsonNode.class);
+                JsonNode node = Json.FACTORY.pojoNode(countries);
                 handler.handle(Future.succeededFuture(node));
             } else {
                 handler.handle(Future.failedFuture(data.cause()));
@@ -231,13 +571,30 @@ public class RestVerticle extends AbstractVerticle {
 
     @Override
     public void stop(Future<Void> stopFuture) throws Exception {
-        client.close(handler -> {
-            if (handler.succeeded()) {
-                stopFuture.complete();
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> {
+            Future<Void> serverClosed = Future.future();
+            if (server == null) {
+                serverClosed.complete();
+            }
+            else {
+                server.close(serverClosed.completer());
+            }
+            Future<Void> managementClosed = Future.future();
+            if (managementServer == null) {
+                managementClosed.complete();
             }
             else {
-                stopFuture.fail(handler.cause());
+                managementServer.close(managementClosed.completer());
             }
+            CompositeFuture.all(serverClosed, managementClosed).setHandler(closed -> client.close(handler -> {
+                if (handler.succeeded()) {
+                    stopFuture.complete();
+                }
+                else {
+                    stopFuture.fail(handler.cause());
+                }
+            }));
         });
     }
 }
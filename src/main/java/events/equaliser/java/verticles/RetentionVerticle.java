@@ -0,0 +1,211 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.auth.Session;
+import events.equaliser.java.auth.SessionActivity;
+import events.equaliser.java.model.auth.EphemeralToken;
+import events.equaliser.java.model.auth.SecurityEvent;
+import events.equaliser.java.model.auth.TwoFactorToken;
+import events.equaliser.java.util.Drain;
+import events.equaliser.java.util.Metrics;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.MySQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the auth tables small by periodically deleting rows that are no longer needed, and applies sliding session
+ * expiry. Rows go in small batches, each on a freshly borrowed connection with a pause in between, so a large
+ * backlog is worked through over several runs rather than holding locks or a connection for long.
+ */
+public class RetentionVerticle extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionVerticle.class);
+
+    private static final int DEFAULT_INTERVAL_MILLIS = 60_000;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_BATCH_PAUSE_MILLIS = 50;
+    private static final int DEFAULT_MAX_BATCHES_PER_RUN = 100;
+
+    private static final long DEFAULT_TOKEN_RETENTION_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final long DEFAULT_SECURITY_EVENT_RETENTION_SECONDS = TimeUnit.DAYS.toSeconds(365);
+    private static final long DEFAULT_SESSION_RETENTION_SECONDS = TimeUnit.DAYS.toSeconds(90);
+
+    /**
+     * Deletes or updates up to a given number of rows older than a cutoff.
+     */
+    @FunctionalInterface
+    private interface Batch {
+
+        void run(OffsetDateTime cutoff, int limit, SQLConnection connection, Handler<AsyncResult<Integer>> handler);
+    }
+
+    /**
+     * One kind of row to sweep.
+     */
+    private static class Sweep {
+
+        private final String name;
+        private final long retentionSeconds;
+        private final Batch batch;
+        private volatile double rowsPerSecond;
+
+        private Sweep(String name, long retentionSeconds, Batch batch) {
+            this.name = name;
+            this.retentionSeconds = retentionSeconds;
+            this.batch = batch;
+            Metrics.gauge("retention." + name + ".rows_per_second", () -> this.rowsPerSecond);
+        }
+    }
+
+    private AsyncSQLClient client;
+    private final List<Sweep> sweeps = new ArrayList<>();
+    private int batchSize;
+    private int batchPauseMillis;
+    private int maxBatchesPerRun;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        client = MySQLClient.createShared(vertx,
+                config().getJsonObject("database"),
+                RetentionVerticle.class.getCanonicalName());
+
+        JsonObject retention = config().getJsonObject("retention", new JsonObject());
+        batchSize = retention.getInteger("batchSize", DEFAULT_BATCH_SIZE);
+        batchPauseMillis = retention.getInteger("batchPauseMillis", DEFAULT_BATCH_PAUSE_MILLIS);
+        maxBatchesPerRun = retention.getInteger("maxBatchesPerRun", DEFAULT_MAX_BATCHES_PER_RUN);
+        JsonObject retain = retention.getJsonObject("retainSeconds", new JsonObject());
+
+        if (SessionActivity.isEnabled()) {
+            // activity must be written out before idle sessions are looked for
+            sweeps.add(new Sweep("Sessions.LastActive", 0, RetentionVerticle::flushActivity));
+            sweeps.add(new Sweep("Sessions.Idle", SessionActivity.getIdleTimeoutSeconds(), Session::invalidateIdle));
+        }
+        sweeps.add(new Sweep("EphemeralTokens",
+                retain.getLong("EphemeralTokens", DEFAULT_TOKEN_RETENTION_SECONDS),
+                EphemeralToken::deleteBefore));
+        sweeps.add(new Sweep("TwoFactorTokens",
+                retain.getLong("TwoFactorTokens", DEFAULT_TOKEN_RETENTION_SECONDS),
+                TwoFactorToken::deleteBefore));
+        sweeps.add(new Sweep("SecurityEvents",
+                retain.getLong("SecurityEvents", DEFAULT_SECURITY_EVENT_RETENTION_SECONDS),
+                SecurityEvent::deleteBefore));
+        // after security events, as sessions are only deleted once nothing refers to them
+        sweeps.add(new Sweep("Sessions",
+                retain.getLong("Sessions", DEFAULT_SESSION_RETENTION_SECONDS),
+                Session::deleteInvalidated));
+
+        new PeriodicJob(vertx, RetentionVerticle.class.getName(),
+                retention.getInteger("intervalMillis", DEFAULT_INTERVAL_MILLIS), this::execute).start();
+        startFuture.complete();
+    }
+
+    /**
+     * Write out the activity of sessions used since the last batch.
+     */
+    private static void flushActivity(OffsetDateTime cutoff,
+                                      int limit,
+                                      SQLConnection connection,
+                                      Handler<AsyncResult<Integer>> handler) {
+        List<Integer> touched = SessionActivity.takeTouched(limit);
+        if (touched.isEmpty()) {
+            handler.handle(Future.succeededFuture(0));
+            return;
+        }
+        Session.updateLastActive(touched, connection, res -> {
+            if (res.failed()) {
+                // put them back, or the sessions could be expired despite being in use
+                touched.forEach(SessionActivity::touch);
+            }
+            handler.handle(res);
+        });
+    }
+
+    private void execute(Handler<AsyncResult<Void>> handler) {
+        sweep(sweeps.iterator(), handler);
+    }
+
+    private void sweep(Iterator<Sweep> remaining, Handler<AsyncResult<Void>> handler) {
+        if (!remaining.hasNext()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        Sweep sweep = remaining.next();
+        OffsetDateTime cutoff = OffsetDateTime.now().minusSeconds(sweep.retentionSeconds);
+        long startNanos = System.nanoTime();
+        batch(sweep, cutoff, 0, 0, res -> {
+            if (res.failed()) {
+                handler.handle(Future.failedFuture(res.cause()));
+                return;
+            }
+            int rows = res.result();
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            sweep.rowsPerSecond = rows / seconds;
+            Metrics.increment("retention." + sweep.name + ".rows", rows);
+            if (rows > 0) {
+                logger.info("Swept {} {} rows in {}s ({} rows/s)",
+                        rows, sweep.name, String.format("%.2f", seconds), String.format("%.0f", sweep.rowsPerSecond));
+            }
+            sweep(remaining, handler);
+        });
+    }
+
+    /**
+     * Run batches of a sweep until there is nothing left to do, the per-run limit is reached or a drain begins.
+     *
+     * @param sweep The sweep.
+     * @param cutoff The time before which rows are swept.
+     * @param batches The number of batches run so far.
+     * @param rows The number of rows swept so far.
+     * @param handler A result handler that will receive the total number of rows swept.
+     */
+    private void batch(Sweep sweep, OffsetDateTime cutoff, int batches, int rows,
+                       Handler<AsyncResult<Integer>> handler) {
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                handler.handle(Future.failedFuture(connRes.cause()));
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            sweep.batch.run(cutoff, batchSize, connection, batchRes -> connection.close(closeRes -> {
+                if (batchRes.failed()) {
+                    handler.handle(Future.failedFuture(batchRes.cause()));
+                    return;
+                }
+
+                int swept = rows + batchRes.result();
+                if (batchRes.result() < batchSize || batches + 1 >= maxBatchesPerRun || Drain.isDraining()) {
+                    handler.handle(Future.succeededFuture(swept));
+                    return;
+                }
+                vertx.setTimer(Math.max(1, batchPauseMillis), id -> batch(sweep, cutoff, batches + 1, swept, handler));
+            }));
+        });
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        // let any run in progress finish first
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
+            if (handler.succeeded()) {
+                stopFuture.complete();
+            }
+            else {
+                stopFuture.fail(handler.cause());
+            }
+        }));
+    }
+}
@@ -0,0 +1,251 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.model.auth.SecurityEvent;
+import events.equaliser.java.util.Drain;
+import events.equaliser.java.util.Metrics;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.MySQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes security events behind the requests that raise them, and remembers each user's most recent events.
+ * Events are queued as they arrive and inserted together, either every few milliseconds or as soon as a batch fills.
+ * Once a user's recent events have been loaded, events written here are added to them, so the account page need not
+ * query the database; they are reloaded now and then to pick up events written by other instances.
+ */
+public class SecurityEventVerticle extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecurityEventVerticle.class);
+
+    public static final String SECURITY_EVENT_APPEND_ADDRESS = "security_event.append";
+    public static final String SECURITY_EVENT_RECENT_ADDRESS = "security_event.recent";
+
+    /**
+     * The number of recent events kept per user, and so returned by the account page.
+     */
+    private static final int RECENT_EVENTS = 10;
+
+    /**
+     * The number of users whose recent events are kept; the least recently used are forgotten first.
+     */
+    private static final int RECENT_USERS = 10_000;
+
+    private static final int DEFAULT_FLUSH_INTERVAL_MILLIS = 5;
+    private static final int DEFAULT_MAX_BATCH_ROWS = 100;
+    private static final int DEFAULT_RECENT_TTL_MILLIS = 60_000;
+
+    /**
+     * If this many events are waiting because the database is unavailable, new ones are dropped.
+     */
+    private static final int MAX_PENDING = 10_000;
+
+    /**
+     * When stopping, the time allowed for each batch of the remaining events to be written.
+     */
+    private static final int FINAL_FLUSH_TIMEOUT_MILLIS = 1_000;
+
+    /**
+     * A user's recent events, newest first.
+     */
+    private static class Recent {
+
+        private final Deque<JsonObject> events = new ArrayDeque<>(RECENT_EVENTS);
+        private final long loadedNanos = System.nanoTime();
+    }
+
+    private AsyncSQLClient client;
+    private final List<JsonObject> pending = new ArrayList<>();
+    private final Map<Integer, Recent> recent = new LinkedHashMap<Integer, Recent>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Recent> eldest) {
+            return size() > RECENT_USERS;
+        }
+    };
+    private boolean flushing;
+    private int maxBatchRows;
+    private long recentTtlNanos;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        client = MySQLClient.createShared(vertx,
+                config().getJsonObject("database"),
+                SecurityEventVerticle.class.getCanonicalName());
+
+        JsonObject securityEvents = config().getJsonObject("securityEvents", new JsonObject());
+        maxBatchRows = securityEvents.getInteger("maxBatchRows", DEFAULT_MAX_BATCH_ROWS);
+        recentTtlNanos = securityEvents.getInteger("recentTtlMillis", DEFAULT_RECENT_TTL_MILLIS) * 1_000_000L;
+        vertx.setPeriodic(securityEvents.getInteger("flushIntervalMillis", DEFAULT_FLUSH_INTERVAL_MILLIS),
+                id -> flush());
+
+        Metrics.gauge("security_events.pending", pending::size);
+        EventBus eb = vertx.eventBus();
+        eb.consumer(SECURITY_EVENT_APPEND_ADDRESS, this::append);
+        eb.consumer(SECURITY_EVENT_RECENT_ADDRESS, this::recent);
+        startFuture.complete();
+    }
+
+    /**
+     * Queue an event to be written.
+     *
+     * @param message The event, as created by SecurityEvent.create().
+     */
+    private void append(Message<Object> message) {
+        if (pending.size() >= MAX_PENDING) {
+            Metrics.increment("security_events.dropped");
+            return;
+        }
+        pending.add((JsonObject) message.body());
+        if (pending.size() >= maxBatchRows) {
+            flush();
+        }
+    }
+
+    /**
+     * Write a batch of queued events, unless a batch is already being written or there is nothing to do.
+     */
+    private void flush() {
+        if (flushing || pending.isEmpty()) {
+            return;
+        }
+        flushing = true;
+        List<JsonObject> batch = new ArrayList<>(pending.subList(0, Math.min(pending.size(), maxBatchRows)));
+        pending.subList(0, batch.size()).clear();
+
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                flushed(batch, Future.failedFuture(connRes.cause()));
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            SecurityEvent.insertBatch(batch, connection, insertRes -> connection.close(closeRes -> {
+                if (insertRes.failed()) {
+                    flushed(batch, Future.failedFuture(insertRes.cause()));
+                    return;
+                }
+                flushed(batch, Future.succeededFuture(insertRes.result()));
+            }));
+        });
+    }
+
+    /**
+     * Deal with the outcome of writing a batch.
+     *
+     * @param batch The events in the batch.
+     * @param result The identifier of the first event on success.
+     */
+    private void flushed(List<JsonObject> batch, Future<Integer> result) {
+        flushing = false;
+        if (result.failed()) {
+            logger.error("Failed to write {} security events; will retry", batch.size(), result.cause());
+            pending.addAll(0, batch);
+            return;
+        }
+
+        Metrics.increment("security_events.written", batch.size());
+        int id = result.result();
+        for (JsonObject event : batch) {
+            event.put("SecurityEventID", id++);
+            Recent user = recent.get(event.getInteger("UserID"));
+            if (user != null) {
+                user.events.addFirst(event);
+                if (user.events.size() > RECENT_EVENTS) {
+                    user.events.removeLast();
+                }
+            }
+        }
+        if (pending.size() >= maxBatchRows) {
+            flush();
+        }
+    }
+
+    /**
+     * Reply with a user's most recent events, loading them from the database if not known or possibly stale.
+     *
+     * @param message The user's identifier.
+     */
+    private void recent(Message<Object> message) {
+        int userId = (Integer) message.body();
+        Recent user = recent.get(userId);
+        if (user != null && System.nanoTime() - user.loadedNanos < recentTtlNanos) {
+            Metrics.increment("security_events.recent_hit");
+            message.reply(new JsonArray(new ArrayList<>(user.events)));
+            return;
+        }
+
+        Metrics.increment("security_events.recent_miss");
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                message.fail(500, connRes.cause().getMessage());
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            SecurityEvent.retrieveRowsByUser(userId, RECENT_EVENTS, connection,
+                    rowsRes -> connection.close(closeRes -> {
+                        if (rowsRes.failed()) {
+                            message.fail(500, rowsRes.cause().getMessage());
+                            return;
+                        }
+
+                        Recent loaded = new Recent();
+                        loaded.events.addAll(rowsRes.result());
+                        recent.put(userId, loaded);
+                        message.reply(new JsonArray(new ArrayList<>(loaded.events)));
+                    }));
+        });
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        // requests in flight may still raise events; once they are done, write out whatever is left
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> awaitFlushed(() -> client.close(handler -> {
+            if (handler.succeeded()) {
+                stopFuture.complete();
+            }
+            else {
+                stopFuture.fail(handler.cause());
+            }
+        })));
+    }
+
+    /**
+     * Write out every queued event, giving up if the database stops making progress.
+     *
+     * @param done Called once the queue is empty or writing has stalled.
+     */
+    private void awaitFlushed(Runnable done) {
+        if (!flushing && pending.isEmpty()) {
+            done.run();
+            return;
+        }
+        int before = pending.size();
+        flush();
+        vertx.setTimer(FINAL_FLUSH_TIMEOUT_MILLIS, id -> {
+            if (flushing || pending.size() >= before) {
+                logger.error("Discarding {} unwritten security events", pending.size());
+                done.run();
+                return;
+            }
+            awaitFlushed(done);
+        });
+    }
+}
@@ -0,0 +1,118 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.model.event.SeriesSearch;
+import events.equaliser.java.model.event.SeriesSearchIndex;
+import events.equaliser.java.util.Drain;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.MySQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Builds the series search index, and keeps it up to date. New series are polled for frequently and added to a new
+ * index built from the old one; since series can also be edited or removed, the whole index is rebuilt from the
+ * database less often. Indices are built on a worker and swapped in once complete.
+ */
+public class SeriesIndexVerticle extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SeriesIndexVerticle.class);
+
+    private static final int DEFAULT_REFRESH_MILLIS = 10_000;
+    private static final int DEFAULT_REBUILD_MILLIS = 600_000;
+
+    private AsyncSQLClient client;
+    private long rebuildNanos;
+    private long lastBuiltNanos;
+    private int maxId;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        client = MySQLClient.createShared(vertx,
+                config().getJsonObject("database"),
+                SeriesIndexVerticle.class.getCanonicalName());
+
+        JsonObject seriesSearch = config().getJsonObject("seriesSearch", new JsonObject());
+        rebuildNanos = seriesSearch.getInteger("rebuildMillis", DEFAULT_REBUILD_MILLIS) * 1_000_000L;
+        int refreshMillis = seriesSearch.getInteger("refreshMillis", DEFAULT_REFRESH_MILLIS);
+
+        refresh(refreshRes -> {
+            if (refreshRes.failed()) {
+                logger.warn("Series search index not built; will retry", refreshRes.cause());
+            }
+            new PeriodicJob(vertx, SeriesIndexVerticle.class.getName(), refreshMillis, this::refresh).start();
+        });
+        startFuture.complete();
+    }
+
+    /**
+     * Add new series to the index, or rebuild it if it has not been built or is due to be.
+     *
+     * @param handler Called when finished.
+     */
+    private void refresh(Handler<AsyncResult<Void>> handler) {
+        SeriesSearchIndex current = SeriesSearch.getIndex();
+        boolean rebuild = current == null || System.nanoTime() - lastBuiltNanos > rebuildNanos;
+        int afterId = rebuild ? 0 : maxId;
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                handler.handle(Future.failedFuture(connRes.cause()));
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            SeriesSearchIndex.retrieveDocuments(afterId, connection, docsRes -> connection.close(closeRes -> {
+                if (docsRes.failed()) {
+                    handler.handle(Future.failedFuture(docsRes.cause()));
+                    return;
+                }
+
+                List<SeriesSearchIndex.Document> documents = docsRes.result();
+                if (!rebuild && documents.isEmpty()) {
+                    handler.handle(Future.succeededFuture());
+                    return;
+                }
+                long startNanos = System.nanoTime();
+                vertx.<SeriesSearchIndex>executeBlocking(code -> code.complete(rebuild ?
+                        new SeriesSearchIndex(documents) : current.with(documents)), false, buildRes -> {
+                    if (buildRes.failed()) {
+                        handler.handle(Future.failedFuture(buildRes.cause()));
+                        return;
+                    }
+
+                    SeriesSearchIndex index = buildRes.result();
+                    SeriesSearch.setIndex(index);
+                    for (SeriesSearchIndex.Document document : documents) {
+                        maxId = Math.max(maxId, document.getSeriesId());
+                    }
+                    if (rebuild) {
+                        lastBuiltNanos = startNanos;
+                    }
+                    logger.info("{} series search index with {} series in {}ms",
+                            rebuild ? "Built" : "Updated", index.size(), (System.nanoTime() - startNanos) / 1_000_000);
+                    handler.handle(Future.succeededFuture());
+                });
+            }));
+        });
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
+            if (handler.succeeded()) {
+                stopFuture.complete();
+            }
+            else {
+                stopFuture.fail(handler.cause());
+            }
+        }));
+    }
+}
@@ -0,0 +1,99 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.auth.RevocationFilter;
+import events.equaliser.java.auth.Session;
+import events.equaliser.java.auth.SessionTokens;
+import events.equaliser.java.util.Drain;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.MySQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Keeps the revocation filter used to check signed session tokens in sync with the IsInvalidated flag in the
+ * Sessions table. Does nothing if session signing is disabled. Only sessions young enough for their tokens to still
+ * be accepted are loaded, so with "sessions.maxAgeSeconds" set, each refresh reads and holds a bounded number of them.
+ * N.B. Sessions should be indexed on (IsInvalidated, Started) for the refresh to stay cheap.
+ */
+public class SessionRevocationVerticle extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionRevocationVerticle.class);
+
+    private static final int DEFAULT_INTERVAL_MILLIS = 5_000;
+
+    private AsyncSQLClient client;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        client = MySQLClient.createShared(vertx,
+                config().getJsonObject("database"),
+                SessionRevocationVerticle.class.getCanonicalName());
+
+        if (!SessionTokens.isEnabled()) {
+            startFuture.complete();
+            return;
+        }
+
+        if (SessionTokens.getMaxAgeSeconds() == 0) {
+            logger.warn("Signed session tokens never expire, so every invalidated session will be held " +
+                    "for revocation; set sessions.maxAgeSeconds to bound this");
+        }
+
+        // the API must not accept signed tokens until it knows which have been revoked
+        execute(res -> {
+            if (res.failed()) {
+                logger.error("Failed to load revoked sessions", res.cause());
+                startFuture.fail(res.cause());
+                return;
+            }
+            int interval = config().getJsonObject("sessions")
+                    .getInteger("revocationRefreshMillis", DEFAULT_INTERVAL_MILLIS);
+            new PeriodicJob(vertx, SessionRevocationVerticle.class.getName(), interval, this::execute).start();
+            startFuture.complete();
+        });
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
+            if (handler.succeeded()) {
+                stopFuture.complete();
+            }
+            else {
+                stopFuture.fail(handler.cause());
+            }
+        }));
+    }
+
+    private void execute(Handler<AsyncResult<Void>> handler) {
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                handler.handle(Future.failedFuture(connRes.cause()));
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            long maxAgeSeconds = SessionTokens.getMaxAgeSeconds();
+            OffsetDateTime startedSince = maxAgeSeconds == 0 ? null : OffsetDateTime.now().minusSeconds(maxAgeSeconds);
+            Session.retrieveInvalidatedIds(startedSince, connection, idsRes -> connection.close(closeRes -> {
+                if (idsRes.failed()) {
+                    handler.handle(Future.failedFuture(idsRes.cause()));
+                    return;
+                }
+
+                RevocationFilter filter = RevocationFilter.of(idsRes.result());
+                SessionTokens.setRevocations(filter);
+                logger.debug("Refreshed revocation filter with {} sessions", filter.size());
+                handler.handle(Future.succeededFuture());
+            }));
+        });
+    }
+}
@@ -4,6 +4,7 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.twilio.rest.api.v2010.account.Message;
 import events.equaliser.java.model.event.Tier;
 import events.equaliser.java.model.ticket.Ticket;
+import events.equaliser.java.util.Drain;
 import io.vertx.core.*;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.asyncsql.AsyncSQLClient;
@@ -32,43 +33,22 @@ public class TicketNotificationVerticle extends AbstractVerticle {
                 config().getJsonObject("database"),
                 TicketNotificationVerticle.class.getCanonicalName());
 
-        Handler<Long> handler = new Handler<Long>() {
-            @Override
-            public void handle(Long event) {
-                /*
-                This is fun: if execute() fails in an async bit, it will respond via the handler, otherwise it throws an exception.
-
-                Actually, you have no idea, and neither does the internet.
-                 */
-                try {
-                    execute(res -> {
-                        if (res.succeeded()) {
-                            logger.debug("{} finished periodic run successfully",
-                                    TicketNotificationVerticle.class.getName());
-                        } else {
-                            logger.error("finished prematurely with error", res.cause());
-                        }
-                        vertx.setTimer(INTERVAL_MILLIS, this);
-                    });
-                } catch (VertxException e) {
-                    logger.error("{} finished with error", e);
-                }
-            }
-        };
-        vertx.setTimer(INTERVAL_MILLIS, handler);
+        new PeriodicJob(vertx, TicketNotificationVerticle.class.getName(), INTERVAL_MILLIS, this::execute).start();
         startFuture.complete();
     }
 
     @Override
     @Suspendable
     public void stop(Future<Void> stopFuture) throws Exception {
-        client.close(handler -> {
+        // let any run in progress finish first
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
             if (handler.succeeded()) {
                 stopFuture.complete();
             } else {
                 stopFuture.fail(handler.cause());
             }
-        });
+        }));
     }
 
     private void execute(Handler<AsyncResult<Void>> handler) throws VertxException {
@@ -0,0 +1,175 @@
+package events.equaliser.java.verticles;
+
+import events.equaliser.java.model.user.PublicUser;
+import events.equaliser.java.model.user.UsernameDirectory;
+import events.equaliser.java.model.user.UsernameIndex;
+import events.equaliser.java.util.Drain;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.MySQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Loads every user into the UsernameDirectory so autocomplete needs no query, then keeps it up to date. Users are
+ * read in pages in the background after startup; until loading finishes, searches go to the database. Afterwards,
+ * users registered through other instances are polled for, and once enough users have been added since the index
+ * was built, they are merged into a new one on a worker.
+ */
+public class UsernameIndexVerticle extends AbstractVerticle {
+
+    private static final Logger logger = LoggerFactory.getLogger(UsernameIndexVerticle.class);
+
+    private static final int DEFAULT_PAGE_SIZE = 10_000;
+    private static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    private static final int DEFAULT_REFRESH_MILLIS = 5_000;
+    private static final int DEFAULT_MERGE_THRESHOLD = 10_000;
+
+    private AsyncSQLClient client;
+    private int pageSize;
+    private long maxBytes;
+    private int mergeThreshold;
+    private int refreshMillis;
+    private int maxId;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        client = MySQLClient.createShared(vertx,
+                config().getJsonObject("database"),
+                UsernameIndexVerticle.class.getCanonicalName());
+
+        JsonObject usernames = config().getJsonObject("usernames", new JsonObject());
+        pageSize = usernames.getInteger("pageSize", DEFAULT_PAGE_SIZE);
+        maxBytes = usernames.getLong("maxBytes", DEFAULT_MAX_BYTES);
+        mergeThreshold = usernames.getInteger("mergeThreshold", DEFAULT_MERGE_THRESHOLD);
+        refreshMillis = usernames.getInteger("refreshMillis", DEFAULT_REFRESH_MILLIS);
+
+        if (maxBytes > 0) {
+            long startNanos = System.nanoTime();
+            load(new UsernameIndex.Builder(maxBytes), loadRes -> {
+                if (loadRes.failed()) {
+                    logger.warn("Username index not loaded; searches will use the database", loadRes.cause());
+                    return;
+                }
+                UsernameIndex index = loadRes.result();
+                UsernameDirectory.setIndex(index, UsernameDirectory.getRecent());
+                logger.info("Loaded {} usernames ({} bytes) in {}ms", index.size(), index.getSizeBytes(),
+                        (System.nanoTime() - startNanos) / 1_000_000);
+                new PeriodicJob(vertx, UsernameIndexVerticle.class.getName(), refreshMillis, this::refresh).start();
+            });
+        }
+        startFuture.complete();
+    }
+
+    /**
+     * Read every user into a builder, a page at a time, then build the index on a worker.
+     *
+     * @param builder The builder, holding the users read so far.
+     * @param handler A result handler that will receive the index.
+     */
+    private void load(UsernameIndex.Builder builder, Handler<AsyncResult<UsernameIndex>> handler) {
+        if (Drain.isDraining()) {
+            handler.handle(Future.failedFuture("Draining"));
+            return;
+        }
+        page(builder::add, pageRes -> {
+            if (pageRes.failed()) {
+                handler.handle(Future.failedFuture(pageRes.cause()));
+                return;
+            }
+            if (pageRes.result() == pageSize) {
+                load(builder, handler);
+                return;
+            }
+            vertx.executeBlocking(code -> code.complete(builder.build()), false, handler);
+        });
+    }
+
+    /**
+     * Read the next page of users.
+     *
+     * @param sink Receives each user.
+     * @param handler A result handler that will receive the number of users read.
+     */
+    private void page(Handler<PublicUser> sink, Handler<AsyncResult<Integer>> handler) {
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                handler.handle(Future.failedFuture(connRes.cause()));
+                return;
+            }
+
+            SQLConnection connection = connRes.result();
+            PublicUser.retrieveRowsAfter(maxId, pageSize, connection, rowsRes -> connection.close(closeRes -> {
+                if (rowsRes.failed()) {
+                    handler.handle(Future.failedFuture(rowsRes.cause()));
+                    return;
+                }
+                List<JsonObject> rows = rowsRes.result();
+                try {
+                    for (JsonObject row : rows) {
+                        sink.handle(PublicUser.fromJsonObject(row));
+                        maxId = row.getInteger("UserID");
+                    }
+                } catch (IllegalStateException e) {
+                    // over budget
+                    handler.handle(Future.failedFuture(e));
+                    return;
+                }
+                handler.handle(Future.succeededFuture(rows.size()));
+            }));
+        });
+    }
+
+    /**
+     * Pick up users registered since the last run, and merge them into a new index once there are enough.
+     *
+     * @param handler Called when finished.
+     */
+    private void refresh(Handler<AsyncResult<Void>> handler) {
+        page(UsernameDirectory::add, pageRes -> {
+            if (pageRes.failed()) {
+                handler.handle(Future.failedFuture(pageRes.cause()));
+                return;
+            }
+            if (pageRes.result() == pageSize && !Drain.isDraining()) {
+                refresh(handler);
+                return;
+            }
+            List<PublicUser> recent = UsernameDirectory.getRecent();
+            if (recent.size() < mergeThreshold) {
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+            vertx.<UsernameIndex>executeBlocking(
+                    code -> code.complete(UsernameDirectory.getIndex().with(recent, maxBytes)), false, mergeRes -> {
+                if (mergeRes.failed()) {
+                    handler.handle(Future.failedFuture(mergeRes.cause()));
+                    return;
+                }
+                UsernameDirectory.setIndex(mergeRes.result(), recent);
+                logger.info("Merged {} usernames into index", recent.size());
+                handler.handle(Future.succeededFuture());
+            });
+        });
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        Drain.begin(config());
+        Drain.awaitIdle(vertx, idle -> client.close(handler -> {
+            if (handler.succeeded()) {
+                stopFuture.complete();
+            }
+            else {
+                stopFuture.fail(handler.cause());
+            }
+        }));
+    }
+}
@@ -0,0 +1,32 @@
+package events.equaliser.java.auth;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCredentials {
+
+    private static final JsonObject ROW = new JsonObject()
+            .put("UserID", 1)
+            .put("Username", "TTest")
+            .put("Email", "Terry@Test.com");
+
+    @Test
+    public void testNameOfMatchesUsername() {
+        Assert.assertTrue(Credentials.isNameOf("TTest", ROW));
+        Assert.assertTrue(Credentials.isNameOf("ttest", ROW));
+    }
+
+    @Test
+    public void testNameOfMatchesEmail() {
+        Assert.assertTrue(Credentials.isNameOf("Terry@Test.com", ROW));
+        Assert.assertTrue(Credentials.isNameOf("TERRY@TEST.COM", ROW));
+    }
+
+    @Test
+    public void testNameOfRejectsChangedName() {
+        // the user cache still maps an old username or email address to the user
+        Assert.assertFalse(Credentials.isNameOf("told", ROW));
+        Assert.assertFalse(Credentials.isNameOf("old@test.com", ROW));
+    }
+}
@@ -0,0 +1,64 @@
+package events.equaliser.java.auth;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestLoginThrottle {
+
+    private static final int MAX_PER_USERNAME = 3;
+    private static final int MAX_PER_IP = 5;
+    private static final long WINDOW_MILLIS = 1000;
+    private static final String USERNAME = "ttest";
+    private static final String IP = "192.0.2.1";
+
+    private long now;
+    private LoginThrottle throttle;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        throttle = new LoginThrottle(MAX_PER_USERNAME, MAX_PER_IP, WINDOW_MILLIS, () -> now);
+    }
+
+    private void fail(String username, String ip, int times) {
+        for (int i = 0; i < times; i++) {
+            throttle.recordFailure(username, ip);
+        }
+    }
+
+    @Test
+    public void testUsernameBlocked() {
+        fail(USERNAME, IP, MAX_PER_USERNAME - 1);
+        Assert.assertFalse(throttle.isBlocked(USERNAME, IP));
+        fail(USERNAME, IP, 1);
+        Assert.assertTrue(throttle.isBlocked(USERNAME, IP));
+        Assert.assertTrue(throttle.isBlocked("TTest", "192.0.2.2"));
+    }
+
+    @Test
+    public void testIpBlocked() {
+        for (int i = 0; i < MAX_PER_IP; i++) {
+            fail(USERNAME + i, IP, 1);
+        }
+        Assert.assertTrue(throttle.isBlocked("someone", IP));
+        Assert.assertFalse(throttle.isBlocked("someone", "192.0.2.2"));
+    }
+
+    @Test
+    public void testWindowExpires() {
+        fail(USERNAME, IP, MAX_PER_USERNAME);
+        now += TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLIS);
+        Assert.assertFalse(throttle.isBlocked(USERNAME, IP));
+    }
+
+    @Test
+    public void testSuccessForgivesUsername() {
+        fail(USERNAME, IP, MAX_PER_USERNAME - 1);
+        throttle.recordSuccess(USERNAME);
+        fail(USERNAME, IP, MAX_PER_USERNAME - 1);
+        Assert.assertFalse(throttle.isBlocked(USERNAME, IP));
+    }
+}
@@ -0,0 +1,102 @@
+package events.equaliser.java.image;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+public class TestQrCode {
+
+    private static final int BLACK = 0xff000000;
+    private static final int WHITE = 0xffffffff;
+
+    private static BufferedImage decode(Buffer png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png.getBytes()));
+        Assert.assertNotNull(image);
+        return image;
+    }
+
+    private static void assertMatches(BitMatrix matrix, BufferedImage image) {
+        Assert.assertEquals(matrix.getWidth(), image.getWidth());
+        Assert.assertEquals(matrix.getHeight(), image.getHeight());
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            for (int x = 0; x < matrix.getWidth(); x++) {
+                Assert.assertEquals("Pixel (" + x + ", " + y + ")",
+                        matrix.get(x, y) ? BLACK : WHITE, image.getRGB(x, y));
+            }
+        }
+    }
+
+    private static BitMatrix randomMatrix(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        BitMatrix matrix = new BitMatrix(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextBoolean()) {
+                    matrix.set(x, y);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    @Test
+    public void testWidthMultipleOfEight() throws IOException {
+        BitMatrix matrix = randomMatrix(64, 16);
+        assertMatches(matrix, decode(QrCode.toPng(matrix)));
+    }
+
+    @Test
+    public void testWidthNotMultipleOfEight() throws IOException {
+        BitMatrix matrix = randomMatrix(37, 21);
+        assertMatches(matrix, decode(QrCode.toPng(matrix)));
+    }
+
+    @Test
+    public void testSinglePixel() throws IOException {
+        BitMatrix matrix = new BitMatrix(1, 1);
+        matrix.set(0, 0);
+        assertMatches(matrix, decode(QrCode.toPng(matrix)));
+    }
+
+    @Test
+    public void testLargerThanDeflateBuffer() throws IOException {
+        // random bits barely compress, so the IDAT chunk spans several drains of the deflater
+        BitMatrix matrix = randomMatrix(501, 499);
+        assertMatches(matrix, decode(QrCode.toPng(matrix)));
+    }
+
+    @Test
+    public void testChunkCrcs() {
+        Buffer png = QrCode.toPng(randomMatrix(37, 21));
+        int position = 8;  // skip the signature
+        int chunks = 0;
+        while (position < png.length()) {
+            int length = png.getInt(position);
+            CRC32 crc = new CRC32();
+            crc.update(png.getBytes(position + 4, position + 8 + length));
+            Assert.assertEquals((int) crc.getValue(), png.getInt(position + 8 + length));
+            position += 12 + length;
+            chunks++;
+        }
+        Assert.assertEquals(png.length(), position);
+        Assert.assertEquals(3, chunks);  // IHDR, IDAT, IEND
+    }
+
+    @Test
+    public void testRenderPng() throws WriterException, IOException {
+        int size = 250;
+        BitMatrix matrix = new QRCodeWriter().encode("ttest", BarcodeFormat.QR_CODE, size, size);
+        assertMatches(matrix, decode(QrCode.renderPng("ttest", size)));
+    }
+}
@@ -0,0 +1,130 @@
+package events.equaliser.java.model.event;
+
+import events.equaliser.java.model.geography.Coordinates;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestFixtureIndex {
+
+    private static final OffsetDateTime NOW = OffsetDateTime.of(2017, 3, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+    private static final Coordinates LONDON = new Coordinates(51.5074, -0.1278);
+
+    static FixtureListing fixture(int id, double latitude, double longitude, String start) {
+        return FixtureListing.fromJsonObject(new JsonObject()
+                .put("FixtureID", id)
+                .put("SeriesID", 1)
+                .put("SeriesName", "Series")
+                .put("FixtureStart", start)
+                .put("FixtureFinish", start.replace("T19", "T22"))
+                .put("VenueID", id)
+                .put("VenueName", "Venue " + id)
+                .put("VenueLocationLatitude", latitude)
+                .put("VenueLocationLongitude", longitude)
+                .put("CountryID", 1)
+                .put("CountryName", "United Kingdom")
+                .put("CountryAbbreviation", "UK")
+                .put("CountryCallingCode", "44"));
+    }
+
+    private static final FixtureIndex INDEX = new FixtureIndex(Arrays.asList(
+            fixture(1, 51.5033, -0.1195, "2017-03-04T19:00:00"),   // London Eye, ~0.7km
+            fixture(2, 51.4816, -0.1910, "2017-03-02T19:00:00"),   // Stamford Bridge, ~5km
+            fixture(3, 51.3811, -2.3590, "2017-03-03T19:00:00"),   // Bath, ~155km
+            fixture(4, 51.5560, -0.2796, "2017-03-05T19:00:00"),   // Wembley, ~11km
+            fixture(5, 40.7128, -74.0060, "2017-03-06T19:00:00"))); // New York
+
+    private static List<Integer> ids(FixtureIndex.Page<FixtureIndex.Nearby> page) {
+        return page.getResults().stream().map(nearby -> nearby.getFixture().getId()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testNearestFirst() {
+        Assert.assertEquals(Arrays.asList(1, 2, 4), ids(INDEX.near(LONDON, 25, NOW, null, 0, 10)));
+        Assert.assertEquals(Arrays.asList(1, 2, 4, 3), ids(INDEX.near(LONDON, 200, NOW, null, 0, 10)));
+    }
+
+    @Test
+    public void testDistance() {
+        double distance = INDEX.near(LONDON, 25, NOW, null, 0, 1).getResults().get(0).getDistance();
+        Assert.assertEquals(0.7, distance, 0.1);
+    }
+
+    @Test
+    public void testDateWindow() {
+        OffsetDateTime from = OffsetDateTime.of(2017, 3, 3, 0, 0, 0, 0, ZoneOffset.UTC);
+        OffsetDateTime to = OffsetDateTime.of(2017, 3, 5, 0, 0, 0, 0, ZoneOffset.UTC);
+        Assert.assertEquals(Arrays.asList(1, 3), ids(INDEX.near(LONDON, 200, from, to, 0, 10)));
+    }
+
+    @Test
+    public void testPaging() {
+        FixtureIndex.Page<FixtureIndex.Nearby> page = INDEX.near(LONDON, 200, NOW, null, 1, 2);
+        Assert.assertEquals(Arrays.asList(2, 4), ids(page));
+        Assert.assertEquals(4, page.getTotal());
+        Assert.assertEquals(Collections.emptyList(), ids(INDEX.near(LONDON, 200, NOW, null, 10, 2)));
+    }
+
+    @Test
+    public void testAcrossAntimeridian() {
+        FixtureIndex index = new FixtureIndex(Arrays.asList(
+                fixture(1, -16.5, 179.95, "2017-03-04T19:00:00"),
+                fixture(2, -16.5, -179.95, "2017-03-04T19:00:00")));
+        Assert.assertEquals(Arrays.asList(1, 2),
+                ids(index.near(new Coordinates(-16.5, 179.96), 20, NOW, null, 0, 10)));
+    }
+
+    private static List<Integer> ids(FixtureIndex.Slice slice) {
+        return slice.getFixtures().stream().map(FixtureListing::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testBetween() {
+        OffsetDateTime from = OffsetDateTime.of(2017, 3, 3, 0, 0, 0, 0, ZoneOffset.UTC);
+        OffsetDateTime to = OffsetDateTime.of(2017, 3, 5, 0, 0, 0, 0, ZoneOffset.UTC);
+        Assert.assertEquals(Arrays.asList(3, 1), ids(INDEX.between(from, to, null, 10)));
+        Assert.assertEquals(Arrays.asList(2, 3, 1, 4, 5), ids(INDEX.between(NOW, null, null, 10)));
+    }
+
+    @Test
+    public void testCursor() {
+        FixtureIndex.Slice first = INDEX.between(NOW, null, null, 2);
+        Assert.assertEquals(Arrays.asList(2, 3), ids(first));
+        FixtureIndex.Cursor cursor = FixtureIndex.Cursor.parse(first.getNext().toString());
+        FixtureIndex.Slice second = INDEX.between(NOW, null, cursor, 2);
+        Assert.assertEquals(Arrays.asList(1, 4), ids(second));
+        FixtureIndex.Slice last = INDEX.between(NOW, null, second.getNext(), 2);
+        Assert.assertEquals(Collections.singletonList(5), ids(last));
+        Assert.assertNull(last.getNext());
+    }
+
+    @Test
+    public void testCursorWithinSameStart() {
+        FixtureIndex index = new FixtureIndex(Arrays.asList(
+                fixture(3, 51.5, -0.12, "2017-03-04T19:00:00"),
+                fixture(1, 51.5, -0.12, "2017-03-04T19:00:00"),
+                fixture(2, 51.5, -0.12, "2017-03-04T19:00:00")));
+        FixtureIndex.Slice first = index.between(NOW, null, null, 1);
+        Assert.assertEquals(Collections.singletonList(1), ids(first));
+        Assert.assertEquals(Arrays.asList(2, 3), ids(index.between(NOW, null, first.getNext(), 10)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCursor() {
+        FixtureIndex.Cursor.parse("tomorrow");
+    }
+
+    @Test
+    public void testWithDropsFinished() {
+        FixtureIndex index = INDEX.with(Collections.singletonList(fixture(6, 51.5, -0.12, "2017-03-10T19:00:00")),
+                OffsetDateTime.of(2017, 3, 4, 0, 0, 0, 0, ZoneOffset.UTC));
+        Assert.assertEquals(4, index.size());
+    }
+}
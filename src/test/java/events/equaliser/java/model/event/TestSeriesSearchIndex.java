@@ -0,0 +1,62 @@
+package events.equaliser.java.model.event;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestSeriesSearchIndex {
+
+    private static final SeriesSearchIndex INDEX = new SeriesSearchIndex(Arrays.asList(
+            new SeriesSearchIndex.Document(1, "Radiohead World Tour", "Live in concert",
+                    Arrays.asList("rock", "music")),
+            new SeriesSearchIndex.Document(2, "Rock Opera", "A night at the opera",
+                    Collections.singletonList("theatre")),
+            new SeriesSearchIndex.Document(3, "Caf\u00e9 Concerts", "Acoustic sets featuring rock classics",
+                    Collections.singletonList("music"))));
+
+    @Test
+    public void testRanking() {
+        // tag beats name beats description
+        Assert.assertEquals(Arrays.asList(1, 2, 3), INDEX.search("rock", 0, 10).getSeriesIds());
+    }
+
+    @Test
+    public void testPrefix() {
+        Assert.assertEquals(Collections.singletonList(1), INDEX.search("radio", 0, 10).getSeriesIds());
+        Assert.assertEquals(Arrays.asList(3, 1), INDEX.search("conc", 0, 10).getSeriesIds());
+    }
+
+    @Test
+    public void testAllWordsMustMatch() {
+        Assert.assertEquals(Collections.singletonList(3), INDEX.search("music acoustic", 0, 10).getSeriesIds());
+        Assert.assertEquals(0, INDEX.search("music opera", 0, 10).getTotal());
+    }
+
+    @Test
+    public void testAccentsAndCase() {
+        Assert.assertEquals(Collections.singletonList(3), INDEX.search("CAFE", 0, 10).getSeriesIds());
+    }
+
+    @Test
+    public void testFuzzy() {
+        Assert.assertEquals(Collections.singletonList(1), INDEX.search("radiohed", 0, 10).getSeriesIds());
+    }
+
+    @Test
+    public void testPaging() {
+        SeriesSearchIndex.Page page = INDEX.search("rock", 1, 1);
+        Assert.assertEquals(Collections.singletonList(2), page.getSeriesIds());
+        Assert.assertEquals(3, page.getTotal());
+    }
+
+    @Test
+    public void testWith() {
+        SeriesSearchIndex updated = INDEX.with(Collections.singletonList(
+                new SeriesSearchIndex.Document(2, "Jazz Opera", "", Collections.singletonList("jazz"))));
+        Assert.assertEquals(3, updated.size());
+        Assert.assertEquals(Arrays.asList(1, 3), updated.search("rock", 0, 10).getSeriesIds());
+        Assert.assertEquals(Collections.singletonList(2), updated.search("jazz", 0, 10).getSeriesIds());
+    }
+}
@@ -0,0 +1,18 @@
+package events.equaliser.java.model.group;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestGroup {
+
+    @Test
+    public void testCursorRoundTrip() {
+        Assert.assertEquals("1490000000123456:42", Group.Cursor.parse("1490000000123456:42").toString());
+        Assert.assertEquals("1490000000000000:7", Group.Cursor.parse("1490000000000000:7").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCursor() {
+        Group.Cursor.parse("2017-03-20T09:00:00");
+    }
+}
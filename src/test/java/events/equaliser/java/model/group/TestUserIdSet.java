@@ -0,0 +1,67 @@
+package events.equaliser.java.model.group;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+public class TestUserIdSet {
+
+    @Test
+    public void testContains() {
+        UserIdSet set = UserIdSet.of(5, 70000, 3, 5, Integer.MAX_VALUE);
+        Assert.assertEquals(4, set.size());
+        Assert.assertTrue(set.contains(3));
+        Assert.assertTrue(set.contains(70000));
+        Assert.assertTrue(set.contains(Integer.MAX_VALUE));
+        Assert.assertFalse(set.contains(4));
+        Assert.assertFalse(set.contains(70000 - 65536));
+        Assert.assertFalse(UserIdSet.EMPTY.contains(0));
+    }
+
+    @Test
+    public void testWithLeavesOriginal() {
+        UserIdSet set = UserIdSet.of(1, 2);
+        UserIdSet added = set.with(3, 2);
+        Assert.assertEquals(2, set.size());
+        Assert.assertFalse(set.contains(3));
+        Assert.assertEquals(3, added.size());
+        Assert.assertTrue(added.contains(3));
+        Assert.assertSame(added, added.with(1, 3));
+    }
+
+    @Test
+    public void testDenseChunk() {
+        // enough members in one chunk to be held as a bitmap
+        int[] evens = new int[5000];
+        for (int i = 0; i < evens.length; i++) {
+            evens[i] = 131072 + i * 2;
+        }
+        UserIdSet set = UserIdSet.of(evens).with(131073);
+        Assert.assertEquals(5001, set.size());
+        Assert.assertTrue(set.contains(131072 + 9998));
+        Assert.assertTrue(set.contains(131073));
+        Assert.assertFalse(set.contains(131075));
+        Assert.assertTrue(set.getSizeBytes() < evens.length * 2);
+    }
+
+    @Test
+    public void testMatchesTreeSet() {
+        Random random = new Random(42);
+        TreeSet<Integer> expected = new TreeSet<>();
+        UserIdSet set = UserIdSet.EMPTY;
+        for (int round = 0; round < 50; round++) {
+            int[] batch = new int[random.nextInt(200)];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = random.nextInt(300000);
+                expected.add(batch[i]);
+            }
+            set = set.with(batch);
+        }
+        Assert.assertEquals(expected.size(), set.size());
+        for (int id = 0; id < 300000; id++) {
+            Assert.assertEquals(expected.contains(id), set.contains(id));
+        }
+    }
+}
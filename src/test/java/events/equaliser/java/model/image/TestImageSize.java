@@ -0,0 +1,47 @@
+package events.equaliser.java.model.image;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import events.equaliser.java.util.Json;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Base64;
+
+public class TestImageSize {
+
+    private static final byte[] SHA256 = new byte[32];
+
+    static {
+        for (int i = 0; i < SHA256.length; i++) {
+            SHA256[i] = (byte)(i * 7);
+        }
+    }
+
+    private static final ImageSize SIZE = ImageSize.fromJsonObject(new JsonObject()
+            .put("ImageWidth", 640)
+            .put("ImageHeight", 480)
+            .put("ImageSha256", SHA256));
+
+    /**
+     * The URL depends on the Vert.x context's configuration, so is left out here.
+     */
+    private static abstract class WithoutUrl {
+
+        @JsonIgnore
+        abstract String getUrl();
+    }
+
+    @Test
+    public void testSha256SerialisedAsBase64String() {
+        ObjectMapper mapper = Json.MAPPER.copy().addMixIn(ImageSize.class, WithoutUrl.class);
+        JsonNode node = mapper.valueToTree(SIZE);
+        Assert.assertEquals(640, node.get("width").asInt());
+        Assert.assertEquals(480, node.get("height").asInt());
+        Assert.assertTrue(node.get("sha256").isTextual());
+        Assert.assertEquals(Base64.getEncoder().encodeToString(SHA256), node.get("sha256").asText());
+        Assert.assertEquals(3, node.size());
+    }
+}
@@ -0,0 +1,87 @@
+package events.equaliser.java.model.user;
+
+import events.equaliser.java.model.geography.TestCountry;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestUserCache {
+
+    private static final User USER = user(1, "TTest", "Terry@Test.com");
+
+    private static User user(int id, String username, String email) {
+        return new User(id, username, "Terry", "Test", email, TestCountry.COUNTRY, "020", "83983687",
+                new byte[16], 1);
+    }
+
+    @Before
+    public void setUp() {
+        UserCache.configure(new JsonObject());
+    }
+
+    @Test
+    public void testUnknownNames() {
+        Assert.assertNull(UserCache.findByUsername("ttest"));
+        Assert.assertNull(UserCache.findByUsernameOrEmail("terry@test.com"));
+    }
+
+    @Test
+    public void testNamesIgnoreCase() {
+        UserCache.remember(USER);
+        Assert.assertEquals(Integer.valueOf(1), UserCache.findByUsername("ttest"));
+        Assert.assertEquals(Integer.valueOf(1), UserCache.findByUsername("TTEST"));
+        Assert.assertEquals(Integer.valueOf(1), UserCache.findByUsernameOrEmail("tTeSt"));
+        Assert.assertEquals(Integer.valueOf(1), UserCache.findByUsernameOrEmail("TERRY@TEST.COM"));
+        Assert.assertEquals(Integer.valueOf(1), UserCache.findByUsernameOrEmail("terry@test.com"));
+    }
+
+    @Test
+    public void testEmailNotFoundAsUsername() {
+        UserCache.remember(USER);
+        Assert.assertNull(UserCache.findByUsername("terry@test.com"));
+    }
+
+    @Test
+    public void testUsernamePreferredToEmail() {
+        UserCache.remember(USER);
+        // another user whose username is the first user's email address
+        UserCache.remember(user(2, "terry@test.com", "other@test.com"));
+        Assert.assertEquals(Integer.valueOf(2), UserCache.findByUsernameOrEmail("Terry@Test.com"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        UserCache.remember(USER);
+        UserCache.getUsers().put(USER.getId(), USER);
+        UserCache.invalidate(USER);
+        Assert.assertNull(UserCache.findByUsername("ttest"));
+        Assert.assertNull(UserCache.findByUsernameOrEmail("terry@test.com"));
+        Assert.assertNull(UserCache.getUsers().get(USER.getId()));
+    }
+
+    @Test
+    public void testConfirmUsername() {
+        UserCache.remember(USER);
+        Assert.assertTrue(UserCache.confirmUsername("ttest", USER));
+        Assert.assertTrue(UserCache.confirmUsername("TTEST", USER));
+        Assert.assertEquals(Integer.valueOf(1), UserCache.findByUsername("ttest"));
+    }
+
+    @Test
+    public void testConfirmRenamedUsernameForgetsIt() {
+        UserCache.remember(USER);
+        User renamed = user(1, "tnew", "terry@test.com");
+        Assert.assertFalse(UserCache.confirmUsername("ttest", renamed));
+        Assert.assertNull(UserCache.findByUsername("ttest"));
+        // the email address still belongs to the user
+        Assert.assertEquals(Integer.valueOf(1), UserCache.findByUsernameOrEmail("terry@test.com"));
+    }
+
+    @Test
+    public void testConfirmMissingUserForgetsUsername() {
+        UserCache.remember(USER);
+        Assert.assertFalse(UserCache.confirmUsername("ttest", null));
+        Assert.assertNull(UserCache.findByUsername("ttest"));
+    }
+}
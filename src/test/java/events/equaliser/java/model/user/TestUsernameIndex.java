@@ -0,0 +1,73 @@
+package events.equaliser.java.model.user;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestUsernameIndex {
+
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    private static UsernameIndex build(String... usernames) {
+        UsernameIndex.Builder builder = new UsernameIndex.Builder(MAX_BYTES);
+        for (String username : usernames) {
+            builder.add(new PublicUser(username, "Terry", "Test"));
+        }
+        return builder.build();
+    }
+
+    private static List<String> usernames(List<PublicUser> users) {
+        return users.stream().map(PublicUser::getUsername).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testPrefixSearch() {
+        UsernameIndex index = build("tom", "ttest", "alice", "terry", "tt");
+        Assert.assertEquals(Arrays.asList("terry", "tom", "tt", "ttest"), usernames(index.search("t", 10)));
+        Assert.assertEquals(Arrays.asList("tt", "ttest"), usernames(index.search("tt", 10)));
+        Assert.assertEquals(Collections.emptyList(), usernames(index.search("z", 10)));
+    }
+
+    @Test
+    public void testLimit() {
+        UsernameIndex index = build("tom", "ttest", "terry");
+        Assert.assertEquals(Arrays.asList("terry", "tom"), usernames(index.search("t", 2)));
+    }
+
+    @Test
+    public void testCaseInsensitive() {
+        UsernameIndex index = build("TTest", "bob");
+        Assert.assertEquals(Collections.singletonList("TTest"), usernames(index.search("tt", 10)));
+        Assert.assertEquals(Collections.singletonList("TTest"), usernames(index.search("TTE", 10)));
+    }
+
+    @Test
+    public void testDetails() {
+        PublicUser user = build("ttest").search("ttest", 1).get(0);
+        Assert.assertEquals("Terry", user.getForename());
+        Assert.assertEquals("Test", user.getSurname());
+    }
+
+    @Test
+    public void testWith() {
+        UsernameIndex index = build("bob", "terry", "zed").with(Arrays.asList(
+                new PublicUser("alice", "Alice", "Test"),
+                new PublicUser("terry", "Terence", "Test"),
+                new PublicUser("tom", "Tom", "Test")), MAX_BYTES);
+        Assert.assertEquals(5, index.size());
+        Assert.assertEquals(Arrays.asList("alice", "bob", "terry", "tom", "zed"), usernames(index.search("", 10)));
+        Assert.assertEquals("Terence", index.search("terry", 1).get(0).getForename());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBudget() {
+        new UsernameIndex.Builder(64)
+                .add(new PublicUser("ttest", "Terry", "Test"))
+                .add(new PublicUser("terry", "Terry", "Test"))
+                .add(new PublicUser("tom", "Tom", "Test"));
+    }
+}
@@ -0,0 +1,107 @@
+package events.equaliser.java.model.user;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures building, searching and merging the username index at scale. Too slow and memory hungry to run with the
+ * other tests; run it by hand, e.g. with -Xmx2g, setting -DusernameIndex.benchmarkUsers to change the number of
+ * synthetic users from the default of 10M.
+ */
+@Ignore("Benchmark; run by hand")
+public class TestUsernameIndexBenchmark {
+
+    private static final int USERS = Integer.getInteger("usernameIndex.benchmarkUsers", 10_000_000);
+    private static final int SEARCHES = 1_000_000;
+    private static final int SEARCH_LIMIT = 5;
+    private static final int ADDITIONS = 10_000;
+    private static final long SEED = 42;
+
+    private static final String[] FORENAMES = {"Terry", "Alice", "Mohammed", "Olivia", "George", "Amelia", "Jack",
+            "Isla", "Harry", "Emily", "Oscar", "Ava", "Charlie", "Sophia", "Thomas", "Grace"};
+    private static final String[] SURNAMES = {"Test", "Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson",
+            "Johnson", "Davies", "Robinson", "Wright", "Thompson", "Evans", "Walker", "White", "Roberts"};
+
+    /**
+     * Create a user with a 7-19 character username, unique by ending in the user's number.
+     */
+    private static PublicUser user(Random random, int number) {
+        String suffix = Integer.toString(number, 36);
+        int length = Math.max(7 + random.nextInt(13), suffix.length() + 1);
+        StringBuilder username = new StringBuilder(length);
+        for (int i = suffix.length(); i < length; i++) {
+            username.append((char) ('a' + random.nextInt(26)));
+        }
+        username.append(suffix);
+        return new PublicUser(username.toString(),
+                FORENAMES[random.nextInt(FORENAMES.length)],
+                SURNAMES[random.nextInt(SURNAMES.length)]);
+    }
+
+    private static String prefix(Random random) {
+        int length = 1 + random.nextInt(4);
+        StringBuilder prefix = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            prefix.append((char) ('a' + random.nextInt(26)));
+        }
+        return prefix.toString();
+    }
+
+    private static double percentileMicros(long[] sortedNanos, double percentile) {
+        int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(percentile / 100 * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(index, 0)] / 1_000.0;
+    }
+
+    @Test
+    public void benchmark() {
+        Random random = new Random(SEED);
+
+        long addStart = System.nanoTime();
+        UsernameIndex.Builder builder = new UsernameIndex.Builder(Long.MAX_VALUE);
+        for (int i = 0; i < USERS; i++) {
+            builder.add(user(random, i));
+        }
+        long sortStart = System.nanoTime();
+        UsernameIndex index = builder.build();
+        long built = System.nanoTime();
+        Assert.assertEquals(USERS, index.size());
+        System.out.printf("build %,d users: %.1fs add + %.1fs sort, %,dMB (%.1f bytes/user)%n",
+                USERS, (sortStart - addStart) / 1e9, (built - sortStart) / 1e9,
+                index.getSizeBytes() / (1024 * 1024), (double) index.getSizeBytes() / USERS);
+
+        // warm up, then time each search on its own
+        for (int i = 0; i < SEARCHES; i++) {
+            index.search(prefix(random), SEARCH_LIMIT);
+        }
+        long[] nanos = new long[SEARCHES];
+        int found = 0;
+        for (int i = 0; i < SEARCHES; i++) {
+            String prefix = prefix(random);
+            long start = System.nanoTime();
+            found += index.search(prefix, SEARCH_LIMIT).size();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        Assert.assertTrue(found > 0);
+        System.out.printf("search (limit %d, 1-4 char prefixes): p50 %.1fus, p99 %.1fus, p99.9 %.1fus%n",
+                SEARCH_LIMIT, percentileMicros(nanos, 50), percentileMicros(nanos, 99),
+                percentileMicros(nanos, 99.9));
+
+        List<PublicUser> additions = new ArrayList<>(ADDITIONS);
+        for (int i = 0; i < ADDITIONS; i++) {
+            additions.add(user(random, USERS + i));
+        }
+        long mergeStart = System.nanoTime();
+        UsernameIndex merged = index.with(additions, Long.MAX_VALUE);
+        long mergeEnd = System.nanoTime();
+        Assert.assertEquals(USERS + ADDITIONS, merged.size());
+        System.out.printf("merge %,d additions into %,d: %.1fs%n",
+                ADDITIONS, USERS, (mergeEnd - mergeStart) / 1e9);
+    }
+}
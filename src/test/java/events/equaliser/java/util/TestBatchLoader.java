@@ -0,0 +1,98 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestBatchLoader {
+
+    private final List<Set<Integer>> batches = new ArrayList<>();
+    private int scheduled;
+
+    private final BatchLoader<Integer, String> loader = new BatchLoader<>("test", (keys, handler) -> {
+        batches.add(new HashSet<>(keys));
+        Map<Integer, String> values = new HashMap<>();
+        for (int key : keys) {
+            if (key >= 0) {
+                values.put(key, "v" + key);
+            }
+        }
+        handler.handle(Future.succeededFuture(values));
+    }, key -> "missing " + key, () -> scheduled++);
+
+    private void dispatch() {
+        loader.dispatch(Runnable::run);
+    }
+
+    @Test
+    public void testCoalescesKeys() {
+        List<String> values = new ArrayList<>();
+        loader.load(1, res -> values.add(res.result()));
+        loader.load(2, res -> values.add(res.result()));
+        loader.load(1, res -> values.add(res.result()));
+        Assert.assertEquals(1, scheduled);
+        Assert.assertTrue(values.isEmpty());
+
+        dispatch();
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(2, batches.get(0).size());
+        Assert.assertEquals(Arrays.asList("v1", "v1", "v2"), values);
+        Assert.assertFalse(loader.isPending());
+    }
+
+    @Test
+    public void testCachesResults() {
+        loader.load(1, res -> {});
+        dispatch();
+
+        List<AsyncResult<String>> results = new ArrayList<>();
+        loader.load(1, results::add);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("v1", results.get(0).result());
+        Assert.assertEquals(1, batches.size());
+        Assert.assertFalse(loader.isPending());
+    }
+
+    @Test
+    public void testMissingKeyFails() {
+        List<AsyncResult<String>> results = new ArrayList<>();
+        loader.load(-1, results::add);
+        loader.load(3, results::add);
+        dispatch();
+        Assert.assertTrue(results.get(0).failed());
+        Assert.assertEquals("missing -1", results.get(0).cause().getMessage());
+        Assert.assertTrue(results.get(1).succeeded());
+    }
+
+    @Test
+    public void testLoadNowSkipsLoadedKeys() {
+        loader.load(1, res -> {});
+        dispatch();
+        List<String> waiting = new ArrayList<>();
+        loader.load(2, res -> waiting.add(res.result()));
+
+        Set<Integer> keys = new HashSet<>();
+        keys.add(1);
+        keys.add(2);
+        keys.add(-1);
+        List<Map<Integer, String>> loaded = new ArrayList<>();
+        loader.loadNow(keys, res -> loaded.add(res.result()));
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(2, batches.get(1).size());
+        Assert.assertEquals(2, loaded.get(0).size());
+
+        // key 2 was loaded since being asked for, so dispatching does not fetch it again
+        dispatch();
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals("v2", waiting.get(0));
+    }
+}
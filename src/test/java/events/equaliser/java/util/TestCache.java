@@ -0,0 +1,83 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class TestCache {
+
+    private final Cache<Integer, String> cache = new Cache<>("test", 2, TimeUnit.MINUTES.toNanos(1));
+
+    @Test
+    public void testGetAfterPut() {
+        Assert.assertNull(cache.get(1));
+        cache.put(1, "one");
+        Assert.assertEquals("one", cache.get(1));
+        cache.invalidate(1);
+        Assert.assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testRejectsLessPopularKey() {
+        for (int i = 0; i < 5; i++) {
+            cache.get(1);
+            cache.get(2);
+        }
+        cache.put(1, "one");
+        cache.put(2, "two");
+
+        // asked for once, so not admitted in place of an entry asked for more
+        cache.get(3);
+        cache.put(3, "three");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get(3));
+
+        for (int i = 0; i < 10; i++) {
+            cache.get(3);
+        }
+        cache.put(3, "three");
+        Assert.assertEquals("three", cache.get(3));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testExpiredEntriesAreMissed() throws InterruptedException {
+        Cache<Integer, String> expiring = new Cache<>("test", 2, 0);
+        expiring.put(1, "one");
+        Thread.sleep(1);
+        Assert.assertNull(expiring.get(1));
+    }
+
+    @Test
+    public void testReadThroughSkipsValuesFetchedBeforeInvalidation() {
+        cache.put(1, "one");
+        Map<Integer, String> found = new HashMap<>();
+        cache.readThrough(new HashSet<>(Arrays.asList(1, 2)), (keys, handler) -> {
+            Assert.assertEquals(new HashSet<>(Arrays.asList(2)), keys);
+            cache.invalidateAll();
+            Map<Integer, String> fetched = new HashMap<>();
+            fetched.put(2, "two");
+            handler.handle(Future.succeededFuture(fetched));
+        }, res -> found.putAll(res.result()));
+
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPutSkipsValuesFetchedBeforeInvalidation() {
+        long generation = cache.getGeneration();
+        cache.invalidate(1);
+        cache.put(1, "one", generation);
+        Assert.assertNull(cache.get(1));
+
+        cache.put(1, "one", cache.getGeneration());
+        Assert.assertEquals("one", cache.get(1));
+    }
+}
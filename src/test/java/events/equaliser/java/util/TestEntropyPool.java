@@ -0,0 +1,43 @@
+package events.equaliser.java.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestEntropyPool {
+
+    private final EntropyPool pool = new EntropyPool();
+
+    @Test
+    public void testBytesSpanChunks() {
+        byte[] bytes = new byte[10_000];
+        pool.nextBytes(bytes);
+        int zeroes = 0;
+        for (byte b : bytes) {
+            if (b == 0) {
+                zeroes++;
+            }
+        }
+        // expect ~39; all zeroes would mean part of the array was never filled
+        Assert.assertTrue(zeroes < 200);
+    }
+
+    @Test
+    public void testDigitsUniform() {
+        int samples = 100_000;
+        int[] counts = new int[10];
+        for (int i = 0; i < samples; i++) {
+            counts[pool.nextDigit()]++;
+        }
+        for (int count : counts) {
+            // 10,000 expected per digit, standard deviation ~95
+            Assert.assertTrue(Math.abs(count - samples / 10) < 600);
+        }
+    }
+
+    @Test
+    public void testNumericStringLength() {
+        String code = Random.getNumericString(6);
+        Assert.assertEquals(6, code.length());
+        Assert.assertTrue(code.matches("[0-9]{6}"));
+    }
+}
@@ -0,0 +1,84 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.Vertx;
+import io.vertx.ext.auth.PRNG;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Measures how many session-sized tokens per second the entropy pool hands out when several threads log users in
+ * at once, against the PRNG shared by every thread that it replaced. Run it by hand, optionally setting
+ * -DentropyPool.benchmarkThreads to a comma-separated list of thread counts, and -DentropyPool.benchmarkSeconds to
+ * the time spent on each case.
+ */
+@Ignore("Benchmark; run by hand")
+public class TestEntropyPoolBenchmark {
+
+    private static final int TOKEN_BYTES = 32;
+    private static final String THREADS = System.getProperty("entropyPool.benchmarkThreads", "1,2,4,8");
+    private static final int SECONDS = Integer.getInteger("entropyPool.benchmarkSeconds", 2);
+
+    /**
+     * Generate tokens from several threads at once for a while.
+     *
+     * @param threads The number of threads.
+     * @param nextBytes Fills an array with random bytes.
+     * @return The number of tokens generated per second.
+     */
+    private static double tokensPerSecond(int threads, Consumer<byte[]> nextBytes) throws InterruptedException {
+        AtomicLong tokens = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] window = new long[1];
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                byte[] token = new byte[TOKEN_BYTES];
+                long count = 0;
+                try {
+                    start.await();
+                    while (System.nanoTime() < window[0]) {
+                        nextBytes.accept(token);
+                        count++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                tokens.addAndGet(count);
+                done.countDown();
+            }).start();
+        }
+        long startNanos = System.nanoTime();
+        window[0] = startNanos + TimeUnit.SECONDS.toNanos(SECONDS);
+        start.countDown();
+        done.await();
+        return tokens.get() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    @Test
+    public void benchmark() throws InterruptedException {
+        Vertx vertx = Vertx.vertx();
+        try {
+            PRNG prng = new PRNG(vertx);
+            EntropyPool pool = new EntropyPool();
+            for (String threadsRaw : THREADS.split(",")) {
+                int threads = Integer.parseInt(threadsRaw.trim());
+                // warm up both, then measure
+                tokensPerSecond(threads, prng::nextBytes);
+                tokensPerSecond(threads, pool::nextBytes);
+                double shared = tokensPerSecond(threads, prng::nextBytes);
+                double pooled = tokensPerSecond(threads, pool::nextBytes);
+                Assert.assertTrue(pooled > 0);
+                System.out.printf("%d threads, %d-byte tokens: PRNG %,.0f/s, pool %,.0f/s (%d CPUs)%n",
+                        threads, TOKEN_BYTES, shared, pooled, Runtime.getRuntime().availableProcessors());
+            }
+        } finally {
+            vertx.close();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package events.equaliser.java.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLRowStream;
+import io.vertx.ext.sql.TransactionIsolation;
+import io.vertx.ext.sql.UpdateResult;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestFanout {
+
+    /**
+     * A connection that only knows whether it has been closed; the queries under test never touch it.
+     */
+    private static class StubConnection implements SQLConnection {
+
+        private boolean closed;
+
+        @Override
+        public void close(Handler<AsyncResult<Void>> handler) {
+            closed = true;
+            handler.handle(Future.succeededFuture());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public SQLConnection setAutoCommit(boolean autoCommit, Handler<AsyncResult<Void>> resultHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection execute(String sql, Handler<AsyncResult<Void>> resultHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection query(String sql, Handler<AsyncResult<ResultSet>> resultHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection queryStream(String sql, Handler<AsyncResult<SQLRowStream>> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection queryWithParams(String sql, JsonArray params,
+                                             Handler<AsyncResult<ResultSet>> resultHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection queryStreamWithParams(String sql, JsonArray params,
+                                                   Handler<AsyncResult<SQLRowStream>> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection update(String sql, Handler<AsyncResult<UpdateResult>> resultHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection updateWithParams(String sql, JsonArray params,
+                                              Handler<AsyncResult<UpdateResult>> resultHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection call(String sql, Handler<AsyncResult<ResultSet>> resultHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection callWithParams(String sql, JsonArray params, JsonArray outputs,
+                                            Handler<AsyncResult<ResultSet>> resultHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection commit(Handler<AsyncResult<Void>> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection rollback(Handler<AsyncResult<Void>> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection setQueryTimeout(int timeoutInSeconds) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection batch(List<String> sqlStatements, Handler<AsyncResult<List<Integer>>> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection batchWithParams(String sqlStatement, List<JsonArray> args,
+                                             Handler<AsyncResult<List<Integer>>> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection batchCallableWithParams(String sqlStatement, List<JsonArray> inArgs,
+                                                     List<JsonArray> outArgs,
+                                                     Handler<AsyncResult<List<Integer>>> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection setTransactionIsolation(TransactionIsolation isolation,
+                                                     Handler<AsyncResult<Void>> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SQLConnection getTransactionIsolation(Handler<AsyncResult<TransactionIsolation>> handler) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A query that waits to be completed by the test.
+     */
+    private static class PendingQuery implements Fanout.Query<String> {
+
+        private SQLConnection connection;
+        private Handler<AsyncResult<String>> handler;
+
+        @Override
+        public void run(SQLConnection connection, Handler<AsyncResult<String>> handler) {
+            this.connection = connection;
+            this.handler = handler;
+        }
+
+        private boolean isRunning() {
+            return handler != null;
+        }
+
+        private void succeed() {
+            handler.handle(Future.succeededFuture("done"));
+        }
+
+        private void fail() {
+            handler.handle(Future.failedFuture("failed"));
+        }
+    }
+
+    private final StubConnection stub = new StubConnection();
+    private final List<StubConnection> pooled = new ArrayList<>();
+    private final List<Handler<AsyncResult<SQLConnection>>> poolWaiters = new ArrayList<>();
+    private final List<AsyncResult<Void>> results = new ArrayList<>();
+
+    private DeadlineConnection connection;
+
+    @Before
+    public void setUp() {
+        Fanout.configure(new JsonObject());
+        connection = new DeadlineConnection(stub, Deadline.after(System.nanoTime(), 60_000), poolWaiters::add);
+    }
+
+    private void grantForks() {
+        for (Handler<AsyncResult<SQLConnection>> waiter : poolWaiters) {
+            StubConnection forked = new StubConnection();
+            pooled.add(forked);
+            waiter.handle(Future.succeededFuture(forked));
+        }
+        poolWaiters.clear();
+    }
+
+    private void refuseForks() {
+        for (Handler<AsyncResult<SQLConnection>> waiter : poolWaiters) {
+            waiter.handle(Future.failedFuture("Pool exhausted"));
+        }
+        poolWaiters.clear();
+    }
+
+    private static PendingQuery[] queries(int count) {
+        PendingQuery[] queries = new PendingQuery[count];
+        for (int i = 0; i < count; i++) {
+            queries[i] = new PendingQuery();
+        }
+        return queries;
+    }
+
+    private Fanout fanout(SQLConnection connection, PendingQuery... queries) {
+        Fanout fanout = new Fanout(connection);
+        for (PendingQuery query : queries) {
+            fanout.add(query);
+        }
+        return fanout;
+    }
+
+    @Test
+    public void testUnboundConnectionRunsQueriesInTurn() {
+        PendingQuery[] queries = queries(2);
+        fanout(stub, queries).run(results::add);
+        Assert.assertTrue(queries[0].isRunning());
+        Assert.assertFalse(queries[1].isRunning());
+        queries[0].succeed();
+        Assert.assertTrue(queries[1].isRunning());
+        Assert.assertTrue(results.isEmpty());
+        queries[1].succeed();
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.get(0).succeeded());
+        Assert.assertFalse(stub.closed);
+    }
+
+    @Test
+    public void testForksRunQueriesConcurrently() {
+        PendingQuery[] queries = queries(3);
+        fanout(connection, queries).run(results::add);
+        Assert.assertEquals(2, poolWaiters.size());
+        grantForks();
+        Assert.assertTrue(Arrays.stream(queries).allMatch(PendingQuery::isRunning));
+        Assert.assertEquals(3, Arrays.stream(queries).map(query -> query.connection).distinct().count());
+
+        Arrays.stream(queries).forEach(PendingQuery::succeed);
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.get(0).succeeded());
+        Assert.assertTrue(pooled.stream().allMatch(forked -> forked.closed));
+        Assert.assertFalse(stub.closed);
+    }
+
+    @Test
+    public void testFailureSkipsQueriesNotStarted() {
+        PendingQuery[] queries = queries(3);
+        fanout(stub, queries).run(results::add);
+        queries[0].fail();
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.get(0).failed());
+        Assert.assertEquals("failed", results.get(0).cause().getMessage());
+        Assert.assertFalse(queries[1].isRunning());
+        Assert.assertFalse(queries[2].isRunning());
+    }
+
+    @Test
+    public void testFailureWaitsForQueriesAlreadyRunning() {
+        PendingQuery[] queries = queries(4);
+        Fanout.configure(new JsonObject().put("maxConnections", 1));
+        fanout(connection, queries).run(results::add);
+        grantForks();
+        Assert.assertTrue(queries[0].isRunning());
+        Assert.assertTrue(queries[1].isRunning());
+
+        queries[1].fail();
+        // the other running query must finish before the request's connection is free again
+        Assert.assertTrue(results.isEmpty());
+        Assert.assertFalse(queries[2].isRunning());
+        queries[0].succeed();
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.get(0).failed());
+        Assert.assertFalse(queries[2].isRunning());
+        Assert.assertFalse(queries[3].isRunning());
+        Assert.assertTrue(pooled.get(0).closed);
+    }
+
+    @Test
+    public void testRefusedForkFallsBackToRequestConnection() {
+        PendingQuery[] queries = queries(3);
+        fanout(connection, queries).run(results::add);
+        refuseForks();
+        for (PendingQuery query : queries) {
+            Assert.assertTrue(query.isRunning());
+            Assert.assertSame(connection, query.connection);
+            query.succeed();
+        }
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.get(0).succeeded());
+    }
+
+    @Test
+    public void testForkArrivingAfterQueriesFinishIsClosed() {
+        PendingQuery[] queries = queries(2);
+        fanout(connection, queries).run(results::add);
+        Assert.assertEquals(1, poolWaiters.size());
+        queries[0].succeed();
+        queries[1].succeed();
+        Assert.assertEquals(1, results.size());
+        Assert.assertSame(connection, queries[1].connection);
+
+        grantForks();
+        Assert.assertEquals(1, pooled.size());
+        Assert.assertTrue(pooled.get(0).closed);
+    }
+
+    @Test
+    public void testForkArrivingAfterFailureIsClosed() {
+        PendingQuery[] queries = queries(3);
+        fanout(connection, queries).run(results::add);
+        queries[0].fail();
+        Assert.assertEquals(1, results.size());
+
+        grantForks();
+        Assert.assertEquals(2, pooled.size());
+        Assert.assertTrue(pooled.stream().allMatch(forked -> forked.closed));
+        Assert.assertFalse(queries[1].isRunning());
+        Assert.assertFalse(queries[2].isRunning());
+    }
+
+    @Test
+    public void testNoQueries() {
+        new Fanout(connection).run(results::add);
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.get(0).succeeded());
+        Assert.assertTrue(poolWaiters.isEmpty());
+    }
+}
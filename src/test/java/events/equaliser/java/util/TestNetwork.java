@@ -0,0 +1,54 @@
+package events.equaliser.java.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestNetwork {
+
+    private static final String PROXY = "10.0.0.1";
+    private static final String CLIENT = "203.0.113.7";
+
+    @Test
+    public void testSingleProxy() {
+        Assert.assertEquals(CLIENT, Network.clientAddress(Collections.singletonList(CLIENT), PROXY, 1));
+    }
+
+    @Test
+    public void testClientSuppliedEntriesIgnored() {
+        Assert.assertEquals(CLIENT,
+                Network.clientAddress(Collections.singletonList("192.0.2.1, " + CLIENT), PROXY, 1));
+    }
+
+    @Test
+    public void testSeveralProxies() {
+        Assert.assertEquals(CLIENT,
+                Network.clientAddress(Collections.singletonList("192.0.2.1, " + CLIENT + ", 10.0.0.2"), PROXY, 2));
+    }
+
+    @Test
+    public void testRepeatedHeaders() {
+        Assert.assertEquals(CLIENT,
+                Network.clientAddress(Arrays.asList("192.0.2.1", CLIENT + ",10.0.0.2"), PROXY, 2));
+    }
+
+    @Test
+    public void testIpv6() {
+        Assert.assertEquals("2001:db8::1",
+                Network.clientAddress(Collections.singletonList("2001:db8::1"), PROXY, 1));
+    }
+
+    @Test
+    public void testMissingHeaderFallsBackToRemote() {
+        Assert.assertEquals(PROXY, Network.clientAddress(Collections.emptyList(), PROXY, 1));
+        Assert.assertEquals(PROXY, Network.clientAddress(Collections.singletonList(CLIENT), PROXY, 2));
+    }
+
+    @Test
+    public void testNonAddressFallsBackToRemote() {
+        Assert.assertEquals(PROXY, Network.clientAddress(Collections.singletonList("unknown"), PROXY, 1));
+        Assert.assertEquals(PROXY, Network.clientAddress(Collections.singletonList("example.com"), PROXY, 1));
+    }
+}